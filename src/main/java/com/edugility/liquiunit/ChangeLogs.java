@@ -0,0 +1,401 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.Reader;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.edugility.liquibase.URLResourceAccessor;
+
+import liquibase.Liquibase;
+
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+
+import liquibase.database.Database;
+
+import liquibase.exception.LiquibaseException;
+import liquibase.exception.UnknownChangelogFormatException;
+
+import liquibase.logging.LogFactory;
+
+import liquibase.parser.ChangeLogParserFactory;
+
+import liquibase.precondition.core.PreconditionContainer;
+
+import liquibase.resource.ClassLoaderResourceAccessor;
+import liquibase.resource.CompositeResourceAccessor;
+import liquibase.resource.FileSystemResourceAccessor;
+import liquibase.resource.ResourceAccessor;
+
+/**
+ * Parses the several changelogs that a {@link LiquiunitRule} applies
+ * into one {@link DatabaseChangeLog}, so that a {@link LiquiunitRule}
+ * and a {@link FileLockingH2Archive} describing the database it
+ * builds read the same changesets.
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see LiquiunitRule#createLiquibase(Database)
+ */
+final class ChangeLogs {
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ChangeLogs}.
+   */
+  private ChangeLogs() {
+    super();
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns a new {@link ResourceAccessor} that reads changelogs from
+   * URLs, from the {@linkplain Thread#getContextClassLoader() context
+   * <code>ClassLoader</code>} and from the directory named by the
+   * {@code user.dir} system property, in that order.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new, non-{@code null} {@link ResourceAccessor}
+   *
+   * @see LiquiunitRule#LiquiunitRule(javax.sql.DataSource, String[])
+   */
+  static final ResourceAccessor newResourceAccessor() {
+    final ResourceAccessor classLoaderAccessor = new ClassLoaderResourceAccessor(Thread.currentThread().getContextClassLoader());
+    final ResourceAccessor urlAccessor = new URLResourceAccessor(classLoaderAccessor);
+    final ResourceAccessor fileAccessor = new FileSystemResourceAccessor(System.getProperty("user.dir"));
+    return new CompositeResourceAccessor(urlAccessor, classLoaderAccessor, fileAccessor);
+  }
+
+  /**
+   * Parses the changelogs named by the supplied resource names and
+   * returns a single {@link DatabaseChangeLog} containing their
+   * changesets in order.
+   *
+   * <p>The first changelog is parsed as a standalone {@link
+   * Liquibase} changelog would be; the others are then {@linkplain
+   * DatabaseChangeLog#include(String, boolean, ResourceAccessor)
+   * included} into it one after another, sharing one set of {@link
+   * ChangeLogParameters}.  When there is more than one changelog and
+   * no changelog after the second contains a <code>${</code> property
+   * reference&mdash;so that none can depend on a property defined by
+   * an earlier one&mdash;all of them are instead parsed concurrently,
+   * each with its own {@link ChangeLogParameters}, and then merged in
+   * declaration order, which yields the same changesets in the same
+   * order.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param database the {@link Database} to parse for; may be {@code
+   * null}
+   *
+   * @param names the names of existing changelog resources; must not
+   * be {@code null} or empty
+   *
+   * @param resourceAccessor the {@link ResourceAccessor} to read
+   * changelogs with; may be {@code null}
+   *
+   * @param classLoader the {@link ClassLoader} with which to look for
+   * property references in the changelogs; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link DatabaseChangeLog}
+   *
+   * @exception LiquibaseException if a changelog could not be parsed
+   */
+  static final DatabaseChangeLog parse(final Database database, final List<String> names, final ResourceAccessor resourceAccessor, final ClassLoader classLoader) throws LiquibaseException {
+    assert names != null;
+    assert classLoader != null;
+    assert !names.isEmpty();
+    final int size = names.size();
+    boolean concurrent = size > 1;
+    if (concurrent) {
+      try {
+        concurrent = !referencesProperties(names.subList(Math.min(2, size), size), classLoader);
+      } catch (final IOException oops) {
+        throw new LiquibaseException(oops);
+      }
+    }
+    final AugmentableDatabaseChangeLog returnValue;
+    if (!concurrent) {
+      returnValue = createAugmentableDatabaseChangeLog(database, names.get(0), resourceAccessor);
+      returnValue.setChangeLogParameters(new ChangeLogParameters(database));
+      for (final String name : names.subList(1, size)) {
+        returnValue.include(name, resourceAccessor);
+      }
+    } else {
+      final ExecutorService executorService = Executors.newFixedThreadPool(Math.min(size, Runtime.getRuntime().availableProcessors()));
+      try {
+        final Future<AugmentableDatabaseChangeLog> first = executorService.submit(new Callable<AugmentableDatabaseChangeLog>() {
+            @Override
+            public final AugmentableDatabaseChangeLog call() throws LiquibaseException {
+              return createAugmentableDatabaseChangeLog(database, names.get(0), resourceAccessor);
+            }
+          });
+        final List<Future<DatabaseChangeLog>> others = new ArrayList<Future<DatabaseChangeLog>>(size - 1);
+        for (final String name : names.subList(1, size)) {
+          others.add(executorService.submit(new Callable<DatabaseChangeLog>() {
+              @Override
+              public final DatabaseChangeLog call() throws LiquibaseException {
+                try {
+                  return ChangeLogParserFactory.getInstance().getParser(name, resourceAccessor).parse(name, new ChangeLogParameters(database), resourceAccessor);
+                } catch (final UnknownChangelogFormatException oops) {
+                  LogFactory.getInstance().getLog("liquiunit").warning("included file " + name + " is not a recognized file type");
+                  return null;
+                }
+              }
+            }));
+        }
+        returnValue = get(first);
+        returnValue.setChangeLogParameters(new ChangeLogParameters(database));
+        for (final Future<DatabaseChangeLog> other : others) {
+          returnValue.merge(get(other));
+        }
+      } finally {
+        executorService.shutdownNow();
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Creates an {@link AugmentableDatabaseChangeLog} that can
+   * {@linkplain AugmentableDatabaseChangeLog#include(String,
+   * ResourceAccessor)} include other changelogs.
+   *
+   * <p>This method is a hack that exists only because the {@link
+   * DatabaseChangeLog#include(String, boolean, ResourceAccessor}
+   * method is not {@code public}.</p>
+   *
+   * @param database the {@link Database} to use; may be {@code null}
+   *
+   * @param changeLogResourceName the name of the changelog to parse;
+   * may be {@code null}
+   *
+   * @param resourceAccessor the {@link ResourceAccessor} to read
+   * changelogs with; may be {@code null}
+   *
+   * @return a new, non-{@code null} {@link
+   * AugmentableDatabaseChangeLog}
+   *
+   * @exception LiquibaseException if an error occurs
+   *
+   * @see DatabaseChangeLog
+   *
+   * @see DatabaseChangeLog#include(String, boolean, ResourceAccessor)
+   */
+  private static final AugmentableDatabaseChangeLog createAugmentableDatabaseChangeLog(final Database database, final String changeLogResourceName, final ResourceAccessor resourceAccessor) throws LiquibaseException {
+    final Liquibase throwaway = new Liquibase(changeLogResourceName, resourceAccessor, database);
+    final AugmentableDatabaseChangeLog returnValue = new AugmentableDatabaseChangeLog();
+    copyState(throwaway.getDatabaseChangeLog(), returnValue);
+    return returnValue;
+  }
+
+  /**
+   * Returns {@code true} if any of the named classpath resources
+   * contains a <code>${</code> changelog property reference.
+   *
+   * @param names the resource names; must not be {@code null}
+   *
+   * @param classLoader the {@link ClassLoader} to load the resources
+   * with; must not be {@code null}
+   *
+   * @return {@code true} if any of the resources refers to a property
+   *
+   * @exception IOException if a resource could not be read
+   */
+  private static final boolean referencesProperties(final Collection<? extends String> names, final ClassLoader classLoader) throws IOException {
+    assert names != null;
+    assert classLoader != null;
+    final ResourceIndex index = ResourceIndex.getInstance(classLoader);
+    for (final String name : names) {
+      final InputStream stream = index.openStream(name);
+      if (stream != null) {
+        final Reader reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+        try {
+          int previous = -1;
+          int c;
+          while ((c = reader.read()) >= 0) {
+            if (previous == '$' && c == '{') {
+              return true;
+            }
+            previous = c;
+          }
+        } finally {
+          reader.close();
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the result of the supplied {@link Future}, unwrapping any
+   * {@link ExecutionException}.
+   *
+   * @param <T> the type of the result
+   *
+   * @param future the {@link Future}; must not be {@code null}
+   *
+   * @return the result, which may be {@code null}
+   *
+   * @exception LiquibaseException if the computation failed with a
+   * {@link LiquibaseException} or was interrupted
+   */
+  private static final <T> T get(final Future<T> future) throws LiquibaseException {
+    assert future != null;
+    try {
+      return future.get();
+    } catch (final InterruptedException oops) {
+      Thread.currentThread().interrupt();
+      throw new LiquibaseException(oops);
+    } catch (final ExecutionException oops) {
+      final Throwable cause = oops.getCause();
+      if (cause instanceof LiquibaseException) {
+        throw (LiquibaseException)cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      } else if (cause instanceof Error) {
+        throw (Error)cause;
+      }
+      throw new LiquibaseException(cause);
+    }
+  }
+
+  /**
+   * A hackish method that would not be needed except that by default
+   * the {@link DatabaseChangeLog#include(String, boolean,
+   * ResourceAccessor)} method is not {@code public}.
+   *
+   * <p>This method copies the state from the {@code oldLog} parameter
+   * into the {@code newLog} parameter.</p>
+   *
+   * <p>The properties that are copied are those that are present in
+   * version 3.3.0 of the {@link DatabaseChangeLog} class.  Updates to
+   * <a href="http://www.liquibase.org/">Liquibase</a> may alter the
+   * state that needs to be copied; in such a case this method will
+   * need to be changed.</p>
+   *
+   * @param oldLog the {@link DatabaseChangeLog} from which state
+   * should be copied; may be {@code null} in which case no action
+   * will be taken
+   *
+   * @param newLog the {@link DatabaseChangeLog} to which state should
+   * be copied; may be {@code null} in which case no action will be
+   * taken
+   *
+   * @see <a
+   * href="https://liquibase.jira.com/browse/CORE-2125"><code>CORE-2125</code></a>
+   */
+  private static final void copyState(final DatabaseChangeLog oldLog, final DatabaseChangeLog newLog) {
+    if (oldLog != null && newLog != null) {
+      newLog.setChangeLogParameters(oldLog.getChangeLogParameters());
+      newLog.setIgnoreClasspathPrefix(oldLog.ignoreClasspathPrefix());
+      newLog.setLogicalFilePath(oldLog.getLogicalFilePath());
+      newLog.setObjectQuotingStrategy(oldLog.getObjectQuotingStrategy());
+      newLog.setPhysicalFilePath(oldLog.getPhysicalFilePath());
+      newLog.setPreconditions(oldLog.getPreconditions());
+      newLog.setRuntimeEnvironment(oldLog.getRuntimeEnvironment());
+      final Collection<ChangeSet> changeSets = oldLog.getChangeSets();
+      assert changeSets != null;
+      for (final ChangeSet changeSet : changeSets) {
+        newLog.addChangeSet(changeSet);
+      }
+    }
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  private static final class AugmentableDatabaseChangeLog extends DatabaseChangeLog {
+
+    private AugmentableDatabaseChangeLog() {
+      super();
+    }
+
+    public final boolean include(final String filename, final ResourceAccessor resourceAccessor) throws LiquibaseException {
+      return this.include(filename, false, resourceAccessor);
+    }
+
+    /**
+     * Adds the preconditions and changesets of the supplied,
+     * separately parsed {@link DatabaseChangeLog} to this one, exactly
+     * as {@link DatabaseChangeLog#include(String, boolean,
+     * ResourceAccessor)} does once it has parsed a changelog.
+     *
+     * @param changeLog the {@link DatabaseChangeLog} to merge; may be
+     * {@code null} in which case no action is taken
+     */
+    final void merge(final DatabaseChangeLog changeLog) {
+      if (changeLog != null) {
+        final PreconditionContainer preconditions = changeLog.getPreconditions();
+        if (preconditions != null) {
+          if (this.getPreconditions() == null) {
+            this.setPreconditions(new PreconditionContainer());
+          }
+          this.getPreconditions().addNestedPrecondition(preconditions);
+        }
+        for (final ChangeSet changeSet : changeLog.getChangeSets()) {
+          this.addChangeSet(changeSet);
+        }
+      }
+    }
+    
+  }
+
+}
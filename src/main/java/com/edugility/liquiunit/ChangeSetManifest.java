@@ -0,0 +1,261 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+import liquibase.changelog.ChangeSet;
+
+import liquibase.configuration.GlobalConfiguration;
+import liquibase.configuration.LiquibaseConfiguration;
+
+/**
+ * Describes which changesets a database or a snapshot of one
+ * contains, as a {@link List} of entries each identifying one
+ * changeset by its changelog path, id, author and checksum.
+ *
+ * <p>A snapshot whose manifest is a {@linkplain #prefixLength(List,
+ * List) prefix} of the current changelog's manifest can be brought up
+ * to date by applying only the changesets that follow it.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see FileLockingH2Archive
+ */
+final class ChangeSetManifest {
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ChangeSetManifest}.
+   */
+  private ChangeSetManifest() {
+    super();
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns the manifest entry identifying a changeset.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param filePath the changelog path of the changeset; may be
+   * {@code null}
+   *
+   * @param id the id of the changeset; may be {@code null}
+   *
+   * @param author the author of the changeset; may be {@code null}
+   *
+   * @param checkSum the checksum of the changeset; may be {@code null}
+   *
+   * @return a non-{@code null} manifest entry
+   */
+  static final String entry(final String filePath, final String id, final String author, final Object checkSum) {
+    return filePath + "::" + id + "::" + author + "::" + checkSum;
+  }
+
+  /**
+   * Returns the manifest of the supplied {@link ChangeSet}s, in order.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param changeSets the {@link ChangeSet}s; may be {@code null}
+   *
+   * @return a non-{@code null} {@link List} of manifest entries
+   */
+  static final List<String> of(final Collection<? extends ChangeSet> changeSets) {
+    final List<String> returnValue = new ArrayList<String>();
+    if (changeSets != null) {
+      for (final ChangeSet changeSet : changeSets) {
+        if (changeSet != null) {
+          returnValue.add(entry(changeSet.getFilePath(), changeSet.getId(), changeSet.getAuthor(), changeSet.generateCheckSum()));
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the manifest of the changesets recorded in the changelog
+   * history table of the database reachable via the supplied {@link
+   * Connection}, in the order they were executed, or {@code null} if
+   * there is no such table.
+   *
+   * @param c the {@link Connection}; must not be {@code null}
+   *
+   * @return a {@link List} of manifest entries, or {@code null}
+   *
+   * @exception SQLException if a database error occurs
+   */
+  static final List<String> read(final Connection c) throws SQLException {
+    assert c != null;
+    if (!LiquiunitRule.hasDatabaseChangeLogTable(c)) {
+      return null;
+    }
+    final List<String> returnValue = new ArrayList<String>();
+    final Statement s = c.createStatement();
+    try {
+      final ResultSet rs = s.executeQuery("SELECT FILENAME, ID, AUTHOR, MD5SUM FROM " + LiquibaseConfiguration.getInstance().getConfiguration(GlobalConfiguration.class).getDatabaseChangeLogTableName() + " ORDER BY ORDEREXECUTED");
+      try {
+        while (rs.next()) {
+          returnValue.add(entry(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4)));
+        }
+      } finally {
+        rs.close();
+      }
+    } finally {
+      s.close();
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the number of leading entries of the {@code current}
+   * manifest that the supplied {@code snapshot} manifest contains, if
+   * it contains exactly those entries and no others, or {@code -1}
+   * otherwise.
+   *
+   * <p>The order of the entries within the snapshot's manifest is
+   * disregarded, since changesets {@linkplain
+   * LiquiunitRule#setParallelism(int) applied concurrently} may be
+   * recorded in a different order from the changelog's.</p>
+   *
+   * @param snapshot the manifest of a snapshot; may be {@code null}
+   * in which case {@code -1} will be returned
+   *
+   * @param current the manifest of the current changelog; may be
+   * {@code null} in which case {@code -1} will be returned
+   *
+   * @return the length of the prefix of {@code current} matched by
+   * {@code snapshot}, or {@code -1}
+   */
+  static final int prefixLength(final List<String> snapshot, final List<String> current) {
+    if (snapshot == null || current == null || snapshot.size() > current.size()) {
+      return -1;
+    }
+    final int size = snapshot.size();
+    return new HashSet<String>(snapshot).equals(new HashSet<String>(current.subList(0, size))) ? size : -1;
+  }
+
+  /**
+   * Reads a manifest previously {@linkplain #store(List, File)
+   * stored} in the supplied {@link File}.
+   *
+   * @param file the {@link File}; must not be {@code null}
+   *
+   * @return a {@link List} of manifest entries, or {@code null} if the
+   * {@link File} does not exist
+   *
+   * @exception IOException if an input/output error occurs
+   */
+  static final List<String> load(final File file) throws IOException {
+    assert file != null;
+    if (!file.isFile()) {
+      return null;
+    }
+    final List<String> returnValue = new ArrayList<String>();
+    final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (!line.isEmpty()) {
+          returnValue.add(line);
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return returnValue;
+  }
+
+  /**
+   * Stores the supplied manifest in the supplied {@link File}, one
+   * entry per line.
+   *
+   * <p>The manifest is written under a temporary name and then
+   * renamed, so a stored manifest is always complete.</p>
+   *
+   * @param manifest the manifest; must not be {@code null}
+   *
+   * @param file the {@link File}; must not be {@code null}
+   *
+   * @return {@code true} if the manifest was stored
+   *
+   * @exception IOException if an input/output error occurs
+   */
+  static final boolean store(final List<String> manifest, final File file) throws IOException {
+    assert manifest != null;
+    assert file != null;
+    final File temporaryFile = new File(file.getParentFile(), file.getName() + ".tmp-" + System.nanoTime());
+    final Writer writer = new OutputStreamWriter(new FileOutputStream(temporaryFile), "UTF-8");
+    try {
+      for (final String entry : manifest) {
+        writer.write(entry);
+        writer.write('\n');
+      }
+    } finally {
+      writer.close();
+    }
+    file.delete();
+    if (temporaryFile.renameTo(file)) {
+      return true;
+    }
+    temporaryFile.delete();
+    return false;
+  }
+
+}
@@ -0,0 +1,722 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import liquibase.change.Change;
+
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+
+import liquibase.changelog.visitor.ChangeExecListener;
+
+import liquibase.database.Database;
+
+import liquibase.exception.PreconditionErrorException;
+import liquibase.exception.PreconditionFailedException;
+
+import liquibase.logging.LogFactory;
+
+import liquibase.precondition.core.PreconditionContainer;
+
+/**
+ * A {@link ChangeExecListener} that times each changeset it is told
+ * about, and accumulates those timings, together with the time spent
+ * {@linkplain #parsed(String, long) parsing changelogs}, for the life
+ * of the JVM so that they can be {@linkplain #write(File) written}
+ * to a report.
+ *
+ * <p>Timing is off unless the {@code liquiunit.timingReport} system
+ * property names a file.  If it does, the report is written to that
+ * file when the JVM shuts down.  The report is a comma-separated
+ * values file with a header line and one line per changelog parse or
+ * changeset, most expensive first.  Its columns are:</p>
+ *
+ * <ol>
+ *
+ * <li>{@code kind}: {@code changelog} or {@code changeset}</li>
+ *
+ * <li>{@code name}: the changelog resource names, or the changeset's
+ * <code><i>filePath</i>::<i>id</i>::<i>author</i></code></li>
+ *
+ * <li>{@code runs}: how many times the changelogs were parsed or the
+ * changeset was run</li>
+ *
+ * <li>{@code failures}: how many of those runs failed</li>
+ *
+ * <li>{@code parseMillis}: the time spent parsing</li>
+ *
+ * <li>{@code preconditionMillis}: the time from the start of a
+ * changeset to the start of its first change, which is dominated by
+ * checking its preconditions; a changeset none of whose changes ran
+ * spends all of its time here</li>
+ *
+ * <li>{@code executeMillis}: the time spent executing a changeset's
+ * changes</li>
+ *
+ * <li>{@code totalMillis}: the sum of the time spent parsing and the
+ * time from the start of a changeset to its end</li>
+ *
+ * <li>{@code statements}: the number of SQL statements executed while
+ * a changeset ran</li>
+ *
+ * </ol>
+ *
+ * <p>All times are summed over all runs.  Changesets that were never
+ * run because their effects were {@linkplain SqlRecorder replayed} or
+ * restored from an archive do not appear.  When changesets {@linkplain
+ * LiquiunitRule#getParallelism() run concurrently}, the statement
+ * count of each includes the statements of whichever changesets ran
+ * alongside it.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see LiquiunitRule#before()
+ */
+final class ChangeSetTimings implements ChangeExecListener {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The name of the system property naming the report file.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  static final String REPORT_PROPERTY = "liquiunit.timingReport";
+
+  /**
+   * The accumulated {@link Timing}s, indexed by their kinds and
+   * names.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final Map<String, Timing> timings = new HashMap<String, Timing>();
+
+  /**
+   * Whether the shutdown hook that writes the report has been
+   * installed.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final AtomicBoolean hookInstalled = new AtomicBoolean();
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link SqlRecorder} that counts the statements executed
+   * during a run.
+   *
+   * <p>This field may be {@code null}, in which case no statements
+   * are counted.</p>
+   */
+  private final SqlRecorder counter;
+
+  /**
+   * The {@link Run}s of the changesets currently running.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Map<ChangeSet, Run> runs;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ChangeSetTimings}.
+   *
+   * @param counter the {@link SqlRecorder} whose {@linkplain
+   * SqlRecorder#getStatementCount() statement count} is consulted;
+   * may be {@code null}
+   */
+  ChangeSetTimings(final SqlRecorder counter) {
+    super();
+    this.counter = counter;
+    this.runs = Collections.synchronizedMap(new IdentityHashMap<ChangeSet, Run>());
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Notes the start of the supplied {@link ChangeSet}.
+   *
+   * @param changeSet the {@link ChangeSet} about to run; must not be
+   * {@code null}
+   *
+   * @param changeLog the {@link DatabaseChangeLog} to which it
+   * belongs; ignored
+   *
+   * @param database the {@link Database}; ignored
+   *
+   * @param runStatus the {@link ChangeSet.RunStatus}; ignored
+   */
+  @Override
+  public final void willRun(final ChangeSet changeSet, final DatabaseChangeLog changeLog, final Database database, final ChangeSet.RunStatus runStatus) {
+    if (changeSet != null) {
+      this.runs.put(changeSet, new Run(System.nanoTime(), this.getStatementCount()));
+    }
+  }
+
+  /**
+   * Records the timing of the supplied {@link ChangeSet}, which
+   * finished.
+   *
+   * @param changeSet the {@link ChangeSet} that ran; must not be
+   * {@code null}
+   *
+   * @param changeLog the {@link DatabaseChangeLog} to which it
+   * belongs; ignored
+   *
+   * @param database the {@link Database}; ignored
+   *
+   * @param execType the {@link ChangeSet.ExecType}; ignored
+   */
+  @Override
+  public final void ran(final ChangeSet changeSet, final DatabaseChangeLog changeLog, final Database database, final ChangeSet.ExecType execType) {
+    this.finish(changeSet, false);
+  }
+
+  /**
+   * Does nothing, since changesets are not timed as they are rolled
+   * back.
+   *
+   * @param changeSet the {@link ChangeSet}; ignored
+   *
+   * @param changeLog the {@link DatabaseChangeLog}; ignored
+   *
+   * @param database the {@link Database}; ignored
+   */
+  @Override
+  public final void rolledBack(final ChangeSet changeSet, final DatabaseChangeLog changeLog, final Database database) {
+
+  }
+
+  /**
+   * Does nothing, since a failed precondition ends its changeset,
+   * which is timed as a whole.
+   *
+   * @param error the {@link PreconditionFailedException}; ignored
+   *
+   * @param onFail the {@link PreconditionContainer.FailOption};
+   * ignored
+   */
+  @Override
+  public final void preconditionFailed(final PreconditionFailedException error, final PreconditionContainer.FailOption onFail) {
+
+  }
+
+  /**
+   * Does nothing, since an erroneous precondition ends its changeset,
+   * which is timed as a whole.
+   *
+   * @param error the {@link PreconditionErrorException}; ignored
+   *
+   * @param onError the {@link PreconditionContainer.ErrorOption};
+   * ignored
+   */
+  @Override
+  public final void preconditionErrored(final PreconditionErrorException error, final PreconditionContainer.ErrorOption onError) {
+
+  }
+
+  /**
+   * Notes the start of the supplied {@link Change}.
+   *
+   * @param change the {@link Change} about to run; ignored
+   *
+   * @param changeSet the {@link ChangeSet} to which it belongs; must
+   * not be {@code null}
+   *
+   * @param changeLog the {@link DatabaseChangeLog}; ignored
+   *
+   * @param database the {@link Database}; ignored
+   */
+  @Override
+  public final void willRun(final Change change, final ChangeSet changeSet, final DatabaseChangeLog changeLog, final Database database) {
+    final Run run = changeSet == null ? null : this.runs.get(changeSet);
+    if (run != null) {
+      run.changeStarted(System.nanoTime());
+    }
+  }
+
+  /**
+   * Notes the end of the supplied {@link Change}.
+   *
+   * @param change the {@link Change} that ran; ignored
+   *
+   * @param changeSet the {@link ChangeSet} to which it belongs; must
+   * not be {@code null}
+   *
+   * @param changeLog the {@link DatabaseChangeLog}; ignored
+   *
+   * @param database the {@link Database}; ignored
+   */
+  @Override
+  public final void ran(final Change change, final ChangeSet changeSet, final DatabaseChangeLog changeLog, final Database database) {
+    final Run run = changeSet == null ? null : this.runs.get(changeSet);
+    if (run != null) {
+      run.changeEnded(System.nanoTime());
+    }
+  }
+
+  /**
+   * Records the timing of the supplied {@link ChangeSet}, which
+   * failed.
+   *
+   * @param changeSet the {@link ChangeSet} that failed; must not be
+   * {@code null}
+   *
+   * @param changeLog the {@link DatabaseChangeLog}; ignored
+   *
+   * @param database the {@link Database}; ignored
+   *
+   * @param exception the failure; ignored
+   */
+  @Override
+  public final void runFailed(final ChangeSet changeSet, final DatabaseChangeLog changeLog, final Database database, final Exception exception) {
+    this.finish(changeSet, true);
+  }
+
+  /**
+   * Adds the {@link Run} of the supplied {@link ChangeSet}, which
+   * just ended, to the accumulated {@link Timing}s.
+   *
+   * @param changeSet the {@link ChangeSet}; may be {@code null}
+   *
+   * @param failed whether the {@link ChangeSet} failed
+   */
+  private final void finish(final ChangeSet changeSet, final boolean failed) {
+    final Run run = changeSet == null ? null : this.runs.remove(changeSet);
+    if (run != null) {
+      final long end = System.nanoTime();
+      final long total = end - run.start;
+      final long precondition = (run.firstChange < 0L ? end : run.firstChange) - run.start;
+      final long statements = this.getStatementCount() - run.statements;
+      final Timing timing = timing("changeset", changeSet.toString(false));
+      synchronized (timing) {
+        timing.runs++;
+        if (failed) {
+          timing.failures++;
+        }
+        timing.preconditionNanos += precondition;
+        timing.executeNanos += run.executeNanos;
+        timing.totalNanos += total;
+        timing.statements += statements;
+      }
+    }
+  }
+
+  /**
+   * Returns the number of statements the {@linkplain #counter
+   * counter} has counted, or {@code 0} if there is no counter.
+   *
+   * @return the number of statements executed so far
+   */
+  private final long getStatementCount() {
+    return this.counter == null ? 0L : this.counter.getStatementCount();
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns the file named by the {@code liquiunit.timingReport}
+   * system property, or {@code null} if timing is off.
+   *
+   * @return the report file, or {@code null}
+   */
+  static final File getReportFile() {
+    final String name = System.getProperty(REPORT_PROPERTY, "").trim();
+    return name.isEmpty() ? null : new File(name);
+  }
+
+  /**
+   * Returns {@code true} if the {@code liquiunit.timingReport} system
+   * property names a file.
+   *
+   * @return {@code true} if timing is on
+   */
+  static final boolean isEnabled() {
+    return getReportFile() != null;
+  }
+
+  /**
+   * Records that the changelogs with the supplied name took the
+   * supplied number of nanoseconds to parse.
+   *
+   * @param changeLogs the changelog resource names; must not be
+   * {@code null}
+   *
+   * @param nanos the time taken, in nanoseconds
+   */
+  static final void parsed(final String changeLogs, final long nanos) {
+    assert changeLogs != null;
+    final Timing timing = timing("changelog", changeLogs);
+    synchronized (timing) {
+      timing.runs++;
+      timing.parseNanos += nanos;
+    }
+  }
+
+  /**
+   * Returns the {@link Timing} with the supplied kind and name,
+   * creating it if necessary and {@linkplain #installHook()
+   * arranging} for the report to be written.
+   *
+   * @param kind the kind; must not be {@code null}
+   *
+   * @param name the name; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link Timing}
+   */
+  private static final Timing timing(final String kind, final String name) {
+    assert kind != null;
+    assert name != null;
+    installHook();
+    final String key = kind + " " + name;
+    synchronized (timings) {
+      Timing timing = timings.get(key);
+      if (timing == null) {
+        timing = new Timing(kind, name);
+        timings.put(key, timing);
+      }
+      return timing;
+    }
+  }
+
+  /**
+   * Installs, once, a shutdown hook that {@linkplain #write(File)
+   * writes} the report to the {@linkplain #getReportFile() report
+   * file}.
+   */
+  private static final void installHook() {
+    if (hookInstalled.compareAndSet(false, true)) {
+      Runtime.getRuntime().addShutdownHook(new Thread("liquiunit-timing-report") {
+          @Override
+          public final void run() {
+            final File file = getReportFile();
+            if (file != null) {
+              try {
+                write(file);
+              } catch (final IOException oops) {
+                LogFactory.getInstance().getLog("liquiunit").warning("Could not write the changeset timing report to " + file, oops);
+              }
+            }
+          }
+        });
+    }
+  }
+
+  /**
+   * Writes the report of all timings accumulated so far to the
+   * supplied {@link File}, replacing its contents.
+   *
+   * @param file the {@link File} to write; must not be {@code null}
+   *
+   * @exception IOException if the {@link File} could not be written
+   */
+  static final void write(final File file) throws IOException {
+    if (file == null) {
+      throw new IllegalArgumentException("file", new NullPointerException("file"));
+    }
+    final List<Timing> report;
+    synchronized (timings) {
+      report = new ArrayList<Timing>(timings.size());
+      for (final Timing timing : timings.values()) {
+        synchronized (timing) {
+          report.add(new Timing(timing));
+        }
+      }
+    }
+    Collections.sort(report, new Comparator<Timing>() {
+        @Override
+        public final int compare(final Timing a, final Timing b) {
+          final long costA = a.parseNanos + a.totalNanos;
+          final long costB = b.parseNanos + b.totalNanos;
+          if (costA != costB) {
+            return costA > costB ? -1 : 1;
+          }
+          return a.name.compareTo(b.name);
+        }
+      });
+    final File parent = file.getAbsoluteFile().getParentFile();
+    if (parent != null && !parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+      throw new IOException("Could not create " + parent);
+    }
+    final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      writer.write("kind,name,runs,failures,parseMillis,preconditionMillis,executeMillis,totalMillis,statements\n");
+      for (final Timing timing : report) {
+        writer.write(timing.kind);
+        writer.write(",\"");
+        writer.write(timing.name.replace("\"", "\"\""));
+        writer.write("\",");
+        writer.write(String.valueOf(timing.runs));
+        writer.write(',');
+        writer.write(String.valueOf(timing.failures));
+        writer.write(',');
+        writer.write(millis(timing.parseNanos));
+        writer.write(',');
+        writer.write(millis(timing.preconditionNanos));
+        writer.write(',');
+        writer.write(millis(timing.executeNanos));
+        writer.write(',');
+        writer.write(millis(timing.parseNanos + timing.totalNanos));
+        writer.write(',');
+        writer.write(String.valueOf(timing.statements));
+        writer.write('\n');
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Formats the supplied number of nanoseconds as milliseconds with
+   * three decimal places.
+   *
+   * @param nanos the number of nanoseconds
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  private static final String millis(final long nanos) {
+    return String.format(Locale.ROOT, "%.3f", Double.valueOf(nanos / 1000000.0));
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * The accumulated timing of a changelog parse or a changeset.
+   *
+   * <p>Instances of this class must be accessed while synchronized on
+   * them.</p>
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Timing {
+
+    /**
+     * The kind: {@code changelog} or {@code changeset}.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final String kind;
+
+    /**
+     * The name of the changelogs or changeset.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final String name;
+
+    /**
+     * The number of runs.
+     */
+    private long runs;
+
+    /**
+     * The number of runs that failed.
+     */
+    private long failures;
+
+    /**
+     * The time spent parsing, in nanoseconds.
+     */
+    private long parseNanos;
+
+    /**
+     * The time spent before the first change, in nanoseconds.
+     */
+    private long preconditionNanos;
+
+    /**
+     * The time spent executing changes, in nanoseconds.
+     */
+    private long executeNanos;
+
+    /**
+     * The time spent running, in nanoseconds.
+     */
+    private long totalNanos;
+
+    /**
+     * The number of statements executed.
+     */
+    private long statements;
+
+    /**
+     * Creates a new, empty {@link Timing}.
+     *
+     * @param kind the kind; must not be {@code null}
+     *
+     * @param name the name; must not be {@code null}
+     */
+    private Timing(final String kind, final String name) {
+      super();
+      assert kind != null;
+      assert name != null;
+      this.kind = kind;
+      this.name = name;
+    }
+
+    /**
+     * Creates a new {@link Timing} that copies the supplied one.
+     *
+     * @param other the {@link Timing} to copy; must not be {@code
+     * null}
+     */
+    private Timing(final Timing other) {
+      this(other.kind, other.name);
+      this.runs = other.runs;
+      this.failures = other.failures;
+      this.parseNanos = other.parseNanos;
+      this.preconditionNanos = other.preconditionNanos;
+      this.executeNanos = other.executeNanos;
+      this.totalNanos = other.totalNanos;
+      this.statements = other.statements;
+    }
+
+  }
+
+  /**
+   * The state of a single run of a changeset.
+   *
+   * <p>Instances of this class are confined to the thread running
+   * their changeset.</p>
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Run {
+
+    /**
+     * The {@linkplain System#nanoTime() time} at which the changeset
+     * started.
+     */
+    private final long start;
+
+    /**
+     * The statement count at the time the changeset started.
+     */
+    private final long statements;
+
+    /**
+     * The time at which the first change started, or {@code -1L} if
+     * no change has started.
+     */
+    private long firstChange;
+
+    /**
+     * The time at which the current change started.
+     */
+    private long changeStart;
+
+    /**
+     * The time spent executing changes so far, in nanoseconds.
+     */
+    private long executeNanos;
+
+    /**
+     * Creates a new {@link Run}.
+     *
+     * @param start the time at which the changeset started
+     *
+     * @param statements the statement count at that time
+     */
+    private Run(final long start, final long statements) {
+      super();
+      this.start = start;
+      this.statements = statements;
+      this.firstChange = -1L;
+    }
+
+    /**
+     * Notes that a change started at the supplied time.
+     *
+     * @param time the time
+     */
+    private final void changeStarted(final long time) {
+      if (this.firstChange < 0L) {
+        this.firstChange = time;
+      }
+      this.changeStart = time;
+    }
+
+    /**
+     * Notes that the current change ended at the supplied time.
+     *
+     * @param time the time
+     */
+    private final void changeEnded(final long time) {
+      this.executeNanos += time - this.changeStart;
+    }
+
+  }
+
+}
@@ -90,33 +90,14 @@ public class DataSourceDatabaseTesterRule extends ExternalResource {
   protected final DataSourceDatabaseTester tester;
 
   /**
-   * The {@link Description} describing the current JUnit test
-   * underway.
+   * The {@link Invocation}s describing the tests currently wrapped by
+   * this {@link DataSourceDatabaseTesterRule}.
    *
-   * <p>This field may be {@code null}.</p>
-   */
-  private Description description;
-
-  /**
-   * The {@link IDataSet} that may have previously been installed in
-   * the affiliated {@link #tester DataSourceDatabaseTester}.
+   * <p>This field is never {@code null}.</p>
    *
-   * <p>This field may be {@code null}.</p>
+   * @see #apply(Statement, Description)
    */
-  private IDataSet oldDataSet;
-
-  /**
-   * The {@link InputStream} used to {@linkplain #createDataSet(URL)
-   * logically open an <code>IDataSet</code>}, stored here as a {@link
-   * Closeable}.
-   *
-   * <p>This field may be {@code null}.</p>
-   *
-   * @see #createDataSet(URL)
-   *
-   * @see #closeDataSet()
-   */
-  private Closeable dataSetInputStream;
+  private final InvocationState<Invocation> invocations;
 
   
   /*
@@ -140,6 +121,7 @@ public class DataSourceDatabaseTesterRule extends ExternalResource {
   public DataSourceDatabaseTesterRule(final DataSource dataSource) {
     super();
     this.tester = new DataSourceDatabaseTester(dataSource);
+    this.invocations = new InvocationState<Invocation>();
   }
 
   /**
@@ -183,6 +165,7 @@ public class DataSourceDatabaseTesterRule extends ExternalResource {
   public DataSourceDatabaseTesterRule(final DataSource dataSource, final String schema) {
     super();
     this.tester = new DataSourceDatabaseTester(dataSource, schema);
+    this.invocations = new InvocationState<Invocation>();
   }
 
   /**
@@ -232,6 +215,7 @@ public class DataSourceDatabaseTesterRule extends ExternalResource {
       throw new IllegalArgumentException("tester", new NullPointerException("tester"));
     }
     this.tester = tester;
+    this.invocations = new InvocationState<Invocation>();
   }
 
 
@@ -273,38 +257,69 @@ public class DataSourceDatabaseTesterRule extends ExternalResource {
    * {@linkplain #getDataSet(Description) Finds an appropriate
    * <code>IDataSet</code>} for the {@linkplain #tester affiliated
    * <code>DataSourceDatabaseTester</code>} and {@linkplain
-   * AbstractDatabaseTester#setDataSet(IDataSet) installs it}
-   * immediately before invoking the {@link IDatabaseTester#onSetup()}
-   * method.
+   * AbstractDatabaseTester#setDataSet(IDataSet) installs it} for
+   * the duration of the {@link IDatabaseTester#onSetup()} method.
+   *
+   * <p>Because the {@linkplain #tester affiliated
+   * <code>DataSourceDatabaseTester</code>} is shared by all the tests
+   * this {@link DataSourceDatabaseTesterRule} wraps, the installation
+   * and setup are performed while holding its monitor, and the {@link
+   * IDataSet} that was installed beforehand is reinstated
+   * afterwards.  Tests running concurrently therefore serialize only
+   * for the duration of their dbUnit setup and teardown.</p>
    *
    * @exception Exception if an error occurs
    */
   @Override
   public void before() throws Exception {
     if (this.tester != null) {
-      final IDataSet oldDataSet = this.tester.getDataSet();
-      this.oldDataSet = oldDataSet;
-      if (oldDataSet == null) {
-        IDataSet newDataSet = this.getDataSet(this.description);
-        if (newDataSet == null) {
-          newDataSet = new DefaultDataSet();
+      final Invocation invocation = this.invocations.get();
+      synchronized (this.tester) {
+        final IDataSet oldDataSet = this.tester.getDataSet();
+        if (oldDataSet == null) {
+          IDataSet newDataSet = this.getDataSet(invocation == null ? null : invocation.description);
+          if (newDataSet == null) {
+            newDataSet = new DefaultDataSet();
+          }
+          if (invocation != null) {
+            invocation.dataSet = newDataSet;
+          }
+          this.tester.setDataSet(newDataSet);
+          try {
+            this.tester.onSetup();
+          } finally {
+            this.tester.setDataSet(oldDataSet);
+          }
+        } else {
+          this.tester.onSetup();
         }
-        this.tester.setDataSet(newDataSet);
       }
-      this.tester.onSetup();
     }
   }
 
   /**
-   * Invokes the {@link IDatabaseTester#onTearDown()} method.
+   * Invokes the {@link IDatabaseTester#onTearDown()} method with the
+   * {@link IDataSet} installed by the {@link #before()} method for
+   * the current test.
    *
    * @see IDatabaseTester#onTearDown()
    */
   @Override
   public void after() {
     if (this.tester != null) {
+      final Invocation invocation = this.invocations.get();
       try {
-        this.tester.onTearDown();
+        synchronized (this.tester) {
+          final IDataSet oldDataSet = this.tester.getDataSet();
+          if (invocation != null && invocation.dataSet != null) {
+            this.tester.setDataSet(invocation.dataSet);
+          }
+          try {
+            this.tester.onTearDown();
+          } finally {
+            this.tester.setDataSet(oldDataSet);
+          }
+        }
       } catch (final RuntimeException throwMe) {
         throw throwMe;
       } catch (final Exception everythingElse) {
@@ -316,20 +331,21 @@ public class DataSourceDatabaseTesterRule extends ExternalResource {
 
         }
       }
-      this.tester.setDataSet(this.oldDataSet);
     }
-    this.description = null; // XXX TODO INVESTIGATE: not sure this is proper
   }
 
   /**
    * Overrides the {@link ExternalResource#apply(Statement,
    * Description)} method to store the supplied {@link Description}
    * for usage by the {@link #before()} method internally and returns
-   * the superclass' return value.
+   * a {@link Statement} that wraps the superclass' return value.
    *
-   * <p>It must be assumed that this method may return {@code null}
-   * since the superclass documentation does not mention whether the
-   * return value must be non-{@code null}.</p>
+   * <p>The supplied {@link Description} and the {@link IDataSet}
+   * installed for it are confined to the test being wrapped, so a
+   * single {@link DataSourceDatabaseTesterRule} may wrap several
+   * tests that run concurrently.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
    *
    * @param base the {@link Statement} to decorate; the superclass
    * documentation does not define what behavior will occur if this
@@ -339,7 +355,7 @@ public class DataSourceDatabaseTesterRule extends ExternalResource {
    * underway; the superclass documentation does not define what
    * behavior will occur if this parameter is {@code null}
    *
-   * @return a {@link Statement}; possibly {@code null}
+   * @return a non-{@code null} {@link Statement}
    *
    * @see #before()
    *
@@ -347,8 +363,7 @@ public class DataSourceDatabaseTesterRule extends ExternalResource {
    */
   @Override
   public Statement apply(final Statement base, final Description description) {
-    this.description = description;
-    return super.apply(base, description);
+    return this.invocations.apply(super.apply(base, description), new Invocation(description));
   }
 
   /**
@@ -408,14 +423,6 @@ public class DataSourceDatabaseTesterRule extends ExternalResource {
     } else {
       final IDataSet old = this.tester.getDataSet();
       if (old == null && description != null) {
-        final String simpleClassName;
-        final Class<?> testClass = description.getTestClass();
-        if (testClass == null) {
-          simpleClassName = null;
-        } else {
-          simpleClassName = testClass.getSimpleName();
-        }
-        final String methodName = description.getMethodName();
         ClassLoader cl = Thread.currentThread().getContextClassLoader();
         if (cl == null) {
           cl = ClassLoader.getSystemClassLoader();
@@ -424,11 +431,8 @@ public class DataSourceDatabaseTesterRule extends ExternalResource {
           }
         }
         assert cl != null;
-        URL url = cl.getResource(String.format("datasets/%s/%s.xml", simpleClassName, methodName));
-        if (url == null) {
-          url = cl.getResource(String.format("datasets/%s.xml", simpleClassName));
-        }
-        returnValue = this.createDataSet(url);
+        final String name = getDataSetResourceName(description, cl);
+        returnValue = this.createDataSet(ResourceIndex.getInstance(cl).getResource(name));
       } else {
         returnValue = old;
       }
@@ -436,6 +440,56 @@ public class DataSourceDatabaseTesterRule extends ExternalResource {
     return returnValue;
   }
 
+  /**
+   * Returns the name of the {@linkplain
+   * ClassLoader#getResource(String) classpath resource} from which
+   * the {@link #getDataSet(Description)} method will create an {@link
+   * IDataSet} for the test described by the supplied {@link
+   * Description}, or {@code null} if there is no such resource.
+   *
+   * <p>The resource is sought following the conventions described in
+   * the documentation for the {@link #getDataSet(Description)}
+   * method.</p>
+   *
+   * @param description a {@link Description} describing a JUnit test
+   * or test class; may be {@code null} in which case {@code null}
+   * will be returned
+   *
+   * @param cl the {@link ClassLoader} to search; must not be {@code
+   * null}
+   *
+   * @return the name of an existing classpath resource, or {@code
+   * null}
+   *
+   * @see #getDataSet(Description)
+   */
+  static final String getDataSetResourceName(final Description description, final ClassLoader cl) {
+    assert cl != null;
+    if (description == null) {
+      return null;
+    }
+    final String simpleClassName;
+    final Class<?> testClass = description.getTestClass();
+    if (testClass == null) {
+      simpleClassName = null;
+    } else {
+      simpleClassName = testClass.getSimpleName();
+    }
+    final ResourceIndex index = ResourceIndex.getInstance(cl);
+    final String methodName = description.getMethodName();
+    if (methodName != null) {
+      final String name = String.format("datasets/%s/%s.xml", simpleClassName, methodName);
+      if (index.exists(name)) {
+        return name;
+      }
+    }
+    final String name = String.format("datasets/%s.xml", simpleClassName);
+    if (index.exists(name)) {
+      return name;
+    }
+    return null;
+  }
+
   /**
    * Creates a new {@link IDataSet} implementation suitable for the
    * supplied {@link URL} and returns it.
@@ -470,7 +524,10 @@ public class DataSourceDatabaseTesterRule extends ExternalResource {
       returnValue = null;
     } else {
       final InputStream stream = url.openStream();
-      this.dataSetInputStream = stream;
+      final Invocation invocation = this.invocations.get();
+      if (invocation != null) {
+        invocation.dataSetInputStream = stream;
+      }
       returnValue = new XmlDataSet(stream);
     }
     return returnValue;
@@ -478,16 +535,78 @@ public class DataSourceDatabaseTesterRule extends ExternalResource {
 
   /**
    * Notionally closes any resources held by the {@link IDataSet}
-   * created by the {@link #createDataSet(URL)} method.
+   * created by the {@link #createDataSet(URL)} method for the
+   * current test.
    *
    * @exception IOException if an error occurs during closing
    *
    * @see #createDataSet(URL)
    */
   protected void closeDataSet() throws IOException {
-    if (this.dataSetInputStream != null) {
-      this.dataSetInputStream.close();
+    final Invocation invocation = this.invocations.get();
+    if (invocation != null && invocation.dataSetInputStream != null) {
+      invocation.dataSetInputStream.close();
+      invocation.dataSetInputStream = null;
     }
   }
-  
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * The state a {@link DataSourceDatabaseTesterRule} keeps for each
+   * test it wraps.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   *
+   * @see DataSourceDatabaseTesterRule#apply(Statement, Description)
+   */
+  private static final class Invocation {
+
+    /**
+     * The {@link Description} describing the test.
+     *
+     * <p>This field may be {@code null}.</p>
+     */
+    private final Description description;
+
+    /**
+     * The {@link IDataSet} installed for the test by the {@link
+     * DataSourceDatabaseTesterRule#before()} method, if the affiliated
+     * {@link DataSourceDatabaseTester} did not already have one.
+     *
+     * <p>This field may be {@code null}.</p>
+     */
+    private volatile IDataSet dataSet;
+
+    /**
+     * The {@link InputStream} used to {@linkplain
+     * DataSourceDatabaseTesterRule#createDataSet(URL) logically open
+     * an <code>IDataSet</code>}, stored here as a {@link Closeable}.
+     *
+     * <p>This field may be {@code null}.</p>
+     *
+     * @see DataSourceDatabaseTesterRule#createDataSet(URL)
+     *
+     * @see DataSourceDatabaseTesterRule#closeDataSet()
+     */
+    private volatile Closeable dataSetInputStream;
+
+    /**
+     * Creates a new {@link Invocation}.
+     *
+     * @param description the {@link Description} describing the
+     * test; may be {@code null}
+     */
+    private Invocation(final Description description) {
+      super();
+      this.description = description;
+    }
+
+  }
+
 }
@@ -0,0 +1,176 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.junit.runner.Description;
+
+/**
+ * A special-purpose class that saves the state of a database once,
+ * so that later databases can be created from it, for use only in
+ * light integration-testing scenarios.
+ *
+ * <p>This class validates the {@link Connection}s it is given and
+ * serializes saving with a {@link ReadWriteLock}, so that the first
+ * {@linkplain #saveIfEmpty(Description, Connection) save} happens
+ * exactly once.  Subclasses supply only the engine-specific
+ * {@linkplain #save(Description, Connection) saving} themselves, and
+ * decide how the saved state is restored.  A {@link
+ * LoadableDatabaseArchive} restores it into an existing database; a
+ * {@link DerbyArchive} has it named when a database is created.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see LoadableDatabaseArchive
+ *
+ * @see DerbyArchive
+ */
+public abstract class DatabaseArchive {
+
+  /**
+   * A {@link ReadWriteLock} used to protect access to the data stored
+   * as an archive of a given database.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  protected final ReadWriteLock dataLock;
+
+  /**
+   * Creates a new {@link DatabaseArchive}.
+   */
+  protected DatabaseArchive() {
+    super();
+    this.dataLock = new ReentrantReadWriteLock();
+  }
+
+  /**
+   * Provided that no archive data currently exists, atomically saves
+   * the state of the database reachable via the supplied {@link
+   * Connection} by calling the {@link #save(Description, Connection)}
+   * method while holding the {@linkplain #dataLock write lock}.
+   *
+   * <p>If this method has been called before, then a subsequent
+   * invocation will not overwrite any existing data.</p>
+   *
+   * @param description the {@link Description} describing the current
+   * JUnit test underway; may be {@code null}
+   *
+   * @param c a {@link Connection} to the database; must not be {@code
+   * null}; must be {@linkplain Connection#isValid(int) valid}
+   *
+   * @return {@code true} if a save actually occurred; {@code false}
+   * if no action was taken
+   *
+   * @exception IllegalArgumentException if {@code c} is {@code null}
+   *
+   * @exception IllegalStateException if the supplied {@link
+   * Connection} is not {@linkplain Connection#isValid(int) valid}
+   *
+   * @exception SQLException if a database error occurs
+   */
+  public boolean saveIfEmpty(final Description description, final Connection c) throws SQLException {
+    validate(c);
+    boolean returnValue = false;
+    try {
+      this.dataLock.writeLock().lock();
+      if (this.isEmpty(description)) {
+        returnValue = this.save(description, c);
+      }
+    } finally {
+      this.dataLock.writeLock().unlock();
+    }
+    return returnValue;
+  }
+
+  /**
+   * Saves the state of the database reachable via the supplied {@link
+   * Connection}.
+   *
+   * <p>This method is called only by the {@link
+   * #saveIfEmpty(Description, Connection)} method, while it holds the
+   * {@linkplain #dataLock write lock} and only if this {@link
+   * DatabaseArchive} is {@linkplain #isEmpty(Description)
+   * empty}.</p>
+   *
+   * @param description the {@link Description} describing the current
+   * JUnit test underway; may be {@code null}
+   *
+   * @param c a valid {@link Connection} to the database; will not be
+   * {@code null}
+   *
+   * @return {@code true} if anything was saved
+   *
+   * @exception SQLException if a database error occurs
+   */
+  protected abstract boolean save(final Description description, final Connection c) throws SQLException;
+
+  /**
+   * Returns {@code true} if, for the supplied {@link Description},
+   * this {@link DatabaseArchive} is conceptually "empty"&mdash;devoid
+   * of {@linkplain #saveIfEmpty(Description, Connection) saved}
+   * archive data.
+   *
+   * @param description the {@link Description} describing the current
+   * JUnit test underway; may be {@code null}
+   *
+   * @return {@code true} if this {@link DatabaseArchive} is
+   * conceptually empty with regards to the supplied {@link
+   * Description}; {@code false} otherwise
+   */
+  public abstract boolean isEmpty(final Description description);
+
+  /**
+   * Ensures that the supplied {@link Connection} is non-{@code null}
+   * and {@linkplain Connection#isValid(int) valid}.
+   *
+   * @param c the {@link Connection} to validate; may be {@code null}
+   *
+   * @exception IllegalArgumentException if {@code c} is {@code null}
+   *
+   * @exception IllegalStateException if {@code c} is not {@linkplain
+   * Connection#isValid(int) valid}
+   *
+   * @exception SQLException if a database error occurs
+   */
+  static final void validate(final Connection c) throws SQLException {
+    if (c == null) {
+      throw new IllegalArgumentException("c", new NullPointerException("c"));
+    } else if (!c.isValid(0)) {
+      throw new IllegalStateException("c.isValid(0)");
+    }
+  }
+
+}
@@ -0,0 +1,423 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.io.PrintWriter;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import liquibase.logging.LogFactory;
+
+import org.junit.rules.ExternalResource;
+
+/**
+ * An {@link ExternalResource} that is also a {@link DataSource} for
+ * {@link Connection}s to an in-memory database private to the rule
+ * and the current test.
+ *
+ * <p>This class holds what every such rule has in common: the
+ * credentials used to connect, an identifier that distinguishes the
+ * rule's databases from those of other rules in the same JVM, the
+ * {@linkplain #getJPAProperties() JPA properties} that reach the
+ * database, and the {@link DataSource} plumbing that delegates to
+ * {@link DriverManager}.  Subclasses supply the {@linkplain
+ * #getConnectionURL() JDBC URL}, the {@linkplain #getDriver(String)
+ * driver}, and the lifecycle of the database itself.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see H2Rule
+ *
+ * @see EmbeddedDatabaseRule
+ */
+public abstract class DatabaseRule extends ExternalResource implements DataSource {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The source of the {@linkplain #getId() identifiers} of {@link
+   * DatabaseRule} instances.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final AtomicLong instanceCounter = new AtomicLong();
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link liquibase.logging.Logger} to use for debugging and
+   * tracing purposes.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  protected final liquibase.logging.Logger logger;
+
+  /**
+   * An identifier for this {@link DatabaseRule}, unique within the
+   * current JVM, that forms part of the names of the in-memory
+   * databases it fronts.
+   *
+   * @see #getId()
+   */
+  private final long id;
+
+  /**
+   * The username to use when {@linkplain #getConnection() acquiring}
+   * {@link Connection}s.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private final String username;
+
+  /**
+   * The password to use when {@linkplain #getConnection() acquiring}
+   * {@link Connection}s.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private final String password;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link DatabaseRule}.
+   *
+   * @param username the username to use when {@linkplain
+   * #getConnection() acquiring} {@link Connection}s; may be {@code
+   * null}
+   *
+   * @param password the password to use when {@linkplain
+   * #getConnection() acquiring} {@link Connection}s; may be {@code
+   * null}
+   */
+  protected DatabaseRule(final String username, final String password) {
+    super();
+    this.logger = LogFactory.getInstance().getLog("liquiunit");
+    assert this.logger != null;
+    this.id = instanceCounter.incrementAndGet();
+    this.username = username;
+    this.password = password;
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the identifier of this {@link DatabaseRule}, unique
+   * within the current JVM.
+   *
+   * @return the identifier of this {@link DatabaseRule}
+   */
+  protected final long getId() {
+    return this.id;
+  }
+
+  /**
+   * Returns the username supplied at construction time.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return the username, or {@code null}
+   */
+  protected final String getUsername() {
+    return this.username;
+  }
+
+  /**
+   * Returns the password supplied at construction time.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return the password, or {@code null}
+   */
+  protected final String getPassword() {
+    return this.password;
+  }
+
+  /**
+   * Returns the JDBC URL of the in-memory database belonging to this
+   * {@link DatabaseRule} and the current test.
+   *
+   * <p>Implementations must not return {@code null}.</p>
+   *
+   * <p>Since each test has a database of its own, there is no URL to
+   * return outside of a test, and implementations throw an {@link
+   * IllegalStateException} instead.  Code that needs the URL, such as
+   * code {@linkplain #getJPAProperties() building JPA properties},
+   * must therefore run while a test is underway: in a {@link
+   * org.junit.Before &#64;Before} method, in the test itself or in a
+   * rule nested inside this one, but not in a {@link
+   * org.junit.BeforeClass &#64;BeforeClass} method, a static
+   * initializer or a field initializer.</p>
+   *
+   * @return a non-{@code null} JDBC URL
+   *
+   * @exception IllegalStateException if no test is underway
+   */
+  public abstract String getConnectionURL();
+
+  /**
+   * Returns the {@link Driver} that accepts the supplied JDBC URL.
+   *
+   * <p>Implementations must not return {@code null}.</p>
+   *
+   * @param url a JDBC URL returned by the {@link #getConnectionURL()}
+   * method; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link Driver}
+   *
+   * @exception SQLException if no {@link Driver} accepts the URL
+   */
+  protected abstract Driver getDriver(final String url) throws SQLException;
+
+  /**
+   * Notes that the current test's database will not hold the schema
+   * that a full migration produces, so that it is not saved to any
+   * archive.
+   *
+   * @exception IllegalStateException if this method is called outside
+   * of a test
+   */
+  public abstract void excludeFromArchive();
+
+  /**
+   * Saves the current test's database to any archive now, rather than
+   * after the test, unless it has been {@linkplain
+   * #excludeFromArchive() excluded}.
+   *
+   * @return {@code true} if the database was saved
+   *
+   * @exception IllegalStateException if this method is called outside
+   * of a test
+   *
+   * @exception SQLException if a database error occurs
+   */
+  public abstract boolean saveToArchive() throws SQLException;
+
+  /**
+   * Returns a {@link Map} of properties that can be supplied to the
+   * {@link javax.persistence.Persistence#createEntityManagerFactory(String,
+   * Map)} method so that the resulting {@link
+   * javax.persistence.EntityManagerFactory} connects to the database
+   * fronted by this {@link DatabaseRule}.
+   *
+   * <p>The properties name the current test's database, so this
+   * method may be called only while a test is underway; called
+   * during class setup, as from a {@link org.junit.BeforeClass
+   * &#64;BeforeClass} method or a static initializer, it throws an
+   * {@link IllegalStateException}.  A {@link JPARule} nested inside
+   * this rule calls it at the right time.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link Map} of JPA properties
+   *
+   * @exception IllegalStateException if no test is underway or no
+   * JDBC driver accepts this rule's URL
+   */
+  public Map<?, ?> getJPAProperties() {
+    final String url = this.getConnectionURL();
+    final Map<String, String> properties = new HashMap<String, String>(7);
+    properties.put("javax.persistence.jdbc.user", this.username);
+    properties.put("javax.persistence.jdbc.password", this.password);
+    try {
+      properties.put("javax.persistence.jdbc.driver", this.getDriver(url).getClass().getName());
+    } catch (final SQLException noDriver) {
+      throw new IllegalStateException(noDriver);
+    }
+    properties.put("javax.persistence.jdbc.url", url);
+    return properties;
+  }
+
+  /**
+   * Returns a new, open {@link Connection} to the in-memory database
+   * belonging to this {@link DatabaseRule} and the current test,
+   * using the username and password supplied at construction time.
+   *
+   * @return a non-{@code null} {@link Connection}
+   *
+   * @exception SQLException if a {@link Connection} could not be
+   * created
+   *
+   * @see #getConnection(String, String)
+   */
+  @Override
+  public Connection getConnection() throws SQLException {
+    return this.getConnection(this.username, this.password);
+  }
+
+  /**
+   * Returns the return value of the {@link
+   * DriverManager#getLoginTimeout()} method.
+   *
+   * @return the return value of the {@link
+   * DriverManager#getLoginTimeout()} method
+   */
+  @Override
+  public final int getLoginTimeout() {
+    return DriverManager.getLoginTimeout();
+  }
+
+  /**
+   * Calls the {@link DriverManager#setLoginTimeout(int)} method
+   * supplying it with the value of the supplied {@code timeout}
+   * parameter.
+   *
+   * @param timeout the timeout value
+   */
+  @Override
+  public final void setLoginTimeout(final int timeout) {
+    DriverManager.setLoginTimeout(timeout);
+  }
+
+  /**
+   * Returns the return value of the {@link
+   * DriverManager#getLogWriter()} method.  This method may return
+   * {@code null}.
+   *
+   * @return the return value of the {@link
+   * DriverManager#getLogWriter()} method, or {@code null}
+   */
+  @Override
+  public final PrintWriter getLogWriter() {
+    return DriverManager.getLogWriter();
+  }
+
+  /**
+   * Calls the {@link DriverManager#setLogWriter(PrintWriter)}
+   * method, supplying it with the value of the supplied {@code
+   * writer} parameter.
+   *
+   * @param writer the {@link PrintWriter} to which the underlying
+   * {@link DriverManager} will log; may be {@code null}
+   */
+  @Override
+  public final void setLogWriter(final PrintWriter writer) {
+    DriverManager.setLogWriter(writer);
+  }
+
+  /**
+   * Returns the result of invoking the {@link
+   * Logger#getLogger(String)} method with an argument of "{@code
+   * com.edugility}".
+   *
+   * @return a {@link Logger}; never {@code null}
+   */
+  // @Override // when Java 7 is a minimal requirement
+  public Logger getParentLogger() {
+    return Logger.getLogger("com.edugility");
+  }
+
+  /**
+   * Returns {@code false} when invoked.
+   *
+   * @param cls a {@link Class} that is ignored
+   *
+   * @return {@code false} in all cases
+   */
+  @Override
+  public final boolean isWrapperFor(final Class<?> cls) {
+    return false;
+  }
+
+  /**
+   * Throws a {@link SQLException} when invoked.
+   *
+   * @param cls a {@link Class} that is ignored
+   *
+   * @return {@code null} in all cases
+   *
+   * @exception SQLException when invoked
+   */
+  @Override
+  public final <T> T unwrap(final Class<T> cls) throws SQLException {
+    throw new SQLException(new UnsupportedOperationException("unwrap"));
+  }
+
+  /**
+   * Returns the current process identifier as a {@link String}, for
+   * use in the names of the in-memory databases this {@link
+   * DatabaseRule} fronts.
+   *
+   * <p>This method may return {@code null} in exceptional
+   * circumstances.</p>
+   *
+   * <p>The default implementation returns a {@link String} resulting
+   * from the following invocation:</p>
+   *
+   * <blockquote><pre>java.lang.management.ManagementFactory.getRuntimeMXBean().getName().substring(0, name.indexOf('@'));</pre></blockquote>
+   *
+   * @return the current process identifier as a {@link String}, or
+   * {@code null}
+   *
+   * @see java.lang.management.ManagementFactory#getRuntimeMXBean()
+   *
+   * @see java.lang.management.RuntimeMXBean#getName()
+   */
+  public String pid() {
+    final String pid;
+    final String name = java.lang.management.ManagementFactory.getRuntimeMXBean().getName();
+    if (name == null) {
+      pid = null;
+    } else if (name.indexOf('@') < 0) {
+      pid = name;
+    } else {
+      pid = name.substring(0, name.indexOf('@'));
+    }
+    return pid;
+  }
+
+}
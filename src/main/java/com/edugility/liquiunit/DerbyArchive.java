@@ -0,0 +1,286 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.runner.Description;
+
+/**
+ * A special-purpose class that saves an in-memory <a
+ * href="http://db.apache.org/derby/">Derby</a> database as an <a
+ * href="http://db.apache.org/derby/docs/10.11/ref/rrefbackupdbproc.html">online
+ * backup</a> in a temporary directory, from which a new in-memory
+ * database can be {@linkplain #getBackupPath(Description) created}.
+ *
+ * <p>Unlike an {@link H2Archive}, a {@link DerbyArchive} is not a
+ * {@link LoadableDatabaseArchive} and cannot be replayed into an
+ * existing database: Derby restores a backup only while it creates a
+ * database, so a {@link DerbyRule} names the backup in the JDBC URL
+ * of the first {@link Connection} it opens for each test.</p>
+ *
+ * <p>The temporary directory is deleted when the JVM exits, by a
+ * single shutdown hook shared by every {@link DerbyArchive}.</p>
+ *
+ * <p>This class is designed for use only in light integration-testing
+ * scenarios.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see DerbyRule
+ *
+ * @see H2Archive
+ */
+public class DerbyArchive extends DatabaseArchive {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The temporary directories created by all {@link DerbyArchive}s,
+   * which are deleted when the JVM exits.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #createTemporaryDirectory()
+   */
+  private static final Set<File> temporaryDirectories = Collections.synchronizedSet(new LinkedHashSet<File>());
+
+  /**
+   * Whether the shutdown hook that deletes the {@linkplain
+   * #temporaryDirectories temporary directories} has been installed.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final AtomicBoolean hookInstalled = new AtomicBoolean();
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The directory containing the backup.
+   *
+   * <p>This field may be {@code null} at any point.</p>
+   *
+   * <p>Access to this field must be mediated by the {@link #dataLock}
+   * field.</p>
+   *
+   * @see #dataLock
+   */
+  private volatile File backup;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link DerbyArchive}.
+   */
+  public DerbyArchive() {
+    super();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Backs up the Derby database reachable via the supplied {@link
+   * Connection} into a new temporary directory.
+   *
+   * @param description the {@link Description} describing the current
+   * JUnit test underway; ignored by this implementation but may be
+   * useful for subclasses; may be {@code null}
+   *
+   * @param c a {@link Connection} to an in-memory Derby database;
+   * must not be {@code null}; must be {@linkplain
+   * Connection#isValid(int) valid}
+   *
+   * @return {@code true} in all cases
+   *
+   * @exception SQLException if a database error occurs, or if the
+   * temporary directory could not be created
+   *
+   * @see #saveIfEmpty(Description, Connection)
+   *
+   * @see #getBackupPath(Description)
+   */
+  @Override
+  protected boolean save(final Description description, final Connection c) throws SQLException {
+    final File directory = createTemporaryDirectory();
+    final CallableStatement statement = c.prepareCall("CALL SYSCS_UTIL.SYSCS_BACKUP_DATABASE(?)");
+    assert statement != null;
+    try {
+      statement.setString(1, directory.getAbsolutePath());
+      statement.execute();
+    } finally {
+      try {
+        statement.close();
+      } catch (final SQLException neverMind) {
+        // ignore
+      }
+    }
+    final File[] children = directory.listFiles();
+    if (children == null || children.length != 1) {
+      throw new SQLException("Unexpected backup layout in " + directory);
+    }
+    this.backup = children[0];
+    return true;
+  }
+
+  /**
+   * Returns the absolute path of the backup saved by the {@link
+   * #saveIfEmpty(Description, Connection)} method, suitable for use
+   * as the value of Derby's {@code createFrom} connection attribute,
+   * or {@code null} if this {@link DerbyArchive} is {@linkplain
+   * #isEmpty(Description) empty}.
+   *
+   * @param description the {@link Description} describing the current
+   * JUnit test underway; ignored by this implementation but may be
+   * useful for subclasses; may be {@code null}
+   *
+   * @return the path of the backup, or {@code null}
+   */
+  public String getBackupPath(final Description description) {
+    try {
+      this.dataLock.readLock().lock();
+      final File backup = this.backup;
+      return backup == null ? null : backup.getAbsolutePath();
+    } finally {
+      this.dataLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns {@code true} if, for the supplied {@link Description},
+   * this {@link DerbyArchive} is conceptually "empty"&mdash;devoid of
+   * a backup from which a database could be created.
+   *
+   * @param description the {@link Description} describing the current
+   * JUnit test underway; ignored by this implementation but may be
+   * useful for subclasses; may be {@code null}
+   *
+   * @return {@code true} if this {@link DerbyArchive} is
+   * conceptually empty with regards to the supplied {@link
+   * Description}; {@code false} otherwise
+   *
+   * @see #getBackupPath(Description)
+   */
+  @Override
+  public boolean isEmpty(final Description description) {
+    try {
+      this.dataLock.readLock().lock();
+      return this.backup == null;
+    } finally {
+      this.dataLock.readLock().unlock();
+    }
+  }
+
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Creates a new, empty temporary directory that will be deleted,
+   * along with its contents, when the JVM exits.
+   *
+   * @return a non-{@code null} {@link File} denoting the directory
+   *
+   * @exception SQLException if the directory could not be created
+   */
+  private static final File createTemporaryDirectory() throws SQLException {
+    final File directory;
+    try {
+      directory = File.createTempFile("liquiunit-derby-", "");
+    } catch (final IOException oops) {
+      throw new SQLException(oops);
+    }
+    if (!directory.delete() || !directory.mkdir()) {
+      throw new SQLException("Could not create " + directory);
+    }
+    temporaryDirectories.add(directory);
+    if (hookInstalled.compareAndSet(false, true)) {
+      Runtime.getRuntime().addShutdownHook(new Thread("liquiunit-derby-cleanup") {
+          @Override
+          public final void run() {
+            synchronized (temporaryDirectories) {
+              for (final File directory : temporaryDirectories) {
+                delete(directory);
+              }
+            }
+          }
+        });
+    }
+    return directory;
+  }
+
+  /**
+   * Deletes the supplied {@link File} and, if it is a directory,
+   * everything beneath it.
+   *
+   * @param file the {@link File} to delete; must not be {@code null}
+   */
+  private static final void delete(final File file) {
+    assert file != null;
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (final File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+}
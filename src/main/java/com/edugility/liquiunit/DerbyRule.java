@@ -0,0 +1,179 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.junit.runner.Description;
+
+/**
+ * An {@link EmbeddedDatabaseRule} that fronts a private, in-memory <a
+ * href="http://db.apache.org/derby/">Derby</a> database for each
+ * test.
+ *
+ * <p>A {@link DerbyRule} is a peer of an {@link H2Rule} and may be
+ * used anywhere one is, as the outermost rule of a {@link
+ * org.junit.rules.RuleChain}:</p>
+ *
+ * <blockquote><pre>private static final DerbyArchive archive = new DerbyArchive();
+ *
+ *private final DerbyRule derby = new DerbyRule(archive);
+ *
+ *{@code @Rule}
+ *public final TestRule rule = RuleChain.outerRule(derby)
+ *  .around(new LiquiunitRule(derby))
+ *  .around(new DataSourceDatabaseTesterRule(derby));</pre></blockquote>
+ *
+ * <p>When a {@link DerbyArchive} has been supplied and has saved a
+ * database, every later test's database is created directly from the
+ * backup using Derby's {@code createFrom} connection attribute.  Each
+ * database is dropped when its test completes.</p>
+ *
+ * <p>The Derby embedded JDBC driver must be on the classpath.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see DerbyArchive
+ *
+ * @see HsqldbRule
+ */
+public class DerbyRule extends EmbeddedDatabaseRule {
+
+  /**
+   * The {@link DerbyArchive} that saves the database after the first
+   * test and from which every later test's database is created.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private final DerbyArchive archive;
+
+  /**
+   * Creates a new {@link DerbyRule} that connects as {@code sa} with
+   * an empty password and does not archive its databases.
+   */
+  public DerbyRule() {
+    this("sa", "", null);
+  }
+
+  /**
+   * Creates a new {@link DerbyRule} that connects as {@code sa} with
+   * an empty password.
+   *
+   * @param archive the {@link DerbyArchive} that can save and restore
+   * the database; may be {@code null}
+   */
+  public DerbyRule(final DerbyArchive archive) {
+    this("sa", "", archive);
+  }
+
+  /**
+   * Creates a new {@link DerbyRule}.
+   *
+   * @param username the username to connect as; may be {@code null}
+   *
+   * @param password the password to connect with; may be {@code null}
+   *
+   * @param archive the {@link DerbyArchive} that can save and restore
+   * the database; may be {@code null}
+   */
+  public DerbyRule(final String username, final String password, final DerbyArchive archive) {
+    super(username, password);
+    this.archive = archive;
+  }
+
+  /**
+   * Returns a JDBC URL of the form {@code
+   * jdbc:derby:memory:}<em>{@code databaseName}</em>, to which, if
+   * {@code initial} is {@code true}, either a {@code createFrom}
+   * attribute naming the {@link DerbyArchive}'s backup or a {@code
+   * create=true} attribute is appended.
+   *
+   * @param databaseName the name of the database; must not be {@code
+   * null}
+   *
+   * @param initial whether the URL will be used to create the
+   * database
+   *
+   * @return a non-{@code null} JDBC URL
+   */
+  @Override
+  protected String getConnectionURL(final String databaseName, final boolean initial) {
+    final String url = "jdbc:derby:memory:" + databaseName;
+    if (!initial) {
+      return url;
+    }
+    final String backupPath = this.archive == null ? null : this.archive.getBackupPath(null);
+    if (backupPath == null) {
+      return url + ";create=true";
+    }
+    return url + ";createFrom=" + backupPath;
+  }
+
+  /**
+   * {@linkplain DerbyArchive#saveIfEmpty(Description, Connection)
+   * Saves} the database into the {@link DerbyArchive} supplied at
+   * construction time, if there is one.
+   *
+   * @param description the {@link Description} describing the current
+   * test; may be {@code null}
+   *
+   * @param c an open {@link Connection} to the database; must not be
+   * {@code null}
+   *
+   * @exception SQLException if a database error occurs
+   */
+  @Override
+  protected void save(final Description description, final Connection c) throws SQLException {
+    if (this.archive != null) {
+      this.archive.saveIfEmpty(description, c);
+    }
+  }
+
+  /**
+   * Drops the in-memory database by connecting to it with Derby's
+   * {@code drop=true} attribute.
+   *
+   * @param c an open {@link Connection} to the database; ignored
+   *
+   * @exception SQLException if a database error occurs
+   */
+  @Override
+  protected void shutdown(final Connection c) throws SQLException {
+    try {
+      this.connect(this.getConnectionURL() + ";drop=true").close();
+    } catch (final SQLException expected) {
+      // Derby reports a successful drop with SQLState 08006.
+      if (!"08006".equals(expected.getSQLState())) {
+        throw expected;
+      }
+    }
+  }
+
+}
@@ -30,9 +30,12 @@ package com.edugility.liquiunit;
 import java.io.PrintWriter;
 
 import java.sql.Connection;
+import java.sql.Driver;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 
+import java.util.Properties;
+
 import java.util.logging.Logger;
 
 import javax.sql.DataSource;
@@ -42,6 +45,18 @@ import javax.sql.DataSource;
  * javax.sql.DataSource} interface in terms of {@link DriverManager}
  * operations.
  *
+ * <p>The {@link Driver} for the URL is {@linkplain
+ * DriverManager#getDriver(String) looked up} once, the first time a
+ * {@link Connection} is requested, and is thereafter {@linkplain
+ * Driver#connect(String, Properties) invoked directly}.  This avoids
+ * the scan of every registered {@link Driver}, and the
+ * synchronization, that {@link DriverManager#getConnection(String,
+ * String, String)} performs on every call, which becomes a point of
+ * contention when many tests acquire {@link Connection}s in
+ * parallel.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
  * @author <a href="http://about.me/lairdnelson"
  * target="_parent">Laird Nelson</a>
  */
@@ -71,6 +86,14 @@ public final class DriverManagerDataSource implements DataSource {
    */
   private final String password;
 
+  /**
+   * The {@link Driver} that accepts the {@linkplain #url URL},
+   * resolved lazily by the {@link #getDriver()} method.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private volatile Driver driver;
+
 
   /*
    * Constructors.
@@ -207,34 +230,30 @@ public final class DriverManagerDataSource implements DataSource {
   }
 
   /**
-   * Returns a newly-allocated {@link Connection} by invoking either
-   * the {@link DriverManager#getConnection(String)} or the {@link
-   * #getConnection(String, String)} method, depending on whether a
-   * non-{@code null} {@code username} was supplied to this {@link
+   * Returns a newly-allocated {@link Connection} by invoking the
+   * {@link #getConnection(String, String)} method with the {@code
+   * username} and {@code password} supplied to this {@link
    * DriverManagerDataSource}'s {@link
    * #DriverManagerDataSource(String, String, String) constructor}.
    *
    * <p>This method never returns {@code null}.</p>
    *
-   * @return the return value of either the {@link
-   * DriverManager#getConnection(String)} method or the {@link
-   * #getConnection(String, String)} method; never {@code null}
+   * @return the return value of the {@link #getConnection(String,
+   * String)} method; never {@code null}
    *
    * @exception SQLException if a {@link Connection} could not be
    * allocated
    */
   @Override
   public final Connection getConnection() throws SQLException {
-    if (this.username != null) {
-      return this.getConnection(this.username, this.password);
-    } else {
-      return DriverManager.getConnection(url);
-    }
+    return this.getConnection(this.username, this.password);
   }
 
   /**
-   * Returns the return value of the {@link
-   * DriverManager#getConnection(String, String, String)} method.
+   * Returns a newly-allocated {@link Connection} obtained by
+   * {@linkplain Driver#connect(String, Properties) invoking} the
+   * {@link Driver} that {@linkplain #getDriver() accepts} this {@link
+   * DriverManagerDataSource}'s URL directly.
    *
    * <p>This method never returns {@code null}.</p>
    *
@@ -242,16 +261,42 @@ public final class DriverManagerDataSource implements DataSource {
    *
    * @param password the password; may be {@code null}
    *
-   * @return the return value of the {@link
-   * DriverManager#getConnection(String, String, String)} method;
-   * never {@code null}
+   * @return a non-{@code null} {@link Connection}
    *
    * @exception SQLException if a {@link Connection} could not be
    * allocated
+   *
+   * @see #connect(Driver, String, String, String)
    */
   @Override
   public final Connection getConnection(final String username, final String password) throws SQLException {
-    return DriverManager.getConnection(url, username, password);
+    return connect(this.getDriver(), this.url, username, password);
+  }
+
+  /**
+   * Returns the {@link Driver} that accepts this {@link
+   * DriverManagerDataSource}'s URL, {@linkplain
+   * DriverManager#getDriver(String) looking it up} the first time
+   * this method is called.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link Driver}
+   *
+   * @exception SQLException if no registered {@link Driver} accepts
+   * the URL
+   */
+  private final Driver getDriver() throws SQLException {
+    Driver driver = this.driver;
+    if (driver == null) {
+      // Racing threads will find the same Driver; no need to lock.
+      driver = DriverManager.getDriver(this.url);
+      if (driver == null) {
+        throw new SQLException("No suitable driver found for " + this.url, "08001");
+      }
+      this.driver = driver;
+    }
+    return driver;
   }
 
   /**
@@ -286,4 +331,43 @@ public final class DriverManagerDataSource implements DataSource {
     throw new SQLException(new UnsupportedOperationException("unwrap"));
   }
 
+  /**
+   * Returns a newly-allocated {@link Connection} obtained by
+   * {@linkplain Driver#connect(String, Properties) invoking} the
+   * supplied {@link Driver} directly, bypassing {@link
+   * DriverManager}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param driver the {@link Driver} to use; must not be {@code null}
+   *
+   * @param url the JDBC URL; must not be {@code null}
+   *
+   * @param username the user name; may be {@code null}
+   *
+   * @param password the password; may be {@code null}
+   *
+   * @return a non-{@code null} {@link Connection}
+   *
+   * @exception SQLException if a {@link Connection} could not be
+   * allocated, or if the supplied {@link Driver} does not accept the
+   * supplied URL
+   */
+  static final Connection connect(final Driver driver, final String url, final String username, final String password) throws SQLException {
+    assert driver != null;
+    assert url != null;
+    final Properties info = new Properties();
+    if (username != null) {
+      info.setProperty("user", username);
+    }
+    if (password != null) {
+      info.setProperty("password", password);
+    }
+    final Connection returnValue = driver.connect(url, info);
+    if (returnValue == null) {
+      throw new SQLException("No suitable driver found for " + url, "08001");
+    }
+    return returnValue;
+  }
+
 }
@@ -0,0 +1,493 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.junit.rules.ExternalResource;
+
+import org.junit.runner.Description;
+
+import org.junit.runners.model.Statement;
+
+/**
+ * An {@link ExternalResource} that is also a {@link DataSource} for
+ * {@link Connection}s to an in-memory database private to the rule
+ * and the current test, for engines other than H2.
+ *
+ * <p>Subclasses supply the {@linkplain #getConnectionURL(String,
+ * boolean) JDBC URL} for a given database name and, optionally, the
+ * means to {@linkplain #restore(Description, Connection) restore} a
+ * database from an archive before a test, {@linkplain
+ * #save(Description, Connection) save} it to one after the first
+ * test, and {@linkplain #shutdown(Connection) shut it down}.  Like an
+ * {@link H2Rule}, an {@link EmbeddedDatabaseRule} holds a {@link
+ * Connection} open for the duration of each test so that its
+ * in-memory database survives, and confines its per-test state to the
+ * test, so that one rule may wrap several tests running
+ * concurrently.</p>
+ *
+ * <p>The JDBC driver for the engine must be on the classpath.  It is
+ * {@linkplain DriverManager#getDriver(String) looked up} once and
+ * thereafter {@linkplain Driver#connect(String, java.util.Properties)
+ * invoked directly}.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see HsqldbRule
+ *
+ * @see DerbyRule
+ *
+ * @see H2Rule
+ */
+public abstract class EmbeddedDatabaseRule extends DatabaseRule {
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link Driver} that accepts this rule's JDBC URLs, resolved
+   * lazily by the {@link #getDriver(String)} method.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private volatile Driver driver;
+
+  /**
+   * The {@link Invocation}s describing the tests currently wrapped by
+   * this {@link EmbeddedDatabaseRule}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final InvocationState<Invocation> invocations;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link EmbeddedDatabaseRule}.
+   *
+   * @param username the username to use when {@linkplain
+   * #getConnection(String, String) acquiring} {@link Connection}s;
+   * may be {@code null}
+   *
+   * @param password the password to use when {@linkplain
+   * #getConnection(String, String) acquiring} {@link Connection}s;
+   * may be {@code null}
+   */
+  protected EmbeddedDatabaseRule(final String username, final String password) {
+    super(username, password);
+    this.invocations = new InvocationState<Invocation>();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns a JDBC URL for the in-memory database with the supplied
+   * name.
+   *
+   * <p>Implementations must not return {@code null}.</p>
+   *
+   * @param databaseName the name of the database; will not be {@code
+   * null} and will consist only of letters, digits, hyphens and
+   * underscores
+   *
+   * @param initial {@code true} if the URL will be used to open the
+   * first {@link Connection} to the database for the current test,
+   * which is the one that must create it
+   *
+   * @return a non-{@code null} JDBC URL
+   */
+  protected abstract String getConnectionURL(final String databaseName, final boolean initial);
+
+  /**
+   * Returns the JDBC URL used by the {@link #getConnection(String,
+   * String)} method.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} JDBC URL
+   *
+   * @exception IllegalStateException if no test is underway
+   */
+  @Override
+  public String getConnectionURL() {
+    return this.getConnectionURL(this.getDatabaseName(), false);
+  }
+
+  /**
+   * Restores the database reachable through the supplied {@link
+   * Connection} from an archive, if there is one.
+   *
+   * <p>This implementation does nothing.</p>
+   *
+   * @param description the {@link Description} describing the current
+   * test; may be {@code null}
+   *
+   * @param c an open {@link Connection} to the database; must not be
+   * {@code null}
+   *
+   * @exception SQLException if a database error occurs
+   */
+  protected void restore(final Description description, final Connection c) throws SQLException {
+
+  }
+
+  /**
+   * Saves the database reachable through the supplied {@link
+   * Connection} to an archive, if the archive is empty.
+   *
+   * <p>This implementation does nothing.</p>
+   *
+   * @param description the {@link Description} describing the current
+   * test; may be {@code null}
+   *
+   * @param c an open {@link Connection} to the database; must not be
+   * {@code null}
+   *
+   * @exception SQLException if a database error occurs
+   */
+  protected void save(final Description description, final Connection c) throws SQLException {
+
+  }
+
+  /**
+   * Shuts down and discards the in-memory database reachable through
+   * the supplied {@link Connection}.
+   *
+   * <p>This implementation does nothing.</p>
+   *
+   * @param c an open {@link Connection} to the database; must not be
+   * {@code null}
+   *
+   * @exception SQLException if a database error occurs
+   */
+  protected void shutdown(final Connection c) throws SQLException {
+
+  }
+
+  /**
+   * Overrides the {@link ExternalResource#apply(Statement,
+   * Description)} method to store the supplied {@link Description}
+   * for usage by the {@link #getConnection(String, String)} method
+   * internally and returns a {@link Statement} that wraps the
+   * superclass' return value.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param base the {@link Statement} to decorate; must not be {@code
+   * null}
+   *
+   * @param description the {@link Description} describing the test
+   * underway; may be {@code null}
+   *
+   * @return a non-{@code null} {@link Statement}
+   */
+  @Override
+  public Statement apply(final Statement base, final Description description) {
+    return this.invocations.apply(super.apply(base, description), new Invocation(description));
+  }
+
+  /**
+   * Opens the {@link Connection} that keeps the current test's
+   * in-memory database alive and {@linkplain #restore(Description,
+   * Connection) restores} it from any archive.
+   *
+   * @exception SQLException if a database error occurs
+   *
+   * @exception IllegalStateException if this method is called outside
+   * of a test
+   */
+  @Override
+  protected void before() throws SQLException {
+    final Invocation invocation = this.invocations.get();
+    if (invocation == null) {
+      throw new IllegalStateException("before() called outside of apply()");
+    }
+    final Connection c = this.connect(this.getConnectionURL(this.getDatabaseName(), true));
+    invocation.c = c;
+    this.restore(invocation.description, c);
+  }
+
+  /**
+   * {@linkplain #save(Description, Connection) Saves} the current
+   * test's database to any archive, unless it has been {@linkplain
+   * #excludeFromArchive() excluded} or {@linkplain #saveToArchive()
+   * already saved}, {@linkplain #shutdown(Connection)
+   * shuts it down} and closes the {@link Connection} opened by the
+   * {@link #before()} method.
+   */
+  @Override
+  protected void after() {
+    final Invocation invocation = this.invocations.get();
+    if (invocation == null || invocation.c == null) {
+      return;
+    }
+    final Connection c = invocation.c;
+    invocation.c = null;
+    try {
+      if (invocation.archivable && !invocation.archived) {
+        this.save(invocation.description, c);
+      }
+      this.shutdown(c);
+    } catch (final SQLException oops) {
+      throw new IllegalStateException(oops);
+    } finally {
+      try {
+        c.close();
+      } catch (final SQLException ignore) {
+
+      }
+    }
+  }
+
+  /**
+   * Notes that the current test's database will not hold the schema
+   * that a full migration produces, so that the {@link #after()}
+   * method does not {@linkplain #save(Description, Connection) save}
+   * it.
+   *
+   * @exception IllegalStateException if this method is called outside
+   * of a test
+   *
+   * @see H2Rule#excludeFromArchive()
+   */
+  @Override
+  public void excludeFromArchive() {
+    final Invocation invocation = this.invocations.get();
+    if (invocation == null) {
+      throw new IllegalStateException("excludeFromArchive() called outside of apply()");
+    }
+    invocation.archivable = false;
+  }
+
+  /**
+   * {@linkplain #save(Description, Connection) Saves} the current
+   * test's database to any archive now, rather than after the test,
+   * unless it has been {@linkplain #excludeFromArchive() excluded}.
+   *
+   * <p>Once this method has been called, the {@link #after()} method
+   * does not save the database again.</p>
+   *
+   * @return {@code true} if the database was saved by this
+   * invocation
+   *
+   * @exception IllegalStateException if this method is called outside
+   * of a test
+   *
+   * @exception SQLException if a database error occurs
+   *
+   * @see H2Rule#saveToArchive()
+   */
+  @Override
+  public boolean saveToArchive() throws SQLException {
+    final Invocation invocation = this.invocations.get();
+    if (invocation == null || invocation.c == null) {
+      throw new IllegalStateException("saveToArchive() called outside of a test");
+    }
+    if (!invocation.archived) {
+      invocation.archived = true;
+      if (invocation.archivable) {
+        this.save(invocation.description, invocation.c);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns a new, open {@link Connection} to the in-memory database
+   * belonging to this {@link EmbeddedDatabaseRule} and the current
+   * test.
+   *
+   * @param username the username to use; may be {@code null}
+   *
+   * @param password the password to use; may be {@code null}
+   *
+   * @return a non-{@code null} {@link Connection}
+   *
+   * @exception SQLException if a {@link Connection} could not be
+   * created
+   */
+  @Override
+  public Connection getConnection(final String username, final String password) throws SQLException {
+    final String url = this.getConnectionURL();
+    return DriverManagerDataSource.connect(this.getDriver(url), url, username, password);
+  }
+
+  /**
+   * Returns a new, open {@link Connection} to the supplied JDBC URL
+   * using the username and password supplied at construction time.
+   *
+   * @param url a JDBC URL for this rule's engine, possibly carrying
+   * engine-specific attributes; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link Connection}
+   *
+   * @exception SQLException if a {@link Connection} could not be
+   * created
+   */
+  protected final Connection connect(final String url) throws SQLException {
+    return DriverManagerDataSource.connect(this.getDriver(url), url, this.getUsername(), this.getPassword());
+  }
+
+  /**
+   * Returns the name of the in-memory database to which the {@link
+   * #getConnection(String, String)} method will connect.
+   *
+   * <p>The name is built from the display name of the current test,
+   * the {@linkplain #pid() process identifier} and an identifier
+   * for this {@link EmbeddedDatabaseRule}, with every character other
+   * than a letter, digit, hyphen or underscore replaced by an
+   * underscore.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} database name
+   *
+   * @exception IllegalStateException if no test is underway, since
+   * there is then no database to name
+   */
+  protected final String getDatabaseName() {
+    final Invocation invocation = this.invocations.get();
+    if (invocation == null) {
+      throw new IllegalStateException("No database outside of a test");
+    }
+    final StringBuilder sb = new StringBuilder();
+    if (invocation.description != null) {
+      final String displayName = invocation.description.getDisplayName();
+      if (displayName != null) {
+        sb.append(displayName);
+        sb.append("-");
+      }
+    }
+    sb.append("pid_");
+    sb.append(this.pid());
+    sb.append("-rule_");
+    sb.append(this.getId());
+    return sb.toString().replaceAll("[^A-Za-z0-9_-]", "_");
+  }
+
+  /**
+   * Returns the {@link Driver} that accepts the supplied URL,
+   * {@linkplain DriverManager#getDriver(String) looking it up} the
+   * first time this method is called.
+   *
+   * @param url a JDBC URL for this rule's engine; must not be {@code
+   * null}
+   *
+   * @return a non-{@code null} {@link Driver}
+   *
+   * @exception SQLException if no registered {@link Driver} accepts
+   * the URL
+   */
+  @Override
+  protected final Driver getDriver(final String url) throws SQLException {
+    Driver driver = this.driver;
+    if (driver == null) {
+      driver = DriverManager.getDriver(url);
+      this.driver = driver;
+    }
+    return driver;
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * The state an {@link EmbeddedDatabaseRule} keeps for each test it
+   * wraps.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Invocation {
+
+    /**
+     * The {@link Description} describing the test.
+     *
+     * <p>This field may be {@code null}.</p>
+     */
+    private final Description description;
+
+    /**
+     * The open {@link Connection} that keeps the test's database
+     * alive.
+     *
+     * <p>This field may be {@code null}.</p>
+     */
+    private volatile Connection c;
+
+    /**
+     * Whether the test's database may be {@linkplain
+     * EmbeddedDatabaseRule#save(Description, Connection) saved}.
+     *
+     * @see EmbeddedDatabaseRule#excludeFromArchive()
+     */
+    private volatile boolean archivable;
+
+    /**
+     * Whether the test's database has already been {@linkplain
+     * EmbeddedDatabaseRule#saveToArchive() saved}.
+     */
+    private volatile boolean archived;
+
+    /**
+     * Creates a new {@link Invocation}.
+     *
+     * @param description the {@link Description} describing the
+     * test; may be {@code null}
+     */
+    private Invocation(final Description description) {
+      super();
+      this.description = description;
+      this.archivable = true;
+    }
+
+  }
+
+}
@@ -0,0 +1,378 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import liquibase.logging.LogFactory;
+import liquibase.logging.Logger;
+
+import org.junit.rules.TestRule;
+
+import org.junit.runner.Description;
+
+import org.junit.runners.model.MultipleFailureException;
+import org.junit.runners.model.Statement;
+
+/**
+ * A {@link TestRule} that runs each test once against each of several
+ * database engines and records how long each engine took.
+ *
+ * <p>Each engine is registered under a name with the {@link
+ * DataSource} that reaches it and the {@link TestRule}&mdash;usually
+ * a {@link org.junit.rules.RuleChain} of an {@link H2Rule}, {@link
+ * HsqldbRule} or {@link DerbyRule}, a {@link LiquiunitRule} and a
+ * {@link DataSourceDatabaseTesterRule}&mdash;that prepares it:</p>
+ *
+ * <blockquote><pre>private static final H2Rule h2 = new H2Rule();
+ *
+ *private static final HsqldbRule hsqldb = new HsqldbRule();
+ *
+ *{@code @Rule}
+ *public final EngineComparisonRule engines = new EngineComparisonRule()
+ *  .engine("h2", h2, RuleChain.outerRule(h2).around(new LiquiunitRule(h2)))
+ *  .engine("hsqldb", hsqldb, RuleChain.outerRule(hsqldb).around(new LiquiunitRule(hsqldb)));
+ *
+ *{@code @Test}
+ *public void testSomething() throws SQLException {
+ *  final Connection c = this.engines.getDataSource().getConnection();
+ *  // ...
+ *}</pre></blockquote>
+ *
+ * <p>The test body is run once per engine, in registration order,
+ * with the {@link #getDataSource()} method returning the {@link
+ * DataSource} of the engine underway.  Failures on one engine do not
+ * prevent the test from running on the others; all of them are
+ * reported together.  The time taken by each engine, including its
+ * rules, is logged after each test and accumulated in {@link
+ * #getMicros()}.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see EmbeddedDatabaseRule
+ */
+public class EngineComparisonRule implements TestRule {
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link Logger} to use for debugging and tracing purposes.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Logger logger;
+
+  /**
+   * The registered {@link Engine}s, in registration order.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final List<Engine> engines;
+
+  /**
+   * The {@link Engine} underway in the current test.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final InvocationState<Engine> current;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link EngineComparisonRule} with no engines.
+   *
+   * @see #engine(String, DataSource, TestRule)
+   */
+  public EngineComparisonRule() {
+    super();
+    this.logger = LogFactory.getInstance().getLog("liquiunit");
+    assert this.logger != null;
+    this.engines = new ArrayList<Engine>();
+    this.current = new InvocationState<Engine>();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Registers an engine and returns this {@link
+   * EngineComparisonRule}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param name the name of the engine, used in reports; must not be
+   * {@code null}
+   *
+   * @param dataSource the {@link DataSource} that reaches the engine;
+   * must not be {@code null}
+   *
+   * @param rule the {@link TestRule} that prepares the engine for
+   * each test; must not be {@code null}
+   *
+   * @return this {@link EngineComparisonRule}
+   *
+   * @exception IllegalArgumentException if any parameter is {@code
+   * null}, or if an engine with the supplied {@code name} is already
+   * registered
+   */
+  public EngineComparisonRule engine(final String name, final DataSource dataSource, final TestRule rule) {
+    if (name == null) {
+      throw new IllegalArgumentException("name", new NullPointerException("name"));
+    } else if (dataSource == null) {
+      throw new IllegalArgumentException("dataSource", new NullPointerException("dataSource"));
+    } else if (rule == null) {
+      throw new IllegalArgumentException("rule", new NullPointerException("rule"));
+    }
+    synchronized (this.engines) {
+      for (final Engine engine : this.engines) {
+        if (engine.name.equals(name)) {
+          throw new IllegalArgumentException("Engine already registered: " + name);
+        }
+      }
+      this.engines.add(new Engine(name, dataSource, rule));
+    }
+    return this;
+  }
+
+  /**
+   * Returns the {@link DataSource} of the engine against which the
+   * current test is running.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link DataSource}
+   *
+   * @exception IllegalStateException if this method is called outside
+   * of a test
+   */
+  public DataSource getDataSource() {
+    return this.getCurrentEngine().dataSource;
+  }
+
+  /**
+   * Returns the name of the engine against which the current test is
+   * running.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} engine name
+   *
+   * @exception IllegalStateException if this method is called outside
+   * of a test
+   */
+  public String getEngineName() {
+    return this.getCurrentEngine().name;
+  }
+
+  /**
+   * Returns the {@link Engine} against which the current test is
+   * running.
+   *
+   * @return a non-{@code null} {@link Engine}
+   *
+   * @exception IllegalStateException if this method is called outside
+   * of a test
+   */
+  private final Engine getCurrentEngine() {
+    final Engine engine = this.current.get();
+    if (engine == null) {
+      throw new IllegalStateException("called outside of a test");
+    }
+    return engine;
+  }
+
+  /**
+   * Returns an unmodifiable {@link Map} of the total number of
+   * microseconds each engine has spent running tests, indexed by
+   * engine name in registration order.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, unmodifiable {@link Map}
+   */
+  public Map<String, Long> getMicros() {
+    final Map<String, Long> returnValue = new LinkedHashMap<String, Long>();
+    synchronized (this.engines) {
+      for (final Engine engine : this.engines) {
+        returnValue.put(engine.name, Long.valueOf(TimeUnit.NANOSECONDS.toMicros(engine.nanos.get())));
+      }
+    }
+    return Collections.unmodifiableMap(returnValue);
+  }
+
+  /**
+   * Returns a {@link Statement} that evaluates the supplied {@link
+   * Statement} once per registered engine, each time wrapped by that
+   * engine's {@link TestRule}, and then reports every failure.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param base the {@link Statement} to run; must not be {@code
+   * null}
+   *
+   * @param description the {@link Description} describing the test;
+   * may be {@code null}
+   *
+   * @return a non-{@code null} {@link Statement}
+   */
+  @Override
+  public Statement apply(final Statement base, final Description description) {
+    final List<Engine> engines;
+    synchronized (this.engines) {
+      engines = new ArrayList<Engine>(this.engines);
+    }
+    return new Statement() {
+      @Override
+      public final void evaluate() throws Throwable {
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        final StringBuilder timings = new StringBuilder();
+        for (final Engine engine : engines) {
+          final Statement statement = current.apply(engine.rule.apply(base, description), engine);
+          final long start = System.nanoTime();
+          try {
+            statement.evaluate();
+          } catch (final Throwable oops) {
+            errors.add(new AssertionError(engine.name + ": " + oops).initCause(oops));
+          } finally {
+            final long elapsed = System.nanoTime() - start;
+            engine.nanos.addAndGet(elapsed);
+            if (timings.length() > 0) {
+              timings.append(", ");
+            }
+            timings.append(engine.name).append("=").append(TimeUnit.NANOSECONDS.toMicros(elapsed)).append("us");
+          }
+        }
+        logger.info((description == null ? "" : description.getDisplayName() + ": ") + timings);
+        MultipleFailureException.assertEmpty(errors);
+      }
+    };
+  }
+
+  /**
+   * Returns a summary of the total time each engine has spent running
+   * tests.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  @Override
+  public String toString() {
+    return "EngineComparisonRule" + this.getMicros();
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A named database engine registered with an {@link
+   * EngineComparisonRule}.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Engine {
+
+    /**
+     * The name of the engine.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final String name;
+
+    /**
+     * The {@link DataSource} that reaches the engine.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final DataSource dataSource;
+
+    /**
+     * The {@link TestRule} that prepares the engine for each test.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final TestRule rule;
+
+    /**
+     * The total number of nanoseconds this engine has spent running
+     * tests.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final AtomicLong nanos;
+
+    /**
+     * Creates a new {@link Engine}.
+     *
+     * @param name the name of the engine; must not be {@code null}
+     *
+     * @param dataSource the {@link DataSource} that reaches the engine;
+     * must not be {@code null}
+     *
+     * @param rule the {@link TestRule} that prepares the engine; must
+     * not be {@code null}
+     */
+    private Engine(final String name, final DataSource dataSource, final TestRule rule) {
+      super();
+      this.name = name;
+      this.dataSource = dataSource;
+      this.rule = rule;
+      this.nanos = new AtomicLong();
+    }
+
+  }
+
+}
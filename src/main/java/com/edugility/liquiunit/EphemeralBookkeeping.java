@@ -0,0 +1,315 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import liquibase.changelog.ChangeLogHistoryService;
+import liquibase.changelog.ChangeLogHistoryServiceFactory;
+import liquibase.changelog.RanChangeSet;
+
+import liquibase.database.Database;
+
+import liquibase.exception.ServiceNotFoundException;
+
+import liquibase.lockservice.LockService;
+import liquibase.lockservice.LockServiceFactory;
+
+import liquibase.servicelocator.ServiceLocator;
+
+/**
+ * Keeps track of the {@link Database}s whose Liquibase bookkeeping is
+ * kept in memory by an {@link EphemeralChangeLogHistoryService} and
+ * an {@link EphemeralLockService}, and counts the database round
+ * trips those services saved.
+ *
+ * <p>Liquibase discards its {@link ChangeLogHistoryServiceFactory}
+ * and {@link LockServiceFactory} at the end of every update, and the
+ * factories it builds to replace them know only about the services
+ * its {@link ServiceLocator} finds.  So that an ephemeral migration
+ * keeps its services when a concurrent migration finishes, the first
+ * {@linkplain #register(Database) registration} installs a {@link
+ * ServiceLocator} that always finds the ephemeral services, and the
+ * history and lock state of each registered {@link Database} is kept
+ * here, in a {@link Ledger}, rather than in whichever service
+ * instance the current factory happens to hold.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see LiquiunitRule#setEphemeral(boolean)
+ */
+final class EphemeralBookkeeping {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The {@link Database}s currently registered, mapped to their
+   * {@link Ledger}s.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final Map<Database, Ledger> databases = new IdentityHashMap<Database, Ledger>();
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link EphemeralBookkeeping}.
+   */
+  private EphemeralBookkeeping() {
+    super();
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Arranges for the supplied {@link Database}'s Liquibase bookkeeping
+   * to be kept in memory until it is {@linkplain
+   * #unregister(Database) unregistered}.
+   *
+   * @param database the {@link Database}; must not be {@code null}
+   */
+  static final void register(final Database database) {
+    assert database != null;
+    synchronized (databases) {
+      final ServiceLocator serviceLocator = ServiceLocator.getInstance();
+      if (!(serviceLocator instanceof EphemeralServiceLocator)) {
+        ServiceLocator.setInstance(new EphemeralServiceLocator(serviceLocator));
+        // The current factories were built by the old locator, so
+        // replace them with ones that know about the ephemeral
+        // services.  Liquibase does the same at the end of every
+        // update.
+        ChangeLogHistoryServiceFactory.reset();
+        LockServiceFactory.reset();
+      }
+      databases.put(database, new Ledger());
+    }
+  }
+
+  /**
+   * Stops keeping the supplied {@link Database}'s Liquibase
+   * bookkeeping in memory and returns the number of round trips saved
+   * while it was registered.
+   *
+   * @param database the {@link Database}; must not be {@code null}
+   *
+   * @return the number of round trips saved
+   */
+  static final long unregister(final Database database) {
+    assert database != null;
+    final Ledger ledger;
+    synchronized (databases) {
+      ledger = databases.remove(database);
+    }
+    return ledger == null ? 0L : ledger.saved.get();
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Database} is
+   * registered.
+   *
+   * @param database the {@link Database}; may be {@code null}
+   *
+   * @return {@code true} if {@code database} is registered
+   */
+  static final boolean isEphemeral(final Database database) {
+    synchronized (databases) {
+      return database != null && databases.containsKey(database);
+    }
+  }
+
+  /**
+   * Returns the {@link Ledger} holding the bookkeeping of the supplied
+   * {@link Database}.
+   *
+   * <p>If {@code database} is not registered, a new {@link Ledger}
+   * that is not retained is returned.</p>
+   *
+   * @param database the {@link Database}; may be {@code null}
+   *
+   * @return a non-{@code null} {@link Ledger}
+   */
+  static final Ledger getLedger(final Database database) {
+    Ledger ledger;
+    synchronized (databases) {
+      ledger = database == null ? null : databases.get(database);
+    }
+    if (ledger == null) {
+      ledger = new Ledger();
+    }
+    return ledger;
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * The in-memory Liquibase bookkeeping of a single {@link Database}.
+   *
+   * <p>Instances of this class must be accessed while synchronized on
+   * them, except for the {@link #saved} field.</p>
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  static final class Ledger {
+
+    /**
+     * The changesets that have run, in order.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    final List<RanChangeSet> ranChangeSets;
+
+    /**
+     * The last sequence value handed out.
+     */
+    int sequenceValue;
+
+    /**
+     * When the lock was acquired, or {@code null} if it is not held.
+     *
+     * <p>This field may be {@code null}.</p>
+     */
+    Date lockGranted;
+
+    /**
+     * The number of round trips saved.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final AtomicLong saved;
+
+    /**
+     * Creates a new, empty {@link Ledger}.
+     */
+    private Ledger() {
+      super();
+      this.ranChangeSets = new ArrayList<RanChangeSet>();
+      this.saved = new AtomicLong();
+    }
+
+    /**
+     * Records that the supplied number of round trips were avoided.
+     *
+     * @param roundTrips the number of round trips avoided
+     */
+    final void saved(final long roundTrips) {
+      this.saved.addAndGet(roundTrips);
+    }
+
+  }
+
+  /**
+   * A {@link ServiceLocator} that always finds the {@link
+   * EphemeralChangeLogHistoryService} and {@link EphemeralLockService}
+   * classes, whether or not its package is scanned.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class EphemeralServiceLocator extends ServiceLocator {
+
+    /**
+     * Creates a new {@link EphemeralServiceLocator} that scans the
+     * same packages as the supplied {@link ServiceLocator}.
+     *
+     * @param other the {@link ServiceLocator} being replaced; may be
+     * {@code null}
+     */
+    private EphemeralServiceLocator(final ServiceLocator other) {
+      super();
+      if (other != null) {
+        final List<String> packages = this.getPackages();
+        for (final String packageName : other.getPackages()) {
+          if (!packages.contains(packageName)) {
+            this.addPackageToScan(packageName);
+          }
+        }
+      }
+    }
+
+    /**
+     * Returns the classes that implement the supplied interface,
+     * adding {@link EphemeralChangeLogHistoryService} or {@link
+     * EphemeralLockService} as appropriate.
+     *
+     * @param requiredInterface the interface; must not be {@code null}
+     *
+     * @return a non-{@code null} array of classes
+     *
+     * @exception ServiceNotFoundException if the classes could not be
+     * found
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public final <T> Class<? extends T>[] findClasses(final Class<T> requiredInterface) throws ServiceNotFoundException {
+      final Class<? extends T>[] classes = super.findClasses(requiredInterface);
+      final Class<?> ephemeralClass;
+      if (ChangeLogHistoryService.class.equals(requiredInterface)) {
+        ephemeralClass = EphemeralChangeLogHistoryService.class;
+      } else if (LockService.class.equals(requiredInterface)) {
+        ephemeralClass = EphemeralLockService.class;
+      } else {
+        return classes;
+      }
+      if (Arrays.asList(classes).contains(ephemeralClass)) {
+        return classes;
+      }
+      final Class<? extends T>[] returnValue = Arrays.copyOf(classes, classes.length + 1);
+      returnValue[classes.length] = (Class<? extends T>)ephemeralClass;
+      return returnValue;
+    }
+
+  }
+
+}
@@ -0,0 +1,257 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import liquibase.changelog.AbstractChangeLogHistoryService;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.RanChangeSet;
+
+import liquibase.database.Database;
+
+/**
+ * A {@link liquibase.changelog.ChangeLogHistoryService} that keeps
+ * the history of a throwaway database in memory instead of in a
+ * {@code DATABASECHANGELOG} table.
+ *
+ * <p>Liquibase creates instances of this class reflectively; it is
+ * used only for {@link Database}s that a {@link LiquiunitRule} in
+ * {@linkplain LiquiunitRule#setEphemeral(boolean) ephemeral mode} has
+ * registered, and every operation counts the round trips the standard
+ * service would have made.</p>
+ *
+ * <p>The history itself is kept in the {@link Database}'s {@link
+ * EphemeralBookkeeping.Ledger}, not in this service, so that it
+ * survives Liquibase replacing its {@link
+ * liquibase.changelog.ChangeLogHistoryServiceFactory} in the middle
+ * of a migration.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see EphemeralLockService
+ */
+public final class EphemeralChangeLogHistoryService extends AbstractChangeLogHistoryService {
+
+  /**
+   * Creates a new {@link EphemeralChangeLogHistoryService}.
+   */
+  public EphemeralChangeLogHistoryService() {
+    super();
+  }
+
+  /**
+   * Returns a priority higher than that of any standard
+   * service, so that this service is chosen whenever it is
+   * {@linkplain #supports(Database) supported}.
+   *
+   * @return a priority
+   */
+  @Override
+  public int getPriority() {
+    return PRIORITY_DATABASE * 10;
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Database} has been
+   * registered by a {@link LiquiunitRule} in ephemeral mode.
+   *
+   * @param database the {@link Database} to test; may be {@code null}
+   *
+   * @return {@code true} if this service should be used for {@code
+   * database}
+   */
+  @Override
+  public boolean supports(final Database database) {
+    return EphemeralBookkeeping.isEphemeral(database);
+  }
+
+  /**
+   * Does nothing; there is no history table to create.
+   */
+  @Override
+  public void init() {
+    EphemeralBookkeeping.getLedger(this.getDatabase()).saved(2L);
+  }
+
+  /**
+   * Returns a copy of the changesets recorded as having run.
+   *
+   * @return a non-{@code null} {@link List} of {@link RanChangeSet}s
+   */
+  @Override
+  public List<RanChangeSet> getRanChangeSets() {
+    final EphemeralBookkeeping.Ledger ledger = EphemeralBookkeeping.getLedger(this.getDatabase());
+    ledger.saved(1L);
+    synchronized (ledger) {
+      return new ArrayList<RanChangeSet>(ledger.ranChangeSets);
+    }
+  }
+
+  /**
+   * Records that the supplied {@link ChangeSet} has run.
+   *
+   * @param changeSet the {@link ChangeSet}; must not be {@code null}
+   *
+   * @param execType how it ran; may be {@code null}
+   */
+  @Override
+  public void setExecType(final ChangeSet changeSet, final ChangeSet.ExecType execType) {
+    final EphemeralBookkeeping.Ledger ledger = EphemeralBookkeeping.getLedger(this.getDatabase());
+    ledger.saved(1L);
+    synchronized (ledger) {
+      removeRanChangeSet(ledger, changeSet);
+      final RanChangeSet ranChangeSet = new RanChangeSet(changeSet, execType, changeSet.getContexts(), changeSet.getLabels());
+      ranChangeSet.setOrderExecuted(Integer.valueOf(ledger.ranChangeSets.size() + 1));
+      ledger.ranChangeSets.add(ranChangeSet);
+    }
+  }
+
+  /**
+   * Forgets that the supplied {@link ChangeSet} has run.
+   *
+   * @param changeSet the {@link ChangeSet}; must not be {@code null}
+   */
+  @Override
+  public void removeFromHistory(final ChangeSet changeSet) {
+    final EphemeralBookkeeping.Ledger ledger = EphemeralBookkeeping.getLedger(this.getDatabase());
+    ledger.saved(1L);
+    synchronized (ledger) {
+      removeRanChangeSet(ledger, changeSet);
+    }
+  }
+
+  /**
+   * Removes the record of the supplied {@link ChangeSet} having run
+   * from the supplied {@link EphemeralBookkeeping.Ledger}, if there is
+   * one.
+   *
+   * <p>This method must be called while synchronized on {@code
+   * ledger}.</p>
+   *
+   * @param ledger the {@link EphemeralBookkeeping.Ledger}; must not be
+   * {@code null}
+   *
+   * @param changeSet the {@link ChangeSet}; must not be {@code null}
+   */
+  private static final void removeRanChangeSet(final EphemeralBookkeeping.Ledger ledger, final ChangeSet changeSet) {
+    assert Thread.holdsLock(ledger);
+    final Iterator<RanChangeSet> iterator = ledger.ranChangeSets.iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().isSameAs(changeSet)) {
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Returns the next value of an in-memory counter.
+   *
+   * @return the next sequence value
+   */
+  @Override
+  public int getNextSequenceValue() {
+    final EphemeralBookkeeping.Ledger ledger = EphemeralBookkeeping.getLedger(this.getDatabase());
+    ledger.saved(1L);
+    synchronized (ledger) {
+      return ++ledger.sequenceValue;
+    }
+  }
+
+  /**
+   * Tags the changeset that ran most recently, if there is one.
+   *
+   * @param tagString the tag; may be {@code null}
+   */
+  @Override
+  public void tag(final String tagString) {
+    final EphemeralBookkeeping.Ledger ledger = EphemeralBookkeeping.getLedger(this.getDatabase());
+    ledger.saved(2L);
+    synchronized (ledger) {
+      if (!ledger.ranChangeSets.isEmpty()) {
+        ledger.ranChangeSets.get(ledger.ranChangeSets.size() - 1).setTag(tagString);
+      }
+    }
+  }
+
+  /**
+   * Returns {@code true} if a changeset that has run carries the
+   * supplied tag.
+   *
+   * @param tag the tag; may be {@code null}
+   *
+   * @return {@code true} if the tag exists
+   */
+  @Override
+  public boolean tagExists(final String tag) {
+    final EphemeralBookkeeping.Ledger ledger = EphemeralBookkeeping.getLedger(this.getDatabase());
+    ledger.saved(1L);
+    synchronized (ledger) {
+      for (final RanChangeSet ranChangeSet : ledger.ranChangeSets) {
+        if (tag != null && tag.equals(ranChangeSet.getTag())) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Does nothing; checksums are never stored.
+   */
+  @Override
+  public void clearAllCheckSums() {
+    EphemeralBookkeeping.getLedger(this.getDatabase()).saved(1L);
+  }
+
+  /**
+   * Does nothing; checksums are never stored.
+   *
+   * @param changeSet ignored
+   */
+  @Override
+  protected void replaceChecksum(final ChangeSet changeSet) {
+    EphemeralBookkeeping.getLedger(this.getDatabase()).saved(1L);
+  }
+
+  /**
+   * Forgets every changeset that has run.
+   */
+  @Override
+  public void destroy() {
+    final EphemeralBookkeeping.Ledger ledger = EphemeralBookkeeping.getLedger(this.getDatabase());
+    ledger.saved(1L);
+    synchronized (ledger) {
+      ledger.ranChangeSets.clear();
+    }
+  }
+
+}
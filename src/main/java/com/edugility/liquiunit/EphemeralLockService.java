@@ -0,0 +1,245 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.util.Date;
+
+import liquibase.database.Database;
+
+import liquibase.lockservice.DatabaseChangeLogLock;
+import liquibase.lockservice.LockService;
+
+/**
+ * A {@link LockService} that does not lock anything, for throwaway
+ * databases that only one test ever migrates.
+ *
+ * <p>Liquibase creates instances of this class reflectively; it is
+ * used only for {@link Database}s that a {@link LiquiunitRule} in
+ * {@linkplain LiquiunitRule#setEphemeral(boolean) ephemeral mode} has
+ * registered, and every operation counts the round trips the standard
+ * service, which maintains a {@code DATABASECHANGELOGLOCK} table,
+ * would have made.</p>
+ *
+ * <p>Whether the lock is held is kept in the {@link Database}'s
+ * {@link EphemeralBookkeeping.Ledger}, not in this service, so that
+ * it survives Liquibase replacing its {@link
+ * liquibase.lockservice.LockServiceFactory} in the middle of a
+ * migration.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see EphemeralChangeLogHistoryService
+ */
+public final class EphemeralLockService implements LockService {
+
+  /**
+   * The {@link Database} this {@link EphemeralLockService} serves.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private volatile Database database;
+
+  /**
+   * Creates a new {@link EphemeralLockService}.
+   */
+  public EphemeralLockService() {
+    super();
+  }
+
+  /**
+   * Returns a priority higher than that of any standard
+   * service, so that this service is chosen whenever it is
+   * {@linkplain #supports(Database) supported}.
+   *
+   * @return a priority
+   */
+  @Override
+  public int getPriority() {
+    return PRIORITY_DATABASE * 10;
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Database} has been
+   * registered by a {@link LiquiunitRule} in ephemeral mode.
+   *
+   * @param database the {@link Database} to test; may be {@code null}
+   *
+   * @return {@code true} if this service should be used for {@code
+   * database}
+   */
+  @Override
+  public boolean supports(final Database database) {
+    return EphemeralBookkeeping.isEphemeral(database);
+  }
+
+  /**
+   * Sets the {@link Database} this service serves.
+   *
+   * @param database the {@link Database}; may be {@code null}
+   */
+  @Override
+  public void setDatabase(final Database database) {
+    this.database = database;
+  }
+
+  /**
+   * Does nothing; this service never waits.
+   *
+   * @param changeLogLockWaitTime ignored
+   */
+  @Override
+  public void setChangeLogLockWaitTime(final long changeLogLockWaitTime) {
+
+  }
+
+  /**
+   * Does nothing; this service never waits.
+   *
+   * @param changeLogLockRecheckTime ignored
+   */
+  @Override
+  public void setChangeLogLockRecheckTime(final long changeLogLockRecheckTime) {
+
+  }
+
+  /**
+   * Returns {@code true} if the lock is held.
+   *
+   * @return {@code true} if the lock is held
+   */
+  @Override
+  public boolean hasChangeLogLock() {
+    final EphemeralBookkeeping.Ledger ledger = EphemeralBookkeeping.getLedger(this.database);
+    synchronized (ledger) {
+      return ledger.lockGranted != null;
+    }
+  }
+
+  /**
+   * Acquires the lock, which is always available.
+   */
+  @Override
+  public void waitForLock() {
+    this.acquireLock();
+  }
+
+  /**
+   * Acquires the lock, which is always available.
+   *
+   * @return {@code true} in all cases
+   */
+  @Override
+  public boolean acquireLock() {
+    final EphemeralBookkeeping.Ledger ledger = EphemeralBookkeeping.getLedger(this.database);
+    synchronized (ledger) {
+      if (ledger.lockGranted == null) {
+        ledger.saved(2L);
+        ledger.lockGranted = new Date();
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Releases the lock if it is held.
+   */
+  @Override
+  public void releaseLock() {
+    final EphemeralBookkeeping.Ledger ledger = EphemeralBookkeeping.getLedger(this.database);
+    synchronized (ledger) {
+      if (ledger.lockGranted != null) {
+        ledger.saved(1L);
+        ledger.lockGranted = null;
+      }
+    }
+  }
+
+  /**
+   * Returns a description of the lock if it is held.
+   *
+   * @return a non-{@code null} array of {@link
+   * DatabaseChangeLogLock}s
+   */
+  @Override
+  public DatabaseChangeLogLock[] listLocks() {
+    final EphemeralBookkeeping.Ledger ledger = EphemeralBookkeeping.getLedger(this.database);
+    ledger.saved(1L);
+    final Date lockGranted;
+    synchronized (ledger) {
+      lockGranted = ledger.lockGranted;
+    }
+    if (lockGranted == null) {
+      return new DatabaseChangeLogLock[0];
+    }
+    return new DatabaseChangeLogLock[] { new DatabaseChangeLogLock(1, lockGranted, "liquiunit") };
+  }
+
+  /**
+   * Releases the lock whether or not it is held.
+   */
+  @Override
+  public void forceReleaseLock() {
+    final EphemeralBookkeeping.Ledger ledger = EphemeralBookkeeping.getLedger(this.database);
+    ledger.saved(1L);
+    synchronized (ledger) {
+      ledger.lockGranted = null;
+    }
+  }
+
+  /**
+   * Does nothing.
+   *
+   * <p>Liquibase resets the services of its {@link
+   * liquibase.lockservice.LockServiceFactory} whenever any update
+   * finishes, including an update of some other {@link Database}; the
+   * lock belongs to the {@link Database}, and is released when its
+   * migration releases it.</p>
+   */
+  @Override
+  public void reset() {
+
+  }
+
+  /**
+   * Does nothing; there is no lock table to create.
+   */
+  @Override
+  public void init() {
+    EphemeralBookkeeping.getLedger(this.database).saved(3L);
+  }
+
+  /**
+   * Does nothing; there is no lock table to drop.
+   */
+  @Override
+  public void destroy() {
+    EphemeralBookkeeping.getLedger(this.database).saved(1L);
+  }
+
+}
@@ -0,0 +1,1121 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import liquibase.Contexts;
+import liquibase.LabelExpression;
+
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+
+import liquibase.changelog.filter.ChangeSetFilter;
+import liquibase.changelog.filter.ContextChangeSetFilter;
+import liquibase.changelog.filter.DbmsChangeSetFilter;
+import liquibase.changelog.filter.LabelChangeSetFilter;
+
+import liquibase.database.Database;
+
+import liquibase.database.core.H2Database;
+
+import liquibase.exception.LiquibaseException;
+
+import liquibase.logging.LogFactory;
+import liquibase.logging.Logger;
+
+import liquibase.resource.ResourceAccessor;
+
+import org.junit.runner.Description;
+
+/**
+ * An {@link H2Archive} that stores its archive data in a file in a
+ * directory shared by all JVMs on a machine, such that the first JVM
+ * to need a given archive builds it and all others simply load it.
+ *
+ * <p>This is most useful when Surefire is configured with a {@code
+ * forkCount} greater than one.  Without it, each fork runs the same
+ * Liquibase migration independently.  With it, the migration is run
+ * once per machine.</p>
+ *
+ * <p>Coordination among JVMs is achieved with {@linkplain
+ * FileChannel#lock(long, long, boolean) file locks} on a lock file
+ * that sits next to the archive file.  A JVM that wishes to {@linkplain
+ * #loadUnlessEmpty(Description, Connection) load} an archive that
+ * does not yet exist first acquires a shared lock; if, once it has
+ * the shared lock, the archive still does not exist, it trades it in
+ * for an exclusive lock and becomes the <em>builder</em>.  The
+ * builder keeps its exclusive lock until the {@link
+ * #saveIfEmpty(Description, Connection)} method publishes the archive
+ * file, which an {@link H2Rule} arranges to happen as soon as a
+ * {@link LiquiunitRule} has {@linkplain H2Rule#saveToArchive()
+ * migrated the database}, or until the {@link #abandon(Description)}
+ * method gives up on it, which an {@link H2Rule} arranges to happen
+ * if the migration or the rule's own setup fails.  All other JVMs
+ * block on their shared lock requests until then, and then load the
+ * finished archive or try to build it themselves.</p>
+ *
+ * <p>Archive files are written under a temporary name and are then
+ * renamed, so a published archive file is always complete.  Once an
+ * archive file exists, loading it requires no locking at all.</p>
+ *
+ * <p>File locks are released by the operating system when the JVM
+ * that holds them exits, so a builder that crashes simply leaves
+ * behind an unlocked lock file and, possibly, a partially written
+ * temporary file.  The next JVM to acquire the exclusive lock
+ * removes any such temporary files and becomes the builder in its
+ * place.  A builder that hangs is handled by a timeout: a JVM that
+ * cannot acquire a lock within the {@linkplain #getLockTimeout()
+ * lock timeout} proceeds without sharing, building its own database
+ * and publishing nothing.</p>
+ *
+ * <p>Loading and saving are performed with the H2 <a
+ * href="http://www.h2database.com/html/grammar.html#runscript"><code>RUNSCRIPT</code></a>
+ * and <a
+ * href="http://www.h2database.com/html/grammar.html#script"><code>SCRIPT</code></a>
+ * commands respectively, so the archive file is read and written by
+ * the H2 engine itself.</p>
+ *
+ * <p>The name of an archive file incorporates a digest of the
+ * {@linkplain ChangeSetManifest manifest} of the changesets that a
+ * {@link LiquiunitRule} applies from the changelogs named at
+ * {@linkplain #FileLockingH2Archive(File, String, Iterable, String,
+ * ResourceAccessor, String[]) construction time}, including those of
+ * any changelogs they include, with the contexts and label
+ * expression named there.  Each changeset's checksum covers the
+ * files its changes read, so editing any of them, or changing the
+ * contexts or labels, causes a new archive to be built rather than a
+ * stale one to be loaded.</p>
+ *
+ * <p>Beside each archive file sits a {@linkplain ChangeSetManifest
+ * manifest} listing the id, author and checksum of every changeset
+ * it contains.  When changesets have merely been appended to the
+ * changelogs, the builder of the new archive first loads the newest
+ * archive whose manifest matches the unchanged leading changesets,
+ * so only the appended changesets need to be applied.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see H2Archive
+ *
+ * @see H2Rule#H2Rule(H2Archive)
+ *
+ * @see FileChannel#lock(long, long, boolean)
+ */
+public class FileLockingH2Archive extends H2Archive {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * A {@link ConcurrentMap} of {@link Semaphore}s indexed by the
+   * {@linkplain File#getPath() paths} of lock files.
+   *
+   * <p>File locks are held on behalf of an entire JVM, so they cannot
+   * be used to coordinate threads within the same JVM; attempting to
+   * acquire an overlapping lock from a second thread results in an
+   * {@link java.nio.channels.OverlappingFileLockException}.  These
+   * {@link Semaphore}s serialize access to each lock file within this
+   * JVM.</p>
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final ConcurrentMap<String, Semaphore> permits = new ConcurrentHashMap<String, Semaphore>();
+
+  /**
+   * The number of milliseconds to sleep between attempts to
+   * {@linkplain FileChannel#tryLock(long, long, boolean) acquire a
+   * file lock}.
+   */
+  private static final long POLL_INTERVAL = 50L;
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link Logger} to use for debugging and tracing purposes.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  protected final Logger logger;
+
+  /**
+   * The {@link File} representing the archive data file.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final File archiveFile;
+
+  /**
+   * The {@link File} on which file locks are acquired.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final File lockFile;
+
+  /**
+   * The {@link File} listing the changesets that the archive data
+   * file contains.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see ChangeSetManifest
+   */
+  private final File manifestFile;
+
+  /**
+   * The prefix shared by the names of all archive files built for
+   * this {@link FileLockingH2Archive}'s name, whatever the contents
+   * of its resources.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final String prefix;
+
+  /**
+   * The names of the classpath resources whose contents distinguish
+   * this {@link FileLockingH2Archive}'s archive from others of the
+   * same name.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final List<String> resourceNames;
+
+  /**
+   * The Liquibase <a
+   * href="http://www.liquibase.org/documentation/contexts.html">contexts</a>
+   * in effect when the changelogs are applied, sorted.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final List<String> contexts;
+
+  /**
+   * The Liquibase <a
+   * href="http://www.liquibase.org/documentation/labels.html">label
+   * expression</a> in effect when the changelogs are applied.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private final String labelExpression;
+
+  /**
+   * The {@link ResourceAccessor} with which the changelogs are read.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ResourceAccessor resourceAccessor;
+
+  /**
+   * The {@linkplain ChangeSetManifest manifest} of the changesets
+   * that the archive contains once it has been built.
+   *
+   * <p>This field may be {@code null} if none of the changelogs
+   * exists.</p>
+   */
+  private final List<String> manifest;
+
+  /**
+   * The number of milliseconds to wait for a lock before giving up
+   * and proceeding without sharing.
+   *
+   * @see #getLockTimeout()
+   */
+  private final long lockTimeout;
+
+  /**
+   * A {@link ThreadLocal} housing any {@link Build} that the current
+   * {@link Thread} is responsible for completing.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #saveIfEmpty(Description, Connection)
+   */
+  private final ThreadLocal<Build> build;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link FileLockingH2Archive} that stores an archive
+   * named {@code h2archive} in the {@linkplain #getDefaultDirectory()
+   * default directory}, and whose name incorporates the contents of
+   * the {@code changelog.xml} and {@code test-changelog.xml}
+   * classpath resources.
+   *
+   * <p>This constructor calls the {@link #FileLockingH2Archive(File,
+   * String, String[])} constructor.</p>
+   *
+   * @see #FileLockingH2Archive(File, String, String[])
+   *
+   * @see LiquiunitRule#getChangeLogResourceNames()
+   */
+  public FileLockingH2Archive() {
+    this(getDefaultDirectory(), "h2archive", "changelog.xml", "test-changelog.xml");
+  }
+
+  /**
+   * Creates a new {@link FileLockingH2Archive}.
+   *
+   * <p>The {@linkplain #getLockTimeout() lock timeout} will be the
+   * value of the {@code liquiunit.archive.lockTimeout} system
+   * property, interpreted as a number of milliseconds, or five
+   * minutes if that property is not set.</p>
+   *
+   * @param directory the directory in which archive files will be
+   * stored; may be {@code null} in which case the return value of
+   * the {@link #getDefaultDirectory()} method will be used instead
+   *
+   * @param name a name that, combined with a digest of the
+   * changesets of the changelogs named by the supplied {@code
+   * resourceNames}, uniquely identifies the archive within the
+   * supplied {@code directory}; must not be {@code null}
+   *
+   * @param resourceNames the names of the {@linkplain
+   * ClassLoader#getResource(String) classpath resources} holding the
+   * changelogs that a {@link LiquiunitRule} applies, whose
+   * changesets, if changed, should cause a new archive to be built;
+   * may be {@code null}
+   *
+   * @exception IllegalArgumentException if {@code name} is {@code
+   * null}, if the supplied {@code directory} could not be created or
+   * if the changelogs could not be read
+   *
+   * @see #FileLockingH2Archive(File, String, Iterable, String,
+   * ResourceAccessor, String[])
+   */
+  public FileLockingH2Archive(final File directory, final String name, final String... resourceNames) {
+    this(directory, name, null, null, null, resourceNames);
+  }
+
+  /**
+   * Creates a new {@link FileLockingH2Archive} for a database that a
+   * {@link LiquiunitRule} migrates with the supplied contexts, label
+   * expression and {@link ResourceAccessor}.
+   *
+   * <p>The {@linkplain #getLockTimeout() lock timeout} will be the
+   * value of the {@code liquiunit.archive.lockTimeout} system
+   * property, interpreted as a number of milliseconds, or five
+   * minutes if that property is not set.</p>
+   *
+   * @param directory the directory in which archive files will be
+   * stored; may be {@code null} in which case the return value of
+   * the {@link #getDefaultDirectory()} method will be used instead
+   *
+   * @param name a name that, combined with a digest of the
+   * changesets of the changelogs named by the supplied {@code
+   * resourceNames}, uniquely identifies the archive within the
+   * supplied {@code directory}; must not be {@code null}
+   *
+   * @param contexts the Liquibase <a
+   * href="http://www.liquibase.org/documentation/contexts.html">contexts</a>
+   * in effect when the changelogs are applied; may be {@code null}
+   *
+   * @param labelExpression the Liquibase <a
+   * href="http://www.liquibase.org/documentation/labels.html">label
+   * expression</a> in effect when the changelogs are applied; may be
+   * {@code null}
+   *
+   * @param resourceAccessor the {@link ResourceAccessor} with which
+   * the changelogs are read; may be {@code null} in which case one
+   * equivalent to a new {@link LiquiunitRule}'s {@linkplain
+   * LiquiunitRule#getResourceAccessor() default} will be used
+   *
+   * @param resourceNames the names of the changelogs that the {@link
+   * LiquiunitRule} applies, whose changesets, if changed, should
+   * cause a new archive to be built; may be {@code null}
+   *
+   * @exception IllegalArgumentException if {@code name} is {@code
+   * null}, if the supplied {@code directory} could not be created or
+   * if the changelogs could not be read
+   *
+   * @see LiquiunitRule#getContexts()
+   *
+   * @see LiquiunitRule#getLabelExpression()
+   *
+   * @see LiquiunitRule#getResourceAccessor()
+   */
+  public FileLockingH2Archive(File directory, final String name, final Iterable<? extends String> contexts, final String labelExpression, final ResourceAccessor resourceAccessor, final String... resourceNames) {
+    super();
+    if (name == null) {
+      throw new IllegalArgumentException("name", new NullPointerException("name"));
+    }
+    this.logger = LogFactory.getInstance().getLog("liquiunit");
+    assert this.logger != null;
+    if (directory == null) {
+      directory = getDefaultDirectory();
+    }
+    assert directory != null;
+    if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+      throw new IllegalArgumentException("Could not create directory: " + directory);
+    }
+    this.resourceNames = new ArrayList<String>();
+    if (resourceNames != null) {
+      for (final String resourceName : resourceNames) {
+        if (resourceName != null) {
+          this.resourceNames.add(resourceName);
+        }
+      }
+    }
+    final List<String> sortedContexts = new ArrayList<String>();
+    if (contexts != null) {
+      for (final String context : contexts) {
+        if (context != null && !context.trim().isEmpty()) {
+          sortedContexts.add(context.trim());
+        }
+      }
+    }
+    Collections.sort(sortedContexts);
+    this.contexts = Collections.unmodifiableList(sortedContexts);
+    this.labelExpression = labelExpression == null || labelExpression.trim().isEmpty() ? null : labelExpression.trim();
+    this.resourceAccessor = resourceAccessor == null ? ChangeLogs.newResourceAccessor() : resourceAccessor;
+    try {
+      this.manifest = this.getManifest(new H2Database());
+    } catch (final LiquibaseException oops) {
+      throw new IllegalArgumentException("Could not read changelogs " + this.resourceNames, oops);
+    }
+    final List<String> key = new ArrayList<String>();
+    key.add("contexts=" + this.contexts);
+    key.add("labels=" + this.labelExpression);
+    if (this.manifest == null) {
+      key.addAll(this.resourceNames);
+    } else {
+      key.addAll(this.manifest);
+    }
+    this.prefix = sanitize(name) + "-";
+    final String baseName = this.prefix + digest(key);
+    this.archiveFile = new File(directory, baseName + ".sql");
+    this.lockFile = new File(directory, baseName + ".lock");
+    this.manifestFile = new File(directory, baseName + ".changesets");
+    this.lockTimeout = Long.getLong("liquiunit.archive.lockTimeout", TimeUnit.MINUTES.toMillis(5L)).longValue();
+    this.build = new ThreadLocal<Build>();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the {@link File} in which archive data is or will be
+   * stored.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the non-{@code null} archive {@link File}
+   */
+  public final File getArchiveFile() {
+    return this.archiveFile;
+  }
+
+  /**
+   * Returns the number of milliseconds that this {@link
+   * FileLockingH2Archive} will wait to acquire a lock before
+   * concluding that the JVM holding it is hung and proceeding without
+   * sharing.
+   *
+   * @return the lock timeout in milliseconds
+   */
+  public final long getLockTimeout() {
+    return this.lockTimeout;
+  }
+
+  /**
+   * Returns {@code true} if the {@linkplain #getArchiveFile() archive
+   * file} does not yet exist.
+   *
+   * @param description the {@link Description} describing the current
+   * JUnit test underway; ignored by this implementation; may be
+   * {@code null}
+   *
+   * @return {@code true} if the {@linkplain #getArchiveFile() archive
+   * file} does not yet exist; {@code false} otherwise
+   */
+  @Override
+  public boolean isEmpty(final Description description) {
+    return !this.archiveFile.isFile();
+  }
+
+  /**
+   * Loads the {@linkplain #getArchiveFile() archive file} into the
+   * H2 database reachable via the supplied {@link Connection}, first
+   * waiting for it to be built by another JVM if necessary.
+   *
+   * <p>If this method returns {@code false}, then the current {@link
+   * Thread} has become responsible for building the archive, and
+   * other JVMs (and other {@link Thread}s in this JVM) will wait until
+   * it does so by calling the {@link #saveIfEmpty(Description,
+   * Connection)} method.</p>
+   *
+   * <p>Before returning {@code false}, this method looks for an
+   * archive file built from an earlier version of the same resources
+   * whose changesets are exactly the leading changesets of the current
+   * changelogs, and, if there is one, loads the newest such archive
+   * file so that a {@link LiquiunitRule} need only apply the
+   * changesets appended since.</p>
+   *
+   * @param description the {@link Description} describing the current
+   * JUnit test underway; may be {@code null}
+   *
+   * @param c a {@link Connection} to an in-memory H2 database; must
+   * not be {@code null}; must be {@linkplain Connection#isValid(int)
+   * valid}
+   *
+   * @return {@code true} if the state of the database was altered;
+   * {@code false} otherwise
+   *
+   * @exception IllegalStateException if {@code c} is {@code null} or
+   * not {@linkplain Connection#isValid(int) valid}
+   *
+   * @exception SQLException if a database error occurs, including if
+   * an input/output error occurs while acquiring a lock
+   *
+   * @see #saveIfEmpty(Description, Connection)
+   */
+  @Override
+  public boolean loadUnlessEmpty(final Description description, final Connection c) throws SQLException {
+    if (c == null) {
+      throw new IllegalStateException("this.getConnection()", new NullPointerException("this.getConnection()"));
+    } else if (!c.isValid(0)) {
+      throw new IllegalStateException("this.getConnection().isValid(0)");
+    }
+    boolean returnValue = false;
+    if (this.isEmpty(description)) {
+      // Fast path not taken; we need to coordinate.
+      try {
+        returnValue = this.awaitOrBuild();
+      } catch (final IOException wrapMe) {
+        throw new SQLException(wrapMe);
+      } catch (final InterruptedException interrupted) {
+        Thread.currentThread().interrupt();
+        throw new SQLException(interrupted);
+      }
+      if (returnValue) {
+        this.runScript(c, this.archiveFile);
+      } else if (this.build.get() != null) {
+        boolean loaded = false;
+        try {
+          this.loadBase(c);
+          loaded = true;
+        } finally {
+          if (!loaded) {
+            this.abandon(description);
+          }
+        }
+      }
+    } else {
+      this.runScript(c, this.archiveFile);
+      returnValue = true;
+    }
+    return returnValue;
+  }
+
+  /**
+   * If the current {@link Thread} became responsible for building the
+   * archive during a prior call to the {@link
+   * #loadUnlessEmpty(Description, Connection)} method, writes the
+   * state of the H2 database reachable via the supplied {@link
+   * Connection} to the {@linkplain #getArchiveFile() archive file}
+   * and releases all locks so that other JVMs may load it.
+   *
+   * <p>If the current {@link Thread} is not responsible for building
+   * the archive, no action is taken.</p>
+   *
+   * @param description the {@link Description} describing the current
+   * JUnit test underway; may be {@code null}
+   *
+   * @param c a {@link Connection} to an in-memory H2 database; must
+   * not be {@code null}; must be {@linkplain Connection#isValid(int)
+   * valid}
+   *
+   * @return {@code true} if a save actually occurred; {@code false}
+   * if no action was taken
+   *
+   * @exception IllegalArgumentException if {@code c} is {@code null}
+   *
+   * @exception IllegalStateException if the supplied {@link
+   * Connection} is not {@linkplain Connection#isValid(int) valid}
+   *
+   * @exception SQLException if a database error occurs
+   *
+   * @see #loadUnlessEmpty(Description, Connection)
+   */
+  @Override
+  public boolean saveIfEmpty(final Description description, final Connection c) throws SQLException {
+    if (c == null) {
+      throw new IllegalArgumentException("c", new NullPointerException("c"));
+    } else if (!c.isValid(0)) {
+      throw new IllegalStateException("this.getConnection().isValid(0)");
+    }
+    boolean returnValue = false;
+    final Build build = this.build.get();
+    if (build != null) {
+      this.build.remove();
+      try {
+        final File temporaryFile = new File(this.archiveFile.getParentFile(), this.archiveFile.getName() + ".tmp-" + System.nanoTime());
+        final Statement statement = c.createStatement();
+        assert statement != null;
+        try {
+          statement.execute("SCRIPT TO '" + escape(temporaryFile.getAbsolutePath()) + "' CHARSET 'UTF-8'");
+        } finally {
+          try {
+            statement.close();
+          } catch (final SQLException neverMind) {
+            // ignore
+          }
+        }
+        // Publish the manifest first so that every archive file has
+        // one.
+        final List<String> manifest = ChangeSetManifest.read(c);
+        if (manifest != null) {
+          try {
+            ChangeSetManifest.store(manifest, this.manifestFile);
+          } catch (final IOException oops) {
+            this.logger.warning("Could not write " + this.manifestFile, oops);
+          }
+        }
+        if (temporaryFile.renameTo(this.archiveFile)) {
+          returnValue = true;
+        } else {
+          temporaryFile.delete();
+          this.logger.warning("Could not rename " + temporaryFile + " to " + this.archiveFile);
+        }
+      } finally {
+        build.release();
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * If the current {@link Thread} became responsible for building the
+   * archive during a prior call to the {@link
+   * #loadUnlessEmpty(Description, Connection)} method, releases all
+   * locks without writing the archive, so that another {@link Thread}
+   * or JVM may build it instead.
+   *
+   * <p>If the current {@link Thread} is not responsible for building
+   * the archive, no action is taken.</p>
+   *
+   * @param description the {@link Description} describing the current
+   * JUnit test underway; may be {@code null}
+   */
+  @Override
+  public void abandon(final Description description) {
+    final Build build = this.build.get();
+    if (build != null) {
+      this.build.remove();
+      this.logger.debug("Not building " + this.archiveFile + " from " + description);
+      build.release();
+    }
+  }
+
+  /**
+   * Waits for the archive to be built by some other JVM or {@link
+   * Thread}, or, if no one else is building it, arranges for the
+   * current {@link Thread} to be its builder.
+   *
+   * @return {@code true} if the archive now exists and may be loaded;
+   * {@code false} if the caller must build the database itself
+   *
+   * @exception IOException if a lock could not be acquired because of
+   * an input/output error
+   *
+   * @exception InterruptedException if the current {@link Thread}
+   * was interrupted while waiting
+   */
+  private final boolean awaitOrBuild() throws IOException, InterruptedException {
+    final Semaphore permit = getPermit(this.lockFile);
+    assert permit != null;
+    if (!permit.tryAcquire(this.lockTimeout, TimeUnit.MILLISECONDS)) {
+      this.logger.warning("Timed out waiting for another thread to build " + this.archiveFile + "; proceeding without it");
+      return false;
+    }
+    boolean keepPermit = false;
+    RandomAccessFile file = null;
+    try {
+      if (!this.isEmpty(null)) {
+        // Someone in this JVM finished building it while we waited.
+        return true;
+      }
+      file = new RandomAccessFile(this.lockFile, "rw");
+      final FileChannel channel = file.getChannel();
+      assert channel != null;
+
+      // Wait on a shared lock; this blocks for as long as another JVM
+      // is building the archive.
+      FileLock lock = this.lock(channel, true);
+      if (lock == null) {
+        this.logger.warning("Timed out waiting for another process to build " + this.archiveFile + "; proceeding without it");
+        return false;
+      }
+      lock.release();
+      if (!this.isEmpty(null)) {
+        return true;
+      }
+
+      // No one has built it; try to become the builder.
+      lock = this.lock(channel, false);
+      if (lock == null) {
+        this.logger.warning("Timed out waiting for another process to build " + this.archiveFile + "; proceeding without it");
+        return false;
+      }
+      if (!this.isEmpty(null)) {
+        lock.release();
+        return true;
+      }
+
+      // We are the builder.  Clean up after any previous builder that
+      // crashed part way through writing.
+      this.deleteTemporaryFiles();
+      this.build.set(new Build(permit, file, lock));
+      keepPermit = true;
+      return false;
+    } finally {
+      if (!keepPermit) {
+        if (file != null) {
+          try {
+            file.close();
+          } catch (final IOException ignore) {
+
+          }
+        }
+        permit.release();
+      }
+    }
+  }
+
+  /**
+   * Polls the supplied {@link FileChannel} for a lock until one is
+   * acquired or the {@linkplain #getLockTimeout() lock timeout}
+   * elapses.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @param channel the {@link FileChannel} to lock; must not be
+   * {@code null}
+   *
+   * @param shared whether the lock should be shared
+   *
+   * @return a {@link FileLock}, or {@code null} if the lock timeout
+   * elapsed
+   *
+   * @exception IOException if an input/output error occurs
+   *
+   * @exception InterruptedException if the current {@link Thread} was
+   * interrupted
+   */
+  private final FileLock lock(final FileChannel channel, final boolean shared) throws IOException, InterruptedException {
+    final long deadline = System.currentTimeMillis() + this.lockTimeout;
+    FileLock lock = channel.tryLock(0L, Long.MAX_VALUE, shared);
+    while (lock == null && System.currentTimeMillis() < deadline) {
+      Thread.sleep(POLL_INTERVAL);
+      lock = channel.tryLock(0L, Long.MAX_VALUE, shared);
+    }
+    return lock;
+  }
+
+  /**
+   * Deletes any temporary files left behind by a builder that did not
+   * finish.
+   */
+  private final void deleteTemporaryFiles() {
+    final String prefix = this.archiveFile.getName() + ".tmp-";
+    final String manifestPrefix = this.manifestFile.getName() + ".tmp-";
+    final File[] files = this.archiveFile.getParentFile().listFiles(new FilenameFilter() {
+        @Override
+        public final boolean accept(final File directory, final String name) {
+          return name != null && (name.startsWith(prefix) || name.startsWith(manifestPrefix));
+        }
+      });
+    if (files != null) {
+      for (final File f : files) {
+        if (f != null && f.delete()) {
+          this.logger.info("Deleted stale archive file " + f);
+        }
+      }
+    }
+  }
+
+  /**
+   * Loads into the H2 database reachable via the supplied {@link
+   * Connection} the newest archive file, built for this {@link
+   * FileLockingH2Archive}'s name from an earlier version of its
+   * resources, that contains exactly the leading changesets of the
+   * current changelogs, if there is one.
+   *
+   * <p>Problems reading the {@linkplain ChangeSetManifest manifests}
+   * of other archive files are logged and cause this method to load
+   * nothing.</p>
+   *
+   * @param c the {@link Connection} to use; must not be {@code null}
+   *
+   * @return {@code true} if an archive file was loaded
+   *
+   * @exception SQLException if a database error occurs
+   */
+  private final boolean loadBase(final Connection c) throws SQLException {
+    assert c != null;
+    final File[] manifestFiles = this.manifestFile.getParentFile().listFiles(new FilenameFilter() {
+        @Override
+        public final boolean accept(final File directory, final String name) {
+          return name != null && name.startsWith(prefix) && name.endsWith(".changesets");
+        }
+      });
+    if (manifestFiles == null || manifestFiles.length <= 0) {
+      return false;
+    }
+    final List<String> current = this.manifest;
+    if (current == null || current.isEmpty()) {
+      return false;
+    }
+    File base = null;
+    int baseLength = 0;
+    for (final File manifestFile : manifestFiles) {
+      if (manifestFile != null && !manifestFile.equals(this.manifestFile)) {
+        final String name = manifestFile.getName();
+        final File archiveFile = new File(manifestFile.getParentFile(), name.substring(0, name.length() - ".changesets".length()) + ".sql");
+        if (archiveFile.isFile()) {
+          int length;
+          try {
+            length = ChangeSetManifest.prefixLength(ChangeSetManifest.load(manifestFile), current);
+          } catch (final IOException oops) {
+            this.logger.warning("Could not read " + manifestFile, oops);
+            length = -1;
+          }
+          if (length > baseLength || (length > 0 && length == baseLength && archiveFile.lastModified() > base.lastModified())) {
+            base = archiveFile;
+            baseLength = length;
+          }
+        }
+      }
+    }
+    if (base == null) {
+      return false;
+    }
+    this.logger.info("Loading " + base + ", which contains " + baseLength + " of " + current.size() + " changesets, as the basis for " + this.archiveFile);
+    this.runScript(c, base);
+    return true;
+  }
+
+  /**
+   * Returns the {@linkplain ChangeSetManifest manifest} of the
+   * changesets that a {@link LiquiunitRule} would apply, with this
+   * {@link FileLockingH2Archive}'s contexts and label expression, to
+   * the supplied {@link Database}.
+   *
+   * @param database the {@link Database}; must not be {@code null}
+   *
+   * @return a manifest, or {@code null} if none of the changelogs
+   * exists
+   *
+   * @exception LiquibaseException if the changelogs could not be read
+   */
+  private final List<String> getManifest(final Database database) throws LiquibaseException {
+    assert database != null;
+    final List<String> names = new ArrayList<String>();
+    for (final String resourceName : this.resourceNames) {
+      if (this.exists(resourceName)) {
+        names.add(resourceName);
+      }
+    }
+    if (names.isEmpty()) {
+      return null;
+    }
+    final DatabaseChangeLog changeLog = ChangeLogs.parse(database, names, this.resourceAccessor, getClassLoader());
+    final ChangeSetFilter[] filters = new ChangeSetFilter[] {
+      new ContextChangeSetFilter(new Contexts(this.contexts)),
+      new LabelChangeSetFilter(new LabelExpression(this.labelExpression)),
+      new DbmsChangeSetFilter(database)
+    };
+    final List<ChangeSet> changeSets = new ArrayList<ChangeSet>();
+    for (final ChangeSet changeSet : changeLog.getChangeSets()) {
+      boolean accepted = true;
+      for (final ChangeSetFilter filter : filters) {
+        if (!filter.accepts(changeSet).isAccepted()) {
+          accepted = false;
+          break;
+        }
+      }
+      if (accepted) {
+        changeSets.add(changeSet);
+      }
+    }
+    return ChangeSetManifest.of(changeSets);
+  }
+
+  /**
+   * Returns {@code true} if this {@link FileLockingH2Archive}'s
+   * {@link ResourceAccessor} can read the named resource.
+   *
+   * @param resourceName the name of the resource; must not be {@code
+   * null}
+   *
+   * @return {@code true} if the resource exists
+   *
+   * @exception LiquibaseException if an input/output error occurs
+   */
+  private final boolean exists(final String resourceName) throws LiquibaseException {
+    assert resourceName != null;
+    final Set<InputStream> streams;
+    try {
+      streams = this.resourceAccessor.getResourcesAsStream(resourceName);
+    } catch (final IOException oops) {
+      throw new LiquibaseException(oops);
+    }
+    if (streams == null) {
+      return false;
+    }
+    for (final InputStream stream : streams) {
+      try {
+        stream.close();
+      } catch (final IOException ignore) {
+
+      }
+    }
+    return !streams.isEmpty();
+  }
+
+  /**
+   * Runs the supplied archive file against the H2 database reachable
+   * via the supplied {@link Connection}.
+   *
+   * @param c the {@link Connection} to use; must not be {@code null}
+   *
+   * @param archiveFile the archive file to run; must not be {@code
+   * null}
+   *
+   * @exception SQLException if a database error occurs
+   */
+  private final void runScript(final Connection c, final File archiveFile) throws SQLException {
+    assert c != null;
+    assert archiveFile != null;
+    final Statement statement = c.createStatement();
+    assert statement != null;
+    try {
+      statement.execute("RUNSCRIPT FROM '" + escape(archiveFile.getAbsolutePath()) + "' CHARSET 'UTF-8'");
+    } finally {
+      try {
+        statement.close();
+      } catch (final SQLException neverMind) {
+        // ignore on purpose
+      }
+    }
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns the directory in which archive files are stored by
+   * default.
+   *
+   * <p>This is the value of the {@code liquiunit.archive.directory}
+   * system property, if set, or a directory named {@code liquiunit}
+   * beneath the directory named by the {@code java.io.tmpdir} system
+   * property.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link File} representing a directory
+   * that may not yet exist
+   */
+  public static final File getDefaultDirectory() {
+    final String directory = System.getProperty("liquiunit.archive.directory");
+    if (directory == null || directory.trim().isEmpty()) {
+      return new File(System.getProperty("java.io.tmpdir"), "liquiunit");
+    }
+    return new File(directory.trim());
+  }
+
+  /**
+   * Returns the {@linkplain Thread#getContextClassLoader() context
+   * <code>ClassLoader</code>}, the {@linkplain
+   * ClassLoader#getSystemClassLoader() system
+   * <code>ClassLoader</code>} or the {@link ClassLoader} that loaded
+   * this class, whichever is first non-{@code null}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link ClassLoader}
+   */
+  private static final ClassLoader getClassLoader() {
+    ClassLoader cl = Thread.currentThread().getContextClassLoader();
+    if (cl == null) {
+      cl = ClassLoader.getSystemClassLoader();
+      if (cl == null) {
+        cl = FileLockingH2Archive.class.getClassLoader();
+      }
+    }
+    assert cl != null;
+    return cl;
+  }
+
+  private static final Semaphore getPermit(final File lockFile) {
+    assert lockFile != null;
+    final String key = lockFile.getAbsolutePath();
+    Semaphore permit = permits.get(key);
+    if (permit == null) {
+      permit = new Semaphore(1);
+      final Semaphore old = permits.putIfAbsent(key, permit);
+      if (old != null) {
+        permit = old;
+      }
+    }
+    return permit;
+  }
+
+  /**
+   * Returns a hexadecimal SHA-1 digest of the supplied {@link
+   * String}s, in order.
+   *
+   * @param strings the {@link String}s to digest; must not be {@code
+   * null}
+   *
+   * @return a non-{@code null} hexadecimal {@link String}
+   */
+  private static final String digest(final List<String> strings) {
+    assert strings != null;
+    final MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("SHA-1");
+    } catch (final NoSuchAlgorithmException cannotHappen) {
+      throw new IllegalStateException(cannotHappen);
+    }
+    for (final String string : strings) {
+      try {
+        md.update(String.valueOf(string).getBytes("UTF-8"));
+      } catch (final UnsupportedEncodingException cannotHappen) {
+        throw new IllegalStateException(cannotHappen);
+      }
+      md.update((byte)'\n');
+    }
+    final StringBuilder sb = new StringBuilder();
+    for (final byte b : md.digest()) {
+      sb.append(String.format("%02x", b));
+    }
+    return sb.toString();
+  }
+
+  private static final String sanitize(final String name) {
+    assert name != null;
+    return name.replaceAll("[^A-Za-z0-9._-]", "_");
+  }
+
+  private static final String escape(final String path) {
+    assert path != null;
+    return path.replace("'", "''");
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * The locks held by a {@link Thread} that is building an archive.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Build {
+
+    private final Semaphore permit;
+
+    private final RandomAccessFile file;
+
+    private final FileLock lock;
+
+    private Build(final Semaphore permit, final RandomAccessFile file, final FileLock lock) {
+      super();
+      this.permit = permit;
+      this.file = file;
+      this.lock = lock;
+    }
+
+    private final void release() {
+      try {
+        this.lock.release();
+      } catch (final IOException ignore) {
+
+      } finally {
+        try {
+          this.file.close();
+        } catch (final IOException ignore) {
+
+        } finally {
+          this.permit.release();
+        }
+      }
+    }
+
+  }
+
+}
@@ -32,9 +32,6 @@ import java.sql.ResultSet;
 import java.sql.Statement;
 import java.sql.SQLException;
 
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-
 import org.junit.runner.Description;
 
 /**
@@ -56,15 +53,7 @@ import org.junit.runner.Description;
  *
  * @see <a href="http://www.h2database.com/html/grammar.html?#script">the <code>SCRIPT</code> command</a>
  */
-public class H2Archive {
-
-  /**
-   * A {@link ReadWriteLock} used to protect access to the data stored
-   * as an archive of a given H2 database.
-   *
-   * <p>This field is never {@code null}.</p>
-   */
-  protected final ReadWriteLock dataLock;
+public class H2Archive extends LoadableDatabaseArchive {
 
   /**
    * The data that comprises the H2 archive.
@@ -83,17 +72,12 @@ public class H2Archive {
    */
   public H2Archive() {
     super();
-    this.dataLock = new ReentrantReadWriteLock();
   }
 
   /**
-   * Provided that no archive data currently exists, atomically saves
-   * the state of the H2 database reachable via the supplied {@link
-   * Connection} as the newline-separated output of the H2 {@code
-   * SCRIPT} command.
-   *
-   * <p>If this method has been called before, then a subsequent
-   * invocation will not overwrite any existing data.</p>
+   * Saves the state of the H2 database reachable via the supplied
+   * {@link Connection} as the newline-separated output of the H2
+   * {@code SCRIPT} command.
    *
    * @param description the {@link Description} describing the current
    * JUnit test underway; ignored by this implementation but may be
@@ -103,71 +87,48 @@ public class H2Archive {
    * not be {@code null}; must be {@linkplain Connection#isValid(int)
    * valid}
    *
-   * @return {@code true} if a save actually occurred; {@code false}
-   * if no action was taken
-   *
-   * @exception IllegalArgumentException if {@code c} is {@code null}
-   *
-   * @exception IllegalStateException if the supplied {@link
-   * Connection} is not {@linkplain Connection#isValid(int) valid}
+   * @return {@code true} if the script was not empty
    *
    * @exception SQLException if a database error occurs
    *
-   * @see #loadUnlessEmpty(Description, Connection)
+   * @see #saveIfEmpty(Description, Connection)
    */
-  public boolean saveIfEmpty(final Description description, final Connection c) throws SQLException {
-    if (c == null) {
-      throw new IllegalArgumentException("c", new NullPointerException("c"));
-    } else if (!c.isValid(0)) {
-      throw new IllegalStateException("this.getConnection().isValid(0)");
-    }
-    boolean returnValue = false;
-    
+  @Override
+  protected boolean save(final Description description, final Connection c) throws SQLException {
+    final StringBuilder sb = new StringBuilder();
+
+    final Statement statement = c.createStatement();
+    assert statement != null;
+    ResultSet rs = null;
     try {
-      this.dataLock.writeLock().lock();
-      if (this.isEmpty(description)) {
-        
-        final StringBuilder sb = new StringBuilder();
-        
-        final Statement statement = c.createStatement();
-        assert statement != null;
-        ResultSet rs = null;
+      rs = statement.executeQuery("SCRIPT");
+      assert rs != null;
+      while (rs.next()) {
+        sb.append(rs.getString(1)).append("\n");
+      }
+    } finally {
+      if (rs != null) {
         try {
-          rs = statement.executeQuery("SCRIPT");
-          assert rs != null;
-          while (rs.next()) {
-            sb.append(rs.getString(1)).append("\n");
-          }
-        } finally {
-          if (rs != null) {
-            try {
-              rs.close();
-            } catch (final SQLException neverMind) {
-              // ignore
-            }
-          }
-          try {
-            statement.close();
-          } catch (final SQLException neverMind) {
-            // ignore
-          }
+          rs.close();
+        } catch (final SQLException neverMind) {
+          // ignore
         }
-        
-        this.data = sb.toString();
-        returnValue = !this.isEmpty(description);
       }
-    } finally {
-      this.dataLock.writeLock().unlock();
+      try {
+        statement.close();
+      } catch (final SQLException neverMind) {
+        // ignore
+      }
     }
-    return returnValue;
+
+    this.data = sb.toString();
+    return !this.isEmpty(description);
   }
 
   /**
-   * Uses any stored DML or DDL commands this {@link H2Archive}
-   * encapsulates (saved earlier by the {@link
-   * #saveIfEmpty(Description, Connection)} method) to populate the
-   * in-memory H2 database represented and attached to by the supplied
-   * {@link Connection}.
+   * Uses the stored DML and DDL commands this {@link H2Archive}
+   * encapsulates to populate the in-memory H2 database represented
+   * and attached to by the supplied {@link Connection}.
    *
    * @param description the {@link Description} describing the current
    * JUnit test underway; ignored by this implementation but may be
@@ -177,45 +138,26 @@ public class H2Archive {
    * not be {@code null}; must be {@linkplain Connection#isValid(int)
    * valid}
    *
-   * @return {@code true} if the state of the database was altered;
-   * {@code false} otherwise
-   * 
-   * @exception IllegalArgumentException if {@code c} is {@code null}
-   *
-   * @exception IllegalStateException if the supplied {@link
-   * Connection} is not {@linkplain Connection#isValid(int) valid}
+   * @return {@code true} in all cases
    *
    * @exception SQLException if a database error occurs
    *
-   * @see #saveIfEmpty(Description, Connection)
+   * @see #loadUnlessEmpty(Description, Connection)
    */
-  public boolean loadUnlessEmpty(final Description description, final Connection c) throws SQLException {
-    if (c == null) {
-      throw new IllegalStateException("this.getConnection()", new NullPointerException("this.getConnection()"));
-    } else if (!c.isValid(0)) {
-      throw new IllegalStateException("this.getConnection().isValid(0)");
-    }
-    boolean returnValue = false;
+  @Override
+  protected boolean load(final Description description, final Connection c) throws SQLException {
+    final Statement statement = c.createStatement();
+    assert statement != null;
     try {
-      this.dataLock.readLock().lock();
-      if (!this.isEmpty(description)) {
-        final Statement statement = c.createStatement();
-        assert statement != null;
-        try {
-          statement.execute(this.data);
-        } finally {
-          try {
-            statement.close();
-          } catch (final SQLException neverMind) {
-            // ignore on purpose
-          }
-        }
-        returnValue = true;
-      }
+      statement.execute(this.data);
     } finally {
-      this.dataLock.readLock().unlock();
+      try {
+        statement.close();
+      } catch (final SQLException neverMind) {
+        // ignore on purpose
+      }
     }
-    return returnValue;
+    return true;
   }
 
   /**
@@ -234,6 +176,7 @@ public class H2Archive {
    *
    * @see #loadUnlessEmpty(Description, Connection)
    */
+  @Override
   public boolean isEmpty(final Description description) {
     try {
       this.dataLock.readLock().lock();
@@ -0,0 +1,540 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+import java.util.concurrent.TimeUnit;
+
+import liquibase.logging.LogFactory;
+import liquibase.logging.Logger;
+
+/**
+ * A process-wide limit on the estimated amount of memory held by the
+ * in-memory H2 databases that {@link H2Rule}s keep alive at once.
+ *
+ * <p>Each {@link H2Rule} {@linkplain #acquire(String) acquires} a
+ * reservation from the {@linkplain #getInstance() process-wide
+ * governor} before it creates its database and {@linkplain
+ * #release(long, String, long) releases} it, along with the
+ * database's {@linkplain #measure(Connection) measured footprint},
+ * after the test.  When the reservations of the databases alive would
+ * exceed the {@linkplain #getBudget() budget}, later tests wait until
+ * earlier ones finish instead of exhausting the heap.  One database
+ * is always admitted, however large the estimate, so that no test
+ * waits forever.</p>
+ *
+ * <p>The reservation for a new database is an exponentially weighted
+ * average of the footprints measured so far.  The budget defaults to
+ * the value of the {@code liquiunit.memoryBudget} system property,
+ * which is a number of bytes optionally followed by {@code k}, {@code
+ * m} or {@code g}, and is otherwise unlimited, in which case the
+ * governor only keeps accounts.</p>
+ *
+ * <p>A database waits at most the {@linkplain #getWaitTimeout() wait
+ * timeout} to be admitted; the timeout defaults to the value of the
+ * {@code liquiunit.memoryWaitTimeout} system property, interpreted as
+ * a number of milliseconds, or five minutes if that property is not
+ * set.</p>
+ *
+ * <p>The footprint of a database is estimated from the {@linkplain
+ * #measure(Connection) estimated row counts and declared column
+ * widths} of its tables; in-memory H2 databases expose no page or
+ * cache statistics of their own.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see H2Rule
+ */
+public final class H2MemoryGovernor {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The smallest reservation, in bytes, that will be made for a new
+   * database.
+   */
+  private static final long MINIMUM_RESERVATION = 64L * 1024L;
+
+  /**
+   * The estimated overhead, in bytes, of each row.
+   */
+  private static final long ROW_OVERHEAD = 48L;
+
+  /**
+   * The process-wide {@link H2MemoryGovernor}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final H2MemoryGovernor instance = new H2MemoryGovernor(parseBudget(System.getProperty("liquiunit.memoryBudget")));
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link Logger} to use for debugging and tracing purposes.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Logger logger;
+
+  /**
+   * The number of bytes that the reservations of all live databases
+   * may not exceed.
+   */
+  private long budget;
+
+  /**
+   * The number of milliseconds a new database waits to be admitted
+   * before giving up.
+   */
+  private long waitTimeout;
+
+  /**
+   * The number of bytes currently reserved.
+   */
+  private long reserved;
+
+  /**
+   * The reservation, in bytes, that the next database will make.
+   */
+  private long estimate;
+
+  /**
+   * The number of live databases.
+   */
+  private int live;
+
+  /**
+   * The largest number of databases that have been alive at once.
+   */
+  private int peakLive;
+
+  /**
+   * The number of times a database had to wait to be admitted.
+   */
+  private long waits;
+
+  /**
+   * The total number of nanoseconds spent waiting to be admitted.
+   */
+  private long waitNanos;
+
+  /**
+   * The name of the database with the largest measured footprint.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private String largestName;
+
+  /**
+   * The largest measured footprint, in bytes.
+   */
+  private long largestBytes;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link H2MemoryGovernor}.
+   *
+   * @param budget the number of bytes that the reservations of all
+   * live databases may not exceed; must be positive
+   *
+   * @exception IllegalArgumentException if {@code budget} is not
+   * positive
+   */
+  public H2MemoryGovernor(final long budget) {
+    super();
+    if (budget <= 0L) {
+      throw new IllegalArgumentException("budget <= 0L: " + budget);
+    }
+    this.logger = LogFactory.getInstance().getLog("liquiunit");
+    assert this.logger != null;
+    this.budget = budget;
+    this.waitTimeout = Long.getLong("liquiunit.memoryWaitTimeout", TimeUnit.MINUTES.toMillis(5L)).longValue();
+    this.estimate = MINIMUM_RESERVATION;
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the number of bytes that the reservations of all live
+   * databases may not exceed.
+   *
+   * @return the budget, in bytes
+   */
+  public synchronized long getBudget() {
+    return this.budget;
+  }
+
+  /**
+   * Sets the number of bytes that the reservations of all live
+   * databases may not exceed.
+   *
+   * @param budget the new budget, in bytes; must be positive
+   *
+   * @exception IllegalArgumentException if {@code budget} is not
+   * positive
+   */
+  public synchronized void setBudget(final long budget) {
+    if (budget <= 0L) {
+      throw new IllegalArgumentException("budget <= 0L: " + budget);
+    }
+    this.budget = budget;
+    this.notifyAll();
+  }
+
+  /**
+   * Returns the number of milliseconds a new database waits to be
+   * admitted before the {@link #acquire(String)} method gives up.
+   *
+   * @return the wait timeout, in milliseconds
+   */
+  public synchronized long getWaitTimeout() {
+    return this.waitTimeout;
+  }
+
+  /**
+   * Sets the number of milliseconds a new database waits to be
+   * admitted before the {@link #acquire(String)} method gives up.
+   *
+   * @param waitTimeout the new wait timeout, in milliseconds; must be
+   * positive
+   *
+   * @exception IllegalArgumentException if {@code waitTimeout} is not
+   * positive
+   */
+  public synchronized void setWaitTimeout(final long waitTimeout) {
+    if (waitTimeout <= 0L) {
+      throw new IllegalArgumentException("waitTimeout <= 0L: " + waitTimeout);
+    }
+    this.waitTimeout = waitTimeout;
+  }
+
+  /**
+   * Blocks until a new database can be admitted within the budget,
+   * and then reserves memory for it.
+   *
+   * @param name the name of the database, used in log messages; may
+   * be {@code null}
+   *
+   * @return the number of bytes reserved, which must be supplied to
+   * the {@link #release(long, String, long)} method
+   *
+   * @exception IllegalStateException if the database could not be
+   * admitted within the {@linkplain #getWaitTimeout() wait timeout},
+   * or if the current thread is interrupted while waiting, in which
+   * case its interrupt status is restored
+   */
+  public synchronized long acquire(final String name) {
+    final long reservation = this.estimate;
+    if (this.live > 0 && this.reserved + reservation > this.budget) {
+      this.waits++;
+      this.logger.debug("Waiting for memory for " + name + ": " + this);
+      final long start = System.nanoTime();
+      final long deadline = start + TimeUnit.MILLISECONDS.toNanos(this.waitTimeout);
+      try {
+        while (this.live > 0 && this.reserved + reservation > this.budget) {
+          final long remaining = deadline - System.nanoTime();
+          if (remaining <= 0L) {
+            throw new IllegalStateException("Timed out after " + this.waitTimeout + " ms waiting for memory for database " + name + ": " + this.live + " live database(s) hold " + this.reserved + " of the " + this.budget + " bytes allowed by liquiunit.memoryBudget and " + reservation + " more are needed; raise liquiunit.memoryBudget or liquiunit.memoryWaitTimeout, or check for rules whose after() never ran: " + this);
+          }
+          TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+      } catch (final InterruptedException interrupted) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException(interrupted);
+      } finally {
+        this.waitNanos += System.nanoTime() - start;
+      }
+    }
+    this.reserved += reservation;
+    this.live++;
+    if (this.live > this.peakLive) {
+      this.peakLive = this.live;
+    }
+    return reservation;
+  }
+
+  /**
+   * Releases a reservation made by the {@link #acquire(String)}
+   * method and records the footprint the database reached.
+   *
+   * @param reservation the return value of the corresponding call to
+   * the {@link #acquire(String)} method
+   *
+   * @param name the name of the database, used in log messages; may
+   * be {@code null}
+   *
+   * @param footprint the {@linkplain #measure(Connection) measured
+   * footprint} of the database, in bytes, or a negative number if it
+   * is unknown
+   */
+  public synchronized void release(final long reservation, final String name, final long footprint) {
+    this.reserved -= reservation;
+    this.live--;
+    if (footprint >= 0L) {
+      this.estimate = Math.max(MINIMUM_RESERVATION, (this.estimate * 3L + footprint) / 4L);
+      if (footprint > this.largestBytes) {
+        this.largestBytes = footprint;
+        this.largestName = name;
+      }
+      if (footprint > this.budget) {
+        this.logger.warning("Database " + name + " reached an estimated " + footprint + " bytes, more than the entire budget of " + this.budget + " bytes");
+      }
+    }
+    this.notifyAll();
+  }
+
+  /**
+   * Returns the number of databases currently alive.
+   *
+   * @return the number of live databases
+   */
+  public synchronized int getLiveCount() {
+    return this.live;
+  }
+
+  /**
+   * Returns the largest number of databases that have been alive at
+   * once.
+   *
+   * @return the peak number of live databases
+   */
+  public synchronized int getPeakLiveCount() {
+    return this.peakLive;
+  }
+
+  /**
+   * Returns the number of times a database had to wait to be
+   * admitted.
+   *
+   * @return the number of waits
+   */
+  public synchronized long getWaitCount() {
+    return this.waits;
+  }
+
+  /**
+   * Returns the name of the database with the largest measured
+   * footprint so far, or {@code null} if none has been measured.
+   *
+   * @return the name of the largest database, or {@code null}
+   */
+  public synchronized String getLargestDatabaseName() {
+    return this.largestName;
+  }
+
+  /**
+   * Returns the largest measured footprint so far, in bytes.
+   *
+   * @return the largest footprint, in bytes
+   */
+  public synchronized long getLargestFootprint() {
+    return this.largestBytes;
+  }
+
+  /**
+   * Returns a summary of this {@link H2MemoryGovernor}'s state.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  @Override
+  public synchronized String toString() {
+    return
+      "H2MemoryGovernor[budget=" + this.budget +
+      ", reserved=" + this.reserved +
+      ", estimate=" + this.estimate +
+      ", live=" + this.live +
+      ", peakLive=" + this.peakLive +
+      ", waits=" + this.waits +
+      ", waitMillis=" + (this.waitNanos / 1000000L) +
+      ", largest=" + this.largestName + "(" + this.largestBytes + ")" +
+      "]";
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns the process-wide {@link H2MemoryGovernor} used by every
+   * {@link H2Rule}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the non-{@code null} process-wide {@link
+   * H2MemoryGovernor}
+   */
+  public static final H2MemoryGovernor getInstance() {
+    return instance;
+  }
+
+  /**
+   * Returns a rough estimate, in bytes, of the memory held by the
+   * tables of the H2 database reachable via the supplied {@link
+   * Connection}.
+   *
+   * <p>The estimate multiplies each table's {@code
+   * ROW_COUNT_ESTIMATE} by the sum of its columns' declared widths
+   * plus a fixed per-row overhead.  Character and binary columns are
+   * counted at their declared length, capped at 256, so the estimate
+   * is meant for comparing databases with one another, not for exact
+   * accounting.</p>
+   *
+   * @param c a {@link Connection} to an H2 database; must not be
+   * {@code null}
+   *
+   * @return the estimated footprint, in bytes
+   *
+   * @exception IllegalArgumentException if {@code c} is {@code null}
+   *
+   * @exception SQLException if a database error occurs
+   */
+  public static final long measure(final Connection c) throws SQLException {
+    if (c == null) {
+      throw new IllegalArgumentException("c", new NullPointerException("c"));
+    }
+    long bytes = 0L;
+    final Statement s = c.createStatement();
+    try {
+      final ResultSet rs = s.executeQuery("SELECT T.ROW_COUNT_ESTIMATE, C.DATA_TYPE, C.CHARACTER_MAXIMUM_LENGTH, C.ORDINAL_POSITION FROM INFORMATION_SCHEMA.TABLES T JOIN INFORMATION_SCHEMA.COLUMNS C ON C.TABLE_CATALOG = T.TABLE_CATALOG AND C.TABLE_SCHEMA = T.TABLE_SCHEMA AND C.TABLE_NAME = T.TABLE_NAME WHERE T.TABLE_TYPE = 'TABLE'");
+      try {
+        while (rs.next()) {
+          final long rows = rs.getLong(1);
+          bytes += rows * columnWidth(rs.getInt(2), rs.getLong(3));
+          if (rs.getInt(4) == 1) {
+            bytes += rows * ROW_OVERHEAD;
+          }
+        }
+      } finally {
+        rs.close();
+      }
+    } finally {
+      try {
+        s.close();
+      } catch (final SQLException ignore) {
+
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Returns the estimated width, in bytes, of a value of a column of
+   * the supplied {@linkplain Types SQL type}.
+   *
+   * @param sqlType a {@link Types} constant
+   *
+   * @param maximumLength the declared maximum length of the column, if
+   * it is a character or binary column
+   *
+   * @return the estimated width, in bytes
+   */
+  private static final long columnWidth(final int sqlType, final long maximumLength) {
+    switch (sqlType) {
+    case Types.CHAR:
+    case Types.VARCHAR:
+    case Types.LONGVARCHAR:
+    case Types.NCHAR:
+    case Types.NVARCHAR:
+    case Types.CLOB:
+      return 40L + 2L * Math.min(Math.max(maximumLength, 0L), 256L);
+    case Types.BINARY:
+    case Types.VARBINARY:
+    case Types.LONGVARBINARY:
+    case Types.BLOB:
+      return 16L + Math.min(Math.max(maximumLength, 0L), 256L);
+    default:
+      return 16L;
+    }
+  }
+
+  /**
+   * Parses a number of bytes optionally followed by {@code k}, {@code
+   * m} or {@code g}.
+   *
+   * @param budget the {@link String} to parse; may be {@code null}
+   *
+   * @return the number of bytes, or {@link Long#MAX_VALUE} if {@code
+   * budget} is {@code null} or empty
+   *
+   * @exception IllegalArgumentException if {@code budget} cannot be
+   * parsed
+   */
+  static final long parseBudget(final String budget) {
+    if (budget == null || budget.trim().isEmpty()) {
+      return Long.MAX_VALUE;
+    }
+    String number = budget.trim().toLowerCase();
+    long multiplier = 1L;
+    final char last = number.charAt(number.length() - 1);
+    if (last == 'k') {
+      multiplier = 1024L;
+    } else if (last == 'm') {
+      multiplier = 1024L * 1024L;
+    } else if (last == 'g') {
+      multiplier = 1024L * 1024L * 1024L;
+    }
+    if (multiplier != 1L) {
+      number = number.substring(0, number.length() - 1).trim();
+    }
+    try {
+      return Long.parseLong(number) * multiplier;
+    } catch (final NumberFormatException oops) {
+      throw new IllegalArgumentException("budget: " + budget, oops);
+    }
+  }
+
+}
@@ -27,20 +27,21 @@
  */
 package com.edugility.liquiunit;
 
-import java.io.PrintWriter;
-
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Queue;
 
-import java.util.logging.Logger;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.sql.DataSource;
 
+import liquibase.logging.LogLevel;
+
 import org.junit.rules.ExternalResource;
 
 import org.junit.runner.Description;
@@ -53,8 +54,16 @@ import org.junit.runners.model.Statement;
  * Connection}s, with some additional special characteristics suited
  * particularly for thread-safe, parallel in-memory unit testing.
  *
- * <p>As with all {@link ExternalResource}s, this class is not safe
- * for use by multiple concurrent threads.</p>
+ * <p>The in-memory database fronted by an {@link H2Rule} belongs to
+ * that {@link H2Rule} and to the current test, not to the {@link
+ * Thread} that happened to run the test, so {@link Connection}s
+ * acquired from any thread&mdash;including the threads of an
+ * {@link ExecutorService} {@linkplain #newExecutorService() supplied}
+ * by this {@link H2Rule}&mdash;reach the same database.</p>
+ *
+ * <p>The state that an {@link H2Rule} keeps for a test is confined
+ * to that test, so a single {@link H2Rule} may wrap several tests
+ * that run concurrently.</p>
  *
  * <p>Instances of this class are often passed to {@linkplain
  * LiquiunitRule#LiquiunitRule(DataSource, String[])
@@ -70,41 +79,49 @@ import org.junit.runners.model.Statement;
  * @see <a href="http://www.h2database.com/">the H2 database
  * website</a>
  */
-public class H2Rule extends ExternalResource implements DataSource {
+public class H2Rule extends DatabaseRule {
 
-  /**
-   * The {@link Description} describing the current JUnit test.
-   *
-   * <p>This field may be {@code null}.</p>
+
+  /*
+   * Static fields.
    */
-  private volatile Description description;
+
 
   /**
-   * The current, open {@link Connection} to an H2 database.
+   * The H2 {@link java.sql.Driver}, {@linkplain
+   * java.sql.Driver#connect(String, java.util.Properties) invoked
+   * directly} rather than through {@link java.sql.DriverManager} so
+   * that acquiring a {@link Connection} involves no global lock.
    *
-   * <p>This field may be {@code null}.</p>
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final java.sql.Driver driver = org.h2.Driver.load();
+
+
+  /*
+   * Instance fields.
    */
-  private volatile Connection c;
+
 
   /**
-   * The username to use when {@linkplain #getConnection(String,
-   * String) acquiring} {@link Connection}s.
+   * The {@link H2MemoryGovernor} that admits this {@link H2Rule}'s
+   * databases and accounts for their footprints.
    *
-   * <p>This field may be {@code null}.</p>
+   * <p>This field is never {@code null}.</p>
    *
-   * @see #getConnection(String, String)
+   * @see #getMemoryGovernor()
    */
-  private final String username;
+  private final H2MemoryGovernor memoryGovernor;
 
   /**
-   * The password to use when {@linkplain #getConnection(String,
-   * String) acquiring} {@link Connection}s.
+   * The {@link Invocation}s describing the tests currently wrapped by
+   * this {@link H2Rule}.
    *
-   * <p>This field may be {@code null}.</p>
+   * <p>This field is never {@code null}.</p>
    *
-   * @see #getConnection(String, String)
+   * @see #apply(Statement, Description)
    */
-  private final String password;
+  private final InvocationState<Invocation> invocations;
 
   /**
    * Any <a
@@ -129,6 +146,17 @@ public class H2Rule extends ExternalResource implements DataSource {
    */
   private final H2Archive archive;
 
+  /**
+   * The {@link H2Server} hosting the in-memory H2 databases fronted
+   * by this {@link H2Rule}.
+   *
+   * <p>This field may be {@code null}, in which case the databases
+   * are hosted inside the current JVM.</p>
+   *
+   * @see #H2Rule(String, String, String, H2Archive, H2Server)
+   */
+  private final H2Server server;
+
 
   /*
    * Constructors.
@@ -231,7 +259,7 @@ public class H2Rule extends ExternalResource implements DataSource {
    * @param archive the {@link H2Archive} that can backup and restore
    * the H2 database; may be {@code null}
    *
-   * @see #H2Rule(String, String, String, H2Archive)
+   * @see #H2Rule(String, String, String, H2Archive, H2Server)
    *
    * @see #getConnection(String, String)
    *
@@ -244,11 +272,49 @@ public class H2Rule extends ExternalResource implements DataSource {
    * Execute SQL on Connection section of the H2 documentation</a>
    */
   public H2Rule(final String username, final String password, final String initSql, final H2Archive archive) {
-    super();
-    this.username = username;
-    this.password = password;
+    this(username, password, initSql, archive, null);
+  }
+
+  /**
+   * Creates a new {@link H2Rule}.
+   *
+   * @param username the username to use when {@linkplain
+   * #getConnection(String, String) acquiring} {@link Connection}s;
+   * may be {@code null}
+   *
+   * @param password the password to use when {@linkplain
+   * #getConnection(String, String) acquiring} {@link Connection}s;
+   * may be {@code null} but in normal usage probably should not be
+   *
+   * @param initSql any <a
+   * href="http://www.h2database.com/html/features.html#execute_sql_on_connection">initialization
+   * SQL</a> to pass to the H2 database upon initial connection; may
+   * be {@code null}
+   *
+   * @param archive the {@link H2Archive} that can backup and restore
+   * the H2 database; may be {@code null}
+   *
+   * @param server the {@link H2Server} that will host the in-memory
+   * H2 databases fronted by this {@link H2Rule}; may be {@code null}
+   * in which case they will be hosted inside the current JVM
+   *
+   * @see #getConnection(String, String)
+   *
+   * @see DataSource#getConnection(String, String)
+   *
+   * @see H2Archive
+   *
+   * @see H2Server
+   *
+   * @see FileLockingH2Archive
+   */
+  public H2Rule(final String username, final String password, final String initSql, final H2Archive archive, final H2Server server) {
+    super(username, password);
     this.initSql = initSql;
     this.archive = archive;
+    this.server = server;
+    this.memoryGovernor = H2MemoryGovernor.getInstance();
+    this.invocations = new InvocationState<Invocation>();
   }
 
 
@@ -257,24 +323,21 @@ public class H2Rule extends ExternalResource implements DataSource {
    */
 
 
-  public Map<?, ?> getJPAProperties() {
-    final Map<String, String> properties = new HashMap<String, String>(7);
-    properties.put("javax.persistence.jdbc.user", this.username);
-    properties.put("javax.persistence.jdbc.password", this.password);
-    properties.put("javax.persistence.jdbc.driver", org.h2.Driver.class.getName());
-    properties.put("javax.persistence.jdbc.url", this.getConnectionURL());
-    return properties;
-  }
-
   /**
    * Overrides the {@link ExternalResource#apply(Statement,
    * Description)} method to store the supplied {@link Description}
    * for usage by the {@link #getConnection(String, String)} method
-   * internally and returns the superclass' return value.
+   * internally and returns a {@link Statement} that wraps the
+   * superclass' return value.
+   *
+   * <p>The supplied {@link Description}, together with the {@link
+   * Connection} opened by the {@link #before()} method, is confined
+   * to the test being wrapped, so a single {@link H2Rule} may wrap
+   * several tests that run concurrently (for example under a {@link
+   * org.junit.experimental.ParallelComputer}).  Threads created by
+   * the thread running a test see that test's database.</p>
    *
-   * <p>It must be assumed that this method may return {@code null}
-   * since the superclass documentation does not mention whether the
-   * return value must be non-{@code null}.</p>
+   * <p>This method never returns {@code null}.</p>
    *
    * @param base the {@link Statement} to decorate; the superclass
    * documentation does not define what behavior will occur if this
@@ -284,7 +347,7 @@ public class H2Rule extends ExternalResource implements DataSource {
    * underway; the superclass documentation does not define what
    * behavior will occur if this parameter is {@code null}
    *
-   * @return a {@link Statement}; possibly {@code null}
+   * @return a non-{@code null} {@link Statement}
    *
    * @see #getConnection(String, String)
    *
@@ -292,15 +355,21 @@ public class H2Rule extends ExternalResource implements DataSource {
    */
   @Override
   public Statement apply(final Statement base, final Description description) {
-    this.description = description;
-    return super.apply(base, description);
+    return this.invocations.apply(super.apply(base, description), new Invocation(description));
   }
 
   /**
-   * {@linkplain #getConnection(String, String) Opens a new
-   * <code>Connection</code>} to a thread-private H2 in-memory
-   * database and restores any state that was stored by the {@link
-   * #after()} method.
+   * Waits for the {@linkplain #getMemoryGovernor() memory governor}
+   * to admit a new database, {@linkplain H2Server#acquire() acquires}
+   * any {@link H2Server} supplied at construction time, {@linkplain
+   * #getConnection(String,
+   * String) opens a new <code>Connection</code>} to the H2 in-memory
+   * database belonging to this {@link H2Rule} and the current test and restores any state that was stored by
+   * the {@link #after()} method.
+   *
+   * <p>The {@linkplain H2MemoryGovernor#measure(Connection) estimated
+   * footprint} of the database is logged at the debug level once it
+   * has been restored.</p>
    *
    * @see #getConnection(String, String)
    *
@@ -321,16 +390,112 @@ public class H2Rule extends ExternalResource implements DataSource {
    */
   @Override
   protected void before() throws SQLException {
-    this.c = this.getConnection(this.username, this.password);
-    if (this.c == null) {
-      throw new IllegalStateException("this.getConnection()", new NullPointerException("this.getConnection()"));
+    final Invocation invocation = this.invocations.get();
+    if (invocation == null) {
+      throw new IllegalStateException("before() called outside of apply()");
     }
-    this.configureConnection(this.c);
-    if (!this.c.isValid(0)) {
-      throw new IllegalStateException("this.getConnection().isValid(0)");
+    final String databaseName = this.getDatabaseName();
+    invocation.reservation = this.memoryGovernor.acquire(databaseName);
+    boolean admitted = false;
+    try {
+      if (this.server != null) {
+        this.server.acquire();
+        invocation.serverAcquired = true;
+      }
+      final Connection c = this.getConnection();
+      if (c == null) {
+        throw new IllegalStateException("this.getConnection()", new NullPointerException("this.getConnection()"));
+      }
+      invocation.c = c;
+      this.configureConnection(c);
+      if (!c.isValid(0)) {
+        throw new IllegalStateException("this.getConnection().isValid(0)");
+      }
+      if (this.archive != null) {
+        this.archive.loadUnlessEmpty(invocation.description, c);
+      }
+      if (this.isDebugEnabled()) {
+        this.logger.debug("Database " + databaseName + " footprint before test: " + H2MemoryGovernor.measure(c) + " bytes; JVM memory used: " + memoryUsed(c) + " KB");
+      }
+      admitted = true;
+    } finally {
+      if (!admitted) {
+        // JUnit does not call after() when before() fails.
+        final Connection c = invocation.c;
+        invocation.c = null;
+        if (c != null) {
+          try {
+            c.close();
+          } catch (final SQLException ignore) {
+
+          }
+        }
+        if (this.archive != null) {
+          this.archive.abandon(invocation.description);
+        }
+        this.releaseServer(invocation);
+        this.memoryGovernor.release(invocation.reservation, databaseName, -1L);
+        invocation.reservation = -1L;
+      }
     }
-    if (this.archive != null) {
-      this.archive.loadUnlessEmpty(this.description, this.c);
+  }
+
+  /**
+   * {@linkplain H2Server#release() Releases} the {@link H2Server}
+   * supplied at construction time if the supplied {@link Invocation}
+   * {@linkplain H2Server#acquire() acquired} it.
+   *
+   * @param invocation the {@link Invocation} in question; must not
+   * be {@code null}
+   */
+  private final void releaseServer(final Invocation invocation) {
+    assert invocation != null;
+    if (invocation.serverAcquired) {
+      invocation.serverAcquired = false;
+      this.server.release();
+    }
+  }
+
+  /**
+   * Returns {@code true} if this {@link H2Rule}'s {@linkplain #logger
+   * logger} is set to log debug messages, so that the measurements
+   * that only such messages report are taken only when they will be
+   * logged.
+   *
+   * @return {@code true} if debug messages are logged
+   *
+   * @see liquibase.logging.Logger#getLogLevel()
+   */
+  private final boolean isDebugEnabled() {
+    return LogLevel.DEBUG.equals(this.logger.getLogLevel());
+  }
+
+  /**
+   * Returns the result of H2's {@code MEMORY_USED()} function, which
+   * is the number of kilobytes of heap in use by the whole JVM.
+   *
+   * @param c an open {@link Connection}; must not be {@code null}
+   *
+   * @return the number of kilobytes in use
+   *
+   * @exception SQLException if a database error occurs
+   */
+  private static final long memoryUsed(final Connection c) throws SQLException {
+    assert c != null;
+    final java.sql.Statement s = c.createStatement();
+    try {
+      final ResultSet rs = s.executeQuery("SELECT MEMORY_USED()");
+      try {
+        return rs.next() ? rs.getLong(1) : -1L;
+      } finally {
+        rs.close();
+      }
+    } finally {
+      try {
+        s.close();
+      } catch (final SQLException ignore) {
+
+      }
     }
   }
 
@@ -348,11 +513,11 @@ public class H2Rule extends ExternalResource implements DataSource {
 
   }
 
-  private final void setDbCloseDelay() throws SQLException {
-    if (this.c == null) {
+  private final void setDbCloseDelay(final Connection c) throws SQLException {
+    if (c == null) {
       throw new IllegalStateException("this.getConnection()", new NullPointerException("this.getConnection()"));
     }
-    final java.sql.Statement statement = this.c.createStatement();
+    final java.sql.Statement statement = c.createStatement();
     assert statement != null;
     ResultSet rs = null;
     try {
@@ -385,9 +550,24 @@ public class H2Rule extends ExternalResource implements DataSource {
 
   /**
    * Ensures that the current H2 database is {@linkplain
-   * H2Archive#saveIfEmpty(Description, Connection) backed up} and <a
+   * H2Archive#saveIfEmpty(Description, Connection) backed up}, unless
+   * it has been {@linkplain #excludeFromArchive() excluded} or
+   * {@linkplain #saveToArchive() already backed up}, and <a
    * href="http://www.h2database.com/html/grammar.html?highlight=shutdown&search=shutdown#shutdown">shut
-   * down properly</a>.
+   * down properly</a>, {@linkplain H2Server#release() releases}
+   * any {@link H2Server} supplied at construction time, and
+   * {@linkplain ExecutorService#shutdownNow() shuts down} any {@link
+   * ExecutorService}s {@linkplain #newExecutorService() created} for
+   * the current test.
+   *
+   * <p>The {@linkplain H2MemoryGovernor#measure(Connection) estimated
+   * footprint} of the database is logged at the debug level and
+   * reported to the {@linkplain #getMemoryGovernor() memory governor}
+   * as the database's reservation is released.</p>
+   *
+   * <p>If any JDBC calls were made on virtual threads during the
+   * test, the {@linkplain #getVirtualThreadMonitor() statistics}
+   * describing how long they took are logged.</p>
    *
    * @see #before()
    *
@@ -395,21 +575,63 @@ public class H2Rule extends ExternalResource implements DataSource {
    */
   @Override
   protected void after() {
-    if (this.c != null) {
+    final Invocation invocation = this.invocations.get();
+    if (invocation == null) {
+      return;
+    }
+    try {
+      this.closeDatabase(invocation);
+    } finally {
+      this.releaseServer(invocation);
+    }
+  }
+
+  /**
+   * Implements the {@link #after()} method, apart from {@linkplain
+   * H2Server#release() releasing} the {@link H2Server}.
+   *
+   * @param invocation the current {@link Invocation}; must not be
+   * {@code null}
+   */
+  private final void closeDatabase(final Invocation invocation) {
+    assert invocation != null;
+    this.shutdownExecutorServices(invocation);
+    if (invocation.virtualThreadMonitor.getVirtualCallCount() > 0L) {
+      this.logger.warning("JDBC calls made on virtual threads may have pinned their carrier threads (run with -Djdk.tracePinnedThreads=short to see which did): " + invocation.virtualThreadMonitor);
+    }
+    final Connection c = invocation.c;
+    if (c != null) {
 
+      final String databaseName = this.getDatabaseName();
+      long footprint = -1L;
       try {
 
-        if (this.archive != null) {
-          try {
-            this.archive.saveIfEmpty(this.description, this.c);
-          } catch (final SQLException oops) {
-            throw new IllegalStateException(oops);
+        try {
+          // The footprint is always needed, to refine the memory
+          // governor's estimate.
+          footprint = H2MemoryGovernor.measure(c);
+          if (this.isDebugEnabled()) {
+            this.logger.debug("Database " + databaseName + " footprint after test: " + footprint + " bytes; JVM memory used: " + memoryUsed(c) + " KB");
+          }
+        } catch (final SQLException oops) {
+          this.logger.warning("Could not measure database " + databaseName, oops);
+        }
+
+        if (this.archive != null && !invocation.archived) {
+          if (invocation.archivable) {
+            try {
+              this.archive.saveIfEmpty(invocation.description, c);
+            } catch (final SQLException oops) {
+              throw new IllegalStateException(oops);
+            }
+          } else {
+            this.archive.abandon(invocation.description);
           }
         }
 
         java.sql.Statement s = null;
         try {
-          s = this.c.createStatement();
+          s = c.createStatement();
           assert s != null;
           s.execute("SHUTDOWN");
         } catch (final SQLException shutdownProblem) {
@@ -426,100 +648,189 @@ public class H2Rule extends ExternalResource implements DataSource {
 
       } finally {
         try {
-          this.c.close();
+          c.close();
         } catch (final SQLException ignore) {
 
         }
+        if (invocation.reservation >= 0L) {
+          this.memoryGovernor.release(invocation.reservation, databaseName, footprint);
+          invocation.reservation = -1L;
+        }
       }
 
-      this.c = null;
+      invocation.c = null;
     }
-    this.description = null; // XXX TODO INVESTIGATE: not sure this is proper
   }
 
   /**
-   * Returns the return value of the {@link
-   * DriverManager#getLoginTimeout()} method.
-   *
-   * @return the return value of the {@link
-   * DriverManager#getLoginTimeout()} method
+   * Notes that the current test's database will not hold the schema
+   * that a full migration produces, so that the {@link #after()}
+   * method {@linkplain H2Archive#abandon(Description) abandons}
+   * rather than {@linkplain H2Archive#saveIfEmpty(Description,
+   * Connection) saves} it.
+   *
+   * <p>A {@link LiquiunitRule} calls this method when it applies only
+   * some changesets, as it does for tests annotated with {@link
+   * RequiresTables}, {@link StartAtTag} or {@link Rehearse}.</p>
+   *
+   * @exception IllegalStateException if this method is called outside
+   * of a test
    */
   @Override
-  public final int getLoginTimeout() {
-    return DriverManager.getLoginTimeout();
+  public void excludeFromArchive() {
+    final Invocation invocation = this.invocations.get();
+    if (invocation == null) {
+      throw new IllegalStateException("excludeFromArchive() called outside of apply()");
+    }
+    invocation.archivable = false;
   }
 
   /**
-   * Calls the {@link DriverManager#setLoginTimeout(int)} method
-   * supplying it with the value of the supplied {@code timeout}
-   * parameter.
+   * {@linkplain H2Archive#saveIfEmpty(Description, Connection) Saves}
+   * the current test's database to the {@link H2Archive} supplied at
+   * construction time now, rather than after the test, unless it has
+   * been {@linkplain #excludeFromArchive() excluded}, in which case
+   * the database is {@linkplain H2Archive#abandon(Description)
+   * abandoned} instead.
+   *
+   * <p>A {@link LiquiunitRule} calls this method as soon as it has
+   * successfully migrated the database, so that the archive holds the
+   * migrated schema and not whatever the test body then does to it,
+   * and so that other tests waiting for the archive to be built need
+   * not wait for the test body to finish.  Once this method has been
+   * called, the {@link #after()} method leaves the archive alone.</p>
+   *
+   * @return {@code true} if a save actually occurred; {@code false}
+   * otherwise
+   *
+   * @exception IllegalStateException if this method is called outside
+   * of a test
    *
-   * @param timeout the timeout value
+   * @exception SQLException if a database error occurs
    */
   @Override
-  public final void setLoginTimeout(final int timeout) {
-    DriverManager.setLoginTimeout(timeout);
+  public boolean saveToArchive() throws SQLException {
+    final Invocation invocation = this.invocations.get();
+    if (invocation == null || invocation.c == null) {
+      throw new IllegalStateException("saveToArchive() called outside of a test");
+    }
+    boolean returnValue = false;
+    if (this.archive != null && !invocation.archived) {
+      invocation.archived = true;
+      if (invocation.archivable) {
+        returnValue = this.archive.saveIfEmpty(invocation.description, invocation.c);
+      } else {
+        this.archive.abandon(invocation.description);
+      }
+    }
+    return returnValue;
   }
 
   /**
-   * Returns the return value of the {@link
-   * DriverManager#getLogWriter()} method.  This method may return
-   * {@code null}.
-   *
-   * @return the return value of the {@link
-   * DriverManager#getLogWriter()} method, or {@code null}
+   * {@linkplain ExecutorService#shutdownNow() Shuts down} every
+   * {@link ExecutorService} {@linkplain #newExecutorService() created}
+   * for the test described by the supplied {@link Invocation} and
+   * waits briefly for its tasks to notice, so that none of them
+   * outlives the database it uses.
+   *
+   * @param invocation the {@link Invocation} whose {@link
+   * ExecutorService}s should be shut down; must not be {@code null}
    */
-  @Override
-  public final PrintWriter getLogWriter() {
-    return DriverManager.getLogWriter();
+  private final void shutdownExecutorServices(final Invocation invocation) {
+    assert invocation != null;
+    ExecutorService executorService;
+    while ((executorService = invocation.executorServices.poll()) != null) {
+      executorService.shutdownNow();
+      try {
+        if (!executorService.awaitTermination(10L, TimeUnit.SECONDS)) {
+          this.logger.warning("Tasks submitted to " + executorService + " did not terminate");
+        }
+      } catch (final InterruptedException interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
   }
 
   /**
-   * Calls the {@link DriverManager#setLogWriter(PrintWriter)}
-   * method, supplying it with the value of the supplied {@code
-   * writer} parameter.
+   * Returns a new {@link ExecutorService} that code under test may
+   * use to fan work out to other threads, every one of which will
+   * reach the same in-memory database through this {@link H2Rule}.
+   *
+   * <p>On JVMs that support them, the {@link ExecutorService} starts
+   * a new <a href="https://openjdk.org/jeps/444">virtual thread</a>
+   * for each task; otherwise it is a {@linkplain
+   * java.util.concurrent.Executors#newCachedThreadPool() cached thread
+   * pool}.  Either way it is {@linkplain ExecutorService#shutdownNow()
+   * shut down} by the {@link #after()} method.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new, non-{@code null} {@link ExecutorService}
+   *
+   * @exception IllegalStateException if no test is underway
    *
-   * @param writer the {@link PrintWriter} to which the underlying
-   * {@link DriverManager} will log; may be {@code null}
+   * @see VirtualThreadMonitor#newExecutorService()
+   *
+   * @see #getVirtualThreadMonitor()
    */
-  @Override
-  public final void setLogWriter(final PrintWriter writer) {
-    DriverManager.setLogWriter(writer);
+  public ExecutorService newExecutorService() {
+    final Invocation invocation = this.invocations.get();
+    if (invocation == null) {
+      throw new IllegalStateException("newExecutorService() called outside of a test");
+    }
+    final ExecutorService executorService = VirtualThreadMonitor.newExecutorService();
+    assert executorService != null;
+    invocation.executorServices.add(executorService);
+    return executorService;
   }
 
   /**
-   * Returns the result of invoking the {@link
-   * Logger#getLogger(String)} method with an argument of "{@code
-   * com.edugility}".
+   * Returns the {@link VirtualThreadMonitor} that counts the JDBC
+   * calls made on virtual threads through {@link Connection}s
+   * {@linkplain #getConnection(String, String) acquired} from this
+   * {@link H2Rule} during the current test.
+   *
+   * <p>Each test gets its own {@link VirtualThreadMonitor}, so its
+   * statistics never include calls made by other tests.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link VirtualThreadMonitor}
    *
-   * @return a {@link Logger}; never {@code null}
+   * @exception IllegalStateException if no test is underway
    */
-  // @Override // when Java 7 is a minimal requirement
-  public Logger getParentLogger() {
-    return Logger.getLogger("com.edugility");
+  public final VirtualThreadMonitor getVirtualThreadMonitor() {
+    final Invocation invocation = this.invocations.get();
+    if (invocation == null) {
+      throw new IllegalStateException("getVirtualThreadMonitor() called outside of a test");
+    }
+    return invocation.virtualThreadMonitor;
   }
 
   /**
-   * Returns a new, open {@link Connection} to an in-memory H2
-   * database that is safe for use by the current {@link Thread}.
+   * Returns the {@link H2MemoryGovernor} that admits this {@link
+   * H2Rule}'s databases and accounts for their footprints.
+   *
+   * <p>This method never returns {@code null}.</p>
    *
-   * @return a non-{@code null} {@link Connection}
+   * @return a non-{@code null} {@link H2MemoryGovernor}
    *
-   * @exception SQLException if a {@link Connection} could not be
-   * created
+   * @see H2MemoryGovernor#getInstance()
    */
-  @Override
-  public Connection getConnection() throws SQLException {
-    return this.getConnection(this.username, this.password);
+  public final H2MemoryGovernor getMemoryGovernor() {
+    return this.memoryGovernor;
   }
 
   /**
-   * Internally uses the {@link DriverManager#getConnection(String,
-   * String, String)} method to create a {@link Connection} to a new,
+   * Internally {@linkplain java.sql.Driver#connect(String,
+   * java.util.Properties) invokes the H2 <code>Driver</code>
+   * directly}&mdash;bypassing the synchronized scan of registered
+   * drivers performed by {@link DriverManager#getConnection(String,
+   * String, String)}&mdash;to create a {@link Connection} to a new,
    * in-memory H2 database that is <a
    * href="https://groups.google.com/d/msg/h2-database/FjteyQPoiGg/IffNPLQjirAJ"
-   * target="_parent">safe for use</a> by the current {@link Thread},
-   * not just the current JVM.
+   * target="_parent">private</a> to this {@link H2Rule} and the
+   * current test, not just the current JVM.
    *
    * <p>In-memory H2 databases by default are private to a given
    * {@link Connection}.  For most unit- and integration-testing
@@ -532,26 +843,40 @@ public class H2Rule extends ExternalResource implements DataSource {
    * <p>This is easy to do, of course&mdash;you simply name the
    * database (e.g. {@code jdbc:h2:mem:fred} instead of just {@code
    * jdbc:h2:mem:}).  But you want to isolate this name from other
-   * threads and processes that might try to connect to it, so you
-   * need to pick a name that is unique to the current {@link Thread}.
-   * This method accomplishes just such a {@link Connection}.</p>
+   * rules and processes that might try to connect to it, so you need
+   * to pick a name that is unique to this {@link H2Rule}.  Because
+   * the name does not depend on the calling {@link Thread}, code under
+   * test may hand work off to other threads (virtual or not) and still
+   * see the same database.  This method accomplishes just such a
+   * {@link Connection}.</p>
    *
    * <p>The JDBC URL that is used to open a {@link Connection} is
    * built according to the following template:</p>
    *
-   * <blockquote><pre>jdbc:h2:mem:[TEST_NAME-]pid=PID-thread=THREAD_ID[;INIT=INIT_SQL]</pre></blockquote>
+   * <blockquote><pre>jdbc:h2:mem:[TEST_NAME-]pid=PID-rule=RULE_ID[;INIT=INIT_SQL]</pre></blockquote>
    *
    * <p>...where brackets denote optional elements, {@code TEST_NAME}
    * is the return value of the {@link Description#getDisplayName()}
    * method, {@code PID} is the return value of the {@link #pid()}
-   * method, {@code THREAD_ID} is the return value of the {@link
-   * Thread#getId()} method when invoked on the {@linkplain
-   * Thread#currentThread() current <code>Thread</code>} and {@code
-   * INIT_SQL} is the initialization SQL passed to {@linkplain
-   * #H2Rule(String, String, String) the constructor}.</p>
+   * method, {@code RULE_ID} is a number identifying this {@link
+   * H2Rule} within the current JVM and {@code INIT_SQL} is the
+   * initialization SQL passed to {@linkplain #H2Rule(String, String,
+   * String) the constructor}.</p>
+   *
+   * <p>If an {@link H2Server} was supplied at {@linkplain
+   * #H2Rule(String, String, String, H2Archive, H2Server) construction
+   * time}, then the {@code jdbc:h2:mem:} prefix is replaced by the
+   * prefix returned by the {@link H2Server#getURL(String)} method, and
+   * the {@link Connection} is opened by the {@link
+   * H2Server#getConnection(String, String, String)} method so that it
+   * is included in that {@link H2Server}'s statistics.</p>
    *
    * <p>The {@link Connection} returned is guaranteed to be non-{@code
-   * null} and not {@linkplain Connection#isClosed() closed}.</p>
+   * null} and not {@linkplain Connection#isClosed() closed}.  On JVMs
+   * that support virtual threads it is {@linkplain
+   * VirtualThreadMonitor#wrap(Connection) wrapped} so that calls made
+   * on virtual threads are counted by the current test's {@linkplain
+   * #getVirtualThreadMonitor() <code>VirtualThreadMonitor</code>}.</p>
    *
    * @param username the username to use; may be {@code null}
    *
@@ -561,6 +886,8 @@ public class H2Rule extends ExternalResource implements DataSource {
    *
    * @exception SQLException if an error occurs
    *
+   * @exception IllegalStateException if no test is underway
+   *
    * @see DriverManager#getConnection(String, String, String)
    *
    * @see DriverManager#getConnection(String)
@@ -571,27 +898,73 @@ public class H2Rule extends ExternalResource implements DataSource {
    */
   @Override
   public Connection getConnection(final String username, final String password) throws SQLException {
-    final String url = this.getConnectionURL();
-    if (username != null) {
-      return DriverManager.getConnection(url, username, password);
+    final Connection connection;
+    if (this.server != null) {
+      connection = this.server.getConnection(this.getDatabaseName(), username, password);
     } else {
-      return DriverManager.getConnection(url);
+      connection = DriverManagerDataSource.connect(driver, this.getConnectionURL(), username, password);
     }
+    return this.getVirtualThreadMonitor().wrap(connection);
   }
 
+  @Override
   public String getConnectionURL() {
-    final StringBuilder sb = new StringBuilder("jdbc:h2:mem:");
-    if (this.description != null) {
-      final String displayName = this.description.getDisplayName();
+    if (this.server != null) {
+      return this.server.getURL(this.getDatabaseName());
+    }
+    return "jdbc:h2:mem:" + this.getDatabaseName();
+  }
+
+  /**
+   * Returns the H2 {@link java.sql.Driver}, which accepts both the
+   * in-memory URLs and those of an {@link H2Server}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param url a JDBC URL; ignored
+   *
+   * @return the non-{@code null} H2 {@link java.sql.Driver}
+   */
+  @Override
+  protected final java.sql.Driver getDriver(final String url) {
+    return driver;
+  }
+
+  /**
+   * Returns the name of the in-memory H2 database to which the {@link
+   * #getConnection(String, String)} method will connect, followed by
+   * any <a
+   * href="http://www.h2database.com/html/features.html#execute_sql_on_connection">initialization
+   * SQL</a>.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} database name
+   *
+   * @exception IllegalStateException if no test is underway, since
+   * there is then no database to name
+   *
+   * @see #getConnection(String, String)
+   */
+  private final String getDatabaseName() {
+    final Invocation invocation = this.invocations.get();
+    if (invocation == null) {
+      throw new IllegalStateException("No database outside of a test");
+    }
+    final StringBuilder sb = new StringBuilder();
+    if (invocation.description != null) {
+      final String displayName = invocation.description.getDisplayName();
       if (displayName != null) {
-        sb.append(displayName);
+        // Semicolons would be taken for the start of H2 settings;
+        // Parameterized test names can contain them.
+        sb.append(displayName.replace(';', '_'));
         sb.append("-");
       }
     }
     sb.append("pid=");
     sb.append(this.pid());
-    sb.append("-thread=");
-    sb.append(Thread.currentThread().getId());
+    sb.append("-rule=");
+    sb.append(this.getId());
     if (this.initSql != null) {
       final String sql = this.initSql.trim();
       if (sql != null && !sql.isEmpty()) {
@@ -602,59 +975,102 @@ public class H2Rule extends ExternalResource implements DataSource {
     return sb.toString();
   }
 
-  /**
-   * Returns {@code false} when invoked.
-   *
-   * @param cls a {@link Class} that is ignored
-   *
-   * @return {@code false} in all cases
-   */
-  @Override
-  public final boolean isWrapperFor(final Class<?> cls) {
-    return false;
-  }
 
-  /**
-   * Throws a {@link SQLException} when invoked.
-   *
-   * @param cls a {@link Class} that is ignored
-   *
-   * @return {@code null} in all cases
-   *
-   * @exception SQLException when invoked
+
+  /*
+   * Inner and nested classes.
    */
-  @Override
-  public final <T> T unwrap(final Class<T> cls) throws SQLException {
-    throw new SQLException(new UnsupportedOperationException("unwrap"));
-  }
+
 
   /**
-   * Returns the current process identifier as a {@link String}.
-   *
-   * <p>This method may return {@code null} in exceptional
-   * circumstances.</p>
+   * The state an {@link H2Rule} keeps for each test it wraps.
    *
-   * <p>The default implementation returns a {@link String} resulting
-   * from the following invocation:</p>
-   *
-   * <blockquote><pre>java.lang.management.ManagementFactory.getRuntimeMXBean().getName().substring(0, name.indexOf('@'));</pre></blockquote>
-   *
-   * @return the current process identifier as a {@link String}, or
-   * {@code null}
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
    *
-   * @see java.lang.management.ManagementFactory#getRuntimeMXBean()
-   *
-   * @see java.lang.management.RuntimeMXBean#getName()
+   * @see H2Rule#apply(Statement, Description)
    */
-  public String pid() {
-    final String pid;
-    final String name = java.lang.management.ManagementFactory.getRuntimeMXBean().getName();
-    if (name == null) {
-      pid = null;
-    } else {
-      pid = name.substring(0, name.indexOf('@'));
+  private static final class Invocation {
+
+    /**
+     * The {@link Description} describing the test.
+     *
+     * <p>This field may be {@code null}.</p>
+     */
+    private final Description description;
+
+    /**
+     * The open {@link Connection} to the test's H2 database.
+     *
+     * <p>This field may be {@code null}.</p>
+     */
+    private volatile Connection c;
+
+    /**
+     * The {@link ExecutorService}s {@linkplain
+     * H2Rule#newExecutorService() created} for the test that have not
+     * yet been {@linkplain ExecutorService#shutdownNow() shut down}
+     * by the {@link H2Rule#after()} method.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final Queue<ExecutorService> executorServices;
+
+    /**
+     * The number of bytes {@linkplain H2MemoryGovernor#acquire(String)
+     * reserved} for the test's database, or {@code -1L} if no
+     * reservation is held.
+     */
+    private volatile long reservation;
+
+    /**
+     * Whether the test's database may be {@linkplain
+     * H2Archive#saveIfEmpty(Description, Connection) saved} to the
+     * {@link H2Archive} supplied at construction time.
+     *
+     * @see H2Rule#excludeFromArchive()
+     */
+    private volatile boolean archivable;
+
+    /**
+     * Whether the test's database has already been {@linkplain
+     * H2Rule#saveToArchive() dealt with} as far as the {@link
+     * H2Archive} supplied at construction time is concerned.
+     */
+    private volatile boolean archived;
+
+    /**
+     * Whether the {@link H2Server} supplied at construction time has
+     * been {@linkplain H2Server#acquire() acquired} for the test and
+     * not yet {@linkplain H2Server#release() released}.
+     */
+    private volatile boolean serverAcquired;
+
+    /**
+     * The {@link VirtualThreadMonitor} that counts the JDBC calls
+     * made on virtual threads during the test.
+     *
+     * <p>This field is never {@code null}.</p>
+     *
+     * @see H2Rule#getVirtualThreadMonitor()
+     */
+    private final VirtualThreadMonitor virtualThreadMonitor;
+
+    /**
+     * Creates a new {@link Invocation}.
+     *
+     * @param description the {@link Description} describing the
+     * test; may be {@code null}
+     */
+    private Invocation(final Description description) {
+      super();
+      this.description = description;
+      this.executorServices = new ConcurrentLinkedQueue<ExecutorService>();
+      this.reservation = -1L;
+      this.archivable = true;
+      this.virtualThreadMonitor = new VirtualThreadMonitor();
     }
-    return pid;
+
   }
 
 }
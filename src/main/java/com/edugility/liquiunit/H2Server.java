@@ -0,0 +1,619 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.io.IOException;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import liquibase.logging.LogFactory;
+import liquibase.logging.Logger;
+
+import org.h2.tools.Server;
+
+/**
+ * A local <a href="http://www.h2database.com/">H2</a> <a
+ * href="http://www.h2database.com/html/tutorial.html#using_server">TCP
+ * server</a> hosted by the current JVM, together with
+ * connection-level statistics describing how well it is keeping up
+ * with the threads that use it.
+ *
+ * <p>An {@link H2Rule} {@linkplain H2Rule#H2Rule(String, String,
+ * String, H2Archive, H2Server) constructed} with an {@link H2Server} creates
+ * its in-memory databases inside the server rather than by opening
+ * them directly.  The first caller to {@linkplain #acquire() acquire}
+ * a given {@link H2Server} starts the server on its port.</p>
+ *
+ * <p>In-memory databases live in the JVM that hosts the server, so
+ * an {@link H2Server} is for use by a single JVM only.  If another
+ * process is already listening on its port, the {@link #acquire()}
+ * method fails rather than connecting to it, since that process, for
+ * example another Surefire fork, may exit and take every database
+ * it hosts with it while this JVM is still using them.  The
+ * {@linkplain #getInstance() default instance} therefore listens on
+ * a free port unless the {@code liquiunit.h2.tcpPort} system property
+ * names one; when it does, each fork needs its own value, for example
+ * one derived from <code>${surefire.forkNumber}</code>.</p>
+ *
+ * <p>When combined with a {@link FileLockingH2Archive}, the migrated
+ * template database is {@linkplain
+ * FileLockingH2Archive#saveIfEmpty(org.junit.runner.Description,
+ * Connection) scripted} to a file once per machine, and each per-test
+ * database is cloned from it by the server itself using the H2
+ * <code>RUNSCRIPT</code> command, so the template never crosses the
+ * socket.</p>
+ *
+ * <p>The server is not stopped when the last {@link H2Rule}
+ * {@linkplain #release() releases} it, but only when this JVM exits
+ * or when the {@link #stop()} method is called.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see H2Rule#H2Rule(String, String, String, H2Archive, H2Server)
+ *
+ * @see Server#createTcpServer(String[])
+ */
+public class H2Server {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The loopback address on which the server is reached.
+   */
+  private static final String HOST = "127.0.0.1";
+
+  /**
+   * The H2 {@link java.sql.Driver}, {@linkplain
+   * java.sql.Driver#connect(String, java.util.Properties) invoked
+   * directly} rather than through {@link java.sql.DriverManager} so
+   * that acquiring a {@link Connection} involves no global lock.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final java.sql.Driver driver = org.h2.Driver.load();
+
+  /**
+   * The {@link H2Server} returned by the {@link #getInstance()}
+   * method.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final H2Server instance = new H2Server(defaultPort());
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link Logger} to use for debugging and tracing purposes.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  protected final Logger logger;
+
+  /**
+   * The TCP port on which the server listens.
+   */
+  private final int port;
+
+  /**
+   * The {@link Server} started by this JVM, if any.
+   *
+   * <p>This field may be {@code null}.</p>
+   *
+   * <p>Access to this field must be synchronized on {@code this}.</p>
+   */
+  private Server server;
+
+  /**
+   * The number of outstanding {@linkplain #acquire() acquisitions}.
+   *
+   * <p>Access to this field must be synchronized on {@code this}.</p>
+   */
+  private int references;
+
+  /**
+   * Whether a shutdown hook has been installed.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final AtomicBoolean shutdownHookInstalled;
+
+  /**
+   * The number of {@link Connection}s successfully opened.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final AtomicLong connections;
+
+  /**
+   * The number of failed attempts to open a {@link Connection}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final AtomicLong failures;
+
+  /**
+   * The total number of nanoseconds spent opening {@link
+   * Connection}s.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final AtomicLong totalConnectionNanos;
+
+  /**
+   * The greatest number of nanoseconds spent opening a single {@link
+   * Connection}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final AtomicLong maximumConnectionNanos;
+
+  /**
+   * The number of {@link Connection}s currently open.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final AtomicInteger openConnections;
+
+  /**
+   * The greatest number of {@link Connection}s that have been open at
+   * the same time.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final AtomicInteger peakOpenConnections;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link H2Server}.
+   *
+   * <p>Most callers will prefer the {@link #getInstance()} method,
+   * which returns an {@link H2Server} whose port is shared by all
+   * JVMs that read the same system properties.</p>
+   *
+   * @param port the TCP port on which the server listens or will
+   * listen; must be between {@code 1} and {@code 65535}
+   *
+   * @exception IllegalArgumentException if {@code port} is out of
+   * range
+   *
+   * @see #getInstance()
+   */
+  public H2Server(final int port) {
+    super();
+    if (port <= 0 || port > 65535) {
+      throw new IllegalArgumentException("port: " + port);
+    }
+    this.logger = LogFactory.getInstance().getLog("liquiunit");
+    assert this.logger != null;
+    this.port = port;
+    this.shutdownHookInstalled = new AtomicBoolean();
+    this.connections = new AtomicLong();
+    this.failures = new AtomicLong();
+    this.totalConnectionNanos = new AtomicLong();
+    this.maximumConnectionNanos = new AtomicLong();
+    this.openConnections = new AtomicInteger();
+    this.peakOpenConnections = new AtomicInteger();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the TCP port on which the server listens.
+   *
+   * @return the TCP port on which the server listens
+   */
+  public final int getPort() {
+    return this.port;
+  }
+
+  /**
+   * Returns a JDBC URL that will connect to an in-memory database
+   * with the supplied name hosted by the server.
+   *
+   * @param databaseName the name of the in-memory database; must not
+   * be {@code null}
+   *
+   * @return a non-{@code null} JDBC URL
+   *
+   * @exception IllegalArgumentException if {@code databaseName} is
+   * {@code null}
+   */
+  public String getURL(final String databaseName) {
+    if (databaseName == null) {
+      throw new IllegalArgumentException("databaseName", new NullPointerException("databaseName"));
+    }
+    return "jdbc:h2:tcp://" + HOST + ":" + this.port + "/mem:" + databaseName;
+  }
+
+  /**
+   * Notes that a caller is about to use the server, starting it in
+   * this JVM if it is not already running.
+   *
+   * <p>Every successful call to this method should be balanced by a
+   * call to the {@link #release()} method.</p>
+   *
+   * @exception SQLException if the server could not be started,
+   * including when another process is already listening on its
+   * {@linkplain #getPort() port}
+   *
+   * @see #release()
+   */
+  public synchronized void acquire() throws SQLException {
+    this.ensureRunning();
+    this.references++;
+  }
+
+  /**
+   * Notes that a caller that previously {@linkplain #acquire()
+   * acquired} the server is done with it.
+   *
+   * <p>When the last caller releases the server, its {@linkplain
+   * #toString() statistics} are logged.  The server itself keeps
+   * running until this JVM exits or the {@link #stop()} method is
+   * called.</p>
+   *
+   * @see #acquire()
+   */
+  public synchronized void release() {
+    if (this.references > 0) {
+      this.references--;
+      if (this.references == 0) {
+        this.logger.info(this.toString());
+      }
+    }
+  }
+
+  /**
+   * Starts the server in this JVM unless it is already running here.
+   *
+   * @exception SQLException if the server could not be started,
+   * including when another process is already listening on its
+   * {@linkplain #getPort() port}
+   */
+  private final synchronized void ensureRunning() throws SQLException {
+    if (this.server != null && this.server.isRunning(false)) {
+      return;
+    }
+    final Server server = Server.createTcpServer("-tcpPort", String.valueOf(this.port), "-tcpDaemon");
+    assert server != null;
+    try {
+      server.start();
+    } catch (final SQLException portInUse) {
+      if (this.isReachable()) {
+        throw new SQLException("Port " + this.port + " is already in use by another process; an H2Server only hosts databases for the JVM that started it, so each JVM (for example, each Surefire fork) needs its own liquiunit.h2.tcpPort", portInUse);
+      }
+      throw portInUse;
+    }
+    this.server = server;
+    this.logger.info("Started H2 TCP server: " + server.getStatus());
+    if (this.shutdownHookInstalled.compareAndSet(false, true)) {
+      Runtime.getRuntime().addShutdownHook(new Thread("liquiunit H2Server shutdown") {
+          @Override
+          public final void run() {
+            H2Server.this.stop();
+          }
+        });
+    }
+  }
+
+  /**
+   * Stops the server if this JVM started it.
+   *
+   * <p>Most callers will not need to call this method, as a started
+   * server is stopped automatically when this JVM exits.</p>
+   */
+  public synchronized void stop() {
+    if (this.server != null) {
+      this.server.stop();
+      this.server = null;
+    }
+  }
+
+  /**
+   * Returns {@code true} if something is listening on the server's
+   * port on the loopback address.
+   *
+   * @return {@code true} if the server is reachable; {@code false}
+   * otherwise
+   */
+  private final boolean isReachable() {
+    final Socket socket = new Socket();
+    try {
+      socket.connect(new InetSocketAddress(HOST, this.port), 1000);
+      return true;
+    } catch (final IOException notListening) {
+      return false;
+    } finally {
+      try {
+        socket.close();
+      } catch (final IOException ignore) {
+
+      }
+    }
+  }
+
+  /**
+   * Opens a new {@link Connection} to the in-memory database with the
+   * supplied name hosted by the server, recording how long it took.
+   *
+   * <p>If the connection attempt fails because the server has been
+   * {@linkplain #stop() stopped}, this method starts it again and
+   * tries once more.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param databaseName the name of the in-memory database, possibly
+   * followed by H2 connection settings; must not be {@code null}
+   *
+   * @param username the user name; may be {@code null}
+   *
+   * @param password the password; may be {@code null}
+   *
+   * @return a non-{@code null} open {@link Connection}
+   *
+   * @exception SQLException if a {@link Connection} could not be
+   * opened
+   */
+  public Connection getConnection(final String databaseName, final String username, final String password) throws SQLException {
+    final String url = this.getURL(databaseName);
+    Connection returnValue;
+    try {
+      returnValue = this.connect(url, username, password);
+    } catch (final SQLException possiblyGone) {
+      if (this.isReachable()) {
+        throw possiblyGone;
+      }
+      this.ensureRunning();
+      returnValue = this.connect(url, username, password);
+    }
+    return returnValue;
+  }
+
+  private final Connection connect(final String url, final String username, final String password) throws SQLException {
+    final long start = System.nanoTime();
+    final Connection connection;
+    try {
+      connection = DriverManagerDataSource.connect(driver, url, username, password);
+    } catch (final SQLException e) {
+      this.failures.incrementAndGet();
+      throw e;
+    }
+    final long elapsed = System.nanoTime() - start;
+    this.connections.incrementAndGet();
+    this.totalConnectionNanos.addAndGet(elapsed);
+    long maximum = this.maximumConnectionNanos.get();
+    while (elapsed > maximum && !this.maximumConnectionNanos.compareAndSet(maximum, elapsed)) {
+      maximum = this.maximumConnectionNanos.get();
+    }
+    final int open = this.openConnections.incrementAndGet();
+    int peak = this.peakOpenConnections.get();
+    while (open > peak && !this.peakOpenConnections.compareAndSet(peak, open)) {
+      peak = this.peakOpenConnections.get();
+    }
+    return this.track(connection);
+  }
+
+  /**
+   * Returns a {@link Connection} that delegates to the supplied one
+   * but that decrements the count of open {@link Connection}s the
+   * first time it is {@linkplain Connection#close() closed}.
+   *
+   * @param connection the {@link Connection} to track; must not be
+   * {@code null}
+   *
+   * @return a non-{@code null} {@link Connection}
+   */
+  private final Connection track(final Connection connection) {
+    assert connection != null;
+    final AtomicBoolean closed = new AtomicBoolean();
+    return (Connection)Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, new InvocationHandler() {
+        @Override
+        public final Object invoke(final Object proxy, final Method method, final Object[] arguments) throws Throwable {
+          if ("close".equals(method.getName()) && closed.compareAndSet(false, true)) {
+            openConnections.decrementAndGet();
+          }
+          try {
+            return method.invoke(connection, arguments);
+          } catch (final InvocationTargetException e) {
+            throw e.getCause();
+          }
+        }
+      });
+  }
+
+  /**
+   * Returns the number of {@link Connection}s successfully opened via
+   * the {@link #getConnection(String, String, String)} method.
+   *
+   * @return the number of {@link Connection}s opened
+   */
+  public final long getConnectionCount() {
+    return this.connections.get();
+  }
+
+  /**
+   * Returns the number of failed attempts to open a {@link
+   * Connection}.
+   *
+   * @return the number of failed attempts to open a {@link
+   * Connection}
+   */
+  public final long getFailureCount() {
+    return this.failures.get();
+  }
+
+  /**
+   * Returns the average number of microseconds it took to open a
+   * {@link Connection}, or {@code 0} if none has been opened.
+   *
+   * @return the average connection time in microseconds
+   */
+  public final long getAverageConnectionMicros() {
+    final long connections = this.connections.get();
+    if (connections <= 0L) {
+      return 0L;
+    }
+    return TimeUnit.NANOSECONDS.toMicros(this.totalConnectionNanos.get() / connections);
+  }
+
+  /**
+   * Returns the greatest number of microseconds it took to open a
+   * single {@link Connection}.
+   *
+   * @return the maximum connection time in microseconds
+   */
+  public final long getMaximumConnectionMicros() {
+    return TimeUnit.NANOSECONDS.toMicros(this.maximumConnectionNanos.get());
+  }
+
+  /**
+   * Returns the number of {@link Connection}s opened by this JVM that
+   * are currently open.
+   *
+   * @return the number of open {@link Connection}s
+   */
+  public final int getOpenConnectionCount() {
+    return this.openConnections.get();
+  }
+
+  /**
+   * Returns the greatest number of {@link Connection}s opened by this
+   * JVM that were open at the same time.
+   *
+   * @return the peak number of open {@link Connection}s
+   */
+  public final int getPeakOpenConnectionCount() {
+    return this.peakOpenConnections.get();
+  }
+
+  /**
+   * Returns a summary of this {@link H2Server}'s connection
+   * statistics.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  @Override
+  public String toString() {
+    final boolean hosting;
+    synchronized (this) {
+      hosting = this.server != null;
+    }
+    return "H2Server[port=" + this.port +
+      ", hostedHere=" + hosting +
+      ", connections=" + this.getConnectionCount() +
+      ", failures=" + this.getFailureCount() +
+      ", averageConnectMicros=" + this.getAverageConnectionMicros() +
+      ", maximumConnectMicros=" + this.getMaximumConnectionMicros() +
+      ", open=" + this.getOpenConnectionCount() +
+      ", peakOpen=" + this.getPeakOpenConnectionCount() + "]";
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns the {@link H2Server} that listens on the port named by
+   * the {@code liquiunit.h2.tcpPort} system property, or on a port
+   * that was free when this class was initialized if that property
+   * is not set.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link H2Server}
+   */
+  public static final H2Server getInstance() {
+    return instance;
+  }
+
+  /**
+   * Returns the port named by the {@code liquiunit.h2.tcpPort}
+   * system property, or, if it is not set, a port on the loopback
+   * address that is currently free.
+   *
+   * @return a TCP port
+   */
+  private static final int defaultPort() {
+    final Integer port = Integer.getInteger("liquiunit.h2.tcpPort");
+    if (port != null) {
+      return port.intValue();
+    }
+    try {
+      final ServerSocket socket = new ServerSocket(0, 1, InetAddress.getByName(HOST));
+      try {
+        return socket.getLocalPort();
+      } finally {
+        socket.close();
+      }
+    } catch (final IOException wrapMe) {
+      throw new IllegalStateException(wrapMe);
+    }
+  }
+
+}
@@ -0,0 +1,233 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.runner.Description;
+
+/**
+ * A special-purpose class that saves an in-memory <a
+ * href="http://hsqldb.org/">HSQLDB</a> database as the DDL produced by
+ * the HSQLDB <a
+ * href="http://hsqldb.org/doc/2.0/guide/management-chapt.html#mtc_backup"><code>SCRIPT</code></a>
+ * command together with a {@link JdbcArchive} of the contents of its
+ * {@code PUBLIC} schema.
+ *
+ * <p>Without a file argument the HSQLDB {@code SCRIPT} command emits
+ * only the statements that define the database, so the rows are saved
+ * separately.  The statements that define the {@code SA} user and the
+ * {@code PUBLIC} schema, which every new HSQLDB database already has,
+ * are not saved.</p>
+ *
+ * <p>This class is designed for use only in light integration-testing
+ * scenarios.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see HsqldbRule
+ *
+ * @see H2Archive
+ */
+public class HsqldbArchive extends LoadableDatabaseArchive {
+
+  /**
+   * The DDL statements that define the archived database.
+   *
+   * <p>This field may be {@code null} at any point.</p>
+   *
+   * <p>Access to this field must be mediated by the {@link #dataLock}
+   * field.</p>
+   *
+   * @see #dataLock
+   */
+  private volatile List<String> ddl;
+
+  /**
+   * The {@link JdbcArchive} holding the rows of the archived
+   * database.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final JdbcArchive rows;
+
+  /**
+   * Creates a new {@link HsqldbArchive}.
+   */
+  public HsqldbArchive() {
+    super();
+    this.rows = new JdbcArchive(null, "PUBLIC");
+  }
+
+  /**
+   * Saves the DDL that defines the HSQLDB database reachable via the
+   * supplied {@link Connection}, and the rows of its {@code PUBLIC}
+   * schema.
+   *
+   * @param description the {@link Description} describing the current
+   * JUnit test underway; ignored by this implementation but may be
+   * useful for subclasses; may be {@code null}
+   *
+   * @param c a {@link Connection} to an in-memory HSQLDB database;
+   * must not be {@code null}; must be {@linkplain
+   * Connection#isValid(int) valid}
+   *
+   * @return {@code true} in all cases
+   *
+   * @exception SQLException if a database error occurs
+   *
+   * @see #saveIfEmpty(Description, Connection)
+   */
+  @Override
+  protected boolean save(final Description description, final Connection c) throws SQLException {
+    final List<String> ddl = new ArrayList<String>();
+    final Statement statement = c.createStatement();
+    assert statement != null;
+    ResultSet rs = null;
+    try {
+      rs = statement.executeQuery("SCRIPT");
+      assert rs != null;
+      while (rs.next()) {
+        final String line = rs.getString(1);
+        if (line != null && !isBuiltIn(line)) {
+          ddl.add(line);
+        }
+      }
+    } finally {
+      if (rs != null) {
+        try {
+          rs.close();
+        } catch (final SQLException neverMind) {
+          // ignore
+        }
+      }
+      try {
+        statement.close();
+      } catch (final SQLException neverMind) {
+        // ignore
+      }
+    }
+    this.rows.saveIfEmpty(description, c);
+    this.ddl = Collections.unmodifiableList(ddl);
+    return true;
+  }
+
+  /**
+   * Replays the DDL and rows saved earlier by the {@link
+   * #save(Description, Connection)} method into the new, empty,
+   * in-memory HSQLDB database attached to by the supplied {@link
+   * Connection}.
+   *
+   * @param description the {@link Description} describing the current
+   * JUnit test underway; ignored by this implementation but may be
+   * useful for subclasses; may be {@code null}
+   *
+   * @param c a {@link Connection} to an empty in-memory HSQLDB
+   * database; must not be {@code null}; must be {@linkplain
+   * Connection#isValid(int) valid}
+   *
+   * @return {@code true} in all cases
+   *
+   * @exception SQLException if a database error occurs
+   *
+   * @see #loadUnlessEmpty(Description, Connection)
+   */
+  @Override
+  protected boolean load(final Description description, final Connection c) throws SQLException {
+    final Statement statement = c.createStatement();
+    assert statement != null;
+    try {
+      for (final String line : this.ddl) {
+        statement.execute(line);
+      }
+    } finally {
+      try {
+        statement.close();
+      } catch (final SQLException neverMind) {
+        // ignore on purpose
+      }
+    }
+    this.rows.loadUnlessEmpty(description, c);
+    return true;
+  }
+
+  /**
+   * Returns {@code true} if, for the supplied {@link Description},
+   * this {@link HsqldbArchive} is conceptually
+   * "empty"&mdash;devoid of archive data that could be
+   * {@linkplain #loadUnlessEmpty(Description, Connection) loaded}.
+   *
+   * @param description the {@link Description} describing the current
+   * JUnit test underway; ignored by this implementation but may be
+   * useful for subclasses; may be {@code null}
+   *
+   * @return {@code true} if this {@link HsqldbArchive} is
+   * conceptually empty with regards to the supplied {@link
+   * Description}; {@code false} otherwise
+   *
+   * @see #loadUnlessEmpty(Description, Connection)
+   */
+  @Override
+  public boolean isEmpty(final Description description) {
+    try {
+      this.dataLock.readLock().lock();
+      return this.ddl == null;
+    } finally {
+      this.dataLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns {@code true} if the supplied line of {@code SCRIPT} output
+   * defines something every new HSQLDB database already has, and so
+   * must not be replayed.
+   *
+   * @param line the line to test; must not be {@code null}
+   *
+   * @return {@code true} if {@code line} must not be replayed
+   */
+  private static final boolean isBuiltIn(final String line) {
+    assert line != null;
+    return
+      line.startsWith("CREATE USER ") ||
+      line.startsWith("ALTER USER ") ||
+      line.startsWith("CREATE SCHEMA PUBLIC ") ||
+      line.startsWith("GRANT DBA TO ");
+  }
+
+}
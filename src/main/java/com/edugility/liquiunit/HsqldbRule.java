@@ -0,0 +1,185 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.runner.Description;
+
+/**
+ * An {@link EmbeddedDatabaseRule} that fronts a private, in-memory <a
+ * href="http://hsqldb.org/">HSQLDB</a> database for each test.
+ *
+ * <p>An {@link HsqldbRule} is a peer of an {@link H2Rule} and may be
+ * used anywhere one is, as the outermost rule of a {@link
+ * org.junit.rules.RuleChain}:</p>
+ *
+ * <blockquote><pre>private static final HsqldbArchive archive = new HsqldbArchive();
+ *
+ *private final HsqldbRule hsqldb = new HsqldbRule(archive);
+ *
+ *{@code @Rule}
+ *public final TestRule rule = RuleChain.outerRule(hsqldb)
+ *  .around(new LiquiunitRule(hsqldb))
+ *  .around(new DataSourceDatabaseTesterRule(hsqldb, new HsqldbDataTypeFactory()));</pre></blockquote>
+ *
+ * <p>The HSQLDB JDBC driver must be on the classpath.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see HsqldbArchive
+ *
+ * @see DerbyRule
+ */
+public class HsqldbRule extends EmbeddedDatabaseRule {
+
+  /**
+   * The {@link HsqldbArchive} that saves the database after the first
+   * test and restores it before every later one.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private final HsqldbArchive archive;
+
+  /**
+   * Creates a new {@link HsqldbRule} that connects as {@code sa} with
+   * an empty password and does not archive its databases.
+   */
+  public HsqldbRule() {
+    this("sa", "", null);
+  }
+
+  /**
+   * Creates a new {@link HsqldbRule} that connects as {@code sa} with
+   * an empty password.
+   *
+   * @param archive the {@link HsqldbArchive} that can save and restore
+   * the database; may be {@code null}
+   */
+  public HsqldbRule(final HsqldbArchive archive) {
+    this("sa", "", archive);
+  }
+
+  /**
+   * Creates a new {@link HsqldbRule}.
+   *
+   * @param username the username to connect as; may be {@code null}
+   *
+   * @param password the password to connect with; may be {@code null}
+   *
+   * @param archive the {@link HsqldbArchive} that can save and restore
+   * the database; may be {@code null}
+   */
+  public HsqldbRule(final String username, final String password, final HsqldbArchive archive) {
+    super(username, password);
+    this.archive = archive;
+  }
+
+  /**
+   * Returns a JDBC URL of the form {@code
+   * jdbc:hsqldb:mem:}<em>{@code databaseName}</em>.
+   *
+   * @param databaseName the name of the database; must not be {@code
+   * null}
+   *
+   * @param initial ignored
+   *
+   * @return a non-{@code null} JDBC URL
+   */
+  @Override
+  protected String getConnectionURL(final String databaseName, final boolean initial) {
+    return "jdbc:hsqldb:mem:" + databaseName;
+  }
+
+  /**
+   * {@linkplain HsqldbArchive#loadUnlessEmpty(Description,
+   * Connection) Loads} the {@link HsqldbArchive} supplied at
+   * construction time, if there is one, into the new database.
+   *
+   * @param description the {@link Description} describing the current
+   * test; may be {@code null}
+   *
+   * @param c an open {@link Connection} to the database; must not be
+   * {@code null}
+   *
+   * @exception SQLException if a database error occurs
+   */
+  @Override
+  protected void restore(final Description description, final Connection c) throws SQLException {
+    if (this.archive != null) {
+      this.archive.loadUnlessEmpty(description, c);
+    }
+  }
+
+  /**
+   * {@linkplain HsqldbArchive#saveIfEmpty(Description, Connection)
+   * Saves} the database into the {@link HsqldbArchive} supplied at
+   * construction time, if there is one.
+   *
+   * @param description the {@link Description} describing the current
+   * test; may be {@code null}
+   *
+   * @param c an open {@link Connection} to the database; must not be
+   * {@code null}
+   *
+   * @exception SQLException if a database error occurs
+   */
+  @Override
+  protected void save(final Description description, final Connection c) throws SQLException {
+    if (this.archive != null) {
+      this.archive.saveIfEmpty(description, c);
+    }
+  }
+
+  /**
+   * Issues the HSQLDB {@code SHUTDOWN} command, which discards the
+   * in-memory database.
+   *
+   * @param c an open {@link Connection} to the database; must not be
+   * {@code null}
+   *
+   * @exception SQLException if a database error occurs
+   */
+  @Override
+  protected void shutdown(final Connection c) throws SQLException {
+    final Statement s = c.createStatement();
+    try {
+      s.execute("SHUTDOWN");
+    } finally {
+      try {
+        s.close();
+      } catch (final SQLException ignore) {
+
+      }
+    }
+  }
+
+}
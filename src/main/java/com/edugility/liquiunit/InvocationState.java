@@ -0,0 +1,139 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.util.Queue;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.junit.runners.model.Statement;
+
+/**
+ * Holds the state that a JUnit rule keeps for each test it wraps, so
+ * that a single rule instance may wrap several tests running
+ * concurrently on different threads.
+ *
+ * <p>The state for a test is {@linkplain #apply(Statement, Object)
+ * installed} for the duration of that test on the thread that runs
+ * it, and is inherited by any thread that thread creates.  A thread
+ * that has no state of its own&mdash;one belonging to a thread pool
+ * created before the test started, for example&mdash;sees the state
+ * of the only test underway, if there is exactly one.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @param <T> the type of the per-test state
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ */
+final class InvocationState<T> {
+
+  /**
+   * The state belonging to the test running on the current thread.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final InheritableThreadLocal<T> current;
+
+  /**
+   * The states belonging to all tests currently underway.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Queue<T> active;
+
+  /**
+   * Creates a new {@link InvocationState}.
+   */
+  InvocationState() {
+    super();
+    this.current = new InheritableThreadLocal<T>();
+    this.active = new ConcurrentLinkedQueue<T>();
+  }
+
+  /**
+   * Returns a {@link Statement} that installs the supplied {@code
+   * state} on the current thread, {@linkplain Statement#evaluate()
+   * evaluates} the supplied {@link Statement} and then uninstalls the
+   * supplied {@code state}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param statement the {@link Statement} to wrap; must not be
+   * {@code null}
+   *
+   * @param state the per-test state; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link Statement}
+   */
+  final Statement apply(final Statement statement, final T state) {
+    assert statement != null;
+    assert state != null;
+    return new Statement() {
+      @Override
+      public final void evaluate() throws Throwable {
+        final T old = current.get();
+        active.add(state);
+        current.set(state);
+        try {
+          statement.evaluate();
+        } finally {
+          active.remove(state);
+          if (old == null) {
+            current.remove();
+          } else {
+            current.set(old);
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns the state belonging to the test that is running on the
+   * current thread, or, if there is no such test, the state belonging
+   * to the only test underway.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return the current per-test state, or {@code null}
+   */
+  final T get() {
+    final T state = this.current.get();
+    if (state != null && this.active.contains(state)) {
+      return state;
+    }
+    final T only = this.active.peek();
+    if (only != null && this.active.size() == 1) {
+      return only;
+    }
+    return null;
+  }
+
+}
@@ -85,52 +85,23 @@ public class JPARule extends ExternalResource {
   private final Object testInstance;
 
   /**
-   * A {@link Collection} of {@link Field}s that house {@link
-   * EntityManager}s; used by the {@link #before()} method for
-   * implementing injection.
+   * The {@link Invocation}s describing the tests currently wrapped by
+   * this {@link JPARule}.
    *
-   * <p>This field may be {@code null}.</p>
-   *
-   * @see #before()
-   */
-  private Collection<Field> fields;
-
-  /**
-   * A {@link Description} describing the current test.
+   * <p>This field is never {@code null}.</p>
    *
-   * <p>This field may be {@code null}.</p>
-   */
-  private Description description;
-
-  /**
-   * The {@link EntityManager} in effect for the current test.
-   *
-   * <p>This field may be {@code null}.</p>
+   * @see #apply(Statement, Description)
    */
-  private EntityManager em;
-
-  private EntityTransaction et;
+  private final InvocationState<Invocation> invocations;
 
   /**
-   * The {@link EntityManagerFactory} in effect for the current test.
+   * The {@link EntityManagerFactory} {@linkplain
+   * #JPARule(Object, EntityManagerFactory) supplied at construction
+   * time}, shared by all tests.
    *
    * <p>This field may be {@code null}.</p>
    */
-  private EntityManagerFactory emf;
-
-  /**
-   * Whether or not the {@link EntityManagerFactory} should be
-   * {@linkplain EntityManagerFactory#close() closed} in the {@link
-   * #after()} method.  Typically this field is set to {@code true}
-   * when {@linkplain #JPARule(Object, EntityManagerFactory) an
-   * <code>EntityManagerFactory</code> is passed in at construction
-   * time}.
-   *
-   * @see #after()
-   *
-   * @see #JPARule(Object, EntityManagerFactory)
-   */
-  private boolean closeFactory;
+  private volatile EntityManagerFactory emf;
 
   /**
    * The name of the persistence unit for which an {@link
@@ -159,19 +130,20 @@ public class JPARule extends ExternalResource {
   private final Map<?, ?> entityManagerProperties;
 
   /**
-   * A {@link H2Rule} that might have been passed in at {@linkplain
-   * #JPARule(Object, String, H2Rule) construction time}.  This {@link
-   * H2Rule} will be used in that case to {@linkplain
-   * H2Rule#getJPAProperties() produce properties} for a new {@link
-   * EntityManagerFactory}.
+   * A {@link DatabaseRule}, such as an {@link H2Rule}, an {@link
+   * HsqldbRule} or a {@link DerbyRule}, that might have been passed in
+   * at {@linkplain #JPARule(Object, String, DatabaseRule) construction
+   * time}.  This {@link DatabaseRule} will be used in that case to
+   * {@linkplain DatabaseRule#getJPAProperties() produce properties}
+   * for a new {@link EntityManagerFactory}.
    *
    * <p>This field may be {@code null}.</p>
    *
-   * @see #JPARule(Object, String, H2Rule)
+   * @see #JPARule(Object, String, DatabaseRule)
    *
-   * @see H2Rule#getJPAProperties()
+   * @see DatabaseRule#getJPAProperties()
    */
-  private final H2Rule h2Rule;
+  private final DatabaseRule databaseRule;
 
 
   /*
@@ -188,27 +160,31 @@ public class JPARule extends ExternalResource {
    * @param persistenceUnitName the name of the persistence unit to
    * look for; must not be {@code null}
    *
-   * @param h2Rule an {@link H2Rule} whose {@link
-   * H2Rule#getJPAProperties()} method will provide the connection and
-   * authentication information; must not be {@code null}
+   * @param databaseRule a {@link DatabaseRule}, such as an {@link
+   * H2Rule}, an {@link HsqldbRule} or a {@link DerbyRule}, whose
+   * {@link DatabaseRule#getJPAProperties()} method will provide the
+   * connection and authentication information; must not be {@code
+   * null}
    *
    * @exception IllegalArgumentException if {@code testInstance} or
-   * {@code persistenceUnitName} or {@code h2Rule} is {@code null}
+   * {@code persistenceUnitName} or {@code databaseRule} is {@code
+   * null}
    */
-  public JPARule(final Object testInstance, final String persistenceUnitName, final H2Rule h2Rule) {
+  public JPARule(final Object testInstance, final String persistenceUnitName, final DatabaseRule databaseRule) {
     super();
     if (testInstance == null) {
       throw new IllegalArgumentException("testInstance", new NullPointerException("testInstance"));
     } else if (persistenceUnitName == null) {
       throw new IllegalArgumentException("persistenceUnitName", new NullPointerException("persistenceUnitName"));
-    } else if (h2Rule == null) {
-      throw new IllegalArgumentException("h2Rule", new NullPointerException("h2Rule"));
+    } else if (databaseRule == null) {
+      throw new IllegalArgumentException("databaseRule", new NullPointerException("databaseRule"));
     }
     this.testInstance = testInstance;
     this.persistenceUnitName = persistenceUnitName;
-    this.h2Rule = h2Rule;
+    this.databaseRule = databaseRule;
     this.entityManagerFactoryProperties = null;
     this.entityManagerProperties = null;
+    this.invocations = new InvocationState<Invocation>();
   }
 
   /**
@@ -270,9 +246,10 @@ public class JPARule extends ExternalResource {
     }
     this.testInstance = testInstance;
     this.persistenceUnitName = persistenceUnitName;
-    this.h2Rule = null;
+    this.databaseRule = null;
     this.entityManagerFactoryProperties = entityManagerFactoryProperties;
     this.entityManagerProperties = entityManagerProperties;
+    this.invocations = new InvocationState<Invocation>();
   }
 
   /**
@@ -320,10 +297,11 @@ public class JPARule extends ExternalResource {
     }
     this.testInstance = testInstance;
     this.persistenceUnitName = null;
-    this.h2Rule = null;
+    this.databaseRule = null;
     this.entityManagerFactoryProperties = emf == null ? null : emf.getProperties();
     this.entityManagerProperties = entityManagerProperties;
     this.emf = emf;
+    this.invocations = new InvocationState<Invocation>();
   }
 
 
@@ -346,35 +324,40 @@ public class JPARule extends ExternalResource {
    */
   @Override
   public void before() throws IllegalAccessException, InvocationTargetException {
+    final Invocation invocation = this.invocations.get();
+    if (invocation == null) {
+      throw new IllegalStateException("before() called outside of apply()");
+    }
 
     // If there's no EntityManagerFactory yet, or a pre-existing one,
     // acquire a new one for this test.
-    if (this.emf == null || !this.emf.isOpen()) {
-      this.closeFactory = true;
+    final EntityManagerFactory sharedEmf = this.emf;
+    if (sharedEmf == null || !sharedEmf.isOpen()) {
+      invocation.closeFactory = true;
       final Map<?, ?> entityManagerFactoryProperties = this.getEntityManagerFactoryProperties();
       if (entityManagerFactoryProperties == null || entityManagerFactoryProperties.isEmpty()) {
-        this.emf = Persistence.createEntityManagerFactory(this.persistenceUnitName);
+        invocation.emf = Persistence.createEntityManagerFactory(this.persistenceUnitName);
       } else {
-        this.emf = Persistence.createEntityManagerFactory(this.persistenceUnitName, entityManagerFactoryProperties);
+        invocation.emf = Persistence.createEntityManagerFactory(this.persistenceUnitName, entityManagerFactoryProperties);
       }
+    } else {
+      invocation.emf = sharedEmf;
     }
 
-    if (this.emf != null && this.emf.isOpen()) {
-
-      // If for some crazy reason there's an open EntityManager
-      // already installed, close it.
-      if (this.em != null && this.em.isOpen()) {
-        this.em.close();
-      }
+    final EntityManagerFactory emf = invocation.emf;
+    if (emf != null && emf.isOpen()) {
 
       // Create a new EntityManager.
+      final EntityManager em;
       if (this.entityManagerProperties == null || this.entityManagerProperties.isEmpty()) {
-        this.em = this.emf.createEntityManager();
+        em = emf.createEntityManager();
       } else {
-        this.em = this.emf.createEntityManager(this.entityManagerProperties);
+        em = emf.createEntityManager(this.entityManagerProperties);
       }
+      invocation.em = em;
 
-      if (this.description != null) {
+      final Description description = invocation.description;
+      if (description != null) {
         final Class<?> testClass = description.getTestClass();
         if (testClass != null) {
 
@@ -399,7 +382,7 @@ public class JPARule extends ExternalResource {
                         if (testClass.equals(f.getDeclaringClass())) {
                           f.setAccessible(true);
                         }
-                        f.set(this.testInstance, this.em);
+                        f.set(this.testInstance, em);
                         fields.add(f);
                       } catch (final SecurityException ohWell) {
                         // ignore
@@ -413,14 +396,15 @@ public class JPARule extends ExternalResource {
             }
             cls = cls.getSuperclass();
           }
-          this.fields = fields;
+          invocation.fields = fields;
         }
       }
 
-      assert this.em != null;
-      this.et = this.em.getTransaction();
-      if (this.et != null) {
-        this.et.begin();
+      assert em != null;
+      final EntityTransaction et = em.getTransaction();
+      invocation.et = et;
+      if (et != null) {
+        et.begin();
       }
     }
   }
@@ -430,10 +414,11 @@ public class JPARule extends ExternalResource {
    * Persistence#createEntityManagerFactory(String, Map)} method to
    * create a new {@link EntityManagerFactory}.
    *
-   * <p>Note that if an {@link H2Rule} has been passed to the
-   * {@linkplain #JPARule(Object, String, H2Rule) relevant
+   * <p>Note that if a {@link DatabaseRule} has been passed to the
+   * {@linkplain #JPARule(Object, String, DatabaseRule) relevant
    * constructor}, then the {@link Map} returned will be the return
-   * value of the {@link H2Rule#getJPAProperties()} method.</p>
+   * value of its {@link DatabaseRule#getJPAProperties()}
+   * method.</p>
    *
    * <p>This method may return {@code null}.</p>
    *
@@ -442,12 +427,12 @@ public class JPARule extends ExternalResource {
    *
    * @see Persistence#createEntityManagerFactory(String, Map)
    * 
-   * @see H2Rule#getJPAProperties()
+   * @see DatabaseRule#getJPAProperties()
    */
   public Map<?, ?> getEntityManagerFactoryProperties() {
     final Map<?, ?> returnValue;
-    if (this.h2Rule != null) {
-      returnValue = this.h2Rule.getJPAProperties();
+    if (this.databaseRule != null) {
+      returnValue = this.databaseRule.getJPAProperties();
     } else {
       returnValue = this.entityManagerFactoryProperties;
     }
@@ -458,11 +443,18 @@ public class JPARule extends ExternalResource {
    * Overrides the {@link ExternalResource#apply(Statement,
    * Description)} method to store the supplied {@link Description}
    * for usage by the {@link #before()} method internally and returns
-   * the superclass' return value.
+   * a {@link Statement} that wraps the superclass' return value.
    *
-   * <p>It must be assumed that this method may return {@code null}
-   * since the superclass documentation does not mention whether the
-   * return value must be non-{@code null}.</p>
+   * <p>The supplied {@link Description}, and the {@link
+   * EntityManager} and {@link EntityTransaction} created for it, are
+   * confined to the test being wrapped, so a single {@link JPARule}
+   * may wrap several tests that run concurrently.  Note, however,
+   * that {@link EntityManager}s are injected into the single test
+   * instance supplied at construction time; tests sharing a {@link
+   * JPARule} concurrently should call {@link #getEntityManager()}
+   * instead.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
    *
    * @param base the {@link Statement} to decorate; the superclass
    * documentation does not define what behavior will occur if this
@@ -472,7 +464,7 @@ public class JPARule extends ExternalResource {
    * underway; the superclass documentation does not define what
    * behavior will occur if this parameter is {@code null}
    *
-   * @return a {@link Statement}; possibly {@code null}
+   * @return a non-{@code null} {@link Statement}
    *
    * @see #before()
    *
@@ -480,8 +472,7 @@ public class JPARule extends ExternalResource {
    */
   @Override
   public Statement apply(final Statement base, final Description description) {
-    this.description = description;
-    return super.apply(base, description);
+    return this.invocations.apply(super.apply(base, description), new Invocation(description));
   }
 
   /**
@@ -497,24 +488,31 @@ public class JPARule extends ExternalResource {
    */
   @Override
   public void after() {
-    if (this.et != null && this.et.isActive()) {
+    final Invocation invocation = this.invocations.get();
+    if (invocation == null) {
+      return;
+    }
+    final EntityTransaction et = invocation.et;
+    if (et != null && et.isActive()) {
       try {
-        this.et.rollback();
+        et.rollback();
       } catch (final PersistenceException ohWell) {
         ohWell.printStackTrace();
       }
-      this.et = null;
     }
-    if (this.em != null && this.em.isOpen()) {
-      final EntityTransaction et = this.em.getTransaction();
-      if (et != null && et.isActive()) {
-        et.rollback();
+    invocation.et = null;
+    final EntityManager em = invocation.em;
+    if (em != null && em.isOpen()) {
+      final EntityTransaction tx = em.getTransaction();
+      if (tx != null && tx.isActive()) {
+        tx.rollback();
       }
-      this.em.close();      
-    }    
-    this.em = null;
-    if (this.fields != null && !this.fields.isEmpty()) {
-      for (final Field f : this.fields) {
+      em.close();
+    }
+    invocation.em = null;
+    final Collection<Field> fields = invocation.fields;
+    if (fields != null && !fields.isEmpty()) {
+      for (final Field f : fields) {
         if (f != null) {
           final boolean old = f.isAccessible();
           try {
@@ -527,13 +525,14 @@ public class JPARule extends ExternalResource {
           }
         }
       }
-      this.fields = null;
     }
-    if (this.closeFactory && this.emf != null && this.emf.isOpen()) {
-      this.emf.close();
-      this.closeFactory = false;
+    invocation.fields = null;
+    final EntityManagerFactory emf = invocation.emf;
+    if (invocation.closeFactory && emf != null && emf.isOpen()) {
+      emf.close();
     }
-    this.description = null;
+    invocation.emf = null;
+    invocation.closeFactory = false;
   }
 
   /**
@@ -543,9 +542,16 @@ public class JPARule extends ExternalResource {
    * <p>Most callers do not need to invoke this method.</p>
    */
   public void close() {
-    if (this.em != null) {
-      this.em.close();
-      this.em = null;
+    final Invocation invocation = this.invocations.get();
+    if (invocation != null) {
+      if (invocation.em != null) {
+        invocation.em.close();
+        invocation.em = null;
+      }
+      if (invocation.emf != null) {
+        invocation.emf.close();
+        invocation.emf = null;
+      }
     }
     if (this.emf != null) {
       this.emf.close();
@@ -554,7 +560,9 @@ public class JPARule extends ExternalResource {
   }
 
   /**
-   * Returns the {@link EntityManagerFactory} in effect.
+   * Returns the {@link EntityManagerFactory} in effect for the
+   * current test, or, if no test is underway, the one supplied at
+   * construction time.
    *
    * <p>This method may return {@code null}.</p>
    *
@@ -562,18 +570,23 @@ public class JPARule extends ExternalResource {
    * null}
    */
   public EntityManagerFactory getEntityManagerFactory() {
+    final Invocation invocation = this.invocations.get();
+    if (invocation != null && invocation.emf != null) {
+      return invocation.emf;
+    }
     return this.emf;
   }
 
   /**
-   * Returns the {@link EntityManager} in effect.
+   * Returns the {@link EntityManager} in effect for the current test.
    *
    * <p>This method may return {@code null}.</p>
    *
    * @return the {@link EntityManager} in effect, or {@code null}
    */
   public EntityManager getEntityManager() {
-    return this.em;
+    final Invocation invocation = this.invocations.get();
+    return invocation == null ? null : invocation.em;
   }
 
   /**
@@ -604,4 +617,81 @@ public class JPARule extends ExternalResource {
     return RuleChain.outerRule(h2).around(liquibase).around(dbUnit).around(jpaRule);
   }
 
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * The state a {@link JPARule} keeps for each test it wraps.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   *
+   * @see JPARule#apply(Statement, Description)
+   */
+  private static final class Invocation {
+
+    /**
+     * A {@link Description} describing the test.
+     *
+     * <p>This field may be {@code null}.</p>
+     */
+    private final Description description;
+
+    /**
+     * A {@link Collection} of {@link Field}s that house {@link
+     * EntityManager}s; used by the {@link JPARule#before()} method
+     * for implementing injection.
+     *
+     * <p>This field may be {@code null}.</p>
+     */
+    private volatile Collection<Field> fields;
+
+    /**
+     * The {@link EntityManager} in effect for the test.
+     *
+     * <p>This field may be {@code null}.</p>
+     */
+    private volatile EntityManager em;
+
+    /**
+     * The {@link EntityTransaction} begun for the test.
+     *
+     * <p>This field may be {@code null}.</p>
+     */
+    private volatile EntityTransaction et;
+
+    /**
+     * The {@link EntityManagerFactory} in effect for the test.
+     *
+     * <p>This field may be {@code null}.</p>
+     */
+    private volatile EntityManagerFactory emf;
+
+    /**
+     * Whether or not the {@link EntityManagerFactory} should be
+     * {@linkplain EntityManagerFactory#close() closed} in the {@link
+     * JPARule#after()} method.  This field is set to {@code true}
+     * when no open {@link EntityManagerFactory} was {@linkplain
+     * JPARule#JPARule(Object, EntityManagerFactory) passed in at
+     * construction time} and one was created for the test.
+     */
+    private volatile boolean closeFactory;
+
+    /**
+     * Creates a new {@link Invocation}.
+     *
+     * @param description the {@link Description} describing the
+     * test; may be {@code null}
+     */
+    private Invocation(final Description description) {
+      super();
+      this.description = description;
+    }
+
+  }
+
 }
@@ -0,0 +1,886 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.junit.runner.Description;
+
+/**
+ * A database-agnostic counterpart to {@link H2Archive} that saves the
+ * contents of every table in a database schema using nothing but
+ * standard JDBC, and restores them later.
+ *
+ * <p>Tables are discovered through {@link DatabaseMetaData} and
+ * ordered so that every table follows the tables its foreign keys
+ * refer to.  {@linkplain #loadUnlessEmpty(Description, Connection)
+ * Restoring} deletes all rows from the saved tables in reverse order
+ * and then re-inserts the saved rows in order, in batches of {@link
+ * #BATCH_SIZE}, in a single transaction.  Where the database allows
+ * it, {@linkplain #setReferentialIntegrity(Connection, boolean)
+ * referential integrity is switched off} while it does so, so that
+ * rows of self-referencing tables and of tables whose foreign keys
+ * form a cycle can be restored in any order.  Once the rows are
+ * committed, every identity column is restarted just past its
+ * largest restored value and every {@linkplain
+ * #getSequenceValues(Connection) sequence} is restarted at the value
+ * it would have produced next when the archive was saved, so that
+ * each test sees the same generated keys.</p>
+ *
+ * <p>Only table contents are saved, not their definitions, so the
+ * tables must already exist when the archive is loaded.  This makes a
+ * {@link JdbcArchive} suitable for databases that outlive a single
+ * test&mdash;a local file-based or server-mode database reached
+ * through a {@link DriverManagerDataSource}, for example&mdash;whose
+ * schema is {@linkplain LiquiunitRule migrated} once and whose
+ * contents are then reset before every test, instead of being dropped
+ * and migrated from scratch.  See {@link JdbcArchiveRule}.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see JdbcArchiveRule
+ *
+ * @see H2Archive
+ */
+public class JdbcArchive extends LoadableDatabaseArchive {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The number of rows inserted per {@linkplain
+   * Statement#executeBatch() batch} when restoring.
+   */
+  public static final int BATCH_SIZE = 500;
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The catalog whose tables are saved.
+   *
+   * <p>This field may be {@code null}, in which case the catalog is
+   * not used to narrow the search.</p>
+   */
+  private final String catalog;
+
+  /**
+   * The schema whose tables are saved.
+   *
+   * <p>This field may be {@code null}, in which case the schema is
+   * not used to narrow the search.</p>
+   */
+  private final String schema;
+
+  /**
+   * The saved tables, in dependency order.
+   *
+   * <p>This field may be {@code null} at any point.</p>
+   *
+   * <p>Access to this field must be mediated by the {@link #dataLock}
+   * field.</p>
+   */
+  private volatile List<Table> tables;
+
+  /**
+   * The values the sequences would have produced next when the
+   * tables were saved, indexed by the sequences' qualified names.
+   *
+   * <p>This field may be {@code null} at any point.</p>
+   *
+   * <p>Access to this field must be mediated by the {@link #dataLock}
+   * field.</p>
+   */
+  private volatile Map<String, Long> sequences;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link JdbcArchive} that saves the tables of every
+   * schema visible to the {@link Connection}s it is given.
+   *
+   * @see #JdbcArchive(String, String)
+   */
+  public JdbcArchive() {
+    this(null, null);
+  }
+
+  /**
+   * Creates a new {@link JdbcArchive}.
+   *
+   * @param catalog the catalog whose tables should be saved, as
+   * understood by {@link DatabaseMetaData#getTables(String, String,
+   * String, String[])}; may be {@code null}
+   *
+   * @param schema the schema whose tables should be saved, as
+   * understood by {@link DatabaseMetaData#getTables(String, String,
+   * String, String[])}; may be {@code null}
+   */
+  public JdbcArchive(final String catalog, final String schema) {
+    super();
+    this.catalog = catalog;
+    this.schema = schema;
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Saves the contents of every table in the database reachable via
+   * the supplied {@link Connection}.
+   *
+   * @param description the {@link Description} describing the current
+   * JUnit test underway; ignored by this implementation but may be
+   * useful for subclasses; may be {@code null}
+   *
+   * @param c a {@link Connection} to the database; must not be {@code
+   * null}; must be {@linkplain Connection#isValid(int) valid}
+   *
+   * @return {@code true} in all cases
+   *
+   * @exception SQLException if a database error occurs
+   *
+   * @see #saveIfEmpty(Description, Connection)
+   */
+  @Override
+  protected boolean save(final Description description, final Connection c) throws SQLException {
+    final List<Table> tables = this.sort(c.getMetaData(), this.findTables(c.getMetaData()));
+    for (final Table table : tables) {
+      table.save(c);
+    }
+    final Map<String, Long> sequences = this.getSequenceValues(c);
+    this.sequences = sequences == null ? Collections.<String, Long>emptyMap() : Collections.unmodifiableMap(new LinkedHashMap<String, Long>(sequences));
+    this.tables = Collections.unmodifiableList(tables);
+    return true;
+  }
+
+  /**
+   * Replaces the contents of the tables saved earlier by the {@link
+   * #save(Description, Connection)} method in the database
+   * reachable via the supplied {@link Connection} with the saved
+   * rows.
+   *
+   * <p>The replacement is performed in a single transaction, which is
+   * rolled back if any part of it fails.  {@linkplain
+   * #setReferentialIntegrity(Connection, boolean) Referential
+   * integrity} is switched off, where possible, before the
+   * transaction begins, since the statements that do so commit on
+   * some databases, and switched back on once it has ended.  Identity
+   * columns and sequences are restarted after the rows have been
+   * committed, since the statements that restart them commit on some
+   * databases too.  The supplied {@link Connection}'s {@linkplain
+   * Connection#getAutoCommit() auto-commit setting} is restored
+   * afterwards.</p>
+   *
+   * @param description the {@link Description} describing the current
+   * JUnit test underway; ignored by this implementation but may be
+   * useful for subclasses; may be {@code null}
+   *
+   * @param c a {@link Connection} to the database; must not be {@code
+   * null}; must be {@linkplain Connection#isValid(int) valid}
+   *
+   * @return {@code true} if the state of the database was altered;
+   * {@code false} otherwise
+   *
+   * @exception SQLException if a database error occurs, including if
+   * a saved table does not exist
+   *
+   * @see #loadUnlessEmpty(Description, Connection)
+   */
+  @Override
+  protected boolean load(final Description description, final Connection c) throws SQLException {
+    boolean returnValue = false;
+    final List<Table> tables = this.tables;
+    if (tables != null && !tables.isEmpty()) {
+      final boolean referentialIntegrityDisabled = this.setReferentialIntegrity(c, false);
+      try {
+        final boolean autoCommit = c.getAutoCommit();
+        if (autoCommit) {
+          c.setAutoCommit(false);
+        }
+        boolean committed = false;
+        try {
+          for (int i = tables.size() - 1; i >= 0; i--) {
+            tables.get(i).clear(c);
+          }
+          for (final Table table : tables) {
+            table.restore(c);
+          }
+          c.commit();
+          committed = true;
+          for (final Table table : tables) {
+            table.restartIdentities(c);
+          }
+          final Map<String, Long> sequences = this.sequences;
+          if (sequences != null) {
+            for (final Entry<String, Long> entry : sequences.entrySet()) {
+              this.restartSequence(c, entry.getKey(), entry.getValue().longValue());
+            }
+          }
+          c.commit();
+        } finally {
+          if (!committed) {
+            try {
+              c.rollback();
+            } catch (final SQLException ignore) {
+
+            }
+          }
+          if (autoCommit) {
+            c.setAutoCommit(true);
+          }
+        }
+      } finally {
+        if (referentialIntegrityDisabled) {
+          this.setReferentialIntegrity(c, true);
+        }
+      }
+      returnValue = true;
+    }
+    return returnValue;
+  }
+
+  /**
+   * Switches referential integrity checking on or off for the
+   * database reachable via the supplied {@link Connection}, if the
+   * database supports doing so, and returns {@code true} if it
+   * did.
+   *
+   * <p>This implementation supports H2 and HSQLDB, on both of which
+   * the setting applies to the whole database, not just to the
+   * supplied {@link Connection}, and the statement that changes it
+   * commits the current transaction.  On other databases it does
+   * nothing and returns {@code false}, and rows are restored in
+   * dependency order only; self-referencing rows and cycles of
+   * foreign keys will then restore only if the database defers or
+   * tolerates the constraint checks.  Subclasses may override this
+   * method to support other databases.</p>
+   *
+   * @param c a {@link Connection} to the database; must not be {@code
+   * null}
+   *
+   * @param enabled whether referential integrity should be checked
+   *
+   * @return {@code true} if the setting was changed; {@code false} if
+   * the database does not support changing it
+   *
+   * @exception SQLException if a database error occurs
+   */
+  protected boolean setReferentialIntegrity(final Connection c, final boolean enabled) throws SQLException {
+    if (c == null) {
+      throw new IllegalArgumentException("c", new NullPointerException("c"));
+    }
+    final String productName = c.getMetaData().getDatabaseProductName();
+    final String sql;
+    if ("H2".equals(productName)) {
+      sql = "SET REFERENTIAL_INTEGRITY " + (enabled ? "TRUE" : "FALSE");
+    } else if ("HSQL Database Engine".equals(productName)) {
+      sql = "SET DATABASE REFERENTIAL INTEGRITY " + (enabled ? "TRUE" : "FALSE");
+    } else {
+      return false;
+    }
+    execute(c, sql);
+    return true;
+  }
+
+  /**
+   * Returns the values that the user-defined sequences in this {@link
+   * JdbcArchive}'s catalog and schema would produce next, indexed by
+   * their qualified, quoted names.
+   *
+   * <p>This method is called when the tables are saved, and each
+   * sequence it returns is {@linkplain #restartSequence(Connection,
+   * String, long) restarted} at its value after the tables are
+   * restored.  This implementation supports H2 and HSQLDB, and
+   * returns an empty {@link Map} on other databases.  Subclasses may
+   * override this method to support other databases.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param c a {@link Connection} to the database; must not be {@code
+   * null}
+   *
+   * @return a non-{@code null} {@link Map} of sequence names and
+   * their next values
+   *
+   * @exception SQLException if a database error occurs
+   */
+  protected Map<String, Long> getSequenceValues(final Connection c) throws SQLException {
+    if (c == null) {
+      throw new IllegalArgumentException("c", new NullPointerException("c"));
+    }
+    final DatabaseMetaData metaData = c.getMetaData();
+    final String productName = metaData.getDatabaseProductName();
+    final StringBuilder sql = new StringBuilder();
+    if ("H2".equals(productName)) {
+      sql.append("SELECT SEQUENCE_SCHEMA, SEQUENCE_NAME, CURRENT_VALUE + INCREMENT FROM INFORMATION_SCHEMA.SEQUENCES WHERE IS_GENERATED = FALSE");
+    } else if ("HSQL Database Engine".equals(productName)) {
+      sql.append("SELECT SEQUENCE_SCHEMA, SEQUENCE_NAME, NEXT_VALUE FROM INFORMATION_SCHEMA.SEQUENCES WHERE SEQUENCE_SCHEMA NOT IN ('INFORMATION_SCHEMA', 'SYSTEM_LOBS')");
+    } else {
+      return Collections.emptyMap();
+    }
+    if (this.catalog != null) {
+      sql.append(" AND SEQUENCE_CATALOG LIKE ?");
+    }
+    if (this.schema != null) {
+      sql.append(" AND SEQUENCE_SCHEMA LIKE ?");
+    }
+    final String quote = metaData.getIdentifierQuoteString();
+    final Map<String, Long> returnValue = new LinkedHashMap<String, Long>();
+    final PreparedStatement ps = c.prepareStatement(sql.toString());
+    try {
+      int index = 1;
+      if (this.catalog != null) {
+        ps.setString(index++, this.catalog);
+      }
+      if (this.schema != null) {
+        ps.setString(index++, this.schema);
+      }
+      final ResultSet rs = ps.executeQuery();
+      try {
+        while (rs.next()) {
+          returnValue.put(new Table(null, rs.getString(1), rs.getString(2), quote).toString(), Long.valueOf(rs.getLong(3)));
+        }
+      } finally {
+        rs.close();
+      }
+    } finally {
+      ps.close();
+    }
+    return returnValue;
+  }
+
+  /**
+   * Restarts the named sequence so that the next value it produces is
+   * the supplied value.
+   *
+   * <p>This implementation issues the standard {@code ALTER SEQUENCE
+   * ... RESTART WITH} statement.</p>
+   *
+   * @param c a {@link Connection} to the database; must not be {@code
+   * null}
+   *
+   * @param qualifiedName the qualified, quoted name of the sequence,
+   * as returned by the {@link #getSequenceValues(Connection)} method;
+   * must not be {@code null}
+   *
+   * @param nextValue the next value the sequence should produce
+   *
+   * @exception SQLException if a database error occurs
+   */
+  protected void restartSequence(final Connection c, final String qualifiedName, final long nextValue) throws SQLException {
+    if (c == null) {
+      throw new IllegalArgumentException("c", new NullPointerException("c"));
+    }
+    if (qualifiedName == null) {
+      throw new IllegalArgumentException("qualifiedName", new NullPointerException("qualifiedName"));
+    }
+    execute(c, "ALTER SEQUENCE " + qualifiedName + " RESTART WITH " + nextValue);
+  }
+
+  /**
+   * Returns {@code true} if, for the supplied {@link Description},
+   * this {@link JdbcArchive} is conceptually "empty"&mdash;devoid of
+   * archive data that could be {@linkplain
+   * #loadUnlessEmpty(Description, Connection) loaded}.
+   *
+   * @param description the {@link Description} describing the current
+   * JUnit test underway; ignored by this implementation but may be
+   * useful for subclasses; may be {@code null}
+   *
+   * @return {@code true} if this {@link JdbcArchive} is conceptually
+   * empty with regards to the supplied {@link Description}; {@code
+   * false} otherwise
+   */
+  @Override
+  public boolean isEmpty(final Description description) {
+    return this.tables == null;
+  }
+
+  /**
+   * Returns the qualified names of the saved tables, in the order in
+   * which they are restored.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, unmodifiable {@link List} of table
+   * names
+   */
+  public List<String> getTableNames() {
+    final List<Table> tables = this.tables;
+    if (tables == null) {
+      return Collections.emptyList();
+    }
+    final List<String> returnValue = new ArrayList<String>(tables.size());
+    for (final Table table : tables) {
+      returnValue.add(table.toString());
+    }
+    return Collections.unmodifiableList(returnValue);
+  }
+
+  /**
+   * Returns the tables in this {@link JdbcArchive}'s catalog and
+   * schema, indexed by their unqualified names.
+   *
+   * @param metaData the {@link DatabaseMetaData} to consult; must not
+   * be {@code null}
+   *
+   * @return a non-{@code null} {@link Map} of {@link Table}s
+   *
+   * @exception SQLException if a database error occurs
+   */
+  private final Map<String, Table> findTables(final DatabaseMetaData metaData) throws SQLException {
+    assert metaData != null;
+    final String quote = metaData.getIdentifierQuoteString();
+    final Map<String, Table> returnValue = new LinkedHashMap<String, Table>();
+    final ResultSet rs = metaData.getTables(this.catalog, this.schema, "%", new String[] { "TABLE" });
+    try {
+      while (rs.next()) {
+        final Table table = new Table(rs.getString("TABLE_CAT"), rs.getString("TABLE_SCHEM"), rs.getString("TABLE_NAME"), quote);
+        returnValue.put(table.key(), table);
+      }
+    } finally {
+      rs.close();
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the supplied {@link Table}s ordered so that each follows
+   * the tables its foreign keys refer to.
+   *
+   * <p>Tables involved in a cycle of foreign keys are placed after
+   * all others, in discovery order; restoring them will succeed only
+   * if {@linkplain #setReferentialIntegrity(Connection, boolean)
+   * referential integrity can be switched off} or the database defers
+   * or tolerates the constraint checks.</p>
+   *
+   * @param metaData the {@link DatabaseMetaData} to consult; must not
+   * be {@code null}
+   *
+   * @param tables the {@link Table}s to sort, indexed by {@linkplain
+   * Table#key() key}; must not be {@code null}
+   *
+   * @return a new, non-{@code null} {@link List} of {@link Table}s
+   *
+   * @exception SQLException if a database error occurs
+   */
+  private final List<Table> sort(final DatabaseMetaData metaData, final Map<String, Table> tables) throws SQLException {
+    assert metaData != null;
+    assert tables != null;
+    final Map<Table, Set<Table>> parents = new LinkedHashMap<Table, Set<Table>>();
+    for (final Table table : tables.values()) {
+      final Set<Table> tableParents = new LinkedHashSet<Table>();
+      final ResultSet rs = metaData.getImportedKeys(table.catalog, table.schema, table.name);
+      try {
+        while (rs.next()) {
+          final Table parent = tables.get(Table.key(rs.getString("PKTABLE_CAT"), rs.getString("PKTABLE_SCHEM"), rs.getString("PKTABLE_NAME")));
+          if (parent != null && parent != table) {
+            tableParents.add(parent);
+          }
+        }
+      } finally {
+        rs.close();
+      }
+      parents.put(table, tableParents);
+    }
+    final List<Table> returnValue = new ArrayList<Table>(tables.size());
+    boolean progress = true;
+    while (progress && !parents.isEmpty()) {
+      progress = false;
+      for (final Table table : new ArrayList<Table>(parents.keySet())) {
+        if (returnValue.containsAll(parents.get(table))) {
+          returnValue.add(table);
+          parents.remove(table);
+          progress = true;
+        }
+      }
+    }
+    returnValue.addAll(parents.keySet());
+    return returnValue;
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Executes the supplied SQL statement using the supplied {@link
+   * Connection}.
+   *
+   * @param c the {@link Connection} to use; must not be {@code null}
+   *
+   * @param sql the statement to execute; must not be {@code null}
+   *
+   * @exception SQLException if a database error occurs
+   */
+  private static final void execute(final Connection c, final String sql) throws SQLException {
+    assert c != null;
+    assert sql != null;
+    final Statement s = c.createStatement();
+    try {
+      s.execute(sql);
+    } finally {
+      s.close();
+    }
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A table whose rows are saved by a {@link JdbcArchive}.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Table {
+
+    /**
+     * The table's catalog; may be {@code null}.
+     */
+    private final String catalog;
+
+    /**
+     * The table's schema; may be {@code null}.
+     */
+    private final String schema;
+
+    /**
+     * The table's name; never {@code null}.
+     */
+    private final String name;
+
+    /**
+     * The table's fully qualified, quoted name; never {@code null}.
+     */
+    private final String qualifiedName;
+
+    /**
+     * The quoted names of the table's columns; {@code null} until
+     * {@linkplain #save(Connection) saved}.
+     */
+    private List<String> columns;
+
+    /**
+     * The {@linkplain Types SQL types} of the table's columns; {@code
+     * null} until {@linkplain #save(Connection) saved}.
+     */
+    private int[] types;
+
+    /**
+     * The table's rows; {@code null} until {@linkplain
+     * #save(Connection) saved}.
+     */
+    private List<Object[]> rows;
+
+    /**
+     * The quoted names of the table's identity columns; {@code null}
+     * until {@linkplain #save(Connection) saved}.
+     */
+    private List<String> identityColumns;
+
+    /**
+     * Creates a new {@link Table}.
+     *
+     * @param catalog the table's catalog; may be {@code null}
+     *
+     * @param schema the table's schema; may be {@code null}
+     *
+     * @param name the table's name; must not be {@code null}
+     *
+     * @param quote the {@linkplain
+     * DatabaseMetaData#getIdentifierQuoteString() identifier quote
+     * string}; may be {@code null}
+     */
+    private Table(final String catalog, final String schema, final String name, final String quote) {
+      super();
+      assert name != null;
+      this.catalog = catalog;
+      this.schema = schema;
+      this.name = name;
+      final StringBuilder sb = new StringBuilder();
+      if (schema != null && !schema.isEmpty()) {
+        sb.append(quote(schema, quote)).append(".");
+      }
+      sb.append(quote(name, quote));
+      this.qualifiedName = sb.toString();
+    }
+
+    /**
+     * Reads and stores every row of this {@link Table}.
+     *
+     * @param c the {@link Connection} to use; must not be {@code null}
+     *
+     * @exception SQLException if a database error occurs
+     */
+    private final void save(final Connection c) throws SQLException {
+      final String quote = c.getMetaData().getIdentifierQuoteString();
+      final Statement s = c.createStatement();
+      try {
+        final ResultSet rs = s.executeQuery("SELECT * FROM " + this.qualifiedName);
+        try {
+          final ResultSetMetaData rsmd = rs.getMetaData();
+          final int columnCount = rsmd.getColumnCount();
+          final List<String> columns = new ArrayList<String>(columnCount);
+          final int[] types = new int[columnCount];
+          for (int i = 0; i < columnCount; i++) {
+            columns.add(quote(rsmd.getColumnName(i + 1), quote));
+            types[i] = rsmd.getColumnType(i + 1);
+          }
+          final List<Object[]> rows = new ArrayList<Object[]>();
+          while (rs.next()) {
+            final Object[] row = new Object[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+              Object value = rs.getObject(i + 1);
+              if (value instanceof Blob) {
+                final Blob blob = (Blob)value;
+                value = blob.getBytes(1L, (int)blob.length());
+              } else if (value instanceof Clob) {
+                final Clob clob = (Clob)value;
+                value = clob.getSubString(1L, (int)clob.length());
+              }
+              row[i] = value;
+            }
+            rows.add(row);
+          }
+          this.columns = columns;
+          this.types = types;
+          this.rows = rows;
+        } finally {
+          rs.close();
+        }
+      } finally {
+        s.close();
+      }
+      final List<String> identityColumns = new ArrayList<String>();
+      final ResultSet rs = c.getMetaData().getColumns(this.catalog, this.schema, this.name, "%");
+      try {
+        while (rs.next()) {
+          if ("YES".equals(rs.getString("IS_AUTOINCREMENT"))) {
+            identityColumns.add(quote(rs.getString("COLUMN_NAME"), quote));
+          }
+        }
+      } finally {
+        rs.close();
+      }
+      this.identityColumns = identityColumns;
+    }
+
+    /**
+     * Deletes every row of this {@link Table}.
+     *
+     * @param c the {@link Connection} to use; must not be {@code null}
+     *
+     * @exception SQLException if a database error occurs
+     */
+    private final void clear(final Connection c) throws SQLException {
+      final Statement s = c.createStatement();
+      try {
+        s.executeUpdate("DELETE FROM " + this.qualifiedName);
+      } finally {
+        s.close();
+      }
+    }
+
+    /**
+     * Inserts the saved rows of this {@link Table} in batches of
+     * {@link JdbcArchive#BATCH_SIZE}.
+     *
+     * @param c the {@link Connection} to use; must not be {@code null}
+     *
+     * @exception SQLException if a database error occurs
+     */
+    private final void restore(final Connection c) throws SQLException {
+      if (this.rows == null || this.rows.isEmpty()) {
+        return;
+      }
+      final StringBuilder sql = new StringBuilder("INSERT INTO ").append(this.qualifiedName).append(" (");
+      final StringBuilder values = new StringBuilder(") VALUES (");
+      for (int i = 0; i < this.columns.size(); i++) {
+        if (i > 0) {
+          sql.append(", ");
+          values.append(", ");
+        }
+        sql.append(this.columns.get(i));
+        values.append("?");
+      }
+      sql.append(values).append(")");
+      final PreparedStatement ps = c.prepareStatement(sql.toString());
+      try {
+        int pending = 0;
+        for (final Object[] row : this.rows) {
+          for (int i = 0; i < row.length; i++) {
+            if (row[i] == null) {
+              ps.setNull(i + 1, this.types[i]);
+            } else {
+              ps.setObject(i + 1, row[i]);
+            }
+          }
+          ps.addBatch();
+          if (++pending >= BATCH_SIZE) {
+            ps.executeBatch();
+            pending = 0;
+          }
+        }
+        if (pending > 0) {
+          ps.executeBatch();
+        }
+      } finally {
+        ps.close();
+      }
+    }
+
+    /**
+     * Restarts each of this {@link Table}'s identity columns just
+     * past its largest value, or at {@code 1} if the table is empty.
+     *
+     * @param c the {@link Connection} to use; must not be {@code null}
+     *
+     * @exception SQLException if a database error occurs
+     */
+    private final void restartIdentities(final Connection c) throws SQLException {
+      if (this.identityColumns == null || this.identityColumns.isEmpty()) {
+        return;
+      }
+      final Statement s = c.createStatement();
+      try {
+        for (final String column : this.identityColumns) {
+          long nextValue = 1L;
+          final ResultSet rs = s.executeQuery("SELECT MAX(" + column + ") FROM " + this.qualifiedName);
+          try {
+            if (rs.next()) {
+              final long max = rs.getLong(1);
+              if (!rs.wasNull()) {
+                nextValue = max + 1L;
+              }
+            }
+          } finally {
+            rs.close();
+          }
+          s.execute("ALTER TABLE " + this.qualifiedName + " ALTER COLUMN " + column + " RESTART WITH " + nextValue);
+        }
+      } finally {
+        s.close();
+      }
+    }
+
+    /**
+     * Returns the key under which this {@link Table} is indexed.
+     *
+     * @return a non-{@code null} key
+     */
+    private final String key() {
+      return key(this.catalog, this.schema, this.name);
+    }
+
+    /**
+     * Returns this {@link Table}'s qualified name.
+     *
+     * @return a non-{@code null} {@link String}
+     */
+    @Override
+    public final String toString() {
+      return this.qualifiedName;
+    }
+
+    /**
+     * Returns the key under which a table with the supplied catalog,
+     * schema and name is indexed.
+     *
+     * @param catalog the catalog; may be {@code null}
+     *
+     * @param schema the schema; may be {@code null}
+     *
+     * @param name the name; may be {@code null}
+     *
+     * @return a non-{@code null} key
+     */
+    private static final String key(final String catalog, final String schema, final String name) {
+      return catalog + "\u0000" + schema + "\u0000" + name;
+    }
+
+    /**
+     * Quotes the supplied identifier with the supplied quote string.
+     *
+     * @param identifier the identifier; must not be {@code null}
+     *
+     * @param quote the quote string; may be {@code null} or a blank
+     * {@link String} if the database does not support quoting
+     *
+     * @return the quoted identifier
+     */
+    private static final String quote(final String identifier, final String quote) {
+      if (quote == null || quote.trim().isEmpty()) {
+        return identifier;
+      }
+      return quote + identifier.replace(quote, quote + quote) + quote;
+    }
+
+  }
+
+}
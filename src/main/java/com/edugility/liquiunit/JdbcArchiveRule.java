@@ -0,0 +1,162 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.junit.rules.ExternalResource;
+
+import org.junit.runner.Description;
+
+import org.junit.runners.model.Statement;
+
+/**
+ * An {@link ExternalResource} that resets the contents of a database
+ * reachable through an arbitrary {@link DataSource} to a snapshot
+ * taken, by a {@link JdbcArchive}, the first time it runs.
+ *
+ * <p>A {@link JdbcArchiveRule} belongs between a {@link
+ * LiquiunitRule} and a {@link DataSourceDatabaseTesterRule} in a
+ * {@link org.junit.rules.RuleChain}:</p>
+ *
+ * <blockquote><pre>final DataSource dataSource = new DriverManagerDataSource("jdbc:hsqldb:file:target/db", "sa", "");
+ *final TestRule rule = RuleChain.outerRule(new LiquiunitRule(dataSource))
+ *  .around(new JdbcArchiveRule(dataSource, archive))
+ *  .around(new DataSourceDatabaseTesterRule(dataSource));</pre></blockquote>
+ *
+ * <p>The first test to run is preceded by the migration and
+ * {@linkplain JdbcArchive#saveIfEmpty(Description, Connection)
+ * saves} the migrated contents; every later test finds the schema
+ * already migrated and {@linkplain
+ * JdbcArchive#loadUnlessEmpty(Description, Connection) restores} the
+ * saved contents, undoing whatever earlier tests did.</p>
+ *
+ * <p>This class is safe for use by multiple threads, provided that
+ * concurrent tests do not share a database.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see JdbcArchive
+ */
+public class JdbcArchiveRule extends ExternalResource {
+
+  /**
+   * The {@link DataSource} through which the database is reached.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final DataSource dataSource;
+
+  /**
+   * The {@link JdbcArchive} that saves and restores the database's
+   * contents.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final JdbcArchive archive;
+
+  /**
+   * The {@link Description}s of the tests currently wrapped by this
+   * {@link JdbcArchiveRule}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final InvocationState<Description> invocations;
+
+  /**
+   * Creates a new {@link JdbcArchiveRule}.
+   *
+   * @param dataSource the {@link DataSource} through which the
+   * database is reached; must not be {@code null}
+   *
+   * @param archive the {@link JdbcArchive} that saves and restores
+   * the database's contents; must not be {@code null}
+   *
+   * @exception IllegalArgumentException if either parameter is {@code
+   * null}
+   */
+  public JdbcArchiveRule(final DataSource dataSource, final JdbcArchive archive) {
+    super();
+    if (dataSource == null) {
+      throw new IllegalArgumentException("dataSource", new NullPointerException("dataSource"));
+    }
+    if (archive == null) {
+      throw new IllegalArgumentException("archive", new NullPointerException("archive"));
+    }
+    this.dataSource = dataSource;
+    this.archive = archive;
+    this.invocations = new InvocationState<Description>();
+  }
+
+  /**
+   * Overrides the {@link ExternalResource#apply(Statement,
+   * Description)} method to store the supplied {@link Description}
+   * for usage by the {@link #before()} method.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param base the {@link Statement} to decorate; must not be {@code
+   * null}
+   *
+   * @param description the {@link Description} describing the test
+   * underway; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link Statement}
+   */
+  @Override
+  public Statement apply(final Statement base, final Description description) {
+    return this.invocations.apply(super.apply(base, description), description);
+  }
+
+  /**
+   * {@linkplain JdbcArchive#saveIfEmpty(Description, Connection)
+   * Saves} the contents of the database if the {@link JdbcArchive}
+   * is {@linkplain JdbcArchive#isEmpty(Description) empty}, and
+   * otherwise {@linkplain JdbcArchive#loadUnlessEmpty(Description,
+   * Connection) restores} them.
+   *
+   * @exception SQLException if a database error occurs
+   */
+  @Override
+  protected void before() throws SQLException {
+    final Description description = this.invocations.get();
+    final Connection c = this.dataSource.getConnection();
+    try {
+      if (!this.archive.saveIfEmpty(description, c)) {
+        this.archive.loadUnlessEmpty(description, c);
+      }
+    } finally {
+      c.close();
+    }
+  }
+
+}
@@ -0,0 +1,719 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import liquibase.changelog.DatabaseChangeLog;
+
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+
+import liquibase.database.jvm.JdbcConnection;
+
+import liquibase.exception.DatabaseException;
+
+/**
+ * Process-wide caches of the parsed {@link DatabaseChangeLog}s, the
+ * resolved {@link Database} implementation classes and the
+ * {@linkplain SqlRecorder recorded update SQL} and the {@linkplain
+ * StartAtTag per-tag snapshots} used by {@link
+ * LiquiunitRule}s, so that changelog XML is parsed and the list of
+ * Liquibase {@link Database} implementations is consulted once per
+ * JVM instead of once per test.
+ *
+ * <p>A {@link DatabaseChangeLog} is cached under the list of
+ * changelog resource names and the {@linkplain Database#getShortName()
+ * short name} of the {@link Database} it was parsed for, since
+ * Liquibase substitutes database-specific changelog parameters while
+ * parsing.  Each entry also records a {@linkplain #fingerprint(List,
+ * ClassLoader) fingerprint} of the changelogs' contents; an entry
+ * whose fingerprint no longer matches is discarded, so editing a
+ * changelog between runs in the same JVM is seen.  Once the named
+ * changelogs have been parsed, the fingerprint also covers every
+ * {@linkplain #putDependencies(List, Collection) resource read while
+ * parsing them and computing their checksums}: the changelogs they
+ * {@code include}, directly or not, and the files that {@code
+ * sqlFile} and similar changes read.</p>
+ *
+ * <p>The changesets of a parsed {@link DatabaseChangeLog}, and the
+ * {@link liquibase.changelog.ChangeLogParameters} that they consult
+ * while they run, are mutable, so a cached {@link DatabaseChangeLog}
+ * must never be run against two databases at once.  A migration
+ * therefore {@linkplain #claim(DatabaseChangeLog) claims} the {@link
+ * DatabaseChangeLog} it is about to run and {@linkplain
+ * #release(DatabaseChangeLog) releases} it afterwards, and a claimed
+ * {@link DatabaseChangeLog} is not {@linkplain #getChangeLog(List,
+ * Database, String) handed out} to other threads, which parse a copy
+ * of their own instead.</p>
+ *
+ * <p>A {@link Database} implementation class is cached under the
+ * database product name and version reported by the {@link
+ * JdbcConnection}.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see LiquiunitRule
+ */
+final class LiquibaseCache {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The cached {@link DatabaseChangeLog}s, indexed by changelog
+   * resource names and {@link Database} short name.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final ConcurrentMap<List<String>, Entry<DatabaseChangeLog>> changeLogs = new ConcurrentHashMap<List<String>, Entry<DatabaseChangeLog>>();
+
+  /**
+   * The cached {@linkplain SqlRecorder recordings} of the SQL executed
+   * by Liquibase updates, indexed by changelog resource names,
+   * contexts and database product name and version.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final ConcurrentMap<List<String>, Entry<List<String>>> recordings = new ConcurrentHashMap<List<String>, Entry<List<String>>>();
+
+  /**
+   * The cached {@linkplain StartAtTag per-tag snapshots}, each an
+   * {@link H2Archive} indexed by tag, indexed in turn by changelog
+   * resource names, contexts and database product name and version.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final ConcurrentMap<List<String>, Entry<Map<String, H2Archive>>> tagSnapshots = new ConcurrentHashMap<List<String>, Entry<Map<String, H2Archive>>>();
+
+  /**
+   * The cached {@link Database} implementation classes, indexed by
+   * database product name and version.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final ConcurrentMap<String, Class<? extends Database>> databaseClasses = new ConcurrentHashMap<String, Class<? extends Database>>();
+
+  /**
+   * The names of the resources, other than the changelogs themselves,
+   * that were read while parsing changelogs, indexed by changelog
+   * resource names.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #putDependencies(List, Collection)
+   */
+  private static final ConcurrentMap<List<String>, Set<String>> dependencies = new ConcurrentHashMap<List<String>, Set<String>>();
+
+  /**
+   * The {@link DatabaseChangeLog}s currently being run, mapped to the
+   * {@link Thread}s running them and the number of times those
+   * {@link Thread}s have claimed them.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #claim(DatabaseChangeLog)
+   */
+  private static final Map<DatabaseChangeLog, Claim> claims = new IdentityHashMap<DatabaseChangeLog, Claim>();
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link LiquibaseCache}.
+   */
+  private LiquibaseCache() {
+    super();
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns the {@link DatabaseChangeLog} cached for the supplied
+   * resource names, {@link Database} and fingerprint, or {@code null}
+   * if there is none or if it is {@linkplain #claim(DatabaseChangeLog)
+   * being run} by another thread.
+   *
+   * @param changeLogResourceNames the changelog resource names; must
+   * not be {@code null}
+   *
+   * @param database the {@link Database}; must not be {@code null}
+   *
+   * @param fingerprint the current {@linkplain #fingerprint(List,
+   * ClassLoader) fingerprint} of the changelogs; must not be {@code
+   * null}
+   *
+   * @return the cached {@link DatabaseChangeLog}, or {@code null}
+   */
+  static final DatabaseChangeLog getChangeLog(final List<String> changeLogResourceNames, final Database database, final String fingerprint) {
+    return getChangeLog(changeLogResourceNames, database, fingerprint, null);
+  }
+
+  /**
+   * Returns the {@link DatabaseChangeLog} cached for the supplied
+   * resource names, {@link Database} and fingerprint that was derived
+   * from the supplied source {@link DatabaseChangeLog}, or {@code
+   * null} if there is none or if it is {@linkplain
+   * #claim(DatabaseChangeLog) being run} by another thread.
+   *
+   * @param changeLogResourceNames the changelog resource names; must
+   * not be {@code null}
+   *
+   * @param database the {@link Database}; must not be {@code null}
+   *
+   * @param fingerprint the current {@linkplain #fingerprint(List,
+   * ClassLoader) fingerprint} of the changelogs; must not be {@code
+   * null}
+   *
+   * @param source the {@link DatabaseChangeLog} whose changesets the
+   * cached one shares, or {@code null} if it shares none
+   *
+   * @return the cached {@link DatabaseChangeLog}, or {@code null}
+   *
+   * @see #putChangeLog(List, Database, String, DatabaseChangeLog,
+   * DatabaseChangeLog)
+   */
+  static final DatabaseChangeLog getChangeLog(final List<String> changeLogResourceNames, final Database database, final String fingerprint, final DatabaseChangeLog source) {
+    final List<String> key = key(changeLogResourceNames, database);
+    final Entry<DatabaseChangeLog> entry = changeLogs.get(key);
+    if (entry == null || entry.source != source) {
+      return null;
+    } else if (!entry.fingerprint.equals(fingerprint)) {
+      changeLogs.remove(key, entry);
+      return null;
+    }
+    synchronized (claims) {
+      final Claim claim = claims.get(entry.value);
+      if (claim != null && claim.owner != Thread.currentThread()) {
+        return null;
+      }
+    }
+    return entry.value;
+  }
+
+  /**
+   * Caches the supplied {@link DatabaseChangeLog}.
+   *
+   * @param changeLogResourceNames the changelog resource names; must
+   * not be {@code null}
+   *
+   * @param database the {@link Database} the changelog was parsed
+   * for; must not be {@code null}
+   *
+   * @param fingerprint the {@linkplain #fingerprint(List, ClassLoader)
+   * fingerprint} of the changelogs that were parsed; must not be
+   * {@code null}
+   *
+   * @param changeLog the parsed {@link DatabaseChangeLog}; must not be
+   * {@code null}
+   */
+  static final void putChangeLog(final List<String> changeLogResourceNames, final Database database, final String fingerprint, final DatabaseChangeLog changeLog) {
+    putChangeLog(changeLogResourceNames, database, fingerprint, changeLog, null);
+  }
+
+  /**
+   * Caches the supplied {@link DatabaseChangeLog}, which shares the
+   * changesets of the supplied source {@link DatabaseChangeLog}.
+   *
+   * <p>Since the two share changesets, the cached {@link
+   * DatabaseChangeLog} is only {@linkplain #getChangeLog(List,
+   * Database, String, DatabaseChangeLog) returned} to a caller holding
+   * the same source.</p>
+   *
+   * @param changeLogResourceNames the changelog resource names; must
+   * not be {@code null}
+   *
+   * @param database the {@link Database} the changelog was parsed
+   * for; must not be {@code null}
+   *
+   * @param fingerprint the {@linkplain #fingerprint(List, ClassLoader)
+   * fingerprint} of the changelogs that were parsed; must not be
+   * {@code null}
+   *
+   * @param changeLog the {@link DatabaseChangeLog}; must not be {@code
+   * null}
+   *
+   * @param source the {@link DatabaseChangeLog} whose changesets
+   * {@code changeLog} shares; may be {@code null}
+   */
+  static final void putChangeLog(final List<String> changeLogResourceNames, final Database database, final String fingerprint, final DatabaseChangeLog changeLog, final DatabaseChangeLog source) {
+    changeLogs.put(key(changeLogResourceNames, database), new Entry<DatabaseChangeLog>(fingerprint, changeLog, source));
+  }
+
+  /**
+   * Records the names of the resources that were read while parsing
+   * the named changelogs and computing the checksums of their
+   * changesets, so that later {@linkplain #fingerprint(List,
+   * ClassLoader) fingerprints} of those changelogs cover them.
+   *
+   * @param changeLogResourceNames the changelog resource names; must
+   * not be {@code null}
+   *
+   * @param resourceNames the names of the resources that were read;
+   * must not be {@code null}
+   */
+  static final void putDependencies(final List<String> changeLogResourceNames, final Collection<? extends String> resourceNames) {
+    assert changeLogResourceNames != null;
+    assert resourceNames != null;
+    final Set<String> names = new TreeSet<String>(resourceNames);
+    names.removeAll(changeLogResourceNames);
+    dependencies.put(new ArrayList<String>(changeLogResourceNames), names);
+  }
+
+  /**
+   * Claims the supplied {@link DatabaseChangeLog} for the current
+   * thread, which is about to run it, if no other thread has claimed
+   * it.
+   *
+   * <p>A thread may claim a {@link DatabaseChangeLog} more than once;
+   * it must {@linkplain #release(DatabaseChangeLog) release} it as
+   * many times.  While it is claimed, the {@link
+   * #getChangeLog(List, Database, String)} method does not return it
+   * to other threads.</p>
+   *
+   * @param changeLog the {@link DatabaseChangeLog}; must not be {@code
+   * null}
+   *
+   * @return {@code true} if the current thread now holds a claim on
+   * {@code changeLog}; {@code false} if another thread does
+   *
+   * @see #release(DatabaseChangeLog)
+   */
+  static final boolean claim(final DatabaseChangeLog changeLog) {
+    assert changeLog != null;
+    synchronized (claims) {
+      Claim claim = claims.get(changeLog);
+      if (claim == null) {
+        claim = new Claim(Thread.currentThread());
+        claims.put(changeLog, claim);
+      } else if (claim.owner != Thread.currentThread()) {
+        return false;
+      }
+      claim.count++;
+      return true;
+    }
+  }
+
+  /**
+   * Releases a claim made by the current thread on the supplied
+   * {@link DatabaseChangeLog} by way of the {@link
+   * #claim(DatabaseChangeLog)} method.
+   *
+   * @param changeLog the {@link DatabaseChangeLog}; must not be {@code
+   * null}
+   *
+   * @exception IllegalStateException if the current thread holds no
+   * claim on {@code changeLog}
+   */
+  static final void release(final DatabaseChangeLog changeLog) {
+    assert changeLog != null;
+    synchronized (claims) {
+      final Claim claim = claims.get(changeLog);
+      if (claim == null || claim.owner != Thread.currentThread()) {
+        throw new IllegalStateException("The current thread has not claimed " + changeLog);
+      }
+      if (--claim.count <= 0) {
+        claims.remove(changeLog);
+        claims.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Blocks until no thread other than the current one holds a
+   * {@linkplain #claim(DatabaseChangeLog) claim} on the supplied
+   * {@link DatabaseChangeLog}.
+   *
+   * @param changeLog the {@link DatabaseChangeLog}; must not be {@code
+   * null}
+   *
+   * @exception InterruptedException if the current thread is
+   * interrupted while waiting
+   */
+  static final void awaitRelease(final DatabaseChangeLog changeLog) throws InterruptedException {
+    assert changeLog != null;
+    synchronized (claims) {
+      Claim claim = claims.get(changeLog);
+      while (claim != null && claim.owner != Thread.currentThread()) {
+        claims.wait();
+        claim = claims.get(changeLog);
+      }
+    }
+  }
+
+  /**
+   * Returns the SQL recorded during an earlier Liquibase update under
+   * the supplied key and fingerprint, or {@code null} if there is
+   * none.
+   *
+   * @param key the key, made up of the changelog resource names, the
+   * contexts and the database product name and version; must not be
+   * {@code null}
+   *
+   * @param fingerprint the current {@linkplain #fingerprint(List,
+   * ClassLoader) fingerprint} of the changelogs; must not be {@code
+   * null}
+   *
+   * @return an unmodifiable {@link List} of SQL statements, or {@code
+   * null}
+   */
+  static final List<String> getRecording(final List<String> key, final String fingerprint) {
+    assert key != null;
+    final Entry<List<String>> entry = recordings.get(key);
+    if (entry == null) {
+      return null;
+    } else if (!entry.fingerprint.equals(fingerprint)) {
+      recordings.remove(key, entry);
+      return null;
+    }
+    return entry.value;
+  }
+
+  /**
+   * Caches the SQL recorded during a Liquibase update.
+   *
+   * @param key the key, made up of the changelog resource names, the
+   * contexts and the database product name and version; must not be
+   * {@code null}
+   *
+   * @param fingerprint the {@linkplain #fingerprint(List, ClassLoader)
+   * fingerprint} of the changelogs that were applied; must not be
+   * {@code null}
+   *
+   * @param sql the recorded SQL statements; must not be {@code null}
+   */
+  static final void putRecording(final List<String> key, final String fingerprint, final List<String> sql) {
+    assert key != null;
+    recordings.put(new ArrayList<String>(key), new Entry<List<String>>(fingerprint, sql));
+  }
+
+  /**
+   * Returns the {@linkplain StartAtTag per-tag snapshots} taken during
+   * an earlier Liquibase update under the supplied key and
+   * fingerprint, or {@code null} if there are none.
+   *
+   * @param key the key, made up of the changelog resource names, the
+   * contexts and the database product name and version; must not be
+   * {@code null}
+   *
+   * @param fingerprint the current {@linkplain #fingerprint(List,
+   * ClassLoader) fingerprint} of the changelogs; must not be {@code
+   * null}
+   *
+   * @return an unmodifiable {@link Map} of {@link H2Archive}s indexed
+   * by tag, or {@code null}
+   */
+  static final Map<String, H2Archive> getTagSnapshots(final List<String> key, final String fingerprint) {
+    assert key != null;
+    final Entry<Map<String, H2Archive>> entry = tagSnapshots.get(key);
+    if (entry == null) {
+      return null;
+    } else if (!entry.fingerprint.equals(fingerprint)) {
+      tagSnapshots.remove(key, entry);
+      return null;
+    }
+    return entry.value;
+  }
+
+  /**
+   * Caches the {@linkplain StartAtTag per-tag snapshots} taken during
+   * a Liquibase update.
+   *
+   * @param key the key, made up of the changelog resource names, the
+   * contexts and the database product name and version; must not be
+   * {@code null}
+   *
+   * @param fingerprint the {@linkplain #fingerprint(List, ClassLoader)
+   * fingerprint} of the changelogs that were applied; must not be
+   * {@code null}
+   *
+   * @param snapshots the {@link H2Archive}s indexed by tag; must not
+   * be {@code null}
+   */
+  static final void putTagSnapshots(final List<String> key, final String fingerprint, final Map<String, H2Archive> snapshots) {
+    assert key != null;
+    tagSnapshots.put(new ArrayList<String>(key), new Entry<Map<String, H2Archive>>(fingerprint, snapshots));
+  }
+
+  /**
+   * Returns the key under which a {@link DatabaseChangeLog} is cached.
+   *
+   * @param changeLogResourceNames the changelog resource names; must
+   * not be {@code null}
+   *
+   * @param database the {@link Database}; must not be {@code null}
+   *
+   * @return a non-{@code null} key
+   */
+  private static final List<String> key(final List<String> changeLogResourceNames, final Database database) {
+    assert changeLogResourceNames != null;
+    assert database != null;
+    final List<String> key = new ArrayList<String>(changeLogResourceNames);
+    key.add(database.getShortName());
+    return key;
+  }
+
+  /**
+   * Returns a digest of the contents of the named classpath
+   * resources and of the resources {@linkplain #putDependencies(List,
+   * Collection) recorded} as having been read while parsing them.
+   *
+   * <p>Until the named resources have been parsed, only they are
+   * digested.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param resourceNames the names of the resources; must not be
+   * {@code null}
+   *
+   * @param classLoader the {@link ClassLoader} to load them with;
+   * must not be {@code null}
+   *
+   * @return a non-{@code null} hexadecimal digest
+   *
+   * @exception IOException if a resource could not be read
+   */
+  static final String fingerprint(final List<String> resourceNames, final ClassLoader classLoader) throws IOException {
+    assert resourceNames != null;
+    assert classLoader != null;
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (final NoSuchAlgorithmException impossible) {
+      throw new IllegalStateException(impossible);
+    }
+    final ResourceIndex index = ResourceIndex.getInstance(classLoader);
+    final byte[] buffer = new byte[8192];
+    final List<String> allResourceNames = new ArrayList<String>(resourceNames);
+    final Set<String> recorded = dependencies.get(resourceNames);
+    if (recorded != null) {
+      allResourceNames.addAll(recorded);
+    }
+    for (final String resourceName : allResourceNames) {
+      digest.update(resourceName.getBytes("UTF-8"));
+      final InputStream stream = index.openStream(resourceName);
+      if (stream != null) {
+        try {
+          int read;
+          while ((read = stream.read(buffer)) >= 0) {
+            digest.update(buffer, 0, read);
+          }
+        } finally {
+          stream.close();
+        }
+      }
+    }
+    final StringBuilder sb = new StringBuilder();
+    for (final byte b : digest.digest()) {
+      sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+      sb.append(Character.forDigit(b & 0xF, 16));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns a new {@link Database} connected to the supplied {@link
+   * JdbcConnection}, consulting the {@link DatabaseFactory} only the
+   * first time a given database product and version is seen.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param connection the {@link JdbcConnection}; must not be {@code
+   * null}
+   *
+   * @return a new, non-{@code null} {@link Database}
+   *
+   * @exception DatabaseException if the {@link Database} could not be
+   * created
+   *
+   * @see DatabaseFactory#findCorrectDatabaseImplementation(liquibase.database.DatabaseConnection)
+   */
+  static final Database findCorrectDatabaseImplementation(final JdbcConnection connection) throws DatabaseException {
+    assert connection != null;
+    final String key = connection.getDatabaseProductName() + " " + connection.getDatabaseProductVersion();
+    final Class<? extends Database> databaseClass = databaseClasses.get(key);
+    if (databaseClass == null) {
+      final Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(connection);
+      assert database != null;
+      databaseClasses.putIfAbsent(key, database.getClass());
+      return database;
+    }
+    final Database database;
+    try {
+      database = databaseClass.newInstance();
+    } catch (final InstantiationException oops) {
+      throw new DatabaseException(oops);
+    } catch (final IllegalAccessException oops) {
+      throw new DatabaseException(oops);
+    }
+    database.setConnection(connection);
+    return database;
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A cached value and the fingerprint of the changelogs it was
+   * derived from.
+   *
+   * @param <T> the type of the cached value
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Entry<T> {
+
+    /**
+     * The fingerprint of the changelogs.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final String fingerprint;
+
+    /**
+     * The cached value.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final T value;
+
+    /**
+     * The object from which the cached value was derived and whose
+     * state it shares.
+     *
+     * <p>This field may be {@code null}.</p>
+     */
+    private final Object source;
+
+    /**
+     * Creates a new {@link Entry}.
+     *
+     * @param fingerprint the fingerprint of the changelogs; must not
+     * be {@code null}
+     *
+     * @param value the cached value; must not be {@code null}
+     */
+    private Entry(final String fingerprint, final T value) {
+      this(fingerprint, value, null);
+    }
+
+    /**
+     * Creates a new {@link Entry}.
+     *
+     * @param fingerprint the fingerprint of the changelogs; must not
+     * be {@code null}
+     *
+     * @param value the cached value; must not be {@code null}
+     *
+     * @param source the object from which {@code value} was derived;
+     * may be {@code null}
+     */
+    private Entry(final String fingerprint, final T value, final Object source) {
+      super();
+      assert fingerprint != null;
+      assert value != null;
+      this.fingerprint = fingerprint;
+      this.value = value;
+      this.source = source;
+    }
+
+  }
+
+  /**
+   * A claim by a {@link Thread} on a {@link DatabaseChangeLog}.
+   *
+   * <p>Instances of this class must be accessed while synchronized on
+   * {@link LiquibaseCache#claims}.</p>
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   *
+   * @see LiquibaseCache#claim(DatabaseChangeLog)
+   */
+  private static final class Claim {
+
+    /**
+     * The {@link Thread} holding this claim.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final Thread owner;
+
+    /**
+     * The number of times {@link #owner} has claimed the {@link
+     * DatabaseChangeLog}.
+     */
+    private int count;
+
+    /**
+     * Creates a new {@link Claim}.
+     *
+     * @param owner the {@link Thread} holding the claim; must not be
+     * {@code null}
+     */
+    private Claim(final Thread owner) {
+      super();
+      assert owner != null;
+      this.owner = owner;
+    }
+
+  }
+
+}
@@ -27,14 +27,30 @@
  */
 package com.edugility.liquiunit;
 
+import java.io.File;
+import java.io.IOException;
+
+import java.lang.annotation.Annotation;
+
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sql.DataSource;
 
@@ -44,16 +60,28 @@ import liquibase.Contexts;
 import liquibase.LabelExpression;
 import liquibase.Liquibase;
 
+import liquibase.change.Change;
+
+import liquibase.change.core.TagDatabaseChange;
+
 import liquibase.changelog.ChangeLogHistoryService;
 import liquibase.changelog.ChangeLogHistoryServiceFactory;
 import liquibase.changelog.ChangeSet;
 import liquibase.changelog.DatabaseChangeLog;
+import liquibase.changelog.RanChangeSet;
 import liquibase.changelog.StandardChangeLogHistoryService;
 
+import liquibase.changelog.visitor.ChangeExecListener;
+
+import liquibase.configuration.GlobalConfiguration;
+import liquibase.configuration.LiquibaseConfiguration;
+
 import liquibase.database.Database;
-import liquibase.database.DatabaseConnection; // for javadoc only
+import liquibase.database.DatabaseConnection;
 import liquibase.database.DatabaseFactory;
 
+import liquibase.database.core.H2Database;
+
 import liquibase.database.jvm.JdbcConnection;
 
 import liquibase.exception.DatabaseException;
@@ -63,14 +91,18 @@ import liquibase.logging.LogFactory;
 import liquibase.logging.Logger;
 
 import liquibase.resource.CompositeResourceAccessor;
-import liquibase.resource.ClassLoaderResourceAccessor;
-import liquibase.resource.FileSystemResourceAccessor;
 import liquibase.resource.ResourceAccessor;
 
+import org.dbunit.dataset.DataSetException;
+
 import org.junit.rules.ExternalResource;
 import org.junit.rules.RuleChain;
 import org.junit.rules.TestRule;
 
+import org.junit.runner.Description;
+
+import org.junit.runners.model.Statement;
+
 /**
  * An {@link ExternalResource} that performs a <a
  * href="http://liquibase.org/">Liquibase</a> {@linkplain
@@ -126,18 +158,6 @@ public class LiquiunitRule extends ExternalResource {
    */
   private Iterable<? extends String> changeLogResourceNames;
 
-  /**
-   * The {@link Liquibase} instance created by the {@link
-   * #createLiquibase(Database)} method.
-   *
-   * <p>This field may be {@code null}.</p>
-   *
-   * @see #createLiquibase(Database)
-   *
-   * @see Liquibase
-   */
-  private Liquibase liquibase;
-
   /**
    * An {@link Iterable} of Liquibase contexts supplied at {@linkplain
    * #LiquiunitRule(DataSource, String[]) construction
@@ -154,6 +174,20 @@ public class LiquiunitRule extends ExternalResource {
    */
   private Iterable<? extends String> contexts;
 
+  /**
+   * A Liquibase <a
+   * href="http://www.liquibase.org/documentation/labels.html">label
+   * expression</a> selecting the changesets to apply.
+   *
+   * <p>This field may be {@code null}, in which case changesets are
+   * not filtered by label.</p>
+   *
+   * @see #getLabelExpression()
+   *
+   * @see #setLabelExpression(String)
+   */
+  private volatile String labelExpression;
+
   /**
    * A {@link ResourceAccessor} that will be supplied to the relevant
    * {@linkplain Liquibase#Liquibase(String, ResourceAccessor,
@@ -179,6 +213,81 @@ public class LiquiunitRule extends ExternalResource {
    */
   private ResourceAccessor resourceAccessor;
 
+  /**
+   * Whether Liquibase's bookkeeping for the databases this {@link
+   * LiquiunitRule} migrates is kept in memory.
+   *
+   * @see #isEphemeral()
+   *
+   * @see #setEphemeral(boolean)
+   */
+  private volatile boolean ephemeral;
+
+  /**
+   * Whether the updates this {@link LiquiunitRule} performs may be
+   * recorded once and replayed thereafter.
+   *
+   * @see #isReplaying()
+   *
+   * @see #setReplaying(boolean)
+   */
+  private volatile boolean replaying;
+
+  /**
+   * The number of database round trips that {@linkplain #isEphemeral()
+   * ephemeral} bookkeeping has saved.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #getSavedRoundTrips()
+   */
+  private final AtomicLong savedRoundTrips;
+
+  /**
+   * The maximum number of independent changesets that this {@link
+   * LiquiunitRule} will apply concurrently.
+   *
+   * <p>This field is always greater than zero.</p>
+   *
+   * @see #getParallelism()
+   *
+   * @see #setParallelism(int)
+   */
+  private volatile int parallelism;
+
+  /**
+   * Whether this {@link LiquiunitRule} rolls back and reapplies each
+   * changeset as soon as it has applied it.
+   *
+   * @see #isVerifyingRollbacks()
+   *
+   * @see #setVerifyingRollbacks(boolean)
+   */
+  private volatile boolean verifyingRollbacks;
+
+  /**
+   * The longest, in milliseconds, that a changeset's rollback may
+   * take when {@linkplain #isVerifyingRollbacks() rollbacks are
+   * verified}.
+   *
+   * <p>This field is never negative.</p>
+   *
+   * @see #getRollbackThreshold()
+   *
+   * @see #setRollbackThreshold(long)
+   */
+  private volatile long rollbackThreshold;
+
+  /**
+   * The {@link Description}s of the tests currently wrapped by this
+   * {@link LiquiunitRule}.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #getStartAtTag()
+   */
+  private final InvocationState<Description> invocations;
+
   
   /*
    * Constructors.
@@ -239,14 +348,18 @@ public class LiquiunitRule extends ExternalResource {
     }
     this.logger.debug("Entering LiquiunitRule(DataSource, String[]); parameters: dataSource = " + dataSource + "; contexts = " + (contexts == null ? "null" : Arrays.asList(contexts)));
     this.dataSource = dataSource;
+    this.ephemeral = Boolean.getBoolean("liquiunit.ephemeral");
+    this.replaying = Boolean.getBoolean("liquiunit.replay");
+    this.savedRoundTrips = new AtomicLong();
+    this.parallelism = Math.max(1, Integer.getInteger("liquiunit.parallelism", 1).intValue());
+    this.verifyingRollbacks = Boolean.getBoolean("liquiunit.verifyRollbacks");
+    this.rollbackThreshold = Math.max(0L, Long.getLong("liquiunit.rollbackThreshold", Long.MAX_VALUE).longValue());
+    this.invocations = new InvocationState<Description>();
     final List<String> changeLogResourceNames = new ArrayList<String>();
     changeLogResourceNames.add("changelog.xml");
     changeLogResourceNames.add("test-changelog.xml");
     this.setChangeLogResourceNames(changeLogResourceNames);
-    final ResourceAccessor classLoaderAccessor = new ClassLoaderResourceAccessor(Thread.currentThread().getContextClassLoader());
-    final ResourceAccessor urlAccessor = new URLResourceAccessor(classLoaderAccessor);
-    final ResourceAccessor fileAccessor = new FileSystemResourceAccessor(System.getProperty("user.dir"));
-    this.setResourceAccessor(new CompositeResourceAccessor(urlAccessor, classLoaderAccessor, fileAccessor));
+    this.setResourceAccessor(ChangeLogs.newResourceAccessor());
     if (contexts != null && contexts.length > 0) {
       this.setContexts(Arrays.asList(contexts));
     }
@@ -273,6 +386,10 @@ public class LiquiunitRule extends ExternalResource {
    * construction time}, this property is set to "{@code
    * changelog.xml}" and "{@code test-changelog.xml}".</p>
    *
+   * <p>While a test annotated with {@link Snapshot} is underway, this
+   * method returns the annotation's {@linkplain Snapshot#changeLogs()
+   * changelogs} instead.</p>
+   *
    * @return the {@linkplain ClassLoader#getResource(String) classpath
    * resource names} of the <a
    * href="http://www.liquibase.org/documentation/databasechangelog.html">changelogs</a>
@@ -283,11 +400,20 @@ public class LiquiunitRule extends ExternalResource {
    * @see #setChangeLogResourceNames(Iterable)
    *
    * @see #LiquiunitRule(DataSource, String[])
+   *
+   * @see #getSnapshot()
    */
   public Iterable<? extends String> getChangeLogResourceNames() {
     this.logger.debug("Entering getChangeLogResourceNames()");
-    this.logger.debug("Exiting getChangeLogResourceNames(); returning: " + this.changeLogResourceNames);
-    return this.changeLogResourceNames;
+    final Snapshot snapshot = this.getSnapshot();
+    final Iterable<? extends String> returnValue;
+    if (snapshot == null) {
+      returnValue = this.changeLogResourceNames;
+    } else {
+      returnValue = Arrays.asList(snapshot.changeLogs());
+    }
+    this.logger.debug("Exiting getChangeLogResourceNames(); returning: " + returnValue);
+    return returnValue;
 
   }
 
@@ -322,16 +448,30 @@ public class LiquiunitRule extends ExternalResource {
    *
    * <p>This method may return {@code null}.</p>
    *
+   * <p>While a test annotated with {@link Snapshot} is underway, this
+   * method returns the annotation's {@linkplain Snapshot#contexts()
+   * contexts} instead.</p>
+   *
    * @return an {@link Iterable} of {@link String}s, or {@code null}
    *
    * @see #setContexts(Iterable)
    *
    * @see Liquibase#update(String)
+   *
+   * @see #getSnapshot()
    */
   public Iterable<? extends String> getContexts() {
     this.logger.debug("Entering getContexts()");
-    this.logger.debug("Exiting getContexts(); returning: " + this.contexts);
-    return this.contexts;
+    final Snapshot snapshot = this.getSnapshot();
+    final Iterable<? extends String> returnValue;
+    if (snapshot == null) {
+      returnValue = this.contexts;
+    } else {
+      final String[] contexts = snapshot.contexts();
+      returnValue = contexts.length <= 0 ? null : Arrays.asList(contexts);
+    }
+    this.logger.debug("Exiting getContexts(); returning: " + returnValue);
+    return returnValue;
   }
 
   /**
@@ -356,6 +496,424 @@ public class LiquiunitRule extends ExternalResource {
     this.logger.debug("Exiting setContexts(Iterable)");
   }
 
+  /**
+   * Returns the Liquibase <a
+   * href="http://www.liquibase.org/documentation/labels.html">label
+   * expression</a> selecting the changesets to apply during the
+   * {@linkplain Liquibase#update(Contexts, LabelExpression) update}
+   * operation.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * <p>While a test annotated with {@link Snapshot} is underway, this
+   * method returns the annotation's {@linkplain Snapshot#labels()
+   * label expression} instead.</p>
+   *
+   * @return a label expression, or {@code null} if changesets are not
+   * filtered by label
+   *
+   * @see #setLabelExpression(String)
+   *
+   * @see #getSnapshot()
+   */
+  public String getLabelExpression() {
+    final Snapshot snapshot = this.getSnapshot();
+    if (snapshot == null) {
+      return this.labelExpression;
+    }
+    final String labels = snapshot.labels().trim();
+    return labels.isEmpty() ? null : labels;
+  }
+
+  /**
+   * Sets the Liquibase <a
+   * href="http://www.liquibase.org/documentation/labels.html">label
+   * expression</a> selecting the changesets to apply during the
+   * {@linkplain Liquibase#update(Contexts, LabelExpression) update}
+   * operation.
+   *
+   * @param labelExpression a label expression such as {@code
+   * "!legacy and v2"}; may be {@code null} in which case changesets
+   * will not be filtered by label
+   *
+   * @see #getLabelExpression()
+   */
+  public void setLabelExpression(final String labelExpression) {
+    this.labelExpression = labelExpression;
+  }
+
+  /**
+   * Returns {@code true} if this {@link LiquiunitRule} keeps
+   * Liquibase's bookkeeping for the databases it migrates in memory
+   * rather than in the databases themselves.
+   *
+   * <p>The default is the value of the {@code liquiunit.ephemeral}
+   * system property, or {@code false} if it is not set.</p>
+   *
+   * @return {@code true} if this {@link LiquiunitRule} is in
+   * ephemeral mode
+   *
+   * @see #setEphemeral(boolean)
+   */
+  public boolean isEphemeral() {
+    return this.ephemeral;
+  }
+
+  /**
+   * Sets whether this {@link LiquiunitRule} keeps Liquibase's
+   * bookkeeping for the databases it migrates in memory rather than
+   * in the databases themselves.
+   *
+   * <p>In ephemeral mode no {@code DATABASECHANGELOGLOCK} or {@code
+   * DATABASECHANGELOG} table is created, locked, written or
+   * unlocked: an {@link EphemeralLockService} and an {@link
+   * EphemeralChangeLogHistoryService} stand in for Liquibase's
+   * standard services for the duration of each {@linkplain #before()
+   * update}, even when a concurrent migration finishes and Liquibase
+   * replaces its service factories.  This suits databases that are discarded after every
+   * test, such as those fronted by an {@link H2Rule}.  Since such a
+   * database carries no history, it is considered {@linkplain
+   * #shouldUpdate(Liquibase) in need of an update} only if it has no
+   * tables at all; a database restored from an archive is therefore
+   * left alone.</p>
+   *
+   * @param ephemeral whether to use ephemeral mode
+   *
+   * @see #getSavedRoundTrips()
+   */
+  public void setEphemeral(final boolean ephemeral) {
+    this.ephemeral = ephemeral;
+  }
+
+  /**
+   * Returns the number of database round trips that {@linkplain
+   * #isEphemeral() ephemeral} bookkeeping has saved so far, counting
+   * the statements Liquibase's standard lock and history services
+   * would have issued.
+   *
+   * @return the number of round trips saved
+   */
+  public long getSavedRoundTrips() {
+    return this.savedRoundTrips.get();
+  }
+
+  /**
+   * Returns {@code true} if this {@link LiquiunitRule} may record the
+   * SQL of an update once and replay it thereafter.
+   *
+   * <p>The default is the value of the {@code liquiunit.replay}
+   * system property, or {@code false} if it is not set.</p>
+   *
+   * @return {@code true} if updates may be recorded and replayed
+   *
+   * @see #setReplaying(boolean)
+   */
+  public boolean isReplaying() {
+    return this.replaying;
+  }
+
+  /**
+   * Sets whether this {@link LiquiunitRule} may record the SQL of an
+   * update once and replay it thereafter.
+   *
+   * <p>When replaying is on, the {@link DataSource} supplied at
+   * construction time is an {@link H2Rule} or an {@link
+   * EmbeddedDatabaseRule}, and the database is fresh, the SQL that
+   * Liquibase executes while updating it is recorded, and later
+   * updates of fresh databases with the same changelogs, contexts,
+   * labels and database product simply execute that SQL again as one
+   * batch, without Liquibase.  A replayed update therefore does not
+   * call the {@link #createLiquibase(Database)} or {@link
+   * #shouldUpdate(Liquibase)} methods, so replaying never happens if
+   * either is overridden.  The replayed batch is not atomic: most
+   * databases, H2 among them, commit each DDL statement as it
+   * runs, so a batch that fails part way leaves the statements before
+   * the failure in place.</p>
+   *
+   * @param replaying whether updates may be recorded and replayed
+   *
+   * @see #isReplaying()
+   */
+  public void setReplaying(final boolean replaying) {
+    this.replaying = replaying;
+  }
+
+  /**
+   * Returns the maximum number of independent changesets that this
+   * {@link LiquiunitRule} will apply concurrently.
+   *
+   * <p>The default is the value of the {@code liquiunit.parallelism}
+   * system property, or {@code 1} if it is not set.</p>
+   *
+   * @return a number greater than zero
+   *
+   * @see #setParallelism(int)
+   */
+  public int getParallelism() {
+    return this.parallelism;
+  }
+
+  /**
+   * Sets the maximum number of independent changesets that this
+   * {@link LiquiunitRule} will apply concurrently.
+   *
+   * <p>When this is greater than {@code 1}, changesets are arranged
+   * by the database objects they name into waves of changesets that
+   * do not depend on one another, and each wave's changesets are
+   * applied concurrently on up to {@code parallelism} {@link
+   * java.sql.Connection}s acquired from this {@link LiquiunitRule}'s
+   * {@link DataSource}.  Changesets whose dependencies cannot be
+   * determined, such as those containing raw SQL or preconditions,
+   * are applied serially.  History is always recorded through a single
+   * {@link java.sql.Connection}, in changelog order within each
+   * wave.</p>
+   *
+   * @param parallelism the maximum number of changesets to apply at
+   * once; must be greater than zero
+   *
+   * @exception IllegalArgumentException if {@code parallelism} is less
+   * than {@code 1}
+   */
+  public void setParallelism(final int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism < 1: " + parallelism);
+    }
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Returns {@code true} if this {@link LiquiunitRule} rolls back and
+   * reapplies each changeset as soon as it has applied it.
+   *
+   * <p>The default is the value of the {@code
+   * liquiunit.verifyRollbacks} system property, or {@code false} if it
+   * is not set.</p>
+   *
+   * @return {@code true} if rollbacks are verified
+   *
+   * @see #setVerifyingRollbacks(boolean)
+   */
+  public boolean isVerifyingRollbacks() {
+    return this.verifyingRollbacks;
+  }
+
+  /**
+   * Sets whether this {@link LiquiunitRule} rolls back and reapplies
+   * each changeset as soon as it has applied it.
+   *
+   * <p>When rollbacks are verified, each unrun changeset is applied,
+   * rolled back and applied again before the next one is applied, and
+   * the time taken in each direction is logged.  The tables and
+   * columns of the database are compared before the changeset is
+   * applied and after it is rolled back.  Once every changeset has
+   * been applied, the {@link #before()} method fails if any changeset
+   * could not be rolled back, if any rollback did not restore the
+   * tables and columns, or if any rollback took longer than the
+   * {@linkplain #getRollbackThreshold() rollback threshold}.  The
+   * database is migrated by a single connection, and Liquibase's
+   * bookkeeping is never {@linkplain #isEphemeral() ephemeral}.</p>
+   *
+   * <p>Rollbacks are not verified for a test annotated with {@link
+   * StartAtTag}.</p>
+   *
+   * @param verifyingRollbacks whether to verify rollbacks
+   *
+   * @see #setRollbackThreshold(long)
+   */
+  public void setVerifyingRollbacks(final boolean verifyingRollbacks) {
+    this.verifyingRollbacks = verifyingRollbacks;
+  }
+
+  /**
+   * Returns the longest, in milliseconds, that a changeset's rollback
+   * may take when {@linkplain #isVerifyingRollbacks() rollbacks are
+   * verified}.
+   *
+   * <p>The default is the value of the {@code
+   * liquiunit.rollbackThreshold} system property, or {@link
+   * Long#MAX_VALUE} if it is not set.</p>
+   *
+   * @return a non-negative number of milliseconds
+   *
+   * @see #setRollbackThreshold(long)
+   */
+  public long getRollbackThreshold() {
+    return this.rollbackThreshold;
+  }
+
+  /**
+   * Sets the longest, in milliseconds, that a changeset's rollback
+   * may take when {@linkplain #isVerifyingRollbacks() rollbacks are
+   * verified}.
+   *
+   * @param rollbackThreshold a non-negative number of milliseconds
+   *
+   * @exception IllegalArgumentException if {@code rollbackThreshold}
+   * is negative
+   *
+   * @see #setVerifyingRollbacks(boolean)
+   */
+  public void setRollbackThreshold(final long rollbackThreshold) {
+    if (rollbackThreshold < 0L) {
+      throw new IllegalArgumentException("rollbackThreshold < 0: " + rollbackThreshold);
+    }
+    this.rollbackThreshold = rollbackThreshold;
+  }
+
+  /**
+   * Returns the {@link StartAtTag} annotation on the test method
+   * currently underway, or, failing that, on its test class, or
+   * {@code null} if there is none.
+   *
+   * <p>When this method returns a non-{@code null} value, the
+   * {@link #before()} method starts the database out migrated only as
+   * far as the annotation's {@linkplain StartAtTag#value() tag}.</p>
+   *
+   * @return a {@link StartAtTag}, or {@code null}
+   *
+   * @see StartAtTag
+   */
+  protected StartAtTag getStartAtTag() {
+    return this.findAnnotation(StartAtTag.class);
+  }
+
+  /**
+   * Returns the {@link Snapshot} annotation on the test method
+   * currently underway, or, failing that, on its test class, or
+   * {@code null} if there is none.
+   *
+   * <p>When this method returns a non-{@code null} value, the {@link
+   * #getChangeLogResourceNames()}, {@link #getContexts()} and {@link
+   * #getLabelExpression()} methods return the annotation's values
+   * rather than those set on this {@link LiquiunitRule}, so that the
+   * database a test is given is the one its {@link SnapshotKey}
+   * describes.</p>
+   *
+   * @return a {@link Snapshot}, or {@code null}
+   *
+   * @see Snapshot
+   *
+   * @see SnapshotKey#forDescription(Description)
+   */
+  protected Snapshot getSnapshot() {
+    return this.findAnnotation(Snapshot.class);
+  }
+
+  /**
+   * Returns the {@link Rehearse} annotation on the test method
+   * currently underway, or, failing that, on its test class, or
+   * {@code null} if there is none.
+   *
+   * <p>When this method returns a non-{@code null} value, and the
+   * test is not annotated with {@link StartAtTag}, the {@link
+   * #before()} method rehearses the migration against generated data
+   * as the annotation describes, and leaves the database as the
+   * largest scale left it.</p>
+   *
+   * @return a {@link Rehearse}, or {@code null}
+   *
+   * @see Rehearse
+   */
+  protected Rehearse getRehearsal() {
+    return this.findAnnotation(Rehearse.class);
+  }
+
+  /**
+   * Returns the upper-cased names of the tables that the test
+   * currently underway needs, as declared by a {@link RequiresTables}
+   * annotation on its test method, or, failing that, on its test
+   * class, or {@code null} if there is no such annotation and every
+   * changeset should therefore be applied.
+   *
+   * <p>The tables are those named by the annotation itself, those
+   * named in the test's dbUnit dataset unless the annotation says
+   * otherwise, and those mapped by the entities of the persistence
+   * unit it names, if any.</p>
+   *
+   * @return a sorted {@link Set} of table names, or {@code null}
+   *
+   * @exception LiquibaseException if the dataset or the persistence
+   * unit could not be read
+   *
+   * @see RequiresTables
+   *
+   * @see PartialSchema
+   */
+  protected Set<String> getRequiredTables() throws LiquibaseException {
+    final RequiresTables annotation = this.findAnnotation(RequiresTables.class);
+    if (annotation == null) {
+      return null;
+    }
+    final Description description = this.invocations.get();
+    final Set<String> returnValue = new TreeSet<String>();
+    for (final String tableName : annotation.value()) {
+      ParallelUpdate.addName(returnValue, tableName);
+    }
+    final ClassLoader cl = this.getClassLoader();
+    try {
+      if (annotation.dataSet()) {
+        returnValue.addAll(PartialSchema.getDataSetTableNames(description, cl));
+      }
+      final String persistenceUnit = annotation.persistenceUnit();
+      if (persistenceUnit != null && !persistenceUnit.isEmpty()) {
+        returnValue.addAll(PartialSchema.getEntityTableNames(persistenceUnit, cl));
+      }
+    } catch (final DataSetException oops) {
+      throw new LiquibaseException(oops);
+    } catch (final IOException oops) {
+      throw new LiquibaseException(oops);
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the annotation of the supplied type on the test method
+   * currently underway, or, failing that, on its test class, or
+   * {@code null} if there is none or no test is underway.
+   *
+   * @param <A> the type of the annotation
+   *
+   * @param annotationType the type of the annotation; must not be
+   * {@code null}
+   *
+   * @return an annotation, or {@code null}
+   */
+  private final <A extends Annotation> A findAnnotation(final Class<A> annotationType) {
+    assert annotationType != null;
+    final Description description = this.invocations.get();
+    A returnValue = null;
+    if (description != null) {
+      returnValue = description.getAnnotation(annotationType);
+      if (returnValue == null) {
+        final Class<?> testClass = description.getTestClass();
+        if (testClass != null) {
+          returnValue = testClass.getAnnotation(annotationType);
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Overrides the {@link ExternalResource#apply(Statement,
+   * Description)} method to store the supplied {@link Description}
+   * for usage by the {@link #getStartAtTag()} method.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param base the {@link Statement} to decorate; must not be {@code
+   * null}
+   *
+   * @param description the {@link Description} describing the test
+   * underway; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link Statement}
+   */
+  @Override
+  public Statement apply(final Statement base, final Description description) {
+    return this.invocations.apply(super.apply(base, description), description);
+  }
+
   /**
    * Transforms the return value of the {@link #getContexts()} into a
    * comma-separated {@link String} suitable for passing to the {@link
@@ -410,12 +968,42 @@ public class LiquiunitRule extends ExternalResource {
    * {@linkplain DataSource#getConnection(String, String) acquire a
    * <code>Connection</code>}, {@linkplain
    * DatabaseFactory#findCorrectDatabaseImplementation(DatabaseConnection)
-   * find the proper Liquibase <code>Database</code> implementation},
+   * find the proper Liquibase <code>Database</code> implementation}
+   * (consulting the {@link DatabaseFactory} only once per JVM for a
+   * given database product and version),
    * {@linkplain #createLiquibase(Database) create a
    * <code>Liquibase</code> instance} and, using it, {@linkplain
    * Liquibase#update(String) update} the backing database using the
    * {@linkplain #getChangeLogResourceNames() affiliated changelogs}.
    *
+   * <p>If the test underway is annotated with {@link StartAtTag}, the
+   * database is instead started out at the annotation's tag, and
+   * migrated further only if the annotation says so.</p>
+   *
+   * <p>Otherwise, if the test underway is annotated with {@link
+   * RequiresTables}, only the changesets {@linkplain
+   * #getRequiredTables() its tables} need are applied.</p>
+   *
+   * <p>Otherwise, if the test underway is annotated with {@link
+   * Rehearse}, the migration is {@linkplain #getRehearsal()
+   * rehearsed} against generated data.</p>
+   *
+   * <p>If {@linkplain #isVerifyingRollbacks() rollbacks are
+   * verified}, each changeset is rolled back and reapplied as soon as
+   * it has been applied.</p>
+   *
+   * <p>If the {@code liquiunit.timingReport} system property names a
+   * file, each changeset applied is timed, and a report of the
+   * timings, most expensive changeset first, is written to that file
+   * when the JVM shuts down.</p>
+   *
+   * <p>If the {@link DataSource} supplied at construction time is an
+   * {@link H2Rule} or an {@link EmbeddedDatabaseRule}, its database
+   * is {@linkplain H2Rule#saveToArchive() saved to any archive} as
+   * soon as it has been migrated in full, and is {@linkplain
+   * H2Rule#excludeFromArchive() never saved} if the migration fails
+   * or applies only some changesets.</p>
+   *
    * @exception LiquibaseException if there was a Liquibase-related
    * error
    *
@@ -430,10 +1018,41 @@ public class LiquiunitRule extends ExternalResource {
    * @see #getContexts()
    *
    * @see Liquibase#update(String)
+   *
+   * @see #getStartAtTag()
+   *
+   * @see #getRequiredTables()
    */
   @Override
   protected void before() throws LiquibaseException, SQLException {
     this.logger.debug("Entering before()");
+    if (this.dataSource != null) {
+      boolean migrated = false;
+      try {
+        this.migrate();
+        migrated = true;
+      } finally {
+        if (!migrated) {
+          this.excludeFromArchive();
+        }
+      }
+      this.saveToArchive();
+    }
+    this.logger.debug("Exiting before()");
+  }
+
+  /**
+   * Implements the {@link #before()} method, apart from archiving.
+   *
+   * @exception LiquibaseException if there was a Liquibase-related
+   * error
+   *
+   * @exception SQLException if there was a database-related error
+   *
+   * @see #before()
+   */
+  private final void migrate() throws LiquibaseException, SQLException {
+    this.logger.debug("Entering migrate()");
     if (this.dataSource != null) {
 
       final Connection c = this.dataSource.getConnection();
@@ -442,32 +1061,254 @@ public class LiquiunitRule extends ExternalResource {
       } else if (!c.isValid(0)) {
         throw new IllegalStateException("!c.isValid()");
       }
-      final JdbcConnection jc = new JdbcConnection(c);
-      try {
-        final DatabaseFactory databaseFactory = DatabaseFactory.getInstance();
-        assert databaseFactory != null;
-        final Database database = databaseFactory.findCorrectDatabaseImplementation(jc);
-        
-        this.liquibase = this.createLiquibase(database);
-        if (this.liquibase != null && this.shouldUpdate(liquibase)) {
+
+      List<String> replayKey = null;
+      String fingerprint = null;
+      SqlRecorder recorder = null;
+      final StartAtTag startAtTag = this.getStartAtTag();
+      final Rehearse rehearse = startAtTag == null ? this.getRehearsal() : null;
+      final Set<String> requiredTables = startAtTag == null && rehearse == null ? this.getRequiredTables() : null;
+      if (startAtTag != null || rehearse != null || requiredTables != null) {
+        this.excludeFromArchive();
+      }
+      if (startAtTag == null && rehearse == null && this.isReplayable()) {
+        final List<String> names = this.getExistingChangeLogResourceNames();
+        if (!names.isEmpty() && this.isFresh(c)) {
+          replayKey = new ArrayList<String>(names);
+          replayKey.add(String.valueOf(this.getContextsString()));
+          replayKey.add(String.valueOf(this.getLabelExpression()));
+          replayKey.add(c.getMetaData().getDatabaseProductName() + " " + c.getMetaData().getDatabaseProductVersion());
+          replayKey.add(this.isEphemeral() ? "ephemeral" : "standard");
+          replayKey.add(requiredTables == null ? "*" : requiredTables.toString());
+          replayKey.add(this.isVerifyingRollbacks() ? "rollbacks<=" + this.getRollbackThreshold() : "forward");
           try {
-            this.liquibase.update(this.getContextsString());
-          } finally {
-            this.liquibase.forceReleaseLocks();
+            fingerprint = LiquibaseCache.fingerprint(names, this.getClassLoader());
+          } catch (final IOException oops) {
+            throw new LiquibaseException(oops);
+          }
+          final List<String> recording = LiquibaseCache.getRecording(replayKey, fingerprint);
+          if (recording == null) {
+            recorder = new SqlRecorder();
+          } else {
+            try {
+              this.logger.debug("Replaying " + recording.size() + " recorded statements for " + names);
+              SqlRecorder.replay(c, recording);
+            } finally {
+              c.close();
+            }
+            this.logger.debug("Exiting migrate()");
+            return;
           }
         }
-      } finally {
-        try {
-          jc.close();
-        } catch (final DatabaseException ignore) {
-          
+      }
+
+      ChangeSetTimings timings = null;
+      if (ChangeSetTimings.isEnabled()) {
+        if (recorder == null) {
+          // Only to count statements.
+          recorder = new SqlRecorder();
         }
+        timings = new ChangeSetTimings(recorder);
       }
 
-    }
-    this.logger.debug("Exiting before()");
+      final JdbcConnection jc = new JdbcConnection(recorder == null ? c : recorder.wrap(c));
+      try {
+        final Database database = LiquibaseCache.findCorrectDatabaseImplementation(jc);
+        // Tag snapshots hold the real bookkeeping tables, so that
+        // migration can continue from them.
+        final boolean ephemeral = this.isEphemeral() && startAtTag == null && rehearse == null && !this.isVerifyingRollbacks();
+        if (ephemeral) {
+          EphemeralBookkeeping.register(database);
+        }
+        DatabaseChangeLog claimed = null;
+        try {
+          Liquibase liquibase = this.createClaimedLiquibase(database);
+          if (liquibase != null) {
+            claimed = liquibase.getDatabaseChangeLog();
+          }
+          if (liquibase != null && requiredTables != null) {
+            liquibase = this.createPartialLiquibase(liquibase, requiredTables);
+          }
+          if (liquibase != null && timings != null) {
+            liquibase.setChangeExecListener(timings);
+          }
+          if (liquibase != null && startAtTag != null && !"false".equals(System.getProperty("liquibase.should.run"))) {
+            try {
+              this.startAt(liquibase, c, startAtTag);
+            } finally {
+              liquibase.forceReleaseLocks();
+            }
+          } else if (liquibase != null && rehearse != null && !"false".equals(System.getProperty("liquibase.should.run"))) {
+            try {
+              this.rehearse(liquibase, c, rehearse, timings);
+            } finally {
+              liquibase.forceReleaseLocks();
+            }
+          } else if (liquibase != null && this.shouldUpdate(liquibase)) {
+            try {
+              final int parallelism = this.getParallelism();
+              if (this.isVerifyingRollbacks()) {
+                this.verifyRollbacks(liquibase, c, timings);
+              } else if (parallelism > 1) {
+                ParallelUpdate.update(liquibase, this.dataSource, recorder, timings, new Contexts(this.getContextsString()), new LabelExpression(this.getLabelExpression()), parallelism);
+              } else {
+                liquibase.update(new Contexts(this.getContextsString()), new LabelExpression(this.getLabelExpression()));
+              }
+            } finally {
+              if (!ephemeral) {
+                // In ephemeral mode there is no lock to release.
+                liquibase.forceReleaseLocks();
+              }
+            }
+            if (replayKey != null && recorder != null && recorder.isReplayable()) {
+              // Parsing may have revealed included resources that the
+              // fingerprint taken before the update did not cover.
+              try {
+                fingerprint = LiquibaseCache.fingerprint(this.getExistingChangeLogResourceNames(), this.getClassLoader());
+              } catch (final IOException oops) {
+                throw new LiquibaseException(oops);
+              }
+              LiquibaseCache.putRecording(replayKey, fingerprint, recorder.getSql());
+            }
+            this.logger.debug("Changeset checksums: " + MemoizingChangeSet.getHits() + " memoized, " + MemoizingChangeSet.getMisses() + " computed; hit rate: " + getCheckSumHitRate());
+          }
+        } finally {
+          if (claimed != null) {
+            LiquibaseCache.release(claimed);
+          }
+          if (ephemeral) {
+            final long saved = EphemeralBookkeeping.unregister(database);
+            this.savedRoundTrips.addAndGet(saved);
+            this.logger.debug("Ephemeral bookkeeping saved " + saved + " round trips");
+          }
+        }
+      } finally {
+        try {
+          jc.close();
+        } catch (final DatabaseException ignore) {
+          
+        }
+      }
+
+    }
+    this.logger.debug("Exiting migrate()");
   }
     
+  /**
+   * Rehearses the migration of the database reachable via the
+   * supplied {@link Connection} as the supplied {@link Rehearse}
+   * describes.
+   *
+   * <p>For each {@linkplain Rehearse#rows() scale}, smallest first,
+   * the database is {@linkplain #restoreTag(Liquibase, Connection,
+   * String) brought to the tag}, populated with generated rows, and
+   * migrated to the end of the changelogs one changeset at a time.
+   * Each changeset's measurements, and how its elapsed time grows
+   * with the number of rows, are then logged and, if the {@link
+   * Rehearse} names a {@linkplain Rehearse#report() report file},
+   * written to it.</p>
+   *
+   * @param liquibase the {@link Liquibase} instance; must not be
+   * {@code null}
+   *
+   * @param c the {@link Connection} underlying the {@link Liquibase}
+   * instance's {@link Database}; must not be {@code null}
+   *
+   * @param rehearse the {@link Rehearse}; must not be {@code null}
+   *
+   * @param listener the {@link ChangeExecListener} to notify as
+   * changesets are applied; may be {@code null}
+   *
+   * @exception LiquibaseException if there was a Liquibase-related
+   * error, if the {@link Rehearse} declares no valid scales, or if it
+   * declares more than one and the database is not an H2 database
+   * fronted by an {@link H2Rule}
+   *
+   * @exception SQLException if there was a database-related error
+   */
+  private final void rehearse(final Liquibase liquibase, final Connection c, final Rehearse rehearse, final ChangeExecListener listener) throws LiquibaseException, SQLException {
+    assert liquibase != null;
+    assert c != null;
+    assert rehearse != null;
+    final long[] scales = rehearse.rows().clone();
+    Arrays.sort(scales);
+    if (scales.length == 0 || scales[0] < 1L) {
+      throw new LiquibaseException("@Rehearse rows must be greater than zero: " + Arrays.toString(scales));
+    }
+    if (scales.length > 1 && !this.restoresTagSnapshots(liquibase)) {
+      throw new LiquibaseException("Rehearsing at more than one scale requires an H2 database fronted by an H2Rule");
+    }
+    final List<MigrationRehearsal.Measurement> measurements = new ArrayList<MigrationRehearsal.Measurement>();
+    for (final long rows : scales) {
+      this.restoreTag(liquibase, c, rehearse.value());
+      final Map<String, Long> populated = MigrationRehearsal.populate(liquibase.getDatabase(), c, rows);
+      this.logger.info("Populated tables at tag " + rehearse.value() + ": " + populated);
+      measurements.addAll(MigrationRehearsal.measure(liquibase, c, listener, new Contexts(this.getContextsString()), new LabelExpression(this.getLabelExpression()), rows));
+    }
+    final long extrapolateTo = rehearse.extrapolateTo();
+    for (final List<MigrationRehearsal.Measurement> list : MigrationRehearsal.byChangeSet(measurements).values()) {
+      for (final MigrationRehearsal.Measurement measurement : list) {
+        this.logger.info(measurement.toString());
+      }
+      final double exponent = MigrationRehearsal.growthExponent(list);
+      if (!Double.isNaN(exponent)) {
+        final StringBuilder sb = new StringBuilder(list.get(0).getChangeSet());
+        sb.append(": elapsed time grows as rows^").append(String.format(Locale.ROOT, "%.2f", Double.valueOf(exponent)));
+        if (extrapolateTo > 0L) {
+          sb.append("; extrapolated to ").append(extrapolateTo).append(" rows: ").append(MigrationRehearsal.millis(MigrationRehearsal.extrapolate(list, extrapolateTo))).append(" ms");
+        }
+        this.logger.info(sb.toString());
+      }
+    }
+    final String report = rehearse.report().trim();
+    if (!report.isEmpty()) {
+      try {
+        MigrationRehearsal.write(new File(report), measurements, extrapolateTo);
+      } catch (final IOException oops) {
+        throw new LiquibaseException(oops);
+      }
+    }
+  }
+
+  /**
+   * Applies, rolls back and reapplies each unrun changeset of the
+   * supplied {@link Liquibase} instance's changelog in turn, logs how
+   * long each direction took, and fails if any changeset's rollback
+   * is missing, incomplete or slower than the {@linkplain
+   * #getRollbackThreshold() rollback threshold}.
+   *
+   * @param liquibase the {@link Liquibase} instance; must not be
+   * {@code null}
+   *
+   * @param c the {@link Connection} to the database being migrated;
+   * must not be {@code null}
+   *
+   * @param listener the {@link ChangeExecListener} to notify as
+   * changesets are applied; may be {@code null}
+   *
+   * @exception LiquibaseException if a changeset or its rollback
+   * failed, or if any rollback was found wanting
+   *
+   * @exception SQLException if a database error occurs
+   *
+   * @see #setVerifyingRollbacks(boolean)
+   */
+  private final void verifyRollbacks(final Liquibase liquibase, final Connection c, final ChangeExecListener listener) throws LiquibaseException, SQLException {
+    assert liquibase != null;
+    assert c != null;
+    final List<RollbackRoundTrip.Result> results = RollbackRoundTrip.verify(liquibase, c, listener, new Contexts(this.getContextsString()), new LabelExpression(this.getLabelExpression()), this.getRollbackThreshold());
+    final List<String> problems = new ArrayList<String>();
+    for (final RollbackRoundTrip.Result result : results) {
+      this.logger.info(result.toString());
+      if (result.getProblem() != null) {
+        problems.add(result.getChangeSet() + ": " + result.getProblem());
+      }
+    }
+    if (!problems.isEmpty()) {
+      throw new LiquibaseException("Rollback verification failed for " + problems.size() + " of " + results.size() + " changesets: " + problems);
+    }
+  }
+
   /**
    * Tries to {@linkplain ClassLoader#getResource(String) load} the
    * {@linkplain #getChangeLogResourceNames() classpath resources
@@ -495,6 +1336,16 @@ public class LiquiunitRule extends ExternalResource {
    * inclusion of {@linkplain #getChangeLogResourceNames() all
    * relevant existing changelogs} into one.</p>
    *
+   * <p>That composite {@link DatabaseChangeLog} is cached for the
+   * life of the JVM, keyed by the changelog resource names, the
+   * {@linkplain Database#getShortName() kind of database} and a digest
+   * of the contents of the changelogs, the changelogs they include
+   * and the files their changes read, so the changelogs are parsed
+   * once rather than once per test, and are parsed again if any of
+   * those contents change.  While the cached {@link
+   * DatabaseChangeLog} is being {@linkplain #before() run} by one
+   * thread, this method parses a private copy for any other.</p>
+   *
    * @param database the {@link Database} to operate on; must not be
    * {@code null}
    *
@@ -521,29 +1372,407 @@ public class LiquiunitRule extends ExternalResource {
     this.logger.debug("Entering createLiquibase(Database); parameters: database = " + database);
     Liquibase liquibase = null;
     if (changeLogResourceExists()) {
-      final Iterable<? extends String> changeLogResourceNames = this.getChangeLogResourceNames();
-      if (changeLogResourceNames != null) {
+      final List<String> names = this.getExistingChangeLogResourceNames();
+      if (!names.isEmpty()) {
         final ResourceAccessor resourceAccessor = this.getResourceAccessor();
-        AugmentableDatabaseChangeLog changeLog = null;
-        for (final String changeLogResourceName : changeLogResourceNames) {
-          if (changeLogResourceName != null && this.changeLogResourceExists(changeLogResourceName)) {
-            if (changeLog == null) {
-              assert liquibase == null;
-              changeLog = this.createAugmentableDatabaseChangeLog(database, changeLogResourceName);
-              liquibase = new Liquibase(changeLog, resourceAccessor, database);
-              changeLog.setChangeLogParameters(liquibase.getChangeLogParameters());
-            } else {
-              assert liquibase != null;
-              changeLog.include(changeLogResourceName, resourceAccessor);
+        final String fingerprint;
+        try {
+          fingerprint = LiquibaseCache.fingerprint(names, this.getClassLoader());
+        } catch (final IOException oops) {
+          throw new LiquibaseException(oops);
+        }
+        DatabaseChangeLog changeLog = LiquibaseCache.getChangeLog(names, database, fingerprint);
+        if (changeLog == null) {
+          this.logger.debug("Parsing changelogs " + names);
+          final long start = System.nanoTime();
+          final RecordingResourceAccessor recorder = resourceAccessor == null ? null : new RecordingResourceAccessor(resourceAccessor);
+          changeLog = ChangeLogs.parse(database, names, recorder, this.getClassLoader());
+          if (ChangeSetTimings.isEnabled()) {
+            ChangeSetTimings.parsed(names.toString(), System.nanoTime() - start);
+          }
+          MemoizingChangeSet.memoize(changeLog);
+          String parsedFingerprint = fingerprint;
+          if (recorder != null) {
+            // Computing the checksums now reads every file that a
+            // change such as sqlFile refers to, so that it is
+            // fingerprinted along with the included changelogs.
+            for (final ChangeSet changeSet : changeLog.getChangeSets()) {
+              changeSet.generateCheckSum();
+            }
+            LiquibaseCache.putDependencies(names, recorder.getResourceNames());
+            try {
+              parsedFingerprint = LiquibaseCache.fingerprint(names, this.getClassLoader());
+            } catch (final IOException oops) {
+              throw new LiquibaseException(oops);
             }
           }
+          LiquibaseCache.putChangeLog(names, database, parsedFingerprint, changeLog);
         }
+        liquibase = new Liquibase(changeLog, resourceAccessor, database);
       }
     }
     this.logger.debug("Exiting createLiquibase(Database); returning: " + liquibase);
     return liquibase;
   }
 
+  /**
+   * Returns a new {@link Liquibase} instance, {@linkplain
+   * #createLiquibase(Database) created as usual}, whose {@link
+   * DatabaseChangeLog} the current thread has {@linkplain
+   * LiquibaseCache#claim(DatabaseChangeLog) claimed}, so that no other
+   * thread runs it at the same time.
+   *
+   * <p>The caller must {@linkplain
+   * LiquibaseCache#release(DatabaseChangeLog) release} the claim once
+   * it has finished with the {@link Liquibase} instance.  If another
+   * thread holds a claim on the {@link DatabaseChangeLog}, the {@link
+   * #createLiquibase(Database)} method is called again, which parses a
+   * private copy; if it has been overridden to return the same {@link
+   * DatabaseChangeLog} anyway, this method waits for the other thread
+   * to finish with it.</p>
+   *
+   * @param database the {@link Database} to operate on; must not be
+   * {@code null}
+   *
+   * @return a new {@link Liquibase} instance, or {@code null} if there
+   * is no changelog to read
+   *
+   * @exception LiquibaseException if a problem occurred while
+   * constructing the new {@link Liquibase} instance, or if the current
+   * thread was interrupted while waiting
+   *
+   * @see #createLiquibase(Database)
+   */
+  private final Liquibase createClaimedLiquibase(final Database database) throws LiquibaseException {
+    Liquibase liquibase = this.createLiquibase(database);
+    while (liquibase != null && !LiquibaseCache.claim(liquibase.getDatabaseChangeLog())) {
+      final DatabaseChangeLog claimed = liquibase.getDatabaseChangeLog();
+      liquibase = this.createLiquibase(database);
+      if (liquibase != null && liquibase.getDatabaseChangeLog() == claimed) {
+        try {
+          LiquibaseCache.awaitRelease(claimed);
+        } catch (final InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+          throw new LiquibaseException(interrupted);
+        }
+      }
+    }
+    return liquibase;
+  }
+
+  /**
+   * Returns a new {@link Liquibase} instance that applies only those
+   * changesets of the supplied {@link Liquibase} instance's changelog
+   * that are needed to create and populate the supplied tables.
+   *
+   * <p>The {@linkplain PartialSchema partial changelog} is cached for
+   * the life of the JVM alongside the complete one, under the set of
+   * tables, and the changesets it skips are logged when it is first
+   * computed.  Since it shares the changesets of the complete one, it
+   * is only reused with that same complete changelog.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param liquibase the {@link Liquibase} instance applying every
+   * changeset; must not be {@code null}
+   *
+   * @param tableNames the upper-cased names of the needed tables;
+   * must not be {@code null}
+   *
+   * @return a new {@link Liquibase} instance
+   *
+   * @exception LiquibaseException if a problem occurred while
+   * constructing the new {@link Liquibase} instance
+   *
+   * @see #getRequiredTables()
+   */
+  private final Liquibase createPartialLiquibase(final Liquibase liquibase, final Set<String> tableNames) throws LiquibaseException {
+    assert liquibase != null;
+    assert tableNames != null;
+    final Database database = liquibase.getDatabase();
+    final List<String> names = this.getExistingChangeLogResourceNames();
+    final List<String> key = new ArrayList<String>(names);
+    key.add("tables=" + tableNames);
+    final String fingerprint;
+    try {
+      fingerprint = LiquibaseCache.fingerprint(names, this.getClassLoader());
+    } catch (final IOException oops) {
+      throw new LiquibaseException(oops);
+    }
+    final DatabaseChangeLog source = liquibase.getDatabaseChangeLog();
+    DatabaseChangeLog changeLog = LiquibaseCache.getChangeLog(key, database, fingerprint, source);
+    if (changeLog == null) {
+      final PartialSchema schema = PartialSchema.of(source, tableNames);
+      final List<ChangeSet> skipped = schema.getSkipped();
+      final List<String> skippedNames = new ArrayList<String>(skipped.size());
+      for (final ChangeSet changeSet : skipped) {
+        skippedNames.add(changeSet.toString(false));
+      }
+      this.logger.info("Tables " + tableNames + " need " + schema.getChangeLog().getChangeSets().size() + " changesets; skipping " + skipped.size() + ": " + skippedNames);
+      changeLog = schema.getChangeLog();
+      LiquibaseCache.putChangeLog(key, database, fingerprint, changeLog, source);
+    }
+    return new Liquibase(changeLog, this.getResourceAccessor(), database);
+  }
+
+  /**
+   * Returns those of the {@linkplain #getChangeLogResourceNames()
+   * changelog resource names} that name existing resources, in order.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link List} of changelog resource
+   * names
+   */
+  private final List<String> getExistingChangeLogResourceNames() {
+    final List<String> names = new ArrayList<String>();
+    final Iterable<? extends String> changeLogResourceNames = this.getChangeLogResourceNames();
+    if (changeLogResourceNames != null) {
+      for (final String changeLogResourceName : changeLogResourceNames) {
+        if (changeLogResourceName != null && this.changeLogResourceExists(changeLogResourceName)) {
+          names.add(changeLogResourceName);
+        }
+      }
+    }
+    return names;
+  }
+
+  /**
+   * Arranges for the database fronted by the {@link DataSource}
+   * supplied at construction time not to be saved to any archive
+   * after the current test, if that {@link DataSource} is an {@link
+   * H2Rule} or an {@link EmbeddedDatabaseRule}.
+   *
+   * <p>This is called when the current test applies only some
+   * changesets, so that a later test does not restore the partial
+   * schema from the archive and conclude that there is nothing left
+   * to apply.</p>
+   *
+   * @see H2Rule#excludeFromArchive()
+   *
+   * @see EmbeddedDatabaseRule#excludeFromArchive()
+   */
+  private final void excludeFromArchive() {
+    if (this.dataSource instanceof H2Rule) {
+      ((H2Rule)this.dataSource).excludeFromArchive();
+    } else if (this.dataSource instanceof EmbeddedDatabaseRule) {
+      ((EmbeddedDatabaseRule)this.dataSource).excludeFromArchive();
+    }
+  }
+
+  /**
+   * {@linkplain H2Rule#saveToArchive() Saves} the database fronted by
+   * the {@link DataSource} supplied at construction time to any
+   * archive now that it has been migrated, if that {@link DataSource}
+   * is an {@link H2Rule} or an {@link EmbeddedDatabaseRule}.
+   *
+   * @exception SQLException if a database error occurs
+   *
+   * @see H2Rule#saveToArchive()
+   *
+   * @see EmbeddedDatabaseRule#saveToArchive()
+   */
+  private final void saveToArchive() throws SQLException {
+    if (this.dataSource instanceof H2Rule) {
+      ((H2Rule)this.dataSource).saveToArchive();
+    } else if (this.dataSource instanceof EmbeddedDatabaseRule) {
+      ((EmbeddedDatabaseRule)this.dataSource).saveToArchive();
+    }
+  }
+
+  /**
+   * Returns {@code true} if the {@linkplain
+   * #before() update} this {@link LiquiunitRule} performs may be
+   * recorded once and replayed thereafter.
+   *
+   * <p>This is the case when this {@link LiquiunitRule} is {@linkplain
+   * #isReplaying() replaying}, the {@link DataSource} supplied at
+   * construction time is an {@link H2Rule} or an {@link
+   * EmbeddedDatabaseRule}, whose databases are fresh for every test,
+   * the {@code liquibase.should.run} system property is not {@code
+   * false}, and neither the {@link #createLiquibase(Database)} nor the
+   * {@link #shouldUpdate(Liquibase)} method is overridden, since a
+   * replayed update calls neither.</p>
+   *
+   * @return {@code true} if updates may be recorded and replayed
+   */
+  private final boolean isReplayable() {
+    return
+      this.isReplaying() &&
+      (this.dataSource instanceof H2Rule || this.dataSource instanceof EmbeddedDatabaseRule) &&
+      !"false".equals(System.getProperty("liquibase.should.run")) &&
+      !this.overrides("createLiquibase", Database.class) &&
+      !this.overrides("shouldUpdate", Liquibase.class);
+  }
+
+  /**
+   * Returns {@code true} if a subclass of {@link LiquiunitRule}
+   * declares the named method.
+   *
+   * @param name the name of the method; must not be {@code null}
+   *
+   * @param parameterTypes the method's parameter types; must not be
+   * {@code null}
+   *
+   * @return {@code true} if the method is overridden
+   */
+  private final boolean overrides(final String name, final Class<?>... parameterTypes) {
+    assert name != null;
+    for (Class<?> c = this.getClass(); c != null && c != LiquiunitRule.class; c = c.getSuperclass()) {
+      try {
+        c.getDeclaredMethod(name, parameterTypes);
+        return true;
+      } catch (final NoSuchMethodException notDeclared) {
+
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Drops every object in the H2 database reachable via the supplied
+   * {@link Connection}.
+   *
+   * @param c the {@link Connection}; must not be {@code null}
+   *
+   * @exception SQLException if a database error occurs
+   */
+  private static final void dropAllObjects(final Connection c) throws SQLException {
+    assert c != null;
+    final java.sql.Statement s = c.createStatement();
+    try {
+      s.execute("DROP ALL OBJECTS");
+    } finally {
+      s.close();
+    }
+  }
+
+  /**
+   * Returns the statements that create the linked tables, such as
+   * those {@linkplain ReferenceData#link(Connection) linked} by a
+   * {@link ReferenceDataRule}, in the H2 database reachable via the
+   * supplied {@link Connection}, in name order.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param c the {@link Connection}; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link List} of SQL statements
+   *
+   * @exception SQLException if a database error occurs
+   */
+  private static final List<String> getLinkedTables(final Connection c) throws SQLException {
+    assert c != null;
+    final List<String> returnValue = new ArrayList<String>();
+    final java.sql.Statement s = c.createStatement();
+    try {
+      final ResultSet rs = s.executeQuery("SELECT SQL FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_TYPE = 'TABLE LINK' ORDER BY TABLE_SCHEMA, TABLE_NAME");
+      try {
+        while (rs.next()) {
+          returnValue.add(rs.getString(1));
+        }
+      } finally {
+        rs.close();
+      }
+    } finally {
+      s.close();
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the <a
+   * href="http://www.h2database.com/html/features.html#compatibility">compatibility
+   * mode</a> of the H2 database reachable via the supplied {@link
+   * Connection}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param c the {@link Connection}; must not be {@code null}
+   *
+   * @return the non-{@code null} name of the mode
+   *
+   * @exception SQLException if a database error occurs
+   */
+  private static final String getMode(final Connection c) throws SQLException {
+    assert c != null;
+    final java.sql.Statement s = c.createStatement();
+    try {
+      final ResultSet rs = s.executeQuery("SELECT VALUE FROM INFORMATION_SCHEMA.SETTINGS WHERE NAME = 'MODE'");
+      try {
+        final String mode = rs.next() ? rs.getString(1) : null;
+        return mode == null ? "REGULAR" : mode;
+      } finally {
+        rs.close();
+      }
+    } finally {
+      s.close();
+    }
+  }
+
+  /**
+   * Returns {@code true} if the database reachable via the supplied
+   * {@link Connection} has a table whose name matches, ignoring case,
+   * Liquibase's {@linkplain
+   * GlobalConfiguration#getDatabaseChangeLogTableName() changelog
+   * history table}.
+   *
+   * @param c the {@link Connection}; must not be {@code null}
+   *
+   * @return {@code true} if the changelog history table exists
+   *
+   * @exception SQLException if a database error occurs
+   */
+  static final boolean hasDatabaseChangeLogTable(final Connection c) throws SQLException {
+    return hasTable(c, LiquibaseConfiguration.getInstance().getConfiguration(GlobalConfiguration.class).getDatabaseChangeLogTableName());
+  }
+
+  /**
+   * Returns {@code true} if the database reachable via the supplied
+   * {@link Connection} has a table whose name matches, ignoring case,
+   * the supplied name, or, if the supplied name is {@code null}, any
+   * table at all.
+   *
+   * @param c the {@link Connection}; must not be {@code null}
+   *
+   * @param tableName the table name; may be {@code null}
+   *
+   * @return {@code true} if such a table exists
+   *
+   * @exception SQLException if a database error occurs
+   */
+  private static final boolean hasTable(final Connection c, final String tableName) throws SQLException {
+    assert c != null;
+    final ResultSet rs = c.getMetaData().getTables(null, null, null, new String[] { "TABLE" });
+    try {
+      while (rs.next()) {
+        if (tableName == null || tableName.equalsIgnoreCase(rs.getString("TABLE_NAME"))) {
+          return true;
+        }
+      }
+    } finally {
+      rs.close();
+    }
+    return false;
+  }
+
+  /**
+   * Returns {@code true} if the database reachable via the supplied
+   * {@link Connection} has not yet been migrated: if it has no
+   * {@linkplain #hasDatabaseChangeLogTable(Connection) changelog
+   * history table}, or, in {@linkplain #isEphemeral() ephemeral
+   * mode}, no tables at all.
+   *
+   * @param c the {@link Connection}; must not be {@code null}
+   *
+   * @return {@code true} if the database has not yet been migrated
+   *
+   * @exception SQLException if a database error occurs
+   */
+  private final boolean isFresh(final Connection c) throws SQLException {
+    return this.isEphemeral() ? !hasTable(c, null) : !hasDatabaseChangeLogTable(c);
+  }
+
   /**
    * Returns {@code true} if at least one of the <a
    * href="http://www.liquibase.org/documentation/databasechangelog.html">changelogs</a>
@@ -580,20 +1809,35 @@ public class LiquiunitRule extends ExternalResource {
     return returnValue;
   }
 
+  /**
+   * Returns the {@link ClassLoader} used to find changelog resources:
+   * the {@linkplain Thread#getContextClassLoader() context
+   * <code>ClassLoader</code>}, the {@linkplain
+   * ClassLoader#getSystemClassLoader() system
+   * <code>ClassLoader</code>} or the {@link ClassLoader} that loaded
+   * this class, whichever is first non-{@code null}.
+   *
+   * @return a {@link ClassLoader}, or {@code null}
+   */
+  private final ClassLoader getClassLoader() {
+    ClassLoader cl = Thread.currentThread().getContextClassLoader();
+    if (cl == null) {
+      cl = ClassLoader.getSystemClassLoader();
+      if (cl == null) {
+        cl = this.getClass().getClassLoader();
+      }
+    }
+    return cl;
+  }
+
   protected boolean changeLogResourceExists(final String changeLogResourceName) {
     this.logger.debug("Entering changeLogResourceExists(String)");
     final boolean returnValue;
     if (changeLogResourceName == null) {
       returnValue = false;
     } else {
-      ClassLoader cl = Thread.currentThread().getContextClassLoader();
-      if (cl == null) {
-        cl = ClassLoader.getSystemClassLoader();
-        if (cl == null) {
-          cl = this.getClass().getClassLoader();
-        }
-      }
-      returnValue = cl != null && cl.getResource(changeLogResourceName) != null;
+      final ClassLoader cl = this.getClassLoader();
+      returnValue = cl != null && ResourceIndex.getInstance(cl).exists(changeLogResourceName);
     }
     this.logger.debug("Exiting changeLogResourceExists(String); returning: " + returnValue);
     return returnValue;
@@ -657,7 +1901,12 @@ public class LiquiunitRule extends ExternalResource {
    * Liquibase} instance is non-{@code null} and {@linkplain
    * StandardChangeLogHistoryService#hasDatabaseChangeLogTable() is
    * connected to a database that does not yet have a
-   * <code>DATABASECHANGELOG</code> table} in it.</p>
+   * <code>DATABASECHANGELOG</code> table} in it, or whose
+   * <code>DATABASECHANGELOG</code> table records a leading portion of
+   * the changelog such that only changesets appended after it have yet
+   * to be run.  In {@linkplain
+   * #isEphemeral() ephemeral mode}, where there is never such a
+   * table, the database must instead have no tables at all.</p>
    *
    * @param liquibase the {@link Liquibase} instance to check; may be
    * {@code null} in which case {@code false} will be returned
@@ -678,9 +1927,15 @@ public class LiquiunitRule extends ExternalResource {
     boolean returnValue = liquibase != null && !"false".equals(System.getProperty("liquibase.should.run"));
     if (returnValue) {
       final Database database = liquibase.getDatabase();
-      if (database != null) {
+      if (database != null && EphemeralBookkeeping.isEphemeral(database)) {
+        final DatabaseConnection connection = database.getConnection();
+        returnValue = !(connection instanceof JdbcConnection) || this.isFresh(((JdbcConnection)connection).getUnderlyingConnection());
+      } else if (database != null) {
         final ChangeLogHistoryService changeLogHistoryService = ChangeLogHistoryServiceFactory.getInstance().getChangeLogService(database);
         returnValue = !(changeLogHistoryService instanceof StandardChangeLogHistoryService) || !((StandardChangeLogHistoryService)changeLogHistoryService).hasDatabaseChangeLogTable();
+        if (!returnValue) {
+          returnValue = this.isAppendedTo(liquibase, changeLogHistoryService.getRanChangeSets());
+        }
       }
     }
     this.logger.debug("Exiting shouldUpdate(Liquibase); returning: " + returnValue);
@@ -688,41 +1943,303 @@ public class LiquiunitRule extends ExternalResource {
   }
 
   /**
-   * Creates an {@link AugmentableDatabaseChangeLog} that can
-   * {@linkplain AugmentableDatabaseChangeLog#include(String,
-   * ResourceAccessor)} include other changelogs.
+   * Brings the database reachable via the supplied {@link Connection}
+   * to the state described by the supplied {@link StartAtTag}.
    *
-   * <p>This method is a hack that exists only because the {@link
-   * DatabaseChangeLog#include(String, boolean, ResourceAccessor}
-   * method is not {@code public}.</p>
+   * <p>The database is first {@linkplain #restoreTag(Liquibase,
+   * Connection, String) brought to the tag}, and then, if the {@link
+   * StartAtTag} says so, migrated to the end of the changelogs.</p>
    *
-   * @param database the {@link Database} to use; may be {@code null}
+   * @param liquibase the {@link Liquibase} instance; must not be
+   * {@code null}
    *
-   * @param changeLogResourceName the name of the changelog to parse;
-   * may be {@code null}
+   * @param c the {@link Connection} underlying the {@link Liquibase}
+   * instance's {@link Database}; must not be {@code null}
    *
-   * @return a new, non-{@code null} {@link
-   * AugmentableDatabaseChangeLog}
+   * @param startAtTag the {@link StartAtTag}; must not be {@code
+   * null}
    *
-   * @exception LiquibaseException if an error occurs
+   * @exception LiquibaseException if there was a Liquibase-related
+   * error, including if no changeset in the changelogs creates the
+   * requested tag
    *
-   * @see DatabaseChangeLog
+   * @exception SQLException if there was a database-related error
+   */
+  private final void startAt(final Liquibase liquibase, final Connection c, final StartAtTag startAtTag) throws LiquibaseException, SQLException {
+    assert liquibase != null;
+    assert c != null;
+    assert startAtTag != null;
+    this.restoreTag(liquibase, c, startAtTag.value());
+    if (startAtTag.migrate()) {
+      liquibase.update(new Contexts(this.getContextsString()), new LabelExpression(this.getLabelExpression()));
+    }
+  }
+
+  /**
+   * Brings the database reachable via the supplied {@link Connection}
+   * to the state it was in when the supplied tag was applied.
+   *
+   * <p>For an H2 database {@linkplain #restoresTagSnapshots(Liquibase)
+   * fronted by an <code>H2Rule</code>}, the first call for a given
+   * set of changelogs and contexts {@linkplain
+   * #takeTagSnapshots(Connection, List) migrates a private scratch
+   * database forward once, taking a snapshot at every tag}; this and
+   * every later call then drops everything in the test's database and
+   * restores the snapshot for the requested tag.  Any tables that a
+   * {@link ReferenceDataRule} has {@linkplain
+   * ReferenceData#link(Connection) linked} into the test's database
+   * are linked into the scratch database too, so they are part of
+   * every snapshot.  Any other database is simply {@linkplain
+   * Liquibase#update(String, Contexts, LabelExpression) migrated up
+   * to the tag}, provided that it {@linkplain #shouldUpdate(Liquibase)
+   * needs updating}, since dropping its contents could destroy data
+   * that this {@link LiquiunitRule} does not own.</p>
+   *
+   * @param liquibase the {@link Liquibase} instance; must not be
+   * {@code null}
    *
-   * @see DatabaseChangeLog#include(String, boolean, ResourceAccessor)
+   * @param c the {@link Connection} underlying the {@link Liquibase}
+   * instance's {@link Database}; must not be {@code null}
+   *
+   * @param tag the tag; must not be {@code null}
+   *
+   * @exception LiquibaseException if there was a Liquibase-related
+   * error, including if no changeset in the changelogs creates the
+   * requested tag
+   *
+   * @exception SQLException if there was a database-related error
    */
-  private final AugmentableDatabaseChangeLog createAugmentableDatabaseChangeLog(final Database database, final String changeLogResourceName) throws LiquibaseException {
-    final Liquibase throwaway = new Liquibase(changeLogResourceName, this.getResourceAccessor(), database);
-    final AugmentableDatabaseChangeLog returnValue = new AugmentableDatabaseChangeLog();
-    copyState(throwaway.getDatabaseChangeLog(), returnValue);
-    return returnValue;
+  private final void restoreTag(final Liquibase liquibase, final Connection c, final String tag) throws LiquibaseException, SQLException {
+    assert liquibase != null;
+    assert c != null;
+    assert tag != null;
+    final String contexts = this.getContextsString();
+    if (this.restoresTagSnapshots(liquibase)) {
+      final List<String> names = this.getExistingChangeLogResourceNames();
+      final List<String> links = getLinkedTables(c);
+      final List<String> key = new ArrayList<String>(names);
+      key.add(String.valueOf(contexts));
+      key.add(String.valueOf(this.getLabelExpression()));
+      key.add(c.getMetaData().getDatabaseProductName() + " " + c.getMetaData().getDatabaseProductVersion());
+      key.add(getMode(c));
+      key.add(links.toString());
+      final String fingerprint;
+      try {
+        fingerprint = LiquibaseCache.fingerprint(names, this.getClassLoader());
+      } catch (final IOException oops) {
+        throw new LiquibaseException(oops);
+      }
+      Map<String, H2Archive> snapshots = LiquibaseCache.getTagSnapshots(key, fingerprint);
+      if (snapshots == null) {
+        this.logger.debug("Taking tag snapshots for " + names);
+        snapshots = this.takeTagSnapshots(c, links);
+        LiquibaseCache.putTagSnapshots(key, fingerprint, snapshots);
+      }
+      final H2Archive snapshot = snapshots.get(tag);
+      if (snapshot == null) {
+        throw new LiquibaseException("No changeset in " + names + " tags the database with " + tag + "; known tags: " + snapshots.keySet());
+      }
+      dropAllObjects(c);
+      snapshot.loadUnlessEmpty(null, c);
+      if (!c.getAutoCommit()) {
+        c.commit();
+      }
+      // The history service may have cached what it read before the
+      // snapshot was restored.
+      ChangeLogHistoryServiceFactory.getInstance().resetAll();
+    } else if (this.shouldUpdate(liquibase)) {
+      liquibase.update(tag, new Contexts(contexts), new LabelExpression(this.getLabelExpression()));
+    }
+  }
+
+  /**
+   * Returns {@code true} if the database of the supplied {@link
+   * Liquibase} instance may be {@linkplain #restoreTag(Liquibase,
+   * Connection, String) brought to a tag} by dropping its contents
+   * and restoring a snapshot.
+   *
+   * <p>This is the case only for an H2 database fronted by an {@link
+   * H2Rule}, which is private to the rule and the current test.</p>
+   *
+   * @param liquibase the {@link Liquibase} instance; must not be
+   * {@code null}
+   *
+   * @return {@code true} if tag snapshots may be restored
+   */
+  private final boolean restoresTagSnapshots(final Liquibase liquibase) {
+    assert liquibase != null;
+    return this.dataSource instanceof H2Rule && liquibase.getDatabase() instanceof H2Database;
+  }
+
+  /**
+   * Migrates a new, private, in-memory H2 database forward one tag at
+   * a time and returns an {@link H2Archive} of its contents at each
+   * tag.
+   *
+   * <p>The scratch database uses the same compatibility mode as the
+   * H2 database reachable via the supplied {@link Connection}, and
+   * the supplied linked tables are created in it before it is
+   * migrated.  It is discarded before this method returns.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param c a {@link Connection} to the test's H2 database; must not
+   * be {@code null}
+   *
+   * @param links the statements that {@linkplain
+   * #getLinkedTables(Connection) create the test database's linked
+   * tables}; must not be {@code null}
+   *
+   * @return a non-{@code null}, unmodifiable {@link Map} of {@link
+   * H2Archive}s indexed by tag, in changelog order
+   *
+   * @exception LiquibaseException if there was a Liquibase-related
+   * error
+   *
+   * @exception SQLException if there was a database-related error
+   */
+  private final Map<String, H2Archive> takeTagSnapshots(final Connection c, final List<String> links) throws LiquibaseException, SQLException {
+    assert c != null;
+    assert links != null;
+    final String mode = getMode(c);
+    final String url = "jdbc:h2:mem:liquiunit-tags-" + UUID.randomUUID() + ("REGULAR".equalsIgnoreCase(mode) ? "" : ";MODE=" + mode);
+    final Connection scratch = DriverManagerDataSource.connect(org.h2.Driver.load(), url, "sa", "");
+    try {
+      final java.sql.Statement s = scratch.createStatement();
+      try {
+        for (final String link : links) {
+          s.execute(link);
+        }
+      } finally {
+        s.close();
+      }
+      final Map<String, H2Archive> snapshots = new LinkedHashMap<String, H2Archive>();
+      final Database database = LiquibaseCache.findCorrectDatabaseImplementation(new JdbcConnection(scratch));
+      final Liquibase liquibase = this.createClaimedLiquibase(database);
+      if (liquibase != null) {
+        try {
+          final Contexts contexts = new Contexts(this.getContextsString());
+          final List<ChangeSet> changeSets = liquibase.listUnrunChangeSets(contexts, new LabelExpression(this.getLabelExpression()));
+          if (changeSets != null) {
+            for (final ChangeSet changeSet : changeSets) {
+              for (final Change change : changeSet.getChanges()) {
+                if (change instanceof TagDatabaseChange) {
+                  final String tag = ((TagDatabaseChange)change).getTag();
+                  if (tag != null && !snapshots.containsKey(tag)) {
+                    liquibase.update(tag, contexts, new LabelExpression(this.getLabelExpression()));
+                    final H2Archive snapshot = new H2Archive();
+                    snapshot.saveIfEmpty(null, scratch);
+                    snapshots.put(tag, snapshot);
+                  }
+                }
+              }
+            }
+          }
+        } finally {
+          LiquibaseCache.release(liquibase.getDatabaseChangeLog());
+        }
+      }
+      return Collections.unmodifiableMap(snapshots);
+    } finally {
+      try {
+        scratch.close();
+      } catch (final SQLException ignore) {
+
+      } finally {
+        // Forget what was read from the scratch database.
+        ChangeLogHistoryServiceFactory.getInstance().resetAll();
+      }
+    }
+  }
+
+  /**
+   * Returns {@code true} if the changesets recorded in the supplied
+   * {@link List} of {@link RanChangeSet}s are followed, in the
+   * supplied {@link Liquibase} instance's {@linkplain
+   * Liquibase#getDatabaseChangeLog() changelog}, by changesets that
+   * have yet to be run, and if there are no changesets yet to be run
+   * anywhere else.
+   *
+   * <p>This is the case when a database has been restored from a
+   * {@linkplain FileLockingH2Archive snapshot} built from an earlier
+   * version of the changelogs to which changesets have since been
+   * appended; applying just those changesets brings it up to
+   * date.</p>
+   *
+   * @param liquibase the {@link Liquibase} instance; must not be
+   * {@code null}
+   *
+   * @param ranChangeSets the changesets already run; may be {@code
+   * null}
+   *
+   * @return {@code true} if only appended changesets have yet to be
+   * run
+   *
+   * @exception LiquibaseException if there was a Liquibase-related
+   * error
+   */
+  private final boolean isAppendedTo(final Liquibase liquibase, final List<RanChangeSet> ranChangeSets) throws LiquibaseException {
+    assert liquibase != null;
+    if (ranChangeSets == null || ranChangeSets.isEmpty()) {
+      return false;
+    }
+    final DatabaseChangeLog changeLog = liquibase.getDatabaseChangeLog();
+    if (changeLog == null) {
+      return false;
+    }
+    final Set<String> ran = new HashSet<String>();
+    for (final RanChangeSet ranChangeSet : ranChangeSets) {
+      if (ranChangeSet != null) {
+        ran.add(ChangeSetManifest.entry(ranChangeSet.getChangeLog(), ranChangeSet.getId(), ranChangeSet.getAuthor(), null));
+      }
+    }
+    final List<ChangeSet> changeSets = changeLog.getChangeSets();
+    assert changeSets != null;
+    int last = -1;
+    for (int i = 0; i < changeSets.size(); i++) {
+      final ChangeSet changeSet = changeSets.get(i);
+      if (ran.contains(ChangeSetManifest.entry(changeSet.getFilePath(), changeSet.getId(), changeSet.getAuthor(), null))) {
+        last = i;
+      }
+    }
+    if (last + 1 >= changeSets.size()) {
+      return false;
+    }
+    final List<ChangeSet> unrun = liquibase.listUnrunChangeSets(new Contexts(this.getContextsString()), new LabelExpression(this.getLabelExpression()));
+    if (unrun == null || unrun.isEmpty()) {
+      return false;
+    }
+    final Set<ChangeSet> tail = Collections.newSetFromMap(new IdentityHashMap<ChangeSet, Boolean>());
+    tail.addAll(changeSets.subList(last + 1, changeSets.size()));
+    return tail.containsAll(unrun);
   }
 
 
+
   /*
    * Static methods.
    */
 
 
+  /**
+   * Returns the fraction, between {@code 0.0} and {@code 1.0}
+   * inclusive, of the changeset checksums requested by Liquibase in
+   * this JVM that were answered from memory rather than computed.
+   *
+   * <p>Changesets of changelogs parsed by {@link LiquiunitRule}s
+   * compute their checksums once; thereafter each validation, history
+   * record or {@code runOnChange} comparison, for any database, reuses
+   * the checksum.</p>
+   *
+   * @return the checksum cache hit rate, or {@code 0.0} if no
+   * checksum has been requested
+   */
+  public static final double getCheckSumHitRate() {
+    final long hits = MemoizingChangeSet.getHits();
+    final long total = hits + MemoizingChangeSet.getMisses();
+    return total == 0L ? 0.0 : (double)hits / (double)total;
+  }
+
   public static final TestRule newInstance() {
     return newInstance((Iterable<? extends String>)null, new H2Rule());
   }
@@ -746,63 +2263,4 @@ public class LiquiunitRule extends ExternalResource {
     }
   }
 
-  /**
-   * A hackish method that would not be needed except that by default
-   * the {@link DatabaseChangeLog#include(String, boolean,
-   * ResourceAccessor)} method is not {@code public}.
-   *
-   * <p>This method copies the state from the {@code oldLog} parameter
-   * into the {@code newLog} parameter.</p>
-   *
-   * <p>The properties that are copied are those that are present in
-   * version 3.3.0 of the {@link DatabaseChangeLog} class.  Updates to
-   * <a href="http://www.liquibase.org/">Liquibase</a> may alter the
-   * state that needs to be copied; in such a case this method will
-   * need to be changed.</p>
-   *
-   * @param oldLog the {@link DatabaseChangeLog} from which state
-   * should be copied; may be {@code null} in which case no action
-   * will be taken
-   *
-   * @param newLog the {@link DatabaseChangeLog} to which state should
-   * be copied; may be {@code null} in which case no action will be
-   * taken
-   *
-   * @see <a
-   * href="https://liquibase.jira.com/browse/CORE-2125"><code>CORE-2125</code></a>
-   */
-  private static final void copyState(final DatabaseChangeLog oldLog, final DatabaseChangeLog newLog) {
-    if (oldLog != null && newLog != null) {
-      newLog.setChangeLogParameters(oldLog.getChangeLogParameters());
-      newLog.setIgnoreClasspathPrefix(oldLog.ignoreClasspathPrefix());
-      newLog.setLogicalFilePath(oldLog.getLogicalFilePath());
-      newLog.setObjectQuotingStrategy(oldLog.getObjectQuotingStrategy());
-      newLog.setPhysicalFilePath(oldLog.getPhysicalFilePath());
-      newLog.setPreconditions(oldLog.getPreconditions());
-      newLog.setRuntimeEnvironment(oldLog.getRuntimeEnvironment());
-      final Collection<ChangeSet> changeSets = oldLog.getChangeSets();
-      assert changeSets != null;
-      for (final ChangeSet changeSet : changeSets) {
-        newLog.addChangeSet(changeSet);
-      }
-    }
-  }
-
-  /*
-   * Inner and nested classes.
-   */
-
-
-  private static final class AugmentableDatabaseChangeLog extends DatabaseChangeLog {
-
-    private AugmentableDatabaseChangeLog() {
-      super();
-    }
-
-    public final boolean include(final String filename, final ResourceAccessor resourceAccessor) throws LiquibaseException {
-      return this.include(filename, false, resourceAccessor);
-    }
-    
-  }
-  
 }
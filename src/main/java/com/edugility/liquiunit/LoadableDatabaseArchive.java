@@ -0,0 +1,145 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.junit.runner.Description;
+
+/**
+ * A {@link DatabaseArchive} whose saved state can be {@linkplain
+ * #loadUnlessEmpty(Description, Connection) loaded} into an existing,
+ * empty database.
+ *
+ * <p>Loading is serialized with saving by the {@linkplain #dataLock
+ * lock} inherited from {@link DatabaseArchive}, so that no load sees
+ * a save half done.  Subclasses supply only the engine-specific
+ * {@linkplain #save(Description, Connection) saving} and {@linkplain
+ * #load(Description, Connection) loading} themselves.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see H2Archive
+ *
+ * @see HsqldbArchive
+ *
+ * @see JdbcArchive
+ */
+public abstract class LoadableDatabaseArchive extends DatabaseArchive {
+
+  /**
+   * Creates a new {@link LoadableDatabaseArchive}.
+   */
+  protected LoadableDatabaseArchive() {
+    super();
+  }
+
+  /**
+   * Provided that archive data exists, populates the database
+   * reachable via the supplied {@link Connection} with it by calling
+   * the {@link #load(Description, Connection)} method while holding
+   * the {@linkplain #dataLock read lock}.
+   *
+   * @param description the {@link Description} describing the current
+   * JUnit test underway; may be {@code null}
+   *
+   * @param c a {@link Connection} to the database; must not be {@code
+   * null}; must be {@linkplain Connection#isValid(int) valid}
+   *
+   * @return {@code true} if the state of the database was altered;
+   * {@code false} otherwise
+   *
+   * @exception IllegalArgumentException if {@code c} is {@code null}
+   *
+   * @exception IllegalStateException if the supplied {@link
+   * Connection} is not {@linkplain Connection#isValid(int) valid}
+   *
+   * @exception SQLException if a database error occurs
+   *
+   * @see #saveIfEmpty(Description, Connection)
+   */
+  public boolean loadUnlessEmpty(final Description description, final Connection c) throws SQLException {
+    validate(c);
+    boolean returnValue = false;
+    try {
+      this.dataLock.readLock().lock();
+      if (!this.isEmpty(description)) {
+        returnValue = this.load(description, c);
+      }
+    } finally {
+      this.dataLock.readLock().unlock();
+    }
+    return returnValue;
+  }
+
+  /**
+   * Populates the database reachable via the supplied {@link
+   * Connection} with the state saved earlier by the {@link
+   * #save(Description, Connection)} method.
+   *
+   * <p>This method is called only by the {@link
+   * #loadUnlessEmpty(Description, Connection)} method, while it holds
+   * the {@linkplain #dataLock read lock} and only if this {@link
+   * LoadableDatabaseArchive} is not {@linkplain #isEmpty(Description)
+   * empty}.</p>
+   *
+   * @param description the {@link Description} describing the current
+   * JUnit test underway; may be {@code null}
+   *
+   * @param c a valid {@link Connection} to the database; will not be
+   * {@code null}
+   *
+   * @return {@code true} if the state of the database was altered
+   *
+   * @exception SQLException if a database error occurs
+   */
+  protected abstract boolean load(final Description description, final Connection c) throws SQLException;
+
+  /**
+   * Notes that the database most recently {@linkplain
+   * #loadUnlessEmpty(Description, Connection) loaded} by the current
+   * {@link Thread} will not be {@linkplain #saveIfEmpty(Description,
+   * Connection) saved}, because it does not hold the state that this
+   * {@link LoadableDatabaseArchive} is meant to archive.
+   *
+   * <p>This implementation does nothing.</p>
+   *
+   * @param description the {@link Description} describing the current
+   * JUnit test underway; may be {@code null}
+   *
+   * @see H2Rule#excludeFromArchive()
+   */
+  public void abandon(final Description description) {
+
+  }
+
+}
@@ -0,0 +1,239 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.SQLException;
+
+import java.util.List;
+
+import liquibase.Contexts;
+import liquibase.LabelExpression;
+import liquibase.Liquibase;
+import liquibase.RuntimeEnvironment;
+
+import liquibase.changelog.ChangeLogHistoryServiceFactory;
+import liquibase.changelog.ChangeLogIterator;
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+
+import liquibase.changelog.filter.ContextChangeSetFilter;
+import liquibase.changelog.filter.DbmsChangeSetFilter;
+import liquibase.changelog.filter.LabelChangeSetFilter;
+import liquibase.changelog.filter.ShouldRunChangeSetFilter;
+
+import liquibase.changelog.visitor.ListVisitor;
+
+import liquibase.database.Database;
+import liquibase.database.ObjectQuotingStrategy;
+
+import liquibase.exception.LiquibaseException;
+
+import liquibase.executor.ExecutorService;
+
+import liquibase.lockservice.LockService;
+import liquibase.lockservice.LockServiceFactory;
+
+/**
+ * Prepares for, and cleans up after, a pass over the unrun changesets
+ * of a {@link Liquibase} changelog that applies them other than by
+ * {@link Liquibase#update(Contexts, LabelExpression)}, exactly as that
+ * method would.
+ *
+ * <p>The {@linkplain LockService lock} is acquired, Liquibase's
+ * bookkeeping tables are {@linkplain
+ * Liquibase#checkLiquibaseTables(boolean, DatabaseChangeLog, Contexts,
+ * LabelExpression) checked} and the changelog is {@linkplain
+ * DatabaseChangeLog#validate(Database, Contexts, LabelExpression)
+ * validated} before the {@link Pass} sees a single changeset, so that
+ * a changeset whose checksum has changed or whose preconditions fail
+ * validation stops the pass before anything is applied.
+ * Afterwards, the lock is released and the Liquibase services that
+ * cache per-{@link Database} state are reset.</p>
+ *
+ * <p>This class is safe for use by multiple threads, provided that
+ * they do not share a database.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ParallelUpdate
+ *
+ * @see RollbackRoundTrip
+ *
+ * @see MigrationRehearsal
+ */
+final class LockedUpdate {
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link LockedUpdate}.
+   */
+  private LockedUpdate() {
+    super();
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Locks the supplied {@link Liquibase} instance's {@link Database},
+   * validates its changelog, hands its unrun changesets to the
+   * supplied {@link Pass}, and returns what the {@link Pass} returns.
+   *
+   * @param <T> the type of value the {@link Pass} returns
+   *
+   * @param liquibase the {@link Liquibase} instance; must not be
+   * {@code null}
+   *
+   * @param contexts the {@link Contexts} to apply; may be {@code null}
+   *
+   * @param labelExpression the {@link LabelExpression} to apply; may
+   * be {@code null}
+   *
+   * @param pass the {@link Pass} that applies the changesets; must
+   * not be {@code null}
+   *
+   * @return the value returned by the {@link Pass}
+   *
+   * @exception LiquibaseException if the changelog is invalid or the
+   * {@link Pass} throws one
+   *
+   * @exception SQLException if the {@link Pass} throws one
+   */
+  static final <T> T run(final Liquibase liquibase, final Contexts contexts, final LabelExpression labelExpression, final Pass<T> pass) throws LiquibaseException, SQLException {
+    assert liquibase != null;
+    assert pass != null;
+    final Database database = liquibase.getDatabase();
+    final LockService lockService = LockServiceFactory.getInstance().getLockService(database);
+    lockService.waitForLock();
+    try {
+      return pass.apply(listUnrunChangeSets(liquibase, contexts, labelExpression), liquibase.getDatabaseChangeLog(), database);
+    } finally {
+      database.setObjectQuotingStrategy(ObjectQuotingStrategy.LEGACY);
+      try {
+        lockService.releaseLock();
+      } finally {
+        LockServiceFactory.getInstance().resetAll();
+        ChangeLogHistoryServiceFactory.getInstance().resetAll();
+        ExecutorService.getInstance().reset();
+      }
+    }
+  }
+
+  /**
+   * Checks the bookkeeping tables of the supplied {@link Liquibase}
+   * instance's {@link Database}, validates its changelog, and returns
+   * the changesets that {@link Liquibase#update(Contexts,
+   * LabelExpression)} would run, in order.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param liquibase the {@link Liquibase} instance; must not be
+   * {@code null}
+   *
+   * @param contexts the {@link Contexts} to apply; may be {@code null}
+   *
+   * @param labelExpression the {@link LabelExpression} to apply; may
+   * be {@code null}
+   *
+   * @return a non-{@code null} {@link List} of {@link ChangeSet}s
+   *
+   * @exception LiquibaseException if the changelog is invalid or the
+   * bookkeeping tables could not be checked
+   */
+  private static final List<ChangeSet> listUnrunChangeSets(final Liquibase liquibase, final Contexts contexts, final LabelExpression labelExpression) throws LiquibaseException {
+    assert liquibase != null;
+    final Database database = liquibase.getDatabase();
+    final ChangeLogParameters parameters = liquibase.getChangeLogParameters();
+    parameters.set("database.typeName", database.getShortName());
+    parameters.setContexts(contexts);
+    parameters.setLabels(labelExpression);
+    final DatabaseChangeLog changeLog = liquibase.getDatabaseChangeLog();
+    liquibase.checkLiquibaseTables(true, changeLog, contexts, labelExpression);
+    changeLog.validate(database, contexts, labelExpression);
+    final ListVisitor visitor = new ListVisitor();
+    new ChangeLogIterator(changeLog,
+                          new ShouldRunChangeSetFilter(database, liquibase.isIgnoreClasspathPrefix()),
+                          new ContextChangeSetFilter(contexts),
+                          new LabelChangeSetFilter(labelExpression),
+                          new DbmsChangeSetFilter(database)).run(visitor, new RuntimeEnvironment(database, contexts, labelExpression));
+    return visitor.getSeenChangeSets();
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * Applies a {@link List} of unrun changesets while a {@link
+   * LockedUpdate} holds the lock.
+   *
+   * @param <T> the type of value returned
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   *
+   * @see LockedUpdate#run(Liquibase, Contexts, LabelExpression, Pass)
+   */
+  static interface Pass<T> {
+
+    /**
+     * Applies the supplied {@link ChangeSet}s.
+     *
+     * @param changeSets the validated, unrun {@link ChangeSet}s, in
+     * changelog order; will not be {@code null}
+     *
+     * @param changeLog the {@link DatabaseChangeLog} to which they
+     * belong; will not be {@code null}
+     *
+     * @param database the locked {@link Database}; will not be
+     * {@code null}
+     *
+     * @return a value of the implementation's choosing
+     *
+     * @exception LiquibaseException if a changeset could not be
+     * applied
+     *
+     * @exception SQLException if a database error occurs
+     */
+    public T apply(final List<ChangeSet> changeSets, final DatabaseChangeLog changeLog, final Database database) throws LiquibaseException, SQLException;
+
+  }
+
+}
@@ -0,0 +1,237 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import java.util.List;
+import java.util.ListIterator;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import liquibase.change.Change;
+import liquibase.change.CheckSum;
+
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+
+/**
+ * A {@link ChangeSet} that computes its {@linkplain #generateCheckSum()
+ * checksum} once and remembers it.
+ *
+ * <p>Liquibase computes a changeset's checksum by serializing each of
+ * its changes and digesting the result, and does so afresh every
+ * time it validates a changeset, records one in the changelog history
+ * or decides whether a {@code runOnChange} changeset must run again.
+ * Since {@link LiquiunitRule} {@linkplain LiquibaseCache caches}
+ * parsed changelogs for the life of the JVM, and discards a cached
+ * changelog whose resources have changed, the changesets of a cached
+ * changelog never change, and their checksums can be computed once
+ * per JVM instead of once per migrated database.</p>
+ *
+ * <p>The number of checksum requests answered from memory and the
+ * number that required computation are kept process-wide; see {@link
+ * #getHits()} and {@link #getMisses()}.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see #memoize(DatabaseChangeLog)
+ */
+final class MemoizingChangeSet extends ChangeSet {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The number of checksums returned from memory.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final AtomicLong hits = new AtomicLong();
+
+  /**
+   * The number of checksums computed.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final AtomicLong misses = new AtomicLong();
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The checksum, once computed.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private volatile CheckSum checkSum;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link MemoizingChangeSet} with the same state as
+   * the supplied {@link ChangeSet}.
+   *
+   * <p>Every instance field declared by the {@link ChangeSet} class is
+   * copied, so that this {@link MemoizingChangeSet} is
+   * indistinguishable from the original other than in its class.  The
+   * changes and rollback changes are shared with the original, and
+   * are pointed at this {@link MemoizingChangeSet}, so that anything
+   * a change looks up by way of its {@linkplain Change#getChangeSet()
+   * changeset}&mdash;its file path, or the changelog parameters used
+   * to expand an {@code sqlFile}&mdash;comes from the changeset that
+   * actually runs it.</p>
+   *
+   * @param changeSet the {@link ChangeSet} to copy; must not be {@code
+   * null}
+   */
+  private MemoizingChangeSet(final ChangeSet changeSet) {
+    super(changeSet.getChangeLog());
+    for (final Field field : ChangeSet.class.getDeclaredFields()) {
+      if (!Modifier.isStatic(field.getModifiers())) {
+        field.setAccessible(true);
+        try {
+          field.set(this, field.get(changeSet));
+        } catch (final IllegalAccessException impossible) {
+          throw new IllegalStateException(impossible);
+        }
+      }
+    }
+    adopt(this.getChanges());
+    if (this.getRollback() != null) {
+      adopt(this.getRollback().getChanges());
+    }
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns this {@link MemoizingChangeSet}'s checksum, computing it
+   * only the first time it is requested.
+   *
+   * @return a {@link CheckSum}
+   */
+  @Override
+  public final CheckSum generateCheckSum() {
+    CheckSum returnValue = this.checkSum;
+    if (returnValue == null) {
+      misses.incrementAndGet();
+      returnValue = super.generateCheckSum();
+      this.checkSum = returnValue;
+    } else {
+      hits.incrementAndGet();
+    }
+    return returnValue;
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Replaces each {@link ChangeSet} in the supplied {@link
+   * DatabaseChangeLog} with an equivalent {@link MemoizingChangeSet}.
+   *
+   * <p>The supplied {@link DatabaseChangeLog} must be fully parsed and
+   * must not be altered afterwards.</p>
+   *
+   * @param changeLog the {@link DatabaseChangeLog}; may be {@code
+   * null} in which case no action is taken
+   */
+  static final void memoize(final DatabaseChangeLog changeLog) {
+    if (changeLog != null) {
+      final List<ChangeSet> changeSets = changeLog.getChangeSets();
+      if (changeSets != null) {
+        final ListIterator<ChangeSet> iterator = changeSets.listIterator();
+        while (iterator.hasNext()) {
+          final ChangeSet changeSet = iterator.next();
+          if (changeSet != null && !(changeSet instanceof MemoizingChangeSet)) {
+            iterator.set(new MemoizingChangeSet(changeSet));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Points each of the supplied {@link Change}s at this {@link
+   * MemoizingChangeSet}.
+   *
+   * @param changes the {@link Change}s; may be {@code null}
+   */
+  private final void adopt(final List<Change> changes) {
+    if (changes != null) {
+      for (final Change change : changes) {
+        if (change != null) {
+          change.setChangeSet(this);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the number of checksums returned from memory by all {@link
+   * MemoizingChangeSet}s so far.
+   *
+   * @return the number of hits
+   */
+  static final long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Returns the number of checksums computed by all {@link
+   * MemoizingChangeSet}s so far.
+   *
+   * @return the number of misses
+   */
+  static final long getMisses() {
+    return misses.get();
+  }
+
+}
@@ -0,0 +1,378 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import liquibase.exception.LiquibaseException;
+
+import liquibase.logging.LogFactory;
+import liquibase.logging.Logger;
+
+/**
+ * The cross product of a set of Liquibase <a
+ * href="http://www.liquibase.org/documentation/contexts.html">contexts</a>
+ * and a set of <a
+ * href="http://www.liquibase.org/documentation/labels.html">label
+ * expressions</a>, each combination of which is migrated into its own
+ * in-memory H2 database, concurrently, the first time any of them is
+ * needed.
+ *
+ * <p>Each combination is identified by a {@link SnapshotKey} and its
+ * migrated database is kept as an {@link H2Archive}, so a JUnit
+ * {@link org.junit.runners.Parameterized Parameterized} test can
+ * cover every deployment variant in roughly the time the slowest
+ * variant takes to migrate:</p>
+ *
+ * <blockquote><pre>private static final MigrationMatrix matrix = new MigrationMatrix(new String[] { "changelog.xml" }, new String[] { "", "demo" }, new String[] { "", "eu", "us" });
+ *
+ *{@code @}Parameters(name = "{0}")
+ *public static Collection&lt;Object[]&gt; variants() {
+ *  return matrix.getParameters();
+ *}
+ *
+ *{@code @}Rule
+ *public final H2Rule h2;
+ *
+ *public MyTest(final SnapshotKey variant) {
+ *  super();
+ *  this.h2 = matrix.newH2Rule(variant);
+ *}</pre></blockquote>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see SnapshotKey
+ *
+ * @see LiquiunitRule#setContexts(Iterable)
+ *
+ * @see LiquiunitRule#setLabelExpression(String)
+ */
+public final class MigrationMatrix {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * A counter used to name the H2 databases migrated by all {@link
+   * MigrationMatrix} instances.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final AtomicLong databaseCounter = new AtomicLong();
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link Logger} to use for debugging and tracing purposes.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Logger logger;
+
+  /**
+   * The {@link SnapshotKey}s identifying every combination of
+   * contexts and labels, in the order they were supplied.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final List<SnapshotKey> variants;
+
+  /**
+   * The migration of every variant, run the first time any variant's
+   * {@linkplain #getArchive(SnapshotKey) archive} is requested.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final FutureTask<Map<SnapshotKey, H2Archive>> migration;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link MigrationMatrix}.
+   *
+   * @param changeLogResourceNames the {@linkplain
+   * ClassLoader#getResource(String) classpath resource names} of the
+   * changelogs to apply; must not be {@code null}
+   *
+   * @param contexts the rows of the matrix, each a comma-separated
+   * list of contexts, or the empty {@link String} for no contexts;
+   * may be {@code null} in which case there will be a single row with
+   * no contexts
+   *
+   * @param labelExpressions the columns of the matrix, each a label
+   * expression, or the empty {@link String} for no label filtering;
+   * may be {@code null} in which case there will be a single column
+   * with no label filtering
+   *
+   * @exception IllegalArgumentException if {@code
+   * changeLogResourceNames} is {@code null}
+   */
+  public MigrationMatrix(final String[] changeLogResourceNames, String[] contexts, String[] labelExpressions) {
+    super();
+    if (changeLogResourceNames == null) {
+      throw new IllegalArgumentException("changeLogResourceNames", new NullPointerException("changeLogResourceNames"));
+    }
+    this.logger = LogFactory.getInstance().getLog("liquiunit");
+    assert this.logger != null;
+    if (contexts == null || contexts.length <= 0) {
+      contexts = new String[] { "" };
+    }
+    if (labelExpressions == null || labelExpressions.length <= 0) {
+      labelExpressions = new String[] { "" };
+    }
+    final List<SnapshotKey> variants = new ArrayList<SnapshotKey>();
+    for (final String context : contexts) {
+      final String[] contextArray = context == null || context.trim().isEmpty() ? new String[0] : context.trim().split("\\s*,\\s*");
+      for (final String labelExpression : labelExpressions) {
+        final SnapshotKey variant = new SnapshotKey(changeLogResourceNames, contextArray, labelExpression, null);
+        if (!variants.contains(variant)) {
+          variants.add(variant);
+        }
+      }
+    }
+    this.variants = Collections.unmodifiableList(variants);
+    this.migration = new FutureTask<Map<SnapshotKey, H2Archive>>(new Callable<Map<SnapshotKey, H2Archive>>() {
+        @Override
+        public final Map<SnapshotKey, H2Archive> call() throws Exception {
+          return migrateAll();
+        }
+      });
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the {@link SnapshotKey}s identifying every combination of
+   * contexts and labels in this {@link MigrationMatrix}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, unmodifiable {@link List} of {@link
+   * SnapshotKey}s
+   */
+  public final List<SnapshotKey> getVariants() {
+    return this.variants;
+  }
+
+  /**
+   * Returns the {@linkplain #getVariants() variants} of this {@link
+   * MigrationMatrix} in the form expected of a method annotated with
+   * {@link org.junit.runners.Parameterized.Parameters}: one
+   * single-element array per variant.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link Collection} of parameter arrays
+   */
+  public final Collection<Object[]> getParameters() {
+    final Collection<Object[]> returnValue = new ArrayList<Object[]>(this.variants.size());
+    for (final SnapshotKey variant : this.variants) {
+      returnValue.add(new Object[] { variant });
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the {@link H2Archive} holding the migrated database for
+   * the supplied variant, first migrating every variant concurrently
+   * if this has not yet been done.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param variant one of this {@link MigrationMatrix}'s {@linkplain
+   * #getVariants() variants}; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link H2Archive}
+   *
+   * @exception IllegalArgumentException if {@code variant} is not one
+   * of this {@link MigrationMatrix}'s variants
+   *
+   * @exception IllegalStateException if the migration failed or was
+   * interrupted
+   */
+  public final H2Archive getArchive(final SnapshotKey variant) {
+    if (variant == null) {
+      throw new IllegalArgumentException("variant", new NullPointerException("variant"));
+    } else if (!this.variants.contains(variant)) {
+      throw new IllegalArgumentException("Not a variant of this matrix: " + variant);
+    }
+    this.migration.run();
+    final Map<SnapshotKey, H2Archive> archives;
+    try {
+      archives = this.migration.get();
+    } catch (final InterruptedException interrupted) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(interrupted);
+    } catch (final ExecutionException wrapper) {
+      throw new IllegalStateException(wrapper.getCause());
+    }
+    final H2Archive returnValue = archives.get(variant);
+    assert returnValue != null;
+    return returnValue;
+  }
+
+  /**
+   * Returns a new {@link H2Rule} whose databases start out as the
+   * migrated database for the supplied variant.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param variant one of this {@link MigrationMatrix}'s {@linkplain
+   * #getVariants() variants}; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link H2Rule}
+   *
+   * @exception IllegalArgumentException if {@code variant} is not one
+   * of this {@link MigrationMatrix}'s variants
+   *
+   * @exception IllegalStateException if the migration failed or was
+   * interrupted
+   *
+   * @see #getArchive(SnapshotKey)
+   *
+   * @see H2Rule#H2Rule(H2Archive)
+   */
+  public final H2Rule newH2Rule(final SnapshotKey variant) {
+    return new H2Rule(this.getArchive(variant));
+  }
+
+  /**
+   * Migrates every variant into its own H2 database, concurrently,
+   * and returns an {@link H2Archive} of each.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, unmodifiable {@link Map} of {@link
+   * H2Archive}s indexed by variant
+   *
+   * @exception Exception if any migration failed
+   */
+  private final Map<SnapshotKey, H2Archive> migrateAll() throws Exception {
+    final long start = System.currentTimeMillis();
+    final ExecutorService executorService = Executors.newFixedThreadPool(this.variants.size());
+    try {
+      final List<Future<H2Archive>> futures = new ArrayList<Future<H2Archive>>(this.variants.size());
+      for (final SnapshotKey variant : this.variants) {
+        futures.add(executorService.submit(new Callable<H2Archive>() {
+            @Override
+            public final H2Archive call() throws LiquibaseException, SQLException {
+              return migrate(variant);
+            }
+          }));
+      }
+      final Map<SnapshotKey, H2Archive> archives = new LinkedHashMap<SnapshotKey, H2Archive>();
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          archives.put(this.variants.get(i), futures.get(i).get());
+        } catch (final ExecutionException wrapper) {
+          final Throwable cause = wrapper.getCause();
+          if (cause instanceof Exception) {
+            throw (Exception)cause;
+          } else if (cause instanceof Error) {
+            throw (Error)cause;
+          }
+          throw wrapper;
+        }
+      }
+      this.logger.debug("Migrated " + archives.size() + " variants in " + (System.currentTimeMillis() - start) + " ms");
+      return Collections.unmodifiableMap(archives);
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  /**
+   * Migrates the supplied variant into a new in-memory H2 database and
+   * returns an {@link H2Archive} of the result.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param variant the variant to migrate; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link H2Archive}
+   *
+   * @exception LiquibaseException if the migration failed
+   *
+   * @exception SQLException if a database error occurs
+   */
+  private final H2Archive migrate(final SnapshotKey variant) throws LiquibaseException, SQLException {
+    assert variant != null;
+    final DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:liquiunit-matrix-" + databaseCounter.incrementAndGet(), "sa", "");
+    // The in-memory database lives only as long as this Connection
+    // stays open.
+    final Connection c = dataSource.getConnection();
+    try {
+      final LiquiunitRule rule = new LiquiunitRule(dataSource);
+      rule.setChangeLogResourceNames(variant.getChangeLogs());
+      rule.setContexts(variant.getContexts());
+      rule.setLabelExpression(variant.getLabels());
+      rule.before();
+      final H2Archive archive = new H2Archive();
+      archive.saveIfEmpty(null, c);
+      return archive;
+    } finally {
+      c.close();
+    }
+  }
+
+}
@@ -0,0 +1,1073 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import java.math.BigDecimal;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import liquibase.Contexts;
+import liquibase.LabelExpression;
+import liquibase.Liquibase;
+
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+
+import liquibase.changelog.visitor.ChangeExecListener;
+
+import liquibase.database.Database;
+
+import liquibase.exception.LiquibaseException;
+
+
+import liquibase.logging.LogFactory;
+import liquibase.logging.Logger;
+
+/**
+ * {@linkplain #populate(Database, Connection, long) Fills} the tables
+ * of a partially migrated database with generated rows and then
+ * {@linkplain #measure(Liquibase, Connection, ChangeExecListener,
+ * Contexts, LabelExpression, long) applies and measures} the
+ * remaining changesets one at a time, so that the cost of a
+ * migration can be judged against realistic volumes of data.
+ *
+ * <p>Generated rows are numbered from {@code 1}.  Every column of
+ * row <i>n</i> receives a value derived from <i>n</i> alone, so that
+ * values are distinct wherever the column's type allows, and a
+ * foreign key column receives the value of the referenced column in
+ * row <i>n</i> of the referenced table, which is populated first.
+ * Auto-incremented columns are left to the database.  A table that
+ * has a column of a type for which no value can be generated, or
+ * whose rows are rejected, is left as it was, and a warning is
+ * logged.</p>
+ *
+ * <p>This class is safe for use by multiple threads, provided that
+ * they do not share a database.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see Rehearse
+ */
+final class MigrationRehearsal {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The {@link Logger} to use for debugging and tracing purposes.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final Logger logger = LogFactory.getInstance().getLog("liquiunit");
+
+  /**
+   * The number of rows inserted per batch and per transaction.
+   */
+  private static final int BATCH_SIZE = 1000;
+
+  /**
+   * The amount added to generated integral values whose type leaves
+   * room for it, so that they do not collide with rows inserted by
+   * changesets.
+   */
+  private static final long OFFSET = 1000000L;
+
+  /**
+   * Midnight, January 1, 2000, UTC, in milliseconds since the epoch;
+   * the first generated temporal value.
+   */
+  private static final long EPOCH = 946684800000L;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link MigrationRehearsal}.
+   */
+  private MigrationRehearsal() {
+    super();
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Inserts the supplied number of generated rows into every table,
+   * other than Liquibase's own, in the supplied {@link Database}'s
+   * default schema.
+   *
+   * <p>Referenced tables are populated before the tables that refer
+   * to them.  Rows are inserted in batches of {@value #BATCH_SIZE},
+   * each committed separately.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param database the {@link Database}; must not be {@code null}
+   *
+   * @param c a {@link Connection} to the same database; must not be
+   * {@code null}
+   *
+   * @param rows the number of rows to insert into each table; must be
+   * greater than zero
+   *
+   * @return a non-{@code null} {@link Map} of the numbers of rows
+   * inserted, indexed by table name, in the order in which the
+   * tables were populated
+   *
+   * @exception SQLException if the database could not be described
+   */
+  static final Map<String, Long> populate(final Database database, final Connection c, final long rows) throws SQLException {
+    assert database != null;
+    assert c != null;
+    assert rows > 0L;
+    final Map<String, Long> returnValue = new LinkedHashMap<String, Long>();
+    final Set<String> populated = new HashSet<String>();
+    final boolean autoCommit = c.getAutoCommit();
+    c.setAutoCommit(false);
+    try {
+      for (final Table table : getTables(database, c)) {
+        final long inserted = insert(database, c, table, rows, populated);
+        returnValue.put(table.name, Long.valueOf(inserted));
+        if (inserted == rows) {
+          populated.add(table.name);
+        }
+      }
+    } finally {
+      c.setAutoCommit(autoCommit);
+    }
+    return returnValue;
+  }
+
+  /**
+   * Inserts the supplied number of generated rows into the supplied
+   * {@link Table}, and returns the number of rows actually inserted.
+   *
+   * @param database the {@link Database}; must not be {@code null}
+   *
+   * @param c a {@link Connection} to the same database, not in
+   * auto-commit mode; must not be {@code null}
+   *
+   * @param table the {@link Table}; must not be {@code null}
+   *
+   * @param rows the number of rows to insert
+   *
+   * @param populated the names of the tables already fully populated;
+   * must not be {@code null}
+   *
+   * @return the number of rows inserted
+   */
+  private static final long insert(final Database database, final Connection c, final Table table, final long rows, final Set<String> populated) {
+    assert database != null;
+    assert c != null;
+    assert table != null;
+    assert populated != null;
+    final String schemaName = database.getDefaultSchemaName();
+    final StringBuilder sql = new StringBuilder("INSERT INTO ").append(database.escapeTableName(null, schemaName, table.name)).append(" (");
+    final StringBuilder parameters = new StringBuilder();
+    final List<Column> columns = new ArrayList<Column>();
+    for (final Column column : table.columns) {
+      if (!column.autoIncrement) {
+        if (!column.nullable && value(column, 1L, populated) == null) {
+          logger.warning("Not populating " + table.name + ": no value can be generated for " + column.name);
+          return 0L;
+        }
+        if (!columns.isEmpty()) {
+          sql.append(", ");
+          parameters.append(", ");
+        }
+        sql.append(database.escapeColumnName(null, schemaName, table.name, column.name));
+        parameters.append('?');
+        columns.add(column);
+      }
+    }
+    if (columns.isEmpty()) {
+      return 0L;
+    }
+    sql.append(") VALUES (").append(parameters).append(')');
+    long inserted = 0L;
+    try {
+      final PreparedStatement ps = c.prepareStatement(sql.toString());
+      try {
+        for (long row = 1L; row <= rows; row++) {
+          for (int i = 0; i < columns.size(); i++) {
+            final Column column = columns.get(i);
+            final Object value = value(column, row, populated);
+            if (value == null) {
+              ps.setNull(i + 1, column.type);
+            } else {
+              ps.setObject(i + 1, value);
+            }
+          }
+          ps.addBatch();
+          if (row % BATCH_SIZE == 0L || row == rows) {
+            ps.executeBatch();
+            c.commit();
+            inserted = row;
+          }
+        }
+      } finally {
+        ps.close();
+      }
+    } catch (final SQLException oops) {
+      try {
+        c.rollback();
+      } catch (final SQLException ignore) {
+
+      }
+      logger.warning("Populated " + table.name + " with only " + inserted + " of " + rows + " rows", oops);
+    }
+    return inserted;
+  }
+
+  /**
+   * Returns the value that the supplied {@link Column} receives in
+   * the supplied generated row, or {@code null} if there is none.
+   *
+   * @param column the {@link Column}; must not be {@code null}
+   *
+   * @param row the number of the row, starting at {@code 1}
+   *
+   * @param populated the names of the tables already fully populated;
+   * must not be {@code null}
+   *
+   * @return the value, or {@code null}
+   */
+  private static final Object value(final Column column, final long row, final Set<String> populated) {
+    assert column != null;
+    assert populated != null;
+    if (column.referencedTable != null) {
+      if (column.referencedColumn != null && populated.contains(column.referencedTable)) {
+        return value(column.referencedColumn, row, populated);
+      }
+      return null;
+    }
+    switch (column.type) {
+    case Types.TINYINT:
+      return Long.valueOf(integral(row, Byte.MAX_VALUE));
+    case Types.SMALLINT:
+      return Long.valueOf(integral(row, Short.MAX_VALUE));
+    case Types.INTEGER:
+      return Long.valueOf(integral(row, Integer.MAX_VALUE));
+    case Types.BIGINT:
+      return Long.valueOf(integral(row, Long.MAX_VALUE));
+    case Types.DECIMAL:
+    case Types.NUMERIC:
+      final int integerDigits = column.size - Math.max(0, column.digits);
+      return BigDecimal.valueOf(integral(row, integerDigits > 0 && integerDigits < 19 ? BigDecimal.TEN.pow(integerDigits).longValue() - 1L : Long.MAX_VALUE));
+    case Types.REAL:
+    case Types.FLOAT:
+    case Types.DOUBLE:
+      return Double.valueOf(row + 0.5);
+    case Types.CHAR:
+    case Types.VARCHAR:
+    case Types.LONGVARCHAR:
+    case Types.NCHAR:
+    case Types.NVARCHAR:
+    case Types.LONGNVARCHAR:
+    case Types.CLOB:
+    case Types.NCLOB:
+      final String text = "r" + row;
+      return column.size > 0 && text.length() > column.size ? text.substring(text.length() - column.size) : text;
+    case Types.DATE:
+      return new java.sql.Date(EPOCH + (row % 36500L) * 86400000L);
+    case Types.TIME:
+      return new Time((row % 86400L) * 1000L);
+    case Types.TIMESTAMP:
+      return new Timestamp(EPOCH + row * 1000L);
+    case Types.BOOLEAN:
+    case Types.BIT:
+      return Boolean.valueOf(row % 2L == 0L);
+    case Types.BINARY:
+    case Types.VARBINARY:
+    case Types.LONGVARBINARY:
+    case Types.BLOB:
+      final int length = column.size > 0 && column.size < 8 ? column.size : 8;
+      final byte[] bytes = new byte[length];
+      for (int i = 0; i < length; i++) {
+        bytes[length - 1 - i] = (byte)(row >>> (8 * i));
+      }
+      return bytes;
+    default:
+      return null;
+    }
+  }
+
+  /**
+   * Returns the integral value of the supplied generated row, given
+   * the largest value a column can hold.
+   *
+   * @param row the number of the row, starting at {@code 1}
+   *
+   * @param maximum the largest value the column can hold; must be
+   * greater than zero
+   *
+   * @return a value between {@code 0} and {@code maximum}, inclusive
+   */
+  private static final long integral(final long row, final long maximum) {
+    assert maximum > 0L;
+    final long offset = maximum - OFFSET > row ? OFFSET : 0L;
+    return (offset + row) % maximum;
+  }
+
+  /**
+   * Applies the unrun changesets of the supplied {@link Liquibase}
+   * instance's changelog one at a time and returns a {@link
+   * Measurement} of each.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param liquibase the {@link Liquibase} instance whose changelog
+   * should be applied; must not be {@code null}
+   *
+   * @param c the {@link Connection} to the database that the {@link
+   * Liquibase} instance's {@link Database} reaches, through which rows
+   * are counted; must not be {@code null}
+   *
+   * @param listener the {@link ChangeExecListener} to notify as
+   * changesets are applied; may be {@code null}
+   *
+   * @param contexts the {@link Contexts} to apply; may be {@code null}
+   *
+   * @param labelExpression the {@link LabelExpression} to apply; may
+   * be {@code null}
+   *
+   * @param rows the number of rows with which the database was
+   * {@linkplain #populate(Database, Connection, long) populated}
+   *
+   * @return a non-{@code null} {@link List} of {@link Measurement}s,
+   * one per changeset, in the order in which the changesets were
+   * applied
+   *
+   * @exception LiquibaseException if a changeset failed
+   *
+   * @exception SQLException if rows could not be counted
+   */
+  static final List<Measurement> measure(final Liquibase liquibase, final Connection c, final ChangeExecListener listener, final Contexts contexts, final LabelExpression labelExpression, final long rows) throws LiquibaseException, SQLException {
+    assert liquibase != null;
+    assert c != null;
+    return LockedUpdate.run(liquibase, contexts, labelExpression, new LockedUpdate.Pass<List<Measurement>>() {
+        @Override
+        public final List<Measurement> apply(final List<ChangeSet> changeSets, final DatabaseChangeLog changeLog, final Database database) throws LiquibaseException, SQLException {
+          final List<Measurement> returnValue = new ArrayList<Measurement>(changeSets.size());
+          for (final ChangeSet changeSet : changeSets) {
+            final Map<String, String> tableNames = new LinkedHashMap<String, String>();
+            for (final String tableName : getTableNames(database, c)) {
+              tableNames.put(tableName.toUpperCase(Locale.ENGLISH), tableName);
+            }
+            long rowsTouched = 0L;
+            for (final String name : PartialSchema.getNames(changeSet, tableNames.keySet())) {
+              final String tableName = tableNames.get(name);
+              if (tableName != null) {
+                rowsTouched += countRows(database, c, tableName);
+              }
+            }
+            resetPeakHeapUsage();
+            final long start = System.nanoTime();
+            RollbackRoundTrip.apply(changeSet, changeLog, database, listener);
+            final long elapsedNanos = System.nanoTime() - start;
+            returnValue.add(new Measurement(changeSet.toString(false), rows, elapsedNanos, rowsTouched, getPeakHeapUsage()));
+          }
+          return returnValue;
+        }
+      });
+  }
+
+  /**
+   * Returns the {@link Measurement}s in the supplied {@link List}
+   * grouped by changeset, in the order in which each changeset first
+   * appears.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param measurements the {@link Measurement}s; must not be {@code
+   * null}
+   *
+   * @return a non-{@code null} {@link Map} of {@link List}s of {@link
+   * Measurement}s indexed by changeset
+   */
+  static final Map<String, List<Measurement>> byChangeSet(final List<? extends Measurement> measurements) {
+    assert measurements != null;
+    final Map<String, List<Measurement>> returnValue = new LinkedHashMap<String, List<Measurement>>();
+    for (final Measurement measurement : measurements) {
+      List<Measurement> list = returnValue.get(measurement.getChangeSet());
+      if (list == null) {
+        list = new ArrayList<Measurement>();
+        returnValue.put(measurement.getChangeSet(), list);
+      }
+      list.add(measurement);
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the exponent <i>k</i> that best fits the supplied {@link
+   * Measurement}s of a single changeset to the model in which elapsed
+   * time is proportional to <i>rows</i><sup><i>k</i></sup>, or {@link
+   * Double#NaN} if the {@link Measurement}s cover fewer than two
+   * scales.
+   *
+   * <p>The fit is by least squares on the logarithms of the numbers
+   * of rows and of the elapsed times.  An exponent near {@code 0}
+   * means the changeset's cost does not depend on the volume of data;
+   * one near {@code 1} means it grows linearly.</p>
+   *
+   * @param measurements the {@link Measurement}s; must not be {@code
+   * null}
+   *
+   * @return the exponent, or {@link Double#NaN}
+   */
+  static final double growthExponent(final List<? extends Measurement> measurements) {
+    assert measurements != null;
+    int n = 0;
+    double sumX = 0.0;
+    double sumY = 0.0;
+    double sumXX = 0.0;
+    double sumXY = 0.0;
+    for (final Measurement measurement : measurements) {
+      if (measurement.getRows() > 0L && measurement.getElapsedNanos() > 0L) {
+        final double x = Math.log(measurement.getRows());
+        final double y = Math.log(measurement.getElapsedNanos());
+        n++;
+        sumX += x;
+        sumY += y;
+        sumXX += x * x;
+        sumXY += x * y;
+      }
+    }
+    final double denominator = n * sumXX - sumX * sumX;
+    if (n < 2 || denominator <= 0.0) {
+      return Double.NaN;
+    }
+    return (n * sumXY - sumX * sumY) / denominator;
+  }
+
+  /**
+   * Returns the elapsed time, in nanoseconds, that the changeset
+   * measured by the supplied {@link Measurement}s would take with the
+   * supplied number of rows, extrapolated from its largest
+   * measurement according to its {@linkplain #growthExponent(List)
+   * growth exponent}, or {@link Double#NaN} if it cannot be
+   * extrapolated.
+   *
+   * <p>A negative growth exponent, which can only be due to noise, is
+   * treated as {@code 0}.</p>
+   *
+   * @param measurements the {@link Measurement}s of a single
+   * changeset; must not be {@code null}
+   *
+   * @param rows the number of rows; must be greater than zero
+   *
+   * @return the extrapolated elapsed time in nanoseconds, or {@link
+   * Double#NaN}
+   */
+  static final double extrapolate(final List<? extends Measurement> measurements, final long rows) {
+    assert measurements != null;
+    assert rows > 0L;
+    final double exponent = growthExponent(measurements);
+    if (Double.isNaN(exponent)) {
+      return Double.NaN;
+    }
+    Measurement largest = null;
+    for (final Measurement measurement : measurements) {
+      if (largest == null || measurement.getRows() > largest.getRows()) {
+        largest = measurement;
+      }
+    }
+    assert largest != null;
+    return largest.getElapsedNanos() * Math.pow((double)rows / (double)largest.getRows(), Math.max(0.0, exponent));
+  }
+
+  /**
+   * Writes the supplied {@link Measurement}s to the supplied {@link
+   * File} as comma-separated values, replacing its contents.
+   *
+   * <p>The file has a header line and one line per {@link
+   * Measurement}, with the columns {@code changeSet}, {@code rows},
+   * {@code elapsedMillis}, {@code rowsTouched}, {@code peakHeapBytes},
+   * {@code growthExponent} and {@code extrapolatedMillis}.  The last
+   * two are the same for every line of a changeset, and are empty if
+   * they cannot be computed.</p>
+   *
+   * @param file the {@link File} to write; must not be {@code null}
+   *
+   * @param measurements the {@link Measurement}s; must not be {@code
+   * null}
+   *
+   * @param extrapolateTo the number of rows to which elapsed times
+   * should be {@linkplain #extrapolate(List, long) extrapolated}, or
+   * {@code 0} if they should not be
+   *
+   * @exception IOException if the {@link File} could not be written
+   */
+  static final void write(final File file, final List<? extends Measurement> measurements, final long extrapolateTo) throws IOException {
+    if (file == null) {
+      throw new IllegalArgumentException("file", new NullPointerException("file"));
+    }
+    if (measurements == null) {
+      throw new IllegalArgumentException("measurements", new NullPointerException("measurements"));
+    }
+    final File parent = file.getAbsoluteFile().getParentFile();
+    if (parent != null && !parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+      throw new IOException("Could not create " + parent);
+    }
+    final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      writer.write("changeSet,rows,elapsedMillis,rowsTouched,peakHeapBytes,growthExponent,extrapolatedMillis\n");
+      for (final List<Measurement> list : byChangeSet(measurements).values()) {
+        final double exponent = growthExponent(list);
+        final double extrapolated = extrapolateTo > 0L ? extrapolate(list, extrapolateTo) : Double.NaN;
+        for (final Measurement measurement : list) {
+          writer.write('"');
+          writer.write(measurement.getChangeSet().replace("\"", "\"\""));
+          writer.write("\",");
+          writer.write(String.valueOf(measurement.getRows()));
+          writer.write(',');
+          writer.write(millis(measurement.getElapsedNanos()));
+          writer.write(',');
+          writer.write(String.valueOf(measurement.getRowsTouched()));
+          writer.write(',');
+          writer.write(String.valueOf(measurement.getPeakHeapBytes()));
+          writer.write(',');
+          if (!Double.isNaN(exponent)) {
+            writer.write(String.format(Locale.ROOT, "%.3f", Double.valueOf(exponent)));
+          }
+          writer.write(',');
+          if (!Double.isNaN(extrapolated)) {
+            writer.write(millis(extrapolated));
+          }
+          writer.write('\n');
+        }
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Formats the supplied number of nanoseconds as milliseconds with
+   * three decimal places.
+   *
+   * @param nanos the number of nanoseconds
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  static final String millis(final double nanos) {
+    return String.format(Locale.ROOT, "%.3f", Double.valueOf(nanos / 1000000.0));
+  }
+
+  /**
+   * Returns the names of the tables, other than Liquibase's own, in
+   * the supplied {@link Database}'s default schema.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param database the {@link Database}; must not be {@code null}
+   *
+   * @param c a {@link Connection} to the same database; must not be
+   * {@code null}
+   *
+   * @return a non-{@code null} {@link List} of table names
+   *
+   * @exception SQLException if the database could not be described
+   */
+  private static final List<String> getTableNames(final Database database, final Connection c) throws SQLException {
+    assert database != null;
+    assert c != null;
+    final String changeLogTableName = database.getDatabaseChangeLogTableName();
+    final String lockTableName = database.getDatabaseChangeLogLockTableName();
+    final List<String> returnValue = new ArrayList<String>();
+    final ResultSet rs = c.getMetaData().getTables(null, database.getDefaultSchemaName(), "%", new String[] { "TABLE" });
+    try {
+      while (rs.next()) {
+        final String tableName = rs.getString("TABLE_NAME");
+        if (!tableName.equalsIgnoreCase(changeLogTableName) && !tableName.equalsIgnoreCase(lockTableName)) {
+          returnValue.add(tableName);
+        }
+      }
+    } finally {
+      rs.close();
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the {@link Table}s, other than Liquibase's own, in the
+   * supplied {@link Database}'s default schema, ordered so that every
+   * table follows the tables it refers to, except where tables refer
+   * to one another in a cycle.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param database the {@link Database}; must not be {@code null}
+   *
+   * @param c a {@link Connection} to the same database; must not be
+   * {@code null}
+   *
+   * @return a non-{@code null} {@link List} of {@link Table}s
+   *
+   * @exception SQLException if the database could not be described
+   */
+  private static final List<Table> getTables(final Database database, final Connection c) throws SQLException {
+    assert database != null;
+    assert c != null;
+    final String schemaName = database.getDefaultSchemaName();
+    final DatabaseMetaData metaData = c.getMetaData();
+    final Map<String, Table> tables = new LinkedHashMap<String, Table>();
+    for (final String tableName : getTableNames(database, c)) {
+      tables.put(tableName, new Table(tableName));
+    }
+    for (final Table table : tables.values()) {
+      ResultSet rs = metaData.getColumns(null, schemaName, table.name, "%");
+      try {
+        while (rs.next()) {
+          if (table.name.equals(rs.getString("TABLE_NAME"))) {
+            boolean autoIncrement;
+            try {
+              autoIncrement = "YES".equalsIgnoreCase(rs.getString("IS_AUTOINCREMENT"));
+            } catch (final SQLException notSupported) {
+              autoIncrement = false;
+            }
+            table.columns.add(new Column(rs.getString("COLUMN_NAME"), rs.getInt("DATA_TYPE"), rs.getInt("COLUMN_SIZE"), rs.getInt("DECIMAL_DIGITS"), rs.getInt("NULLABLE") != DatabaseMetaData.columnNoNulls, autoIncrement));
+          }
+        }
+      } finally {
+        rs.close();
+      }
+      rs = metaData.getImportedKeys(null, schemaName, table.name);
+      try {
+        while (rs.next()) {
+          final Column column = table.getColumn(rs.getString("FKCOLUMN_NAME"));
+          final Table referencedTable = tables.get(rs.getString("PKTABLE_NAME"));
+          if (column != null && referencedTable != null) {
+            column.referencedTable = referencedTable.name;
+            column.referencedColumn = referencedTable.getColumn(rs.getString("PKCOLUMN_NAME"));
+            if (referencedTable != table) {
+              table.referencedTables.add(referencedTable.name);
+            }
+          }
+        }
+      } finally {
+        rs.close();
+      }
+    }
+    // Referenced tables first; whatever remains is in a cycle.
+    final List<Table> returnValue = new ArrayList<Table>(tables.size());
+    final Set<String> ordered = new HashSet<String>();
+    boolean progress = true;
+    while (progress) {
+      progress = false;
+      for (final Table table : tables.values()) {
+        if (!ordered.contains(table.name) && ordered.containsAll(table.referencedTables)) {
+          returnValue.add(table);
+          ordered.add(table.name);
+          progress = true;
+        }
+      }
+    }
+    for (final Table table : tables.values()) {
+      if (!ordered.contains(table.name)) {
+        returnValue.add(table);
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the number of rows in the named table.
+   *
+   * @param database the {@link Database}; must not be {@code null}
+   *
+   * @param c a {@link Connection} to the same database; must not be
+   * {@code null}
+   *
+   * @param tableName the name of the table; must not be {@code null}
+   *
+   * @return the number of rows in the table
+   *
+   * @exception SQLException if the rows could not be counted
+   */
+  private static final long countRows(final Database database, final Connection c, final String tableName) throws SQLException {
+    assert database != null;
+    assert c != null;
+    assert tableName != null;
+    final Statement s = c.createStatement();
+    try {
+      final ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM " + database.escapeTableName(null, database.getDefaultSchemaName(), tableName));
+      return rs.next() ? rs.getLong(1) : 0L;
+    } finally {
+      s.close();
+    }
+  }
+
+  /**
+   * {@linkplain MemoryPoolMXBean#resetPeakUsage() Resets} the peak
+   * usage of every heap memory pool.
+   */
+  private static final void resetPeakHeapUsage() {
+    for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (MemoryType.HEAP.equals(pool.getType()) && pool.isValid()) {
+        pool.resetPeakUsage();
+      }
+    }
+  }
+
+  /**
+   * Returns the sum of the {@linkplain MemoryPoolMXBean#getPeakUsage()
+   * peak usages} of every heap memory pool since they were last
+   * {@linkplain #resetPeakHeapUsage() reset}, in bytes.
+   *
+   * @return the peak heap usage in bytes
+   */
+  private static final long getPeakHeapUsage() {
+    long returnValue = 0L;
+    for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (MemoryType.HEAP.equals(pool.getType()) && pool.isValid()) {
+        returnValue += pool.getPeakUsage().getUsed();
+      }
+    }
+    return returnValue;
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A measurement of the application of a single changeset to a
+   * database populated at a given scale.
+   *
+   * <p>This class is immutable and hence safe for use by multiple
+   * threads.</p>
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  static final class Measurement {
+
+    /**
+     * The changeset's <code><i>filePath</i>::<i>id</i>::<i>author</i></code>.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final String changeSet;
+
+    /**
+     * The number of rows with which each table was populated.
+     */
+    private final long rows;
+
+    /**
+     * The time taken to apply the changeset, in nanoseconds.
+     */
+    private final long elapsedNanos;
+
+    /**
+     * The number of rows in the tables the changeset names, counted
+     * just before it was applied.
+     */
+    private final long rowsTouched;
+
+    /**
+     * The peak heap usage of the JVM while the changeset was applied,
+     * in bytes.
+     */
+    private final long peakHeapBytes;
+
+    /**
+     * Creates a new {@link Measurement}.
+     *
+     * @param changeSet the changeset's name; must not be {@code null}
+     *
+     * @param rows the number of rows with which each table was
+     * populated
+     *
+     * @param elapsedNanos the time taken to apply the changeset, in
+     * nanoseconds
+     *
+     * @param rowsTouched the number of rows in the tables the
+     * changeset names
+     *
+     * @param peakHeapBytes the peak heap usage while the changeset was
+     * applied, in bytes
+     */
+    Measurement(final String changeSet, final long rows, final long elapsedNanos, final long rowsTouched, final long peakHeapBytes) {
+      super();
+      assert changeSet != null;
+      this.changeSet = changeSet;
+      this.rows = rows;
+      this.elapsedNanos = elapsedNanos;
+      this.rowsTouched = rowsTouched;
+      this.peakHeapBytes = peakHeapBytes;
+    }
+
+    /**
+     * Returns the changeset's
+     * <code><i>filePath</i>::<i>id</i>::<i>author</i></code>.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return the changeset's name
+     */
+    final String getChangeSet() {
+      return this.changeSet;
+    }
+
+    /**
+     * Returns the number of rows with which each table was populated.
+     *
+     * @return the number of rows with which each table was populated
+     */
+    final long getRows() {
+      return this.rows;
+    }
+
+    /**
+     * Returns the time taken to apply the changeset, in nanoseconds.
+     *
+     * @return the time taken to apply the changeset
+     */
+    final long getElapsedNanos() {
+      return this.elapsedNanos;
+    }
+
+    /**
+     * Returns the number of rows in the tables the changeset names,
+     * counted just before it was applied.
+     *
+     * @return the number of rows touched
+     */
+    final long getRowsTouched() {
+      return this.rowsTouched;
+    }
+
+    /**
+     * Returns the peak heap usage of the JVM while the changeset was
+     * applied, in bytes.
+     *
+     * @return the peak heap usage in bytes
+     */
+    final long getPeakHeapBytes() {
+      return this.peakHeapBytes;
+    }
+
+    /**
+     * Returns a non-{@code null} {@link String} representation of
+     * this {@link Measurement}.
+     *
+     * @return a non-{@code null} {@link String}
+     */
+    @Override
+    public final String toString() {
+      return this.changeSet + " at " + this.rows + " rows: " + millis(this.elapsedNanos) + " ms, " + this.rowsTouched + " rows touched, peak heap " + this.peakHeapBytes + " bytes";
+    }
+
+  }
+
+  /**
+   * A table to be populated.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Table {
+
+    /**
+     * The table's name.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final String name;
+
+    /**
+     * The table's {@link Column}s, in order.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final List<Column> columns;
+
+    /**
+     * The names of the other tables this table refers to.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final Set<String> referencedTables;
+
+    /**
+     * Creates a new {@link Table}.
+     *
+     * @param name the table's name; must not be {@code null}
+     */
+    private Table(final String name) {
+      super();
+      assert name != null;
+      this.name = name;
+      this.columns = new ArrayList<Column>();
+      this.referencedTables = new HashSet<String>();
+    }
+
+    /**
+     * Returns the {@link Column} with the supplied name, or {@code
+     * null} if there is none.
+     *
+     * @param name the name; may be {@code null}
+     *
+     * @return a {@link Column}, or {@code null}
+     */
+    private final Column getColumn(final String name) {
+      for (final Column column : this.columns) {
+        if (column.name.equals(name)) {
+          return column;
+        }
+      }
+      return null;
+    }
+
+  }
+
+  /**
+   * A column of a {@link Table} to be populated.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Column {
+
+    /**
+     * The column's name.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final String name;
+
+    /**
+     * The column's {@linkplain Types SQL type}.
+     */
+    private final int type;
+
+    /**
+     * The column's size: its maximum length or precision.
+     */
+    private final int size;
+
+    /**
+     * The number of the column's fractional digits.
+     */
+    private final int digits;
+
+    /**
+     * Whether the column accepts {@code NULL}.
+     */
+    private final boolean nullable;
+
+    /**
+     * Whether the database assigns the column's values itself.
+     */
+    private final boolean autoIncrement;
+
+    /**
+     * The name of the table this column refers to by foreign key.
+     *
+     * <p>This field may be {@code null}.</p>
+     */
+    private String referencedTable;
+
+    /**
+     * The {@link Column} this column refers to by foreign key.
+     *
+     * <p>This field may be {@code null}.</p>
+     */
+    private Column referencedColumn;
+
+    /**
+     * Creates a new {@link Column}.
+     *
+     * @param name the column's name; must not be {@code null}
+     *
+     * @param type the column's {@linkplain Types SQL type}
+     *
+     * @param size the column's size
+     *
+     * @param digits the number of the column's fractional digits
+     *
+     * @param nullable whether the column accepts {@code NULL}
+     *
+     * @param autoIncrement whether the database assigns the column's
+     * values itself
+     */
+    private Column(final String name, final int type, final int size, final int digits, final boolean nullable, final boolean autoIncrement) {
+      super();
+      assert name != null;
+      this.name = name;
+      this.type = type;
+      this.size = size;
+      this.digits = digits;
+      this.nullable = nullable;
+      this.autoIncrement = autoIncrement;
+    }
+
+  }
+
+}
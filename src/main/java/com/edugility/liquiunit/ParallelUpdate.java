@@ -0,0 +1,590 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import javax.sql.DataSource;
+
+import liquibase.Contexts;
+import liquibase.LabelExpression;
+import liquibase.Liquibase;
+
+import liquibase.change.AbstractSQLChange;
+import liquibase.change.Change;
+import liquibase.change.ChangeFactory;
+import liquibase.change.ChangeParameterMetaData;
+import liquibase.change.ColumnConfig;
+import liquibase.change.ConstraintsConfig;
+
+import liquibase.change.core.CreateProcedureChange;
+import liquibase.change.core.CreateViewChange;
+import liquibase.change.core.ExecuteShellCommandChange;
+
+import liquibase.change.custom.CustomChangeWrapper;
+
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+
+import liquibase.changelog.visitor.ChangeExecListener;
+
+import liquibase.database.Database;
+import liquibase.database.ObjectQuotingStrategy;
+
+import liquibase.database.jvm.JdbcConnection;
+
+import liquibase.exception.LiquibaseException;
+import liquibase.exception.MigrationFailedException;
+
+import liquibase.executor.ExecutorService;
+
+import liquibase.logging.LogFactory;
+import liquibase.logging.Logger;
+
+import liquibase.precondition.core.PreconditionContainer;
+
+/**
+ * Applies the unrun changesets of a {@link Liquibase} changelog the
+ * way {@link Liquibase#update(Contexts, LabelExpression)} does, but
+ * runs changesets that do not depend on one another concurrently on
+ * several {@link Connection}s.
+ *
+ * <p>Changesets are {@linkplain #plan(List) arranged} into
+ * <em>waves</em>.  A changeset depends on every earlier changeset
+ * that names one of the same database objects&mdash;tables, views,
+ * sequences, indexes, constraints, including tables referenced by
+ * foreign keys&mdash;and is placed in the wave following the last of
+ * them.  A changeset whose dependencies cannot be determined, because
+ * it carries preconditions, runs outside of a transaction or contains
+ * free-form SQL, a custom change or a change naming no database
+ * object at all, is a <em>barrier</em>: it runs alone, after every
+ * changeset before it and before every changeset after it.  A
+ * changelog made up entirely of barriers is therefore applied
+ * serially, exactly as Liquibase would apply it.</p>
+ *
+ * <p>The changesets in a wave are executed concurrently; once the
+ * whole wave has finished, their execution is recorded in the
+ * changelog history, in changelog order, through the original {@link
+ * Liquibase} instance's {@link Database}.  History recording hence
+ * never races, and a changeset is never recorded before the
+ * changesets it depends on.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see LiquiunitRule#setParallelism(int)
+ */
+final class ParallelUpdate {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The {@link Logger} to use for debugging and tracing purposes.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final Logger logger = LogFactory.getInstance().getLog("liquiunit");
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ParallelUpdate}.
+   */
+  private ParallelUpdate() {
+    super();
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Applies the unrun changesets of the supplied {@link Liquibase}
+   * instance's changelog, running independent changesets concurrently
+   * on at most {@code parallelism} {@link Connection}s.
+   *
+   * <p>The {@link Liquibase} instance's own {@link Database} runs
+   * every barrier and every wave consisting of a single changeset,
+   * and records all history.  Additional {@link Connection}s are
+   * acquired from the supplied {@link DataSource} only when a wave
+   * contains more than one changeset, and are closed before this
+   * method returns.</p>
+   *
+   * <p>Locking, validation and cleanup are {@linkplain LockedUpdate
+   * performed} exactly as {@link Liquibase#update(Contexts,
+   * LabelExpression)} performs them.</p>
+   *
+   * @param liquibase the {@link Liquibase} instance whose changelog
+   * should be applied; must not be {@code null}
+   *
+   * @param dataSource the {@link DataSource} from which additional
+   * {@link Connection}s to the same database are acquired; must not
+   * be {@code null}
+   *
+   * @param recorder the {@link SqlRecorder} through which additional
+   * {@link Connection}s are {@linkplain SqlRecorder#wrap(Connection)
+   * wrapped}; may be {@code null}
+   *
+   * @param listener the {@link ChangeExecListener} to notify as
+   * changesets run; may be {@code null}
+   *
+   * @param contexts the {@link Contexts} to apply; may be {@code null}
+   *
+   * @param labelExpression the {@link LabelExpression} to apply; may
+   * be {@code null}
+   *
+   * @param parallelism the maximum number of changesets to run at
+   * once; must be greater than zero
+   *
+   * @exception LiquibaseException if a changeset could not be applied
+   *
+   * @exception SQLException if an additional {@link Connection} could
+   * not be acquired
+   */
+  static final void update(final Liquibase liquibase, final DataSource dataSource, final SqlRecorder recorder, final ChangeExecListener listener, final Contexts contexts, final LabelExpression labelExpression, final int parallelism) throws LiquibaseException, SQLException {
+    assert liquibase != null;
+    assert dataSource != null;
+    assert parallelism > 0;
+    LockedUpdate.run(liquibase, contexts, labelExpression, new LockedUpdate.Pass<Void>() {
+        @Override
+        public final Void apply(final List<ChangeSet> changeSets, final DatabaseChangeLog changeLog, final Database database) throws LiquibaseException, SQLException {
+          update(changeSets, changeLog, database, dataSource, recorder, listener, parallelism);
+          return null;
+        }
+      });
+  }
+
+  /**
+   * Applies the supplied unrun {@link ChangeSet}s as the {@link
+   * #update(Liquibase, DataSource, SqlRecorder, ChangeExecListener,
+   * Contexts, LabelExpression, int)} method describes, while a {@link
+   * LockedUpdate} holds the lock.
+   *
+   * @param changeSets the unrun {@link ChangeSet}s, in changelog
+   * order; must not be {@code null}
+   *
+   * @param changeLog the {@link DatabaseChangeLog} to which they
+   * belong; must not be {@code null}
+   *
+   * @param database the {@link Database} that runs barriers and
+   * records all history; must not be {@code null}
+   *
+   * @param dataSource the {@link DataSource} from which additional
+   * {@link Connection}s to the same database are acquired; must not
+   * be {@code null}
+   *
+   * @param recorder the {@link SqlRecorder} through which additional
+   * {@link Connection}s are {@linkplain SqlRecorder#wrap(Connection)
+   * wrapped}; may be {@code null}
+   *
+   * @param listener the {@link ChangeExecListener} to notify as
+   * changesets run; may be {@code null}
+   *
+   * @param parallelism the maximum number of changesets to run at
+   * once; must be greater than zero
+   *
+   * @exception LiquibaseException if a changeset could not be applied
+   *
+   * @exception SQLException if an additional {@link Connection} could
+   * not be acquired
+   */
+  private static final void update(final List<ChangeSet> changeSets, final DatabaseChangeLog changeLog, final Database database, final DataSource dataSource, final SqlRecorder recorder, final ChangeExecListener listener, final int parallelism) throws LiquibaseException, SQLException {
+    assert changeSets != null;
+    assert database != null;
+    final List<List<ChangeSet>> waves = plan(changeSets);
+    logger.debug("Applying " + changeSets.size() + " changesets in " + waves.size() + " waves");
+    final BlockingQueue<Database> databases = new LinkedBlockingQueue<Database>();
+    databases.add(database);
+    final List<Database> workers = new ArrayList<Database>();
+    java.util.concurrent.ExecutorService executorService = null;
+    try {
+      for (final List<ChangeSet> wave : waves) {
+        assert wave != null;
+        assert !wave.isEmpty();
+        final List<ChangeSet.RunStatus> runStatuses = new ArrayList<ChangeSet.RunStatus>(wave.size());
+        for (final ChangeSet changeSet : wave) {
+          runStatuses.add(database.getRunStatus(changeSet));
+        }
+        final ChangeSet.ExecType[] execTypes = new ChangeSet.ExecType[wave.size()];
+        Throwable failure = null;
+        if (wave.size() == 1 || parallelism == 1) {
+          for (int i = 0; failure == null && i < execTypes.length; i++) {
+            try {
+              execTypes[i] = execute(wave.get(i), runStatuses.get(i), changeLog, database, listener);
+            } catch (final LiquibaseException oops) {
+              failure = oops;
+            }
+          }
+        } else {
+          final int size = Math.min(parallelism, wave.size());
+          while (workers.size() + 1 < size) {
+            final Connection c = dataSource.getConnection();
+            final Database worker = LiquibaseCache.findCorrectDatabaseImplementation(new JdbcConnection(recorder == null ? c : recorder.wrap(c)));
+            workers.add(worker);
+            databases.add(worker);
+          }
+          if (executorService == null) {
+            executorService = Executors.newFixedThreadPool(Math.min(parallelism, maxWaveSize(waves)));
+          }
+          final List<Future<ChangeSet.ExecType>> futures = new ArrayList<Future<ChangeSet.ExecType>>(wave.size());
+          for (int i = 0; i < wave.size(); i++) {
+            final ChangeSet changeSet = wave.get(i);
+            final ChangeSet.RunStatus runStatus = runStatuses.get(i);
+            futures.add(executorService.submit(new Callable<ChangeSet.ExecType>() {
+                @Override
+                public final ChangeSet.ExecType call() throws Exception {
+                  final Database d = databases.take();
+                  try {
+                    return execute(changeSet, runStatus, changeLog, d, listener);
+                  } finally {
+                    databases.add(d);
+                  }
+                }
+              }));
+          }
+          for (int i = 0; i < execTypes.length; i++) {
+            try {
+              execTypes[i] = futures.get(i).get();
+            } catch (final ExecutionException oops) {
+              if (failure == null) {
+                failure = oops.getCause();
+              }
+            } catch (final InterruptedException oops) {
+              Thread.currentThread().interrupt();
+              if (failure == null) {
+                failure = oops;
+              }
+            }
+          }
+        }
+        // Record every changeset that ran, even if another in the
+        // same wave failed, so that the history matches the schema.
+        for (int i = 0; i < execTypes.length; i++) {
+          if (execTypes[i] != null) {
+            database.markChangeSetExecStatus(wave.get(i), ChangeSet.RunStatus.NOT_RAN.equals(runStatuses.get(i)) ? execTypes[i] : ChangeSet.ExecType.RERAN);
+          }
+        }
+        database.commit();
+        if (failure instanceof LiquibaseException) {
+          throw (LiquibaseException)failure;
+        } else if (failure instanceof RuntimeException) {
+          throw (RuntimeException)failure;
+        } else if (failure instanceof Error) {
+          throw (Error)failure;
+        } else if (failure != null) {
+          throw new LiquibaseException(failure);
+        }
+      }
+    } finally {
+      if (executorService != null) {
+        executorService.shutdownNow();
+      }
+      for (final Database worker : workers) {
+        try {
+          worker.close();
+        } catch (final LiquibaseException ignore) {
+
+        } finally {
+          ExecutorService.getInstance().clearExecutor(worker);
+        }
+      }
+    }
+  }
+
+  /**
+   * {@linkplain ChangeSet#execute(DatabaseChangeLog,
+   * liquibase.changelog.visitor.ChangeExecListener, Database) Executes}
+   * the supplied {@link ChangeSet} against the supplied {@link
+   * Database}, restoring the {@link Database}'s {@link
+   * ObjectQuotingStrategy} afterwards, and notifying the supplied
+   * {@link ChangeExecListener} as a {@link Liquibase} update would.
+   *
+   * @param changeSet the {@link ChangeSet} to execute; must not be
+   * {@code null}
+   *
+   * @param runStatus the {@link ChangeSet.RunStatus} of the {@link
+   * ChangeSet}; must not be {@code null}
+   *
+   * @param changeLog the {@link DatabaseChangeLog} to which the
+   * {@link ChangeSet} belongs; must not be {@code null}
+   *
+   * @param database the {@link Database} to use; must not be {@code
+   * null}
+   *
+   * @param listener the {@link ChangeExecListener} to notify; may be
+   * {@code null}
+   *
+   * @return the {@link ChangeSet.ExecType} describing the outcome;
+   * never {@code null}
+   *
+   * @exception LiquibaseException if the {@link ChangeSet} failed
+   */
+  static final ChangeSet.ExecType execute(final ChangeSet changeSet, final ChangeSet.RunStatus runStatus, final DatabaseChangeLog changeLog, final Database database, final ChangeExecListener listener) throws LiquibaseException {
+    assert changeSet != null;
+    assert database != null;
+    final ObjectQuotingStrategy objectQuotingStrategy = database.getObjectQuotingStrategy();
+    try {
+      if (listener != null) {
+        listener.willRun(changeSet, changeLog, database, runStatus);
+      }
+      final ChangeSet.ExecType execType;
+      try {
+        execType = changeSet.execute(changeLog, listener, database);
+      } catch (final MigrationFailedException oops) {
+        if (listener != null) {
+          listener.runFailed(changeSet, changeLog, database, oops);
+        }
+        throw oops;
+      }
+      if (listener != null) {
+        listener.ran(changeSet, changeLog, database, execType);
+      }
+      return execType;
+    } finally {
+      database.setObjectQuotingStrategy(objectQuotingStrategy);
+    }
+  }
+
+  /**
+   * Arranges the supplied {@link ChangeSet}s into waves, each of
+   * which contains only changesets that may run concurrently, such
+   * that running the waves in order respects every dependency among
+   * the changesets.
+   *
+   * <p>Changesets within a wave retain their relative changelog
+   * order.  A barrier always occupies a wave of its own.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param changeSets the {@link ChangeSet}s, in changelog order; may
+   * be {@code null}
+   *
+   * @return a non-{@code null} {@link List} of non-{@code null},
+   * non-empty {@link List}s of {@link ChangeSet}s
+   *
+   * @see #getObjectNames(ChangeSet)
+   */
+  static final List<List<ChangeSet>> plan(final List<? extends ChangeSet> changeSets) {
+    final List<List<ChangeSet>> waves = new ArrayList<List<ChangeSet>>();
+    if (changeSets != null) {
+      final Map<String, Integer> lastWaves = new HashMap<String, Integer>();
+      int barrier = -1;
+      for (final ChangeSet changeSet : changeSets) {
+        if (changeSet == null) {
+          continue;
+        }
+        final Set<String> names = getObjectNames(changeSet);
+        int wave;
+        if (names == null) {
+          wave = waves.size();
+          barrier = wave;
+        } else {
+          wave = barrier + 1;
+          for (final String name : names) {
+            final Integer last = lastWaves.get(name);
+            if (last != null && last.intValue() >= wave) {
+              wave = last.intValue() + 1;
+            }
+          }
+          for (final String name : names) {
+            lastWaves.put(name, Integer.valueOf(wave));
+          }
+        }
+        while (waves.size() <= wave) {
+          waves.add(new ArrayList<ChangeSet>());
+        }
+        waves.get(wave).add(changeSet);
+      }
+    }
+    return waves;
+  }
+
+  /**
+   * Returns the size of the largest wave among those supplied.
+   *
+   * @param waves the waves; must not be {@code null}
+   *
+   * @return the size of the largest wave
+   */
+  private static final int maxWaveSize(final Collection<? extends Collection<?>> waves) {
+    assert waves != null;
+    int returnValue = 0;
+    for (final Collection<?> wave : waves) {
+      returnValue = Math.max(returnValue, wave.size());
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the upper-cased names of the database objects the supplied
+   * {@link ChangeSet} creates, alters or refers to, or {@code null} if
+   * they cannot be determined and the {@link ChangeSet} must
+   * therefore run as a barrier.
+   *
+   * <p>Names are gathered from every parameter of every {@link
+   * Change} whose name ends in {@code Name}, other than catalog,
+   * schema and column names, and from the foreign key references of
+   * any columns.  Quoting and schema qualification are ignored, which
+   * can only cause changesets to be considered dependent when they are
+   * not.</p>
+   *
+   * @param changeSet the {@link ChangeSet} to inspect; must not be
+   * {@code null}
+   *
+   * @return a {@link Set} of object names, or {@code null}
+   */
+  static final Set<String> getObjectNames(final ChangeSet changeSet) {
+    assert changeSet != null;
+    if (!changeSet.isRunInTransaction()) {
+      return null;
+    }
+    final PreconditionContainer preconditions = changeSet.getPreconditions();
+    if (preconditions != null && preconditions.getNestedPreconditions() != null && !preconditions.getNestedPreconditions().isEmpty()) {
+      return null;
+    }
+    final List<Change> changes = changeSet.getChanges();
+    if (changes == null || changes.isEmpty()) {
+      return null;
+    }
+    final Set<String> names = new LinkedHashSet<String>();
+    for (final Change change : changes) {
+      if (change == null ||
+          change instanceof AbstractSQLChange ||
+          change instanceof CustomChangeWrapper ||
+          change instanceof CreateViewChange ||
+          change instanceof CreateProcedureChange ||
+          change instanceof ExecuteShellCommandChange) {
+        return null;
+      }
+      final int size = names.size();
+      for (final ChangeParameterMetaData parameter : ChangeFactory.getInstance().getChangeMetaData(change).getParameters().values()) {
+        final String parameterName = parameter.getParameterName();
+        final Object value = parameter.getCurrentValue(change);
+        if (value instanceof String) {
+          if (parameterName.endsWith("Name") && !"catalogName".equals(parameterName) && !"schemaName".equals(parameterName) && !parameterName.toLowerCase(Locale.ENGLISH).contains("column")) {
+            addName(names, (String)value);
+          }
+        } else if (value instanceof Collection) {
+          for (final Object element : (Collection<?>)value) {
+            if (element instanceof ColumnConfig) {
+              addNames(names, (ColumnConfig)element);
+            }
+          }
+        }
+      }
+      if (names.size() == size) {
+        // The change names no database object, so nothing is known
+        // about what it touches.
+        return null;
+      }
+    }
+    return names;
+  }
+
+  /**
+   * Adds to the supplied {@link Set} the names of the tables and
+   * sequences that the supplied {@link ColumnConfig} refers to.
+   *
+   * @param names the {@link Set} to add to; must not be {@code null}
+   *
+   * @param column the {@link ColumnConfig}; must not be {@code null}
+   */
+  private static final void addNames(final Set<String> names, final ColumnConfig column) {
+    assert names != null;
+    assert column != null;
+    final ConstraintsConfig constraints = column.getConstraints();
+    if (constraints != null) {
+      addName(names, constraints.getReferencedTableName());
+      final String references = constraints.getReferences();
+      if (references != null) {
+        final int parenthesis = references.indexOf('(');
+        addName(names, parenthesis < 0 ? references : references.substring(0, parenthesis));
+      }
+    }
+    if (column.getValueSequenceNext() != null) {
+      addName(names, column.getValueSequenceNext().getValue());
+    }
+    if (column.getDefaultValueSequenceNext() != null) {
+      addName(names, column.getDefaultValueSequenceNext().getValue());
+    }
+  }
+
+  /**
+   * Adds the supplied database object name, stripped of any schema
+   * qualification and quotes and upper-cased, to the supplied {@link
+   * Set}.
+   *
+   * @param names the {@link Set} to add to; must not be {@code null}
+   *
+   * @param name the name; may be {@code null} in which case no action
+   * is taken
+   */
+  static final void addName(final Set<String> names, String name) {
+    assert names != null;
+    if (name != null) {
+      final int dot = name.lastIndexOf('.');
+      if (dot >= 0) {
+        name = name.substring(dot + 1);
+      }
+      name = name.replace("\"", "").replace("`", "").replace("[", "").replace("]", "").trim();
+      if (!name.isEmpty()) {
+        names.add(name.toUpperCase(Locale.ENGLISH));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,621 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.io.InputStream;
+import java.io.IOException;
+
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import java.net.URL;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.persistence.CollectionTable;
+import javax.persistence.Entity;
+import javax.persistence.JoinTable;
+import javax.persistence.Table;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import liquibase.change.AbstractSQLChange;
+import liquibase.change.Change;
+import liquibase.change.ChangeFactory;
+import liquibase.change.ChangeParameterMetaData;
+import liquibase.change.ColumnConfig;
+import liquibase.change.ConstraintsConfig;
+
+import liquibase.change.core.CreateProcedureChange;
+import liquibase.change.core.CreateViewChange;
+import liquibase.change.core.ExecuteShellCommandChange;
+
+import liquibase.change.custom.CustomChangeWrapper;
+
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+
+import org.dbunit.dataset.DataSetException;
+
+import org.dbunit.dataset.xml.XmlDataSet;
+
+import org.junit.runner.Description;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import org.xml.sax.SAXException;
+
+/**
+ * The subset of a {@link DatabaseChangeLog} needed to create and
+ * populate a given set of tables.
+ *
+ * <p>A changeset's <em>subjects</em> are the database objects it
+ * creates, alters or populates: the tables, views, sequences,
+ * indexes and constraints it names, other than those it names only
+ * as the targets of foreign keys, which are its
+ * <em>dependencies</em>.  A changeset is needed if one of its
+ * subjects is needed; all of its subjects and dependencies are then
+ * needed as well, and so on until nothing changes.  The subjects of
+ * free-form SQL, view definitions and stored procedures are the
+ * tables, created elsewhere in the changelog, whose names appear in
+ * their text.  A changeset whose subjects cannot be determined at
+ * all, such as a custom change, a shell command or a {@code
+ * tagDatabase} change, is always needed.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see RequiresTables
+ */
+final class PartialSchema {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * A {@link Pattern} matching an identifier in free-form SQL.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_$#]*");
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link DatabaseChangeLog} holding only the needed changesets.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final DatabaseChangeLog changeLog;
+
+  /**
+   * The names of every needed database object, upper-cased.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Set<String> objectNames;
+
+  /**
+   * The changesets that are not needed, in changelog order.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final List<ChangeSet> skipped;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link PartialSchema}.
+   *
+   * @param changeLog the {@link DatabaseChangeLog} holding only the
+   * needed changesets; must not be {@code null}
+   *
+   * @param objectNames the names of every needed database object;
+   * must not be {@code null}
+   *
+   * @param skipped the changesets that are not needed; must not be
+   * {@code null}
+   */
+  private PartialSchema(final DatabaseChangeLog changeLog, final Set<String> objectNames, final List<ChangeSet> skipped) {
+    super();
+    assert changeLog != null;
+    assert objectNames != null;
+    assert skipped != null;
+    this.changeLog = changeLog;
+    this.objectNames = Collections.unmodifiableSet(objectNames);
+    this.skipped = Collections.unmodifiableList(skipped);
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns a {@link DatabaseChangeLog} holding only the needed
+   * changesets, in their original order.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link DatabaseChangeLog}
+   */
+  final DatabaseChangeLog getChangeLog() {
+    return this.changeLog;
+  }
+
+  /**
+   * Returns the upper-cased names of every needed database object,
+   * including the tables originally asked for.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, unmodifiable {@link Set} of names
+   */
+  final Set<String> getObjectNames() {
+    return this.objectNames;
+  }
+
+  /**
+   * Returns the changesets that are not needed, in changelog order.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, unmodifiable {@link List} of {@link
+   * ChangeSet}s
+   */
+  final List<ChangeSet> getSkipped() {
+    return this.skipped;
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns a new {@link PartialSchema} holding the changesets of the
+   * supplied {@link DatabaseChangeLog} needed to create and populate
+   * the supplied tables.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param changeLog the complete {@link DatabaseChangeLog}; must not
+   * be {@code null}
+   *
+   * @param tableNames the names of the needed tables, in any case;
+   * must not be {@code null}
+   *
+   * @return a non-{@code null} {@link PartialSchema}
+   */
+  static final PartialSchema of(final DatabaseChangeLog changeLog, final Collection<? extends String> tableNames) {
+    assert changeLog != null;
+    assert tableNames != null;
+    final List<ChangeSet> changeSets = changeLog.getChangeSets();
+    assert changeSets != null;
+    final int size = changeSets.size();
+
+    final Set<String> universe = new LinkedHashSet<String>();
+    for (final ChangeSet changeSet : changeSets) {
+      final Analysis analysis = analyze(changeSet, null);
+      if (analysis != null) {
+        universe.addAll(analysis.subjects);
+      }
+    }
+    final List<Analysis> analyses = new ArrayList<Analysis>(size);
+    for (final ChangeSet changeSet : changeSets) {
+      analyses.add(analyze(changeSet, universe));
+    }
+
+    final Set<String> needed = new TreeSet<String>();
+    for (final String tableName : tableNames) {
+      ParallelUpdate.addName(needed, tableName);
+    }
+    final boolean[] included = new boolean[size];
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int i = 0; i < size; i++) {
+        if (!included[i]) {
+          final Analysis analysis = analyses.get(i);
+          if (analysis == null || !Collections.disjoint(analysis.subjects, needed)) {
+            included[i] = true;
+            changed = true;
+            if (analysis != null) {
+              needed.addAll(analysis.subjects);
+              needed.addAll(analysis.dependencies);
+            }
+          }
+        }
+      }
+    }
+
+    final DatabaseChangeLog partial = new DatabaseChangeLog(changeLog.getPhysicalFilePath());
+    partial.setChangeLogParameters(changeLog.getChangeLogParameters());
+    partial.setPreconditions(changeLog.getPreconditions());
+    final List<ChangeSet> skipped = new ArrayList<ChangeSet>();
+    for (int i = 0; i < size; i++) {
+      final ChangeSet changeSet = changeSets.get(i);
+      if (included[i]) {
+        partial.addChangeSet(changeSet);
+      } else {
+        skipped.add(changeSet);
+      }
+    }
+    return new PartialSchema(partial, needed, skipped);
+  }
+
+  /**
+   * Returns the upper-cased names of the database objects that the
+   * supplied {@link ChangeSet} creates, alters or depends on, matching
+   * the text of any free-form SQL against the supplied names.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param changeSet the {@link ChangeSet}; must not be {@code null}
+   *
+   * @param universe the upper-cased names against which the text of
+   * free-form SQL is matched; may be {@code null} in which case such
+   * text is ignored
+   *
+   * @return a non-{@code null}, possibly empty {@link Set} of names
+   */
+  static final Set<String> getNames(final ChangeSet changeSet, final Set<String> universe) {
+    assert changeSet != null;
+    final Set<String> returnValue = new LinkedHashSet<String>();
+    final Analysis analysis = analyze(changeSet, universe);
+    if (analysis != null) {
+      returnValue.addAll(analysis.subjects);
+      returnValue.addAll(analysis.dependencies);
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the subjects and dependencies of the supplied {@link
+   * ChangeSet}, or {@code null} if they cannot be determined and the
+   * changeset must therefore always be applied.
+   *
+   * @param changeSet the {@link ChangeSet}; must not be {@code null}
+   *
+   * @param universe the names of all subjects of structured changes
+   * in the changelog, against which the text of free-form SQL is
+   * matched; may be {@code null} in which case such text is ignored
+   *
+   * @return an {@link Analysis}, or {@code null}
+   */
+  private static final Analysis analyze(final ChangeSet changeSet, final Set<String> universe) {
+    assert changeSet != null;
+    final List<Change> changes = changeSet.getChanges();
+    if (changes == null || changes.isEmpty()) {
+      return null;
+    }
+    final Analysis analysis = new Analysis();
+    for (final Change change : changes) {
+      if (change == null || change instanceof CustomChangeWrapper || change instanceof ExecuteShellCommandChange) {
+        return null;
+      }
+      for (final ChangeParameterMetaData parameter : ChangeFactory.getInstance().getChangeMetaData(change).getParameters().values()) {
+        final String parameterName = parameter.getParameterName();
+        final Object value = parameter.getCurrentValue(change);
+        if (value instanceof String) {
+          if (parameterName.endsWith("Name") && !"catalogName".equals(parameterName) && !"schemaName".equals(parameterName) && !parameterName.toLowerCase(Locale.ENGLISH).contains("column")) {
+            ParallelUpdate.addName(parameterName.startsWith("referenced") ? analysis.dependencies : analysis.subjects, (String)value);
+          }
+        } else if (value instanceof Collection) {
+          for (final Object element : (Collection<?>)value) {
+            if (element instanceof ColumnConfig) {
+              addDependencies(analysis.dependencies, (ColumnConfig)element);
+            }
+          }
+        }
+      }
+      if (universe != null) {
+        final String text;
+        if (change instanceof AbstractSQLChange) {
+          text = ((AbstractSQLChange)change).getSql();
+        } else if (change instanceof CreateViewChange) {
+          text = ((CreateViewChange)change).getSelectQuery();
+        } else if (change instanceof CreateProcedureChange) {
+          text = ((CreateProcedureChange)change).getProcedureText();
+        } else {
+          text = null;
+        }
+        if (text != null) {
+          final Matcher matcher = IDENTIFIER.matcher(text);
+          while (matcher.find()) {
+            final String name = matcher.group().toUpperCase(Locale.ENGLISH);
+            if (universe.contains(name)) {
+              analysis.subjects.add(name);
+            }
+          }
+        }
+      }
+    }
+    if (analysis.subjects.isEmpty() && analysis.dependencies.isEmpty()) {
+      return null;
+    }
+    return analysis;
+  }
+
+  /**
+   * Adds to the supplied {@link Set} the names of the tables and
+   * sequences that the supplied {@link ColumnConfig} refers to.
+   *
+   * @param dependencies the {@link Set} to add to; must not be {@code
+   * null}
+   *
+   * @param column the {@link ColumnConfig}; must not be {@code null}
+   */
+  private static final void addDependencies(final Set<String> dependencies, final ColumnConfig column) {
+    assert dependencies != null;
+    assert column != null;
+    final ConstraintsConfig constraints = column.getConstraints();
+    if (constraints != null) {
+      ParallelUpdate.addName(dependencies, constraints.getReferencedTableName());
+      final String references = constraints.getReferences();
+      if (references != null) {
+        final int parenthesis = references.indexOf('(');
+        ParallelUpdate.addName(dependencies, parenthesis < 0 ? references : references.substring(0, parenthesis));
+      }
+    }
+    if (column.getValueSequenceNext() != null) {
+      ParallelUpdate.addName(dependencies, column.getValueSequenceNext().getValue());
+    }
+    if (column.getDefaultValueSequenceNext() != null) {
+      ParallelUpdate.addName(dependencies, column.getDefaultValueSequenceNext().getValue());
+    }
+  }
+
+  /**
+   * Returns the names of the tables in the dbUnit dataset that a
+   * {@link DataSourceDatabaseTesterRule} would load for the test
+   * described by the supplied {@link Description}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param description the {@link Description}; may be {@code null}
+   *
+   * @param cl the {@link ClassLoader} to search; must not be {@code
+   * null}
+   *
+   * @return a non-{@code null} {@link Set} of table names, empty if
+   * there is no dataset
+   *
+   * @exception DataSetException if the dataset could not be read
+   *
+   * @exception IOException if an input/output error occurs
+   *
+   * @see DataSourceDatabaseTesterRule#getDataSet(Description)
+   */
+  static final Set<String> getDataSetTableNames(final Description description, final ClassLoader cl) throws DataSetException, IOException {
+    assert cl != null;
+    final Set<String> returnValue = new LinkedHashSet<String>();
+    final String name = DataSourceDatabaseTesterRule.getDataSetResourceName(description, cl);
+    if (name != null) {
+      final InputStream stream = ResourceIndex.getInstance(cl).openStream(name);
+      if (stream != null) {
+        try {
+          for (final String tableName : new XmlDataSet(stream).getTableNames()) {
+            ParallelUpdate.addName(returnValue, tableName);
+          }
+        } finally {
+          stream.close();
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the names of the tables mapped by the entities listed in
+   * the named persistence unit of any {@code META-INF/persistence.xml}
+   * classpath resource, including their join and collection tables.
+   *
+   * <p>An entity's table is named by its {@link Table} annotation,
+   * or, failing that, its {@link Entity} annotation, or, failing
+   * that, its class's simple name.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param persistenceUnitName the name of the persistence unit; must
+   * not be {@code null}
+   *
+   * @param cl the {@link ClassLoader} to search and load entity
+   * classes with; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link Set} of table names
+   *
+   * @exception IllegalArgumentException if there is no such
+   * persistence unit
+   *
+   * @exception IllegalStateException if an entity class could not be
+   * loaded
+   *
+   * @exception IOException if a {@code persistence.xml} resource
+   * could not be read
+   */
+  static final Set<String> getEntityTableNames(final String persistenceUnitName, final ClassLoader cl) throws IOException {
+    assert persistenceUnitName != null;
+    assert cl != null;
+    final Set<String> returnValue = new LinkedHashSet<String>();
+    boolean found = false;
+    final Enumeration<URL> urls = cl.getResources("META-INF/persistence.xml");
+    while (urls != null && urls.hasMoreElements()) {
+      final URL url = urls.nextElement();
+      final Document document;
+      final InputStream stream = url.openStream();
+      try {
+        document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(stream);
+      } catch (final ParserConfigurationException wrapMe) {
+        throw new IOException(wrapMe);
+      } catch (final SAXException wrapMe) {
+        throw new IOException(url.toString(), wrapMe);
+      } finally {
+        stream.close();
+      }
+      final NodeList units = document.getElementsByTagName("persistence-unit");
+      for (int i = 0; i < units.getLength(); i++) {
+        final Element unit = (Element)units.item(i);
+        if (persistenceUnitName.equals(unit.getAttribute("name"))) {
+          found = true;
+          final NodeList children = unit.getChildNodes();
+          for (int j = 0; j < children.getLength(); j++) {
+            final Node child = children.item(j);
+            if (child instanceof Element && "class".equals(child.getNodeName())) {
+              final Class<?> entityClass;
+              try {
+                entityClass = cl.loadClass(child.getTextContent().trim());
+              } catch (final ClassNotFoundException wrapMe) {
+                throw new IllegalStateException(wrapMe);
+              }
+              addEntityTableNames(returnValue, entityClass);
+            }
+          }
+        }
+      }
+    }
+    if (!found) {
+      throw new IllegalArgumentException("No persistence unit named " + persistenceUnitName);
+    }
+    return returnValue;
+  }
+
+  /**
+   * Adds the names of the tables mapped by the supplied entity class
+   * to the supplied {@link Set}.
+   *
+   * @param names the {@link Set} to add to; must not be {@code null}
+   *
+   * @param entityClass the entity class; must not be {@code null}
+   */
+  private static final void addEntityTableNames(final Set<String> names, final Class<?> entityClass) {
+    assert names != null;
+    assert entityClass != null;
+    final Table table = entityClass.getAnnotation(Table.class);
+    final Entity entity = entityClass.getAnnotation(Entity.class);
+    if (table != null && !table.name().isEmpty()) {
+      ParallelUpdate.addName(names, table.name());
+    } else if (entity != null && !entity.name().isEmpty()) {
+      ParallelUpdate.addName(names, entity.name());
+    } else {
+      ParallelUpdate.addName(names, entityClass.getSimpleName());
+    }
+    final List<AnnotatedElement> members = new ArrayList<AnnotatedElement>();
+    for (Class<?> c = entityClass; c != null && c != Object.class; c = c.getSuperclass()) {
+      for (final Field field : c.getDeclaredFields()) {
+        members.add(field);
+      }
+      for (final Method method : c.getDeclaredMethods()) {
+        members.add(method);
+      }
+    }
+    for (final AnnotatedElement member : members) {
+      final JoinTable joinTable = member.getAnnotation(JoinTable.class);
+      if (joinTable != null && !joinTable.name().isEmpty()) {
+        ParallelUpdate.addName(names, joinTable.name());
+      }
+      final CollectionTable collectionTable = member.getAnnotation(CollectionTable.class);
+      if (collectionTable != null && !collectionTable.name().isEmpty()) {
+        ParallelUpdate.addName(names, collectionTable.name());
+      }
+    }
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * The subjects and dependencies of a changeset.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Analysis {
+
+    /**
+     * The upper-cased names of the database objects the changeset
+     * creates, alters or populates.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final Set<String> subjects;
+
+    /**
+     * The upper-cased names of the database objects the changeset
+     * refers to through foreign keys or sequences.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final Set<String> dependencies;
+
+    /**
+     * Creates a new {@link Analysis}.
+     */
+    private Analysis() {
+      super();
+      this.subjects = new LinkedHashSet<String>();
+      this.dependencies = new LinkedHashSet<String>();
+    }
+
+  }
+
+}
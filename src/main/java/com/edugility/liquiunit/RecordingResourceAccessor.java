@@ -0,0 +1,182 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import liquibase.resource.ResourceAccessor;
+
+/**
+ * A {@link ResourceAccessor} that remembers the names of the resources
+ * it has opened on behalf of another {@link ResourceAccessor}.
+ *
+ * <p>{@link LiquiunitRule} parses changelogs through a {@link
+ * RecordingResourceAccessor} so that {@link LiquibaseCache} can
+ * fingerprint every changelog they {@code include} and every file
+ * their changes read, and not only the changelogs named
+ * directly.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see LiquibaseCache#putDependencies(List, java.util.Collection)
+ */
+final class RecordingResourceAccessor implements ResourceAccessor {
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link ResourceAccessor} that actually opens resources.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ResourceAccessor delegate;
+
+  /**
+   * The names of the resources opened so far, in the order in which
+   * they were first opened.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Set<String> resourceNames;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link RecordingResourceAccessor}.
+   *
+   * @param delegate the {@link ResourceAccessor} that actually opens
+   * resources; must not be {@code null}
+   *
+   * @exception IllegalArgumentException if {@code delegate} is {@code
+   * null}
+   */
+  RecordingResourceAccessor(final ResourceAccessor delegate) {
+    super();
+    if (delegate == null) {
+      throw new IllegalArgumentException("delegate", new NullPointerException("delegate"));
+    }
+    this.delegate = delegate;
+    this.resourceNames = new LinkedHashSet<String>();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Opens the named resources by way of the {@link ResourceAccessor}
+   * supplied at construction time, and remembers the name if any were
+   * found.
+   *
+   * @param path the name of the resources; may be {@code null}
+   *
+   * @return a {@link Set} of {@link InputStream}s, or {@code null}
+   *
+   * @exception IOException if the resources could not be opened
+   */
+  @Override
+  public Set<InputStream> getResourcesAsStream(final String path) throws IOException {
+    final Set<InputStream> returnValue = this.delegate.getResourcesAsStream(path);
+    if (path != null && returnValue != null && !returnValue.isEmpty()) {
+      synchronized (this.resourceNames) {
+        this.resourceNames.add(path);
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Lists resources by way of the {@link ResourceAccessor} supplied
+   * at construction time.
+   *
+   * @param relativeTo the resource that {@code path} is relative to;
+   * may be {@code null}
+   *
+   * @param path the path to list; may be {@code null}
+   *
+   * @param includeFiles whether to include files
+   *
+   * @param includeDirectories whether to include directories
+   *
+   * @param recursive whether to list recursively
+   *
+   * @return a {@link Set} of resource names, or {@code null}
+   *
+   * @exception IOException if the resources could not be listed
+   */
+  @Override
+  public Set<String> list(final String relativeTo, final String path, final boolean includeFiles, final boolean includeDirectories, final boolean recursive) throws IOException {
+    return this.delegate.list(relativeTo, path, includeFiles, includeDirectories, recursive);
+  }
+
+  /**
+   * Returns the result of calling the {@link
+   * ResourceAccessor#toClassLoader()} method on the {@link
+   * ResourceAccessor} supplied at construction time.
+   *
+   * @return a {@link ClassLoader}, or {@code null}
+   */
+  @Override
+  public ClassLoader toClassLoader() {
+    return this.delegate.toClassLoader();
+  }
+
+  /**
+   * Returns the names of the resources opened so far, in the order in
+   * which they were first opened.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link List} of resource names
+   */
+  final List<String> getResourceNames() {
+    synchronized (this.resourceNames) {
+      return new ArrayList<String>(this.resourceNames);
+    }
+  }
+
+}
@@ -0,0 +1,372 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.net.URL;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import liquibase.exception.LiquibaseException;
+
+import liquibase.logging.LogFactory;
+import liquibase.logging.Logger;
+
+import org.dbunit.DatabaseUnitException;
+
+import org.dbunit.database.DatabaseConfig;
+import org.dbunit.database.DatabaseConnection;
+
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.xml.XmlDataSet;
+
+import org.dbunit.ext.h2.H2DataTypeFactory;
+
+import org.dbunit.operation.DatabaseOperation;
+
+/**
+ * A set of immutable reference tables&mdash;countries, currencies,
+ * product codes and the like&mdash;that is loaded into a shared,
+ * in-memory <a href="http://www.h2database.com/">H2</a> database once
+ * per JVM and {@linkplain #link(Connection) linked into} each test's
+ * database.
+ *
+ * <p>Reference data is declared as a Liquibase changelog that creates
+ * the reference tables and a dbUnit {@link XmlDataSet} that fills
+ * them, both found as classpath resources.  The first time the
+ * reference data is needed, the changelog is applied to the shared
+ * database and the data set is inserted into it.  Thereafter each
+ * test database receives one <a
+ * href="http://www.h2database.com/html/grammar.html#create_linked_table">read-only
+ * linked table</a> per table in the data set, which costs a few
+ * statements no matter how many rows the reference tables hold.  The
+ * per-test changelogs and data sets then need only concern themselves
+ * with mutable tables.</p>
+ *
+ * <p>H2 does not support foreign keys that refer to linked tables, so
+ * per-test changelogs must not declare foreign key constraints on
+ * reference tables.</p>
+ *
+ * <p>Instances of this class are obtained from the {@link
+ * #getInstance(String, String)} method, which returns the same
+ * instance for the same declaration for the life of the JVM.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ReferenceDataRule
+ */
+public final class ReferenceData {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The {@link ReferenceData} instances created so far, indexed by
+   * their declarations.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final ConcurrentMap<List<String>, ReferenceData> instances = new ConcurrentHashMap<List<String>, ReferenceData>();
+
+  /**
+   * The source of the identifiers that distinguish the names of the
+   * shared databases.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final AtomicLong instanceCounter = new AtomicLong();
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link Logger} to use for debugging and tracing purposes.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Logger logger;
+
+  /**
+   * The classpath resource name of the Liquibase changelog that
+   * creates the reference tables.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final String changeLogResourceName;
+
+  /**
+   * The classpath resource name of the dbUnit {@link XmlDataSet}
+   * holding the reference rows.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final String dataSetResourceName;
+
+  /**
+   * The JDBC URL of the shared database.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final String url;
+
+  /**
+   * The names of the reference tables, or {@code null} if the shared
+   * database has not yet been {@linkplain #load() loaded}.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private volatile List<String> tableNames;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ReferenceData}.
+   *
+   * @param changeLogResourceName the classpath resource name of the
+   * Liquibase changelog that creates the reference tables; must not
+   * be {@code null}
+   *
+   * @param dataSetResourceName the classpath resource name of the
+   * dbUnit {@link XmlDataSet} holding the reference rows; must not be
+   * {@code null}
+   */
+  private ReferenceData(final String changeLogResourceName, final String dataSetResourceName) {
+    super();
+    assert changeLogResourceName != null;
+    assert dataSetResourceName != null;
+    this.logger = LogFactory.getInstance().getLog("liquiunit");
+    assert this.logger != null;
+    this.changeLogResourceName = changeLogResourceName;
+    this.dataSetResourceName = dataSetResourceName;
+    this.url = "jdbc:h2:mem:liquiunit-reference-" + instanceCounter.incrementAndGet() + ";DB_CLOSE_DELAY=-1";
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the names of the reference tables, {@linkplain #load()
+   * loading} the shared database first if necessary.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, unmodifiable {@link List} of table
+   * names
+   *
+   * @exception SQLException if the shared database could not be
+   * loaded
+   */
+  public List<String> getTableNames() throws SQLException {
+    List<String> tableNames = this.tableNames;
+    if (tableNames == null) {
+      tableNames = this.load();
+    }
+    return tableNames;
+  }
+
+  /**
+   * Returns {@code true} if the shared database has been loaded.
+   *
+   * @return {@code true} if the shared database has been loaded
+   */
+  public boolean isLoaded() {
+    return this.tableNames != null;
+  }
+
+  /**
+   * Creates a read-only linked table in the H2 database reachable via
+   * the supplied {@link Connection} for every reference table that it
+   * does not already have, {@linkplain #load() loading} the shared
+   * database first if necessary.
+   *
+   * @param c a {@link Connection} to an H2 database; must not be
+   * {@code null}
+   *
+   * @exception IllegalArgumentException if {@code c} is {@code null}
+   *
+   * @exception SQLException if a database error occurs
+   */
+  public void link(final Connection c) throws SQLException {
+    if (c == null) {
+      throw new IllegalArgumentException("c", new NullPointerException("c"));
+    }
+    final List<String> tableNames = this.getTableNames();
+    final Statement s = c.createStatement();
+    try {
+      for (final String tableName : tableNames) {
+        s.execute("CREATE LINKED TABLE IF NOT EXISTS " + tableName + "('org.h2.Driver', '" + this.url + "', 'sa', '', '" + tableName + "') READONLY");
+      }
+    } finally {
+      try {
+        s.close();
+      } catch (final SQLException ignore) {
+
+      }
+    }
+  }
+
+  /**
+   * Applies the changelog to the shared database and inserts the data
+   * set into it, unless that has already happened.
+   *
+   * @return the names of the reference tables; never {@code null}
+   *
+   * @exception SQLException if a database error occurs, or if the
+   * changelog or data set could not be applied
+   */
+  private synchronized final List<String> load() throws SQLException {
+    if (this.tableNames != null) {
+      return this.tableNames;
+    }
+    this.logger.debug("Loading reference data from " + this.changeLogResourceName + " and " + this.dataSetResourceName);
+    final DriverManagerDataSource dataSource = new DriverManagerDataSource(this.url, "sa", "");
+    final LiquiunitRule liquiunit = new LiquiunitRule(dataSource);
+    liquiunit.setChangeLogResourceNames(Collections.singleton(this.changeLogResourceName));
+    try {
+      liquiunit.before();
+    } catch (final LiquibaseException oops) {
+      throw new SQLException(oops);
+    }
+    final URL dataSetUrl = ResourceIndex.getInstance().getResource(this.dataSetResourceName);
+    if (dataSetUrl == null) {
+      throw new SQLException("No such data set: " + this.dataSetResourceName);
+    }
+    final List<String> tableNames;
+    final Connection c = dataSource.getConnection();
+    try {
+      final InputStream stream = dataSetUrl.openStream();
+      try {
+        final IDataSet dataSet = new XmlDataSet(stream);
+        final DatabaseConnection connection = new DatabaseConnection(c);
+        connection.getConfig().setProperty(DatabaseConfig.PROPERTY_DATATYPE_FACTORY, new H2DataTypeFactory());
+        DatabaseOperation.CLEAN_INSERT.execute(connection, dataSet);
+        tableNames = Collections.unmodifiableList(Arrays.asList(dataSet.getTableNames()));
+      } finally {
+        stream.close();
+      }
+    } catch (final IOException oops) {
+      throw new SQLException(oops);
+    } catch (final DatabaseUnitException oops) {
+      throw new SQLException(oops);
+    } finally {
+      c.close();
+    }
+    this.tableNames = tableNames;
+    return tableNames;
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * ReferenceData}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  @Override
+  public String toString() {
+    return "ReferenceData[changeLog=" + this.changeLogResourceName + ", dataSet=" + this.dataSetResourceName + ", tables=" + this.tableNames + "]";
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns the {@link ReferenceData} declared by the supplied
+   * changelog and data set, creating it if this is the first request
+   * for it in the current JVM.
+   *
+   * <p>The shared database is not loaded until it is first
+   * needed.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param changeLogResourceName the classpath resource name of the
+   * Liquibase changelog that creates the reference tables; must not
+   * be {@code null}
+   *
+   * @param dataSetResourceName the classpath resource name of the
+   * dbUnit {@link XmlDataSet} holding the reference rows; must not be
+   * {@code null}
+   *
+   * @return a non-{@code null} {@link ReferenceData}
+   *
+   * @exception IllegalArgumentException if either parameter is {@code
+   * null}
+   */
+  public static final ReferenceData getInstance(final String changeLogResourceName, final String dataSetResourceName) {
+    if (changeLogResourceName == null) {
+      throw new IllegalArgumentException("changeLogResourceName", new NullPointerException("changeLogResourceName"));
+    } else if (dataSetResourceName == null) {
+      throw new IllegalArgumentException("dataSetResourceName", new NullPointerException("dataSetResourceName"));
+    }
+    final List<String> key = Arrays.asList(changeLogResourceName, dataSetResourceName);
+    ReferenceData referenceData = instances.get(key);
+    if (referenceData == null) {
+      referenceData = new ReferenceData(changeLogResourceName, dataSetResourceName);
+      final ReferenceData old = instances.putIfAbsent(key, referenceData);
+      if (old != null) {
+        referenceData = old;
+      }
+    }
+    return referenceData;
+  }
+
+}
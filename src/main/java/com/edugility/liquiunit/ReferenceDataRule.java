@@ -0,0 +1,119 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.junit.rules.ExternalResource;
+
+/**
+ * An {@link ExternalResource} that {@linkplain
+ * ReferenceData#link(Connection) links} shared, read-only {@link
+ * ReferenceData} into the H2 database reachable through a {@link
+ * DataSource} before each test.
+ *
+ * <p>A {@link ReferenceDataRule} belongs just inside an {@link
+ * H2Rule} in a {@link org.junit.rules.RuleChain}, so that the
+ * reference tables exist before the per-test changelogs and data sets
+ * are applied:</p>
+ *
+ * <blockquote><pre>final H2Rule h2 = new H2Rule();
+ *final TestRule rule = RuleChain.outerRule(h2)
+ *  .around(new ReferenceDataRule(h2, ReferenceData.getInstance("reference-changelog.xml", "reference-data.xml")))
+ *  .around(new LiquiunitRule(h2))
+ *  .around(new DataSourceDatabaseTesterRule(h2));</pre></blockquote>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ReferenceData
+ */
+public class ReferenceDataRule extends ExternalResource {
+
+  /**
+   * The {@link DataSource} through which the test database is
+   * reached.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final DataSource dataSource;
+
+  /**
+   * The {@link ReferenceData} to link.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ReferenceData referenceData;
+
+  /**
+   * Creates a new {@link ReferenceDataRule}.
+   *
+   * @param dataSource the {@link DataSource} through which the test
+   * database is reached; must not be {@code null}
+   *
+   * @param referenceData the {@link ReferenceData} to link; must not
+   * be {@code null}
+   *
+   * @exception IllegalArgumentException if either parameter is {@code
+   * null}
+   */
+  public ReferenceDataRule(final DataSource dataSource, final ReferenceData referenceData) {
+    super();
+    if (dataSource == null) {
+      throw new IllegalArgumentException("dataSource", new NullPointerException("dataSource"));
+    }
+    if (referenceData == null) {
+      throw new IllegalArgumentException("referenceData", new NullPointerException("referenceData"));
+    }
+    this.dataSource = dataSource;
+    this.referenceData = referenceData;
+  }
+
+  /**
+   * {@linkplain ReferenceData#link(Connection) Links} the {@link
+   * ReferenceData} supplied at construction time into the test
+   * database.
+   *
+   * @exception SQLException if a database error occurs
+   */
+  @Override
+  protected void before() throws SQLException {
+    final Connection c = this.dataSource.getConnection();
+    try {
+      this.referenceData.link(c);
+    } finally {
+      c.close();
+    }
+  }
+
+}
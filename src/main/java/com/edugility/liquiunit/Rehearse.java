@@ -0,0 +1,107 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares that the migration of the database used by a JUnit test
+ * class or method should be rehearsed against generated data at one
+ * or more scales, so that changesets that are fast on an empty
+ * database but slow on a populated one are found before they reach
+ * production.
+ *
+ * <p>This annotation has no effect by itself; it is honored by a
+ * {@link LiquiunitRule}.  For each {@linkplain #rows() scale}, in
+ * increasing order, the database is brought to the {@linkplain
+ * #value() tag} as it would be for {@link StartAtTag}, every table is
+ * populated with that many generated rows, and the remaining
+ * changesets are applied one at a time.  The elapsed time, the
+ * number of rows in the tables each changeset names, and the peak
+ * heap usage of the JVM while each changeset ran are logged and,
+ * optionally, {@linkplain #report() written to a file}, together with
+ * how each changeset's elapsed time grows with the number of rows.
+ * The test then runs against the database as the largest scale left
+ * it.</p>
+ *
+ * <p>Rehearsing at more than one scale requires an H2 database, since
+ * only an H2 database can be brought back to the tag cheaply.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see LiquiunitRule#getRehearsal()
+ */
+@Documented
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE, ElementType.METHOD })
+public @interface Rehearse {
+
+  /**
+   * The tag after which the database is populated; must not be
+   * {@code null}.
+   *
+   * @return the tag; never {@code null}
+   */
+  String value();
+
+  /**
+   * The numbers of rows to generate in every table, one rehearsal per
+   * number; each must be greater than zero.
+   *
+   * @return a non-{@code null}, non-empty array of row counts
+   */
+  long[] rows() default { 1000L, 10000L };
+
+  /**
+   * The number of rows to which each changeset's elapsed time should
+   * be extrapolated, or {@code 0} if it should not be.
+   *
+   * <p>Extrapolation requires at least two {@linkplain #rows()
+   * scales}.</p>
+   *
+   * @return a non-negative number of rows
+   */
+  long extrapolateTo() default 0L;
+
+  /**
+   * The name of a file to which the measurements should be written as
+   * comma-separated values, or the empty string if they should only
+   * be logged.
+   *
+   * @return the name of a report file; never {@code null}
+   */
+  String report() default "";
+
+}
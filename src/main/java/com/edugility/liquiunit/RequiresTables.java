@@ -0,0 +1,91 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares the tables that a JUnit test class or method needs, so
+ * that only the changesets needed to create and populate them are
+ * applied to its database.
+ *
+ * <p>This annotation has no effect by itself; it is honored by a
+ * {@link LiquiunitRule}, which applies the changesets naming any of
+ * the declared tables, the tables named in the test's dbUnit
+ * {@linkplain DataSourceDatabaseTesterRule#getDataSet(org.junit.runner.Description)
+ * dataset} and the tables of the entities in a JPA persistence unit,
+ * together with the changesets creating the tables those tables'
+ * foreign keys refer to, and skips the rest.  A test class or method
+ * that is not annotated with {@link RequiresTables} has every
+ * changeset applied.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see LiquiunitRule#getRequiredTables()
+ *
+ * @see PartialSchema
+ */
+@Documented
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE, ElementType.METHOD })
+public @interface RequiresTables {
+
+  /**
+   * The names of the tables the annotated element needs, in any case.
+   *
+   * @return the table names; never {@code null}
+   */
+  String[] value() default {};
+
+  /**
+   * Whether the tables named in the dbUnit dataset that a {@link
+   * DataSourceDatabaseTesterRule} would load for the annotated
+   * element are needed as well.
+   *
+   * @return {@code true} if the dataset's tables are needed
+   */
+  boolean dataSet() default true;
+
+  /**
+   * The name of a JPA persistence unit whose entities' tables are
+   * needed as well, or the empty {@link String} if there is none.
+   *
+   * @return the persistence unit name; never {@code null}
+   *
+   * @see JPARule
+   */
+  String persistenceUnit() default "";
+
+}
@@ -0,0 +1,276 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.lang.ref.WeakReference;
+
+import java.net.URL;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A per-{@link ClassLoader} index of classpath resources that answers
+ * {@linkplain #exists(String) existence checks}, {@linkplain
+ * #getResource(String) lookups} and {@linkplain #openStream(String)
+ * stream requests} for a given resource name by consulting its {@link
+ * ClassLoader} at most once.
+ *
+ * <p>Each name's {@link URL} is recorded the first time it is sought,
+ * and so is its absence: names that are probed for but never
+ * found&mdash;such as the per-test-method {@linkplain
+ * DataSourceDatabaseTesterRule#getDataSet(org.junit.runner.Description)
+ * dataset} names most tests do not use&mdash;are answered from the
+ * index from then on instead of causing the {@link ClassLoader} to
+ * search every jar file on the classpath again.  A resource that is
+ * added to the classpath after it has been sought is therefore not
+ * seen.</p>
+ *
+ * <p>One {@link ResourceIndex} is {@linkplain
+ * #getInstance(ClassLoader) shared} by every rule using a given
+ * {@link ClassLoader}.  It does not prevent that {@link ClassLoader}
+ * from being garbage collected.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ */
+final class ResourceIndex {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The {@link ResourceIndex} instances, indexed by {@link
+   * ClassLoader}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final Map<ClassLoader, ResourceIndex> instances = new WeakHashMap<ClassLoader, ResourceIndex>();
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link ClassLoader} whose resources this {@link ResourceIndex}
+   * indexes.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final WeakReference<ClassLoader> classLoader;
+
+  /**
+   * The {@link URL}s of the resources found so far, indexed by name.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ConcurrentMap<String, URL> found;
+
+  /**
+   * The names of the resources sought so far but not found.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Set<String> missing;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ResourceIndex}.
+   *
+   * @param classLoader the {@link ClassLoader} whose resources will
+   * be indexed; must not be {@code null}
+   */
+  private ResourceIndex(final ClassLoader classLoader) {
+    super();
+    assert classLoader != null;
+    this.classLoader = new WeakReference<ClassLoader>(classLoader);
+    this.found = new ConcurrentHashMap<String, URL>();
+    this.missing = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the {@link URL} of the {@linkplain
+   * ClassLoader#getResource(String) classpath resource} with the
+   * supplied name, or {@code null} if there is no such resource.
+   *
+   * @param name the name of the resource; may be {@code null} in
+   * which case {@code null} will be returned
+   *
+   * @return a {@link URL}, or {@code null}
+   */
+  final URL getResource(final String name) {
+    if (name == null || this.missing.contains(name)) {
+      return null;
+    }
+    URL returnValue = this.found.get(name);
+    if (returnValue == null) {
+      final ClassLoader classLoader = this.classLoader.get();
+      if (classLoader != null) {
+        returnValue = classLoader.getResource(name);
+        if (returnValue == null) {
+          this.missing.add(name);
+        } else {
+          this.found.putIfAbsent(name, returnValue);
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns {@code true} if there is a {@linkplain
+   * ClassLoader#getResource(String) classpath resource} with the
+   * supplied name.
+   *
+   * @param name the name of the resource; may be {@code null} in
+   * which case {@code false} will be returned
+   *
+   * @return {@code true} if the resource exists
+   */
+  final boolean exists(final String name) {
+    return this.getResource(name) != null;
+  }
+
+  /**
+   * Opens and returns an {@link InputStream} reading the {@linkplain
+   * ClassLoader#getResource(String) classpath resource} with the
+   * supplied name, or returns {@code null} if there is no such
+   * resource.
+   *
+   * <p>The caller is responsible for closing the returned {@link
+   * InputStream}.</p>
+   *
+   * @param name the name of the resource; may be {@code null} in
+   * which case {@code null} will be returned
+   *
+   * @return an open {@link InputStream}, or {@code null}
+   *
+   * @exception IOException if the resource could not be opened
+   */
+  final InputStream openStream(final String name) throws IOException {
+    final URL url = this.getResource(name);
+    return url == null ? null : url.openStream();
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * ResourceIndex}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  @Override
+  public String toString() {
+    return "ResourceIndex[classLoader=" + this.classLoader.get() + ", found=" + this.found.size() + ", missing=" + this.missing.size() + "]";
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns the {@link ResourceIndex} for the current thread's
+   * {@linkplain Thread#getContextClassLoader() context
+   * <code>ClassLoader</code>}, falling back to the {@linkplain
+   * ClassLoader#getSystemClassLoader() system
+   * <code>ClassLoader</code>} and then to the {@link ClassLoader} that
+   * loaded this class.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link ResourceIndex}
+   */
+  static final ResourceIndex getInstance() {
+    ClassLoader cl = Thread.currentThread().getContextClassLoader();
+    if (cl == null) {
+      cl = ClassLoader.getSystemClassLoader();
+      if (cl == null) {
+        cl = ResourceIndex.class.getClassLoader();
+      }
+    }
+    return getInstance(cl);
+  }
+
+  /**
+   * Returns the {@link ResourceIndex} for the supplied {@link
+   * ClassLoader}, creating it if necessary.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param classLoader the {@link ClassLoader}; must not be {@code
+   * null}
+   *
+   * @return a non-{@code null} {@link ResourceIndex}
+   *
+   * @exception IllegalArgumentException if {@code classLoader} is
+   * {@code null}
+   */
+  static final ResourceIndex getInstance(final ClassLoader classLoader) {
+    if (classLoader == null) {
+      throw new IllegalArgumentException("classLoader", new NullPointerException("classLoader"));
+    }
+    synchronized (instances) {
+      ResourceIndex returnValue = instances.get(classLoader);
+      if (returnValue == null) {
+        returnValue = new ResourceIndex(classLoader);
+        instances.put(classLoader, returnValue);
+      }
+      return returnValue;
+    }
+  }
+
+}
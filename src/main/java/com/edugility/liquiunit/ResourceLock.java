@@ -0,0 +1,120 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares that a JUnit test class or method uses one or more shared
+ * resources, identified by name, and whether it only reads them or
+ * also modifies them.
+ *
+ * <p>This annotation has no effect by itself; it is honored by a
+ * {@link ResourceLockRule}, which holds the named locks for the
+ * duration of the annotated test or test class.  Tests that only
+ * {@linkplain Mode#READ read} a resource may run concurrently with
+ * each other; a test that {@linkplain Mode#READ_WRITE modifies} it
+ * runs alone.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ResourceLockRule
+ */
+@Documented
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE, ElementType.METHOD })
+public @interface ResourceLock {
+
+  /**
+   * The name of the resource representing the {@linkplain
+   * System#getProperties() system properties}.
+   */
+  public static final String SYSTEM_PROPERTIES = "java.lang.System.properties";
+
+  /**
+   * The name of the resource representing the {@linkplain
+   * System#out standard output} and {@linkplain System#err standard
+   * error} streams.
+   */
+  public static final String SYSTEM_OUT = "java.lang.System.out";
+
+  /**
+   * The name of the resource representing the {@linkplain
+   * H2Server#getInstance() default} {@link H2Server} hosted by this
+   * JVM.
+   */
+  public static final String H2_SERVER = "com.edugility.liquiunit.H2Server";
+
+  /**
+   * The names of the resources used by the annotated element; must
+   * not be {@code null}.
+   *
+   * @return the names of the resources used by the annotated
+   * element; never {@code null}
+   */
+  String[] value();
+
+  /**
+   * How the annotated element uses the {@linkplain #value() named
+   * resources}.
+   *
+   * @return the {@link Mode} in which the named resources are used;
+   * never {@code null}
+   */
+  Mode mode() default Mode.READ_WRITE;
+
+  /**
+   * The ways in which a test may use a shared resource.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  public static enum Mode {
+
+    /**
+     * The resource is only read, and may be shared with other tests
+     * that only read it.
+     */
+    READ,
+
+    /**
+     * The resource is modified, and may not be shared with any other
+     * test.
+     */
+    READ_WRITE
+
+  }
+
+}
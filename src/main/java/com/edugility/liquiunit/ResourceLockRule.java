@@ -0,0 +1,368 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.junit.rules.TestRule;
+
+import org.junit.runner.Description;
+
+import org.junit.runners.model.Statement;
+
+/**
+ * A {@link TestRule} that holds the JVM-wide locks guarding named
+ * shared resources for the duration of a test or test class, so that
+ * tests run in parallel (for example with a {@link
+ * org.junit.experimental.ParallelComputer} or with Maven Surefire's
+ * {@code parallel} setting) do not interfere with each other through
+ * those resources.
+ *
+ * <p>The resources a test uses are declared with the {@link
+ * ResourceLock} annotations on the test class and on the test method,
+ * together with any resources {@linkplain
+ * #ResourceLockRule(ResourceLock.Mode, String...) supplied at
+ * construction time}, which apply to every test the rule wraps.  All
+ * of them are merged into one set, and each {@link ResourceLockRule}
+ * acquires that set in the natural order of the resource names, so
+ * two tests wrapped by single {@link ResourceLockRule}s cannot
+ * deadlock by acquiring the same locks in different orders.</p>
+ *
+ * <p>That guarantee does not extend to locks acquired by several
+ * {@link ResourceLockRule}s nested around the same test, each of
+ * which acquires its own set in order, nor to locks held by one
+ * thread while another thread that works on its behalf waits for
+ * them.  Declare every resource a test needs to one {@link
+ * ResourceLockRule}.  A thread that holds a resource in {@linkplain
+ * ResourceLock.Mode#READ read} mode cannot later acquire it in
+ * {@linkplain ResourceLock.Mode#READ_WRITE read-write} mode, since
+ * it would wait for itself; a {@link ResourceLockRule} that is asked
+ * to do so fails the test with an {@link IllegalStateException}
+ * instead.</p>
+ *
+ * <p>A {@link ResourceLockRule} used as a {@link org.junit.ClassRule
+ * ClassRule} honors the {@link ResourceLock} annotation on the test
+ * class and holds its locks while the whole class runs; used as a
+ * {@link org.junit.Rule Rule}, it holds the locks named on the test
+ * class and the test method while each test method runs.  Because
+ * JUnit may run the methods of a class on threads other than the one
+ * that ran the class, a class should use one or the other, not
+ * both.</p>
+ *
+ * <p>A {@link ResourceLockRule} is normally the outermost rule in a
+ * {@link org.junit.rules.RuleChain}, so that the locks are held
+ * while the other rules set up and tear down their resources:</p>
+ *
+ * <blockquote><pre>&#64;Rule
+ *public final TestRule rule = RuleChain.outerRule(new ResourceLockRule()).around(h2).around(liquibase);</pre></blockquote>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ResourceLock
+ */
+public class ResourceLockRule implements TestRule {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The {@link ReadWriteLock}s guarding each named resource, indexed
+   * by resource name.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final ConcurrentMap<String, ReadWriteLock> locks = new ConcurrentHashMap<String, ReadWriteLock>();
+
+  /**
+   * The {@linkplain ResourceLock.Mode modes} in which the current
+   * {@link Thread} holds resources by way of any {@link
+   * ResourceLockRule}, indexed by resource name.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final ThreadLocal<Map<String, ResourceLock.Mode>> held = new ThreadLocal<Map<String, ResourceLock.Mode>>() {
+      @Override
+      protected final Map<String, ResourceLock.Mode> initialValue() {
+        return new HashMap<String, ResourceLock.Mode>();
+      }
+    };
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The resources used by every test this {@link ResourceLockRule}
+   * wraps, indexed by resource name.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final SortedMap<String, ResourceLock.Mode> defaultResources;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ResourceLockRule} that honors only {@link
+   * ResourceLock} annotations.
+   */
+  public ResourceLockRule() {
+    this(ResourceLock.Mode.READ_WRITE);
+  }
+
+  /**
+   * Creates a new {@link ResourceLockRule} that, in addition to
+   * honoring {@link ResourceLock} annotations, locks the named
+   * resources in the supplied {@link ResourceLock.Mode} for every test
+   * it wraps.
+   *
+   * @param mode the {@link ResourceLock.Mode} in which the named
+   * resources are used; must not be {@code null}
+   *
+   * @param resourceNames the names of the resources; may be {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code mode} is {@code
+   * null}
+   */
+  public ResourceLockRule(final ResourceLock.Mode mode, final String... resourceNames) {
+    super();
+    if (mode == null) {
+      throw new IllegalArgumentException("mode", new NullPointerException("mode"));
+    }
+    final SortedMap<String, ResourceLock.Mode> defaultResources = new TreeMap<String, ResourceLock.Mode>();
+    add(defaultResources, mode, resourceNames);
+    this.defaultResources = Collections.unmodifiableSortedMap(defaultResources);
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns a {@link Statement} that acquires the locks guarding the
+   * resources {@linkplain #getResources(Description) used} by the
+   * test described by the supplied {@link Description}, evaluates the
+   * supplied {@link Statement} and releases them.
+   *
+   * <p>If the test uses no resources, the supplied {@link Statement}
+   * is returned unchanged.  If the current {@link Thread} already
+   * holds one of the resources in {@linkplain ResourceLock.Mode#READ
+   * read} mode and the test needs it in {@linkplain
+   * ResourceLock.Mode#READ_WRITE read-write} mode, the returned {@link
+   * Statement} throws an {@link IllegalStateException} without
+   * acquiring any locks or evaluating the supplied {@link
+   * Statement}.</p>
+   *
+   * @param base the {@link Statement} to decorate; must not be {@code
+   * null}
+   *
+   * @param description the {@link Description} describing the test;
+   * may be {@code null}
+   *
+   * @return a {@link Statement}
+   */
+  @Override
+  public Statement apply(final Statement base, final Description description) {
+    final SortedMap<String, ResourceLock.Mode> resources = this.getResources(description);
+    if (resources == null || resources.isEmpty()) {
+      return base;
+    }
+    return new Statement() {
+      @Override
+      public final void evaluate() throws Throwable {
+        final Map<String, ResourceLock.Mode> heldModes = held.get();
+        assert heldModes != null;
+        for (final Entry<String, ResourceLock.Mode> entry : resources.entrySet()) {
+          if (ResourceLock.Mode.READ_WRITE.equals(entry.getValue()) && ResourceLock.Mode.READ.equals(heldModes.get(entry.getKey()))) {
+            throw new IllegalStateException("The current thread holds resource " + entry.getKey() + " in READ mode and cannot upgrade it to READ_WRITE mode");
+          }
+        }
+        final List<Lock> acquired = new ArrayList<Lock>(resources.size());
+        final List<String> newlyHeld = new ArrayList<String>(resources.size());
+        try {
+          for (final Entry<String, ResourceLock.Mode> entry : resources.entrySet()) {
+            final String name = entry.getKey();
+            final ReadWriteLock rwLock = getLock(name);
+            final Lock lock = ResourceLock.Mode.READ.equals(entry.getValue()) ? rwLock.readLock() : rwLock.writeLock();
+            lock.lockInterruptibly();
+            acquired.add(lock);
+            if (!heldModes.containsKey(name)) {
+              heldModes.put(name, entry.getValue());
+              newlyHeld.add(name);
+            }
+          }
+          base.evaluate();
+        } finally {
+          for (final String name : newlyHeld) {
+            heldModes.remove(name);
+          }
+          for (int i = acquired.size() - 1; i >= 0; i--) {
+            acquired.get(i).unlock();
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns the resources used by the test described by the supplied
+   * {@link Description}, indexed by name and sorted in the order in
+   * which their locks will be acquired.
+   *
+   * <p>This implementation combines the resources supplied at
+   * construction time with those named by the {@link ResourceLock}
+   * annotation on the test class and, if the {@link Description}
+   * describes a test method, by the one on the test method.  If a
+   * resource is named more than once, {@link
+   * ResourceLock.Mode#READ_WRITE} takes precedence.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param description the {@link Description} describing the test;
+   * may be {@code null}
+   *
+   * @return a non-{@code null} {@link SortedMap} of resource names
+   * and the {@linkplain ResourceLock.Mode modes} in which they are
+   * used
+   */
+  protected SortedMap<String, ResourceLock.Mode> getResources(final Description description) {
+    final SortedMap<String, ResourceLock.Mode> returnValue = new TreeMap<String, ResourceLock.Mode>(this.defaultResources);
+    if (description != null) {
+      final Class<?> testClass = description.getTestClass();
+      if (testClass != null) {
+        add(returnValue, testClass.getAnnotation(ResourceLock.class));
+      }
+      if (description.getMethodName() != null) {
+        add(returnValue, description.getAnnotation(ResourceLock.class));
+      }
+    }
+    return returnValue;
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Adds the resources named by the supplied {@link ResourceLock} to
+   * the supplied {@link Map}, letting {@link
+   * ResourceLock.Mode#READ_WRITE} take precedence over {@link
+   * ResourceLock.Mode#READ} for names already present.
+   *
+   * @param resources the {@link Map} to add to; must not be {@code
+   * null}
+   *
+   * @param annotation the {@link ResourceLock}; may be {@code null}
+   */
+  private static final void add(final Map<String, ResourceLock.Mode> resources, final ResourceLock annotation) {
+    assert resources != null;
+    if (annotation != null) {
+      add(resources, annotation.mode(), annotation.value());
+    }
+  }
+
+  /**
+   * Adds the supplied resource names to the supplied {@link Map},
+   * letting {@link ResourceLock.Mode#READ_WRITE} take precedence over
+   * {@link ResourceLock.Mode#READ} for names already present.
+   *
+   * @param resources the {@link Map} to add to; must not be {@code
+   * null}
+   *
+   * @param mode the {@link ResourceLock.Mode} in which the named
+   * resources are used; must not be {@code null}
+   *
+   * @param resourceNames the names of the resources; may be {@code
+   * null}
+   */
+  private static final void add(final Map<String, ResourceLock.Mode> resources, final ResourceLock.Mode mode, final String... resourceNames) {
+    assert resources != null;
+    assert mode != null;
+    if (resourceNames != null) {
+      for (final String name : resourceNames) {
+        if (name != null && !ResourceLock.Mode.READ_WRITE.equals(resources.get(name))) {
+          resources.put(name, mode);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the JVM-wide {@link ReadWriteLock} guarding the named
+   * resource, creating it if necessary.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param name the name of the resource; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link ReadWriteLock}
+   */
+  private static final ReadWriteLock getLock(final String name) {
+    assert name != null;
+    ReadWriteLock lock = locks.get(name);
+    if (lock == null) {
+      lock = new ReentrantReadWriteLock();
+      final ReadWriteLock old = locks.putIfAbsent(name, lock);
+      if (old != null) {
+        lock = old;
+      }
+    }
+    return lock;
+  }
+
+}
@@ -0,0 +1,434 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import java.util.concurrent.TimeUnit;
+
+import liquibase.Contexts;
+import liquibase.LabelExpression;
+import liquibase.Liquibase;
+
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+
+import liquibase.changelog.visitor.ChangeExecListener;
+
+import liquibase.database.Database;
+
+import liquibase.exception.LiquibaseException;
+
+
+/**
+ * Applies the unrun changesets of a {@link Liquibase} changelog one
+ * at a time, {@linkplain ChangeSet#rollback(Database) rolling back}
+ * and reapplying each one as soon as it has been applied, and times
+ * each direction.
+ *
+ * <p>Because each changeset is rolled back from, and reapplied to, a
+ * database on which all changesets before it have already been
+ * applied, the whole pass costs roughly three migrations rather than
+ * one migration per changeset.  Before each changeset is applied, the
+ * {@linkplain #describeSchema(Database, Connection) tables and columns}
+ * of the database are noted, and after it is rolled back they are
+ * compared with what was noted, so that a rollback that does not undo
+ * its changeset is caught.</p>
+ *
+ * <p>A changeset whose changes cannot be rolled back and which
+ * supplies no rollback of its own, a rollback that does not restore
+ * the tables and columns, and a rollback that takes longer than a
+ * threshold are all {@linkplain Result#getProblem() problems}.  A
+ * changeset that does not actually run, because a precondition
+ * marked it as ran, is not rolled back.</p>
+ *
+ * <p>This class is safe for use by multiple threads, provided that
+ * they do not share a database.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see LiquiunitRule#setVerifyingRollbacks(boolean)
+ */
+final class RollbackRoundTrip {
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link RollbackRoundTrip}.
+   */
+  private RollbackRoundTrip() {
+    super();
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Applies, rolls back and reapplies each unrun changeset of the
+   * supplied {@link Liquibase} instance's changelog in turn, and
+   * returns a {@link Result} for each.
+   *
+   * <p>When this method returns normally, every changeset has been
+   * applied, whatever problems were found, except that a changeset
+   * whose rollback did not restore the tables and columns is merely
+   * recorded as applied again rather than reapplied.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param liquibase the {@link Liquibase} instance whose changelog
+   * should be applied; must not be {@code null}
+   *
+   * @param c the {@link Connection} to the database that the {@link
+   * Liquibase} instance's {@link Database} reaches, through which its
+   * tables and columns are described; must not be {@code null}
+   *
+   * @param listener the {@link ChangeExecListener} to notify as
+   * changesets are applied; may be {@code null}
+   *
+   * @param contexts the {@link Contexts} to apply; may be {@code null}
+   *
+   * @param labelExpression the {@link LabelExpression} to apply; may
+   * be {@code null}
+   *
+   * @param thresholdMillis the longest, in milliseconds, that any
+   * rollback may take; must not be negative
+   *
+   * @return a non-{@code null} {@link List} of {@link Result}s, one
+   * per changeset, in the order in which the changesets were applied
+   *
+   * @exception LiquibaseException if a changeset or its rollback
+   * failed
+   *
+   * @exception SQLException if the database could not be described
+   */
+  static final List<Result> verify(final Liquibase liquibase, final Connection c, final ChangeExecListener listener, final Contexts contexts, final LabelExpression labelExpression, final long thresholdMillis) throws LiquibaseException, SQLException {
+    assert liquibase != null;
+    assert c != null;
+    assert thresholdMillis >= 0L;
+    return LockedUpdate.run(liquibase, contexts, labelExpression, new LockedUpdate.Pass<List<Result>>() {
+        @Override
+        public final List<Result> apply(final List<ChangeSet> changeSets, final DatabaseChangeLog changeLog, final Database database) throws LiquibaseException, SQLException {
+          final List<Result> results = new ArrayList<Result>(changeSets.size());
+          for (final ChangeSet changeSet : changeSets) {
+            final String name = changeSet.toString(false);
+            final SortedSet<String> before = describeSchema(database, c);
+
+            long start = System.nanoTime();
+            final ChangeSet.ExecType execType = RollbackRoundTrip.apply(changeSet, changeLog, database, listener);
+            final long applyNanos = System.nanoTime() - start;
+
+            if (!ChangeSet.ExecType.EXECUTED.equals(execType)) {
+              results.add(new Result(name, applyNanos, -1L, -1L, null));
+            } else if (!changeSet.supportsRollback(database)) {
+              results.add(new Result(name, applyNanos, -1L, -1L, "has no rollback"));
+            } else {
+              start = System.nanoTime();
+              changeSet.rollback(database);
+              database.removeRanStatus(changeSet);
+              database.commit();
+              final long rollbackNanos = System.nanoTime() - start;
+
+              final SortedSet<String> after = describeSchema(database, c);
+              if (!before.equals(after)) {
+                final SortedSet<String> missing = new TreeSet<String>(before);
+                missing.removeAll(after);
+                final SortedSet<String> extra = new TreeSet<String>(after);
+                extra.removeAll(before);
+                // Reapplying would most likely fail on what the
+                // rollback left behind, so just record the changeset
+                // as ran again.
+                database.markChangeSetExecStatus(changeSet, ChangeSet.ExecType.EXECUTED);
+                database.commit();
+                results.add(new Result(name, applyNanos, rollbackNanos, -1L, "rollback did not restore the schema; missing: " + missing + "; left behind: " + extra));
+              } else {
+                final String problem;
+                if (rollbackNanos > TimeUnit.MILLISECONDS.toNanos(thresholdMillis)) {
+                  problem = "rollback took " + millis(rollbackNanos) + " ms, more than the threshold of " + thresholdMillis + " ms";
+                } else {
+                  problem = null;
+                }
+                start = System.nanoTime();
+                RollbackRoundTrip.apply(changeSet, changeLog, database, listener);
+                results.add(new Result(name, applyNanos, rollbackNanos, System.nanoTime() - start, problem));
+              }
+            }
+          }
+          return results;
+        }
+      });
+  }
+
+  /**
+   * {@linkplain ParallelUpdate#execute(ChangeSet, ChangeSet.RunStatus,
+   * DatabaseChangeLog, Database, ChangeExecListener) Executes} the
+   * supplied {@link ChangeSet} and records its execution in the
+   * changelog history.
+   *
+   * @param changeSet the {@link ChangeSet}; must not be {@code null}
+   *
+   * @param changeLog the {@link DatabaseChangeLog} to which it
+   * belongs; must not be {@code null}
+   *
+   * @param database the {@link Database}; must not be {@code null}
+   *
+   * @param listener the {@link ChangeExecListener} to notify; may be
+   * {@code null}
+   *
+   * @return the {@link ChangeSet.ExecType} describing the outcome;
+   * never {@code null}
+   *
+   * @exception LiquibaseException if the {@link ChangeSet} failed
+   */
+  static final ChangeSet.ExecType apply(final ChangeSet changeSet, final DatabaseChangeLog changeLog, final Database database, final ChangeExecListener listener) throws LiquibaseException {
+    assert changeSet != null;
+    assert database != null;
+    final ChangeSet.RunStatus runStatus = database.getRunStatus(changeSet);
+    final ChangeSet.ExecType execType = ParallelUpdate.execute(changeSet, runStatus, changeLog, database, listener);
+    database.markChangeSetExecStatus(changeSet, ChangeSet.RunStatus.NOT_RAN.equals(runStatus) ? execType : ChangeSet.ExecType.RERAN);
+    database.commit();
+    return execType;
+  }
+
+  /**
+   * Returns a description of the tables and columns, other than
+   * Liquibase's own, in the supplied {@link Database}'s default
+   * schema, one {@link String} per column.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param database the {@link Database}; must not be {@code null}
+   *
+   * @param c a {@link Connection} to the same database; must not be
+   * {@code null}
+   *
+   * @return a non-{@code null} {@link SortedSet} of column
+   * descriptions
+   *
+   * @exception SQLException if the database could not be described
+   */
+  static final SortedSet<String> describeSchema(final Database database, final Connection c) throws SQLException {
+    assert database != null;
+    assert c != null;
+    final String changeLogTableName = database.getDatabaseChangeLogTableName();
+    final String lockTableName = database.getDatabaseChangeLogLockTableName();
+    final SortedSet<String> returnValue = new TreeSet<String>();
+    final DatabaseMetaData metaData = c.getMetaData();
+    final ResultSet rs = metaData.getColumns(null, database.getDefaultSchemaName(), "%", "%");
+    try {
+      while (rs.next()) {
+        final String tableName = rs.getString("TABLE_NAME");
+        if (!tableName.equalsIgnoreCase(changeLogTableName) && !tableName.equalsIgnoreCase(lockTableName)) {
+          returnValue.add(tableName + "." + rs.getString("COLUMN_NAME") + " " + rs.getString("TYPE_NAME") + "(" + rs.getInt("COLUMN_SIZE") + ")" + (rs.getInt("NULLABLE") == DatabaseMetaData.columnNoNulls ? " NOT NULL" : ""));
+        }
+      }
+    } finally {
+      rs.close();
+    }
+    return returnValue;
+  }
+
+  /**
+   * Formats the supplied number of nanoseconds as milliseconds with
+   * three decimal places.
+   *
+   * @param nanos the number of nanoseconds
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  private static final String millis(final long nanos) {
+    return String.format(Locale.ROOT, "%.3f", Double.valueOf(nanos / 1000000.0));
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * The outcome of applying, rolling back and reapplying a single
+   * changeset.
+   *
+   * <p>This class is immutable and hence safe for use by multiple
+   * threads.</p>
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  static final class Result {
+
+    /**
+     * The changeset's <code><i>filePath</i>::<i>id</i>::<i>author</i></code>.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final String changeSet;
+
+    /**
+     * The time taken to apply the changeset, in nanoseconds.
+     */
+    private final long applyNanos;
+
+    /**
+     * The time taken to roll the changeset back, in nanoseconds, or
+     * {@code -1L} if it was not rolled back.
+     */
+    private final long rollbackNanos;
+
+    /**
+     * The time taken to reapply the changeset, in nanoseconds, or
+     * {@code -1L} if it was not reapplied.
+     */
+    private final long reapplyNanos;
+
+    /**
+     * A description of what was wrong with the changeset's rollback.
+     *
+     * <p>This field may be {@code null}.</p>
+     */
+    private final String problem;
+
+    /**
+     * Creates a new {@link Result}.
+     *
+     * @param changeSet the changeset's name; must not be {@code null}
+     *
+     * @param applyNanos the time taken to apply the changeset
+     *
+     * @param rollbackNanos the time taken to roll it back, or {@code
+     * -1L}
+     *
+     * @param reapplyNanos the time taken to reapply it, or {@code -1L}
+     *
+     * @param problem a description of what was wrong; may be {@code
+     * null}
+     */
+    private Result(final String changeSet, final long applyNanos, final long rollbackNanos, final long reapplyNanos, final String problem) {
+      super();
+      assert changeSet != null;
+      this.changeSet = changeSet;
+      this.applyNanos = applyNanos;
+      this.rollbackNanos = rollbackNanos;
+      this.reapplyNanos = reapplyNanos;
+      this.problem = problem;
+    }
+
+    /**
+     * Returns the changeset's
+     * <code><i>filePath</i>::<i>id</i>::<i>author</i></code>.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return the changeset's name
+     */
+    final String getChangeSet() {
+      return this.changeSet;
+    }
+
+    /**
+     * Returns the time taken to apply the changeset, in nanoseconds.
+     *
+     * @return the time taken to apply the changeset
+     */
+    final long getApplyNanos() {
+      return this.applyNanos;
+    }
+
+    /**
+     * Returns the time taken to roll the changeset back, in
+     * nanoseconds, or {@code -1L} if it was not rolled back.
+     *
+     * @return the time taken to roll the changeset back, or {@code
+     * -1L}
+     */
+    final long getRollbackNanos() {
+      return this.rollbackNanos;
+    }
+
+    /**
+     * Returns the time taken to reapply the changeset, in
+     * nanoseconds, or {@code -1L} if it was not reapplied.
+     *
+     * @return the time taken to reapply the changeset, or {@code -1L}
+     */
+    final long getReapplyNanos() {
+      return this.reapplyNanos;
+    }
+
+    /**
+     * Returns a description of what was wrong with the changeset's
+     * rollback, or {@code null} if nothing was.
+     *
+     * @return a description of the problem, or {@code null}
+     */
+    final String getProblem() {
+      return this.problem;
+    }
+
+    /**
+     * Returns a non-{@code null} {@link String} representation of
+     * this {@link Result}.
+     *
+     * @return a non-{@code null} {@link String}
+     */
+    @Override
+    public final String toString() {
+      final StringBuilder sb = new StringBuilder(this.changeSet);
+      sb.append(": applied in ").append(millis(this.applyNanos)).append(" ms");
+      if (this.rollbackNanos >= 0L) {
+        sb.append(", rolled back in ").append(millis(this.rollbackNanos)).append(" ms");
+      }
+      if (this.reapplyNanos >= 0L) {
+        sb.append(", reapplied in ").append(millis(this.reapplyNanos)).append(" ms");
+      }
+      if (this.problem != null) {
+        sb.append("; ").append(this.problem);
+      }
+      return sb.toString();
+    }
+
+  }
+
+}
@@ -0,0 +1,102 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Describes the Liquibase changelogs, contexts and labels with which the
+ * database used by a JUnit test class or method is prepared, so that
+ * tests sharing a prepared database can be {@linkplain
+ * SnapshotAffinitySuite run back to back}.
+ *
+ * <p>A {@link LiquiunitRule} prepares the database for an annotated
+ * test from the annotation's changelogs, contexts and labels, in
+ * place of those {@linkplain LiquiunitRule#setContexts(Iterable) set
+ * on it}, so a test is always given the database its {@link
+ * SnapshotKey} describes.</p>
+ *
+ * <p>A test class or method that is not annotated with {@link
+ * Snapshot} is assumed to use the {@linkplain
+ * LiquiunitRule#getChangeLogResourceNames() default changelogs}, no
+ * contexts and no labels.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see SnapshotKey
+ *
+ * @see SnapshotAffinitySuite
+ *
+ * @see LiquiunitRule#getSnapshot()
+ */
+@Documented
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE, ElementType.METHOD })
+public @interface Snapshot {
+
+  /**
+   * The {@linkplain ClassLoader#getResource(String) classpath
+   * resource names} of the changelogs applied to the database.
+   *
+   * @return the changelog resource names; never {@code null}
+   *
+   * @see LiquiunitRule#setChangeLogResourceNames(Iterable)
+   */
+  String[] changeLogs() default { "changelog.xml", "test-changelog.xml" };
+
+  /**
+   * The Liquibase <a
+   * href="http://www.liquibase.org/documentation/contexts.html">contexts</a>
+   * in effect when the changelogs are applied.
+   *
+   * @return the contexts; never {@code null}
+   *
+   * @see LiquiunitRule#setContexts(Iterable)
+   */
+  String[] contexts() default {};
+
+  /**
+   * The Liquibase <a
+   * href="http://www.liquibase.org/documentation/labels.html">label
+   * expression</a> in effect when the changelogs are applied.
+   *
+   * @return the label expression; never {@code null}; empty if
+   * changesets are not filtered by label
+   *
+   * @see LiquiunitRule#setLabelExpression(String)
+   */
+  String labels() default "";
+
+}
@@ -0,0 +1,68 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.util.Comparator;
+
+import org.junit.runner.Description;
+
+import org.junit.runner.manipulation.Sorter;
+
+/**
+ * A {@link Sorter} that orders JUnit tests and test classes by their
+ * {@link SnapshotKey}s, so that tests starting from the same prepared
+ * database state run back to back.
+ *
+ * <p>Tests with equal {@link SnapshotKey}s keep their relative
+ * order.  A {@link SnapshotAffinitySorter} may be applied to any
+ * {@link org.junit.runner.Request} with the {@link
+ * org.junit.runner.Request#sortWith(Comparator)} method; the {@link
+ * SnapshotAffinitySuite} runner applies one automatically.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see SnapshotKey
+ *
+ * @see SnapshotAffinitySuite
+ */
+public class SnapshotAffinitySorter extends Sorter {
+
+  /**
+   * Creates a new {@link SnapshotAffinitySorter}.
+   */
+  public SnapshotAffinitySorter() {
+    super(new Comparator<Description>() {
+        @Override
+        public final int compare(final Description a, final Description b) {
+          return SnapshotKey.forDescription(a).compareTo(SnapshotKey.forDescription(b));
+        }
+      });
+  }
+
+}
@@ -0,0 +1,119 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import org.junit.runner.notification.RunNotifier;
+
+import org.junit.runners.Suite;
+
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerBuilder;
+
+/**
+ * A {@link Suite} that runs its test classes, and the tests within
+ * them, grouped by {@link SnapshotKey}, so that tests starting from
+ * the same prepared database state run back to back and any {@link
+ * H2Archive} in use is reused rather than rebuilt.
+ *
+ * <p>Use it exactly as you would use {@link Suite}:</p>
+ *
+ * <blockquote><pre>&#64;RunWith(SnapshotAffinitySuite.class)
+ *&#64;SuiteClasses({ TestCaseA.class, TestCaseB.class })
+ *public class AllTests {}</pre></blockquote>
+ *
+ * <p>Each run is accompanied by a {@link SnapshotReuseReport}, which
+ * is logged when the run finishes and is available afterwards from
+ * the {@link #getReport()} method.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see Snapshot
+ *
+ * @see SnapshotAffinitySorter
+ *
+ * @see SnapshotReuseReport
+ */
+public class SnapshotAffinitySuite extends Suite {
+
+  /**
+   * The {@link SnapshotReuseReport} for the most recent run.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private volatile SnapshotReuseReport report;
+
+  /**
+   * Creates a new {@link SnapshotAffinitySuite}.
+   *
+   * @param klass the class annotated with {@link
+   * org.junit.runners.Suite.SuiteClasses SuiteClasses}; must not be
+   * {@code null}
+   *
+   * @param builder the {@link RunnerBuilder} that builds the runners
+   * for the test classes; must not be {@code null}
+   *
+   * @exception InitializationError if the suite could not be built
+   */
+  public SnapshotAffinitySuite(final Class<?> klass, final RunnerBuilder builder) throws InitializationError {
+    super(klass, builder);
+    this.sort(new SnapshotAffinitySorter());
+  }
+
+  /**
+   * Runs the tests in this {@link SnapshotAffinitySuite} while
+   * recording a new {@link SnapshotReuseReport}.
+   *
+   * @param notifier the {@link RunNotifier} to notify; must not be
+   * {@code null}
+   */
+  @Override
+  public void run(final RunNotifier notifier) {
+    final SnapshotReuseReport report = new SnapshotReuseReport();
+    this.report = report;
+    notifier.addListener(report);
+    try {
+      super.run(notifier);
+    } finally {
+      notifier.removeListener(report);
+      report.testRunFinished(null);
+    }
+  }
+
+  /**
+   * Returns the {@link SnapshotReuseReport} for the most recent run
+   * of this {@link SnapshotAffinitySuite}, or {@code null} if it has
+   * not been run.
+   *
+   * @return a {@link SnapshotReuseReport}, or {@code null}
+   */
+  public final SnapshotReuseReport getReport() {
+    return this.report;
+  }
+
+}
@@ -0,0 +1,351 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.runner.Description;
+
+/**
+ * An immutable value identifying the prepared database state that a
+ * JUnit test starts from: the changelogs, contexts and label
+ * expression applied to it, as described by any {@link Snapshot}
+ * annotation, and the dbUnit dataset {@linkplain DataSourceDatabaseTesterRule#getDataSet(Description)
+ * loaded into it}.
+ *
+ * <p>Two tests with {@linkplain #equals(Object) equal} {@link
+ * SnapshotKey}s can reuse the same snapshot of the database.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see Snapshot
+ *
+ * @see SnapshotAffinitySuite
+ */
+public final class SnapshotKey implements Comparable<SnapshotKey> {
+
+  /**
+   * The changelog resource names, in application order.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final List<String> changeLogs;
+
+  /**
+   * The contexts, sorted.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final List<String> contexts;
+
+  /**
+   * The label expression.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private final String labels;
+
+  /**
+   * The name of the dataset resource.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private final String dataSet;
+
+  /**
+   * Creates a new {@link SnapshotKey}.
+   *
+   * @param changeLogs the changelog resource names, in application
+   * order; may be {@code null}
+   *
+   * @param contexts the contexts, in any order; may be {@code null}
+   *
+   * @param dataSet the name of the dataset resource; may be {@code
+   * null}
+   *
+   * @see #SnapshotKey(String[], String[], String, String)
+   */
+  public SnapshotKey(final String[] changeLogs, final String[] contexts, final String dataSet) {
+    this(changeLogs, contexts, null, dataSet);
+  }
+
+  /**
+   * Creates a new {@link SnapshotKey}.
+   *
+   * @param changeLogs the changelog resource names, in application
+   * order; may be {@code null}
+   *
+   * @param contexts the contexts, in any order; may be {@code null}
+   *
+   * @param labels the label expression; may be {@code null}; an
+   * empty expression is treated as {@code null}
+   *
+   * @param dataSet the name of the dataset resource; may be {@code
+   * null}
+   */
+  public SnapshotKey(final String[] changeLogs, final String[] contexts, final String labels, final String dataSet) {
+    super();
+    this.changeLogs = changeLogs == null ? Collections.<String>emptyList() : Collections.unmodifiableList(new ArrayList<String>(Arrays.asList(changeLogs)));
+    if (contexts == null) {
+      this.contexts = Collections.emptyList();
+    } else {
+      final List<String> sortedContexts = new ArrayList<String>(Arrays.asList(contexts));
+      Collections.sort(sortedContexts);
+      this.contexts = Collections.unmodifiableList(sortedContexts);
+    }
+    this.labels = labels == null || labels.trim().isEmpty() ? null : labels.trim();
+    this.dataSet = dataSet;
+  }
+
+  /**
+   * Returns the changelog resource names, in application order.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, unmodifiable {@link List} of
+   * changelog resource names
+   */
+  public final List<String> getChangeLogs() {
+    return this.changeLogs;
+  }
+
+  /**
+   * Returns the contexts, sorted.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, unmodifiable {@link List} of contexts
+   */
+  public final List<String> getContexts() {
+    return this.contexts;
+  }
+
+  /**
+   * Returns the label expression, or {@code null} if changesets are
+   * not filtered by label.
+   *
+   * @return the label expression, or {@code null}
+   */
+  public final String getLabels() {
+    return this.labels;
+  }
+
+  /**
+   * Returns the name of the dataset resource, or {@code null} if
+   * there is none.
+   *
+   * @return the name of the dataset resource, or {@code null}
+   */
+  public final String getDataSet() {
+    return this.dataSet;
+  }
+
+  /**
+   * Compares this {@link SnapshotKey} to another, first by
+   * changelogs, then by contexts, then by labels, then by dataset.
+   *
+   * @param other the {@link SnapshotKey} to compare to; must not be
+   * {@code null}
+   *
+   * @return a negative integer, zero or a positive integer as this
+   * {@link SnapshotKey} is less than, equal to or greater than the
+   * supplied one
+   */
+  @Override
+  public final int compareTo(final SnapshotKey other) {
+    int result = compare(this.changeLogs, other.changeLogs);
+    if (result == 0) {
+      result = compare(this.contexts, other.contexts);
+      if (result == 0) {
+        result = compare(this.labels, other.labels);
+        if (result == 0) {
+          result = compare(this.dataSet, other.dataSet);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns a hash code for this {@link SnapshotKey}.
+   *
+   * @return a hash code
+   */
+  @Override
+  public final int hashCode() {
+    int hashCode = 17;
+    hashCode = 37 * hashCode + this.changeLogs.hashCode();
+    hashCode = 37 * hashCode + this.contexts.hashCode();
+    hashCode = 37 * hashCode + (this.labels == null ? 0 : this.labels.hashCode());
+    hashCode = 37 * hashCode + (this.dataSet == null ? 0 : this.dataSet.hashCode());
+    return hashCode;
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Object} is a {@link
+   * SnapshotKey} with the same changelogs, contexts, labels and
+   * dataset.
+   *
+   * @param other the {@link Object} to test; may be {@code null}
+   *
+   * @return {@code true} if {@code other} is equal to this {@link
+   * SnapshotKey}
+   */
+  @Override
+  public final boolean equals(final Object other) {
+    if (other == this) {
+      return true;
+    } else if (other instanceof SnapshotKey) {
+      final SnapshotKey her = (SnapshotKey)other;
+      return
+        this.changeLogs.equals(her.changeLogs) &&
+        this.contexts.equals(her.contexts) &&
+        (this.labels == null ? her.labels == null : this.labels.equals(her.labels)) &&
+        (this.dataSet == null ? her.dataSet == null : this.dataSet.equals(her.dataSet));
+    } else {
+      return false;
+    }
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * SnapshotKey}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  @Override
+  public final String toString() {
+    return this.changeLogs + ";" + this.contexts + ";" + this.labels + ";" + this.dataSet;
+  }
+
+  /**
+   * Returns the {@link SnapshotKey} for the JUnit test or test class
+   * described by the supplied {@link Description}.
+   *
+   * <p>The changelogs, contexts and labels are taken from the {@link
+   * Snapshot} annotation on the test method, or, failing that, on the
+   * test class; the dataset is the one {@linkplain
+   * DataSourceDatabaseTesterRule#getDataSet(Description) a
+   * <code>DataSourceDatabaseTesterRule</code> would load}.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param description the {@link Description} describing the test;
+   * may be {@code null}
+   *
+   * @return a non-{@code null} {@link SnapshotKey}
+   */
+  public static final SnapshotKey forDescription(final Description description) {
+    Snapshot snapshot = null;
+    if (description != null) {
+      snapshot = description.getAnnotation(Snapshot.class);
+      if (snapshot == null) {
+        final Class<?> testClass = description.getTestClass();
+        if (testClass != null) {
+          snapshot = testClass.getAnnotation(Snapshot.class);
+        }
+      }
+    }
+    final String[] changeLogs;
+    final String[] contexts;
+    final String labels;
+    if (snapshot == null) {
+      changeLogs = new String[] { "changelog.xml", "test-changelog.xml" };
+      contexts = null;
+      labels = null;
+    } else {
+      changeLogs = snapshot.changeLogs();
+      contexts = snapshot.contexts();
+      labels = snapshot.labels();
+    }
+    ClassLoader cl = Thread.currentThread().getContextClassLoader();
+    if (cl == null) {
+      cl = SnapshotKey.class.getClassLoader();
+    }
+    return new SnapshotKey(changeLogs, contexts, labels, DataSourceDatabaseTesterRule.getDataSetResourceName(description, cl));
+  }
+
+  /**
+   * Compares two possibly {@code null} {@link String}s, ordering
+   * {@code null} first.
+   *
+   * @param a the first {@link String}; may be {@code null}
+   *
+   * @param b the second {@link String}; may be {@code null}
+   *
+   * @return a negative integer, zero or a positive integer as {@code
+   * a} is less than, equal to or greater than {@code b}
+   */
+  private static final int compare(final String a, final String b) {
+    if (a == null) {
+      return b == null ? 0 : -1;
+    } else if (b == null) {
+      return 1;
+    }
+    return a.compareTo(b);
+  }
+
+  /**
+   * Compares two {@link List}s of {@link String}s lexicographically.
+   *
+   * @param a the first {@link List}; must not be {@code null}
+   *
+   * @param b the second {@link List}; must not be {@code null}
+   *
+   * @return a negative integer, zero or a positive integer as {@code
+   * a} is less than, equal to or greater than {@code b}
+   */
+  private static final int compare(final List<String> a, final List<String> b) {
+    assert a != null;
+    assert b != null;
+    final Iterator<String> ai = a.iterator();
+    final Iterator<String> bi = b.iterator();
+    while (ai.hasNext() && bi.hasNext()) {
+      final int result = String.valueOf(ai.next()).compareTo(String.valueOf(bi.next()));
+      if (result != 0) {
+        return result;
+      }
+    }
+    if (ai.hasNext()) {
+      return 1;
+    } else if (bi.hasNext()) {
+      return -1;
+    }
+    return 0;
+  }
+
+}
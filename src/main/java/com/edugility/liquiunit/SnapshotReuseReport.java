@@ -0,0 +1,303 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import liquibase.logging.LogFactory;
+import liquibase.logging.Logger;
+
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+
+import org.junit.runner.notification.RunListener;
+
+/**
+ * A {@link RunListener} that reports how often consecutive JUnit
+ * tests started from the same prepared database state, as identified
+ * by their {@link SnapshotKey}s, and therefore how often a snapshot
+ * could be reused rather than rebuilt.
+ *
+ * <p>A {@link SnapshotReuseReport} may be registered with any JUnit
+ * run (for example through Maven Surefire's {@code listener}
+ * property); the {@link SnapshotAffinitySuite} runner registers one
+ * automatically.  The report is logged when the run finishes.</p>
+ *
+ * <p>Snapshots are assumed to be kept in a least-recently-used cache
+ * of a {@linkplain #getCapacity() fixed capacity}.  A test whose
+ * snapshot was used by the test before it is a <em>reuse</em>; one
+ * whose snapshot is still cached is a <em>restore</em>; one whose
+ * snapshot was used earlier but has since been evicted is a
+ * <em>rebuild</em>.  The capacity is taken from the {@code
+ * liquiunit.snapshotCacheSize} system property, and is {@code 1}, in
+ * which case only the database the previous test left in place
+ * counts as cached, if that property is not set.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see SnapshotAffinitySuite
+ */
+@RunListener.ThreadSafe
+public class SnapshotReuseReport extends RunListener {
+
+  /**
+   * The {@link Logger} to use for debugging and tracing purposes.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  protected final Logger logger;
+
+  /**
+   * The {@link SnapshotKey}s seen so far.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Set<SnapshotKey> seen;
+
+  /**
+   * The number of snapshots the modeled cache holds.
+   *
+   * <p>This field is always greater than {@code 0}.</p>
+   */
+  private final int capacity;
+
+  /**
+   * The {@link SnapshotKey}s held by the modeled cache, least
+   * recently used first.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Map<SnapshotKey, Boolean> cached;
+
+  /**
+   * The {@link SnapshotKey} of the most recently started test.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private SnapshotKey previous;
+
+  /**
+   * The number of tests started.
+   */
+  private int tests;
+
+  /**
+   * The number of tests that started from the same snapshot as the
+   * test before them.
+   */
+  private int reuses;
+
+  /**
+   * The number of tests that started from a snapshot that was still
+   * cached, but was not used by the test before them.
+   */
+  private int restores;
+
+  /**
+   * The number of tests that started from a snapshot that had
+   * already been used, but had been evicted from the cache since.
+   */
+  private int rebuilds;
+
+  /**
+   * Creates a new {@link SnapshotReuseReport} whose {@linkplain
+   * #getCapacity() capacity} is taken from the {@code
+   * liquiunit.snapshotCacheSize} system property, or is {@code 1} if
+   * that property is not set.
+   *
+   * @see #SnapshotReuseReport(int)
+   */
+  public SnapshotReuseReport() {
+    this(Integer.getInteger("liquiunit.snapshotCacheSize", 1).intValue());
+  }
+
+  /**
+   * Creates a new {@link SnapshotReuseReport}.
+   *
+   * @param capacity the number of snapshots the cache holds; must be
+   * greater than {@code 0}
+   *
+   * @exception IllegalArgumentException if {@code capacity} is less
+   * than {@code 1}
+   */
+  public SnapshotReuseReport(final int capacity) {
+    super();
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity < 1: " + capacity);
+    }
+    this.logger = LogFactory.getInstance().getLog("liquiunit");
+    assert this.logger != null;
+    this.capacity = capacity;
+    this.seen = new HashSet<SnapshotKey>();
+    this.cached = new LinkedHashMap<SnapshotKey, Boolean>(16, 0.75F, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected final boolean removeEldestEntry(final Map.Entry<SnapshotKey, Boolean> eldest) {
+        return this.size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * Records the {@link SnapshotKey} of the test described by the
+   * supplied {@link Description}.
+   *
+   * @param description the {@link Description} describing the test
+   * that is starting; may be {@code null}
+   */
+  @Override
+  public void testStarted(final Description description) {
+    final SnapshotKey key = SnapshotKey.forDescription(description);
+    synchronized (this) {
+      this.tests++;
+      if (key.equals(this.previous)) {
+        this.reuses++;
+      } else if (this.cached.containsKey(key)) {
+        this.restores++;
+      } else if (!this.seen.add(key)) {
+        this.rebuilds++;
+      }
+      this.cached.put(key, Boolean.TRUE);
+      this.previous = key;
+    }
+  }
+
+  /**
+   * Logs this {@link SnapshotReuseReport}.
+   *
+   * @param result the {@link Result} of the run; ignored
+   */
+  @Override
+  public void testRunFinished(final Result result) {
+    this.logger.info(this.toString());
+  }
+
+  /**
+   * Returns the number of snapshots the cache modeled by this {@link
+   * SnapshotReuseReport} holds.
+   *
+   * @return the capacity; always greater than {@code 0}
+   */
+  public final int getCapacity() {
+    return this.capacity;
+  }
+
+  /**
+   * Returns the number of tests started.
+   *
+   * @return the number of tests started
+   */
+  public final synchronized int getTestCount() {
+    return this.tests;
+  }
+
+  /**
+   * Returns the number of distinct snapshots used.
+   *
+   * @return the number of distinct snapshots used
+   */
+  public final synchronized int getSnapshotCount() {
+    return this.seen.size();
+  }
+
+  /**
+   * Returns the number of tests that started from the same snapshot
+   * as the test before them.
+   *
+   * @return the number of reuses
+   */
+  public final synchronized int getReuseCount() {
+    return this.reuses;
+  }
+
+  /**
+   * Returns the number of tests that started from a snapshot that was
+   * still cached, but was not used by the test before them.
+   *
+   * <p>This is always {@code 0} when the {@linkplain #getCapacity()
+   * capacity} is {@code 1}.</p>
+   *
+   * @return the number of restores
+   */
+  public final synchronized int getRestoreCount() {
+    return this.restores;
+  }
+
+  /**
+   * Returns the number of tests that started from a snapshot that had
+   * already been used earlier in the run, but had since been evicted
+   * from the cache, and which therefore had to be rebuilt.
+   *
+   * @return the number of rebuilds
+   */
+  public final synchronized int getRebuildCount() {
+    return this.rebuilds;
+  }
+
+  /**
+   * Returns the proportion, between {@code 0.0} and {@code 1.0}, of
+   * tests that started from the same snapshot as the test before
+   * them.
+   *
+   * @return the reuse rate
+   */
+  public final synchronized double getReuseRate() {
+    if (this.tests == 0) {
+      return 0.0;
+    }
+    return (double)this.reuses / (double)this.tests;
+  }
+
+  /**
+   * Returns a summary of this {@link SnapshotReuseReport}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  @Override
+  public synchronized String toString() {
+    return
+      "SnapshotReuseReport[tests=" + this.tests +
+      ", snapshots=" + this.seen.size() +
+      ", capacity=" + this.capacity +
+      ", reuses=" + this.reuses +
+      ", restores=" + this.restores +
+      ", rebuilds=" + this.rebuilds +
+      ", reuseRate=" + Math.round(this.getReuseRate() * 100.0) + "%" +
+      "]";
+  }
+
+}
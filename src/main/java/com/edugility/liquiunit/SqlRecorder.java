@@ -0,0 +1,292 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the SQL executed through a {@link Connection} so that it
+ * can later be {@linkplain #replay(Connection, List) replayed} against
+ * a fresh database of the same kind.
+ *
+ * <p>Only SQL passed as a {@link String} to the {@code execute},
+ * {@code executeUpdate} and {@code addBatch} methods of a plain {@link
+ * Statement} is recorded; queries made with {@code executeQuery} are
+ * not.  Statements whose SQL cannot be captured as
+ * text&mdash;{@linkplain PreparedStatement prepared} and {@linkplain
+ * CallableStatement callable} statements that are executed&mdash;make
+ * the recording {@linkplain #isReplayable() unreplayable}.</p>
+ *
+ * <p>Every statement executed, of whatever kind, is also {@linkplain
+ * #getStatementCount() counted}.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see LiquiunitRule
+ */
+final class SqlRecorder {
+
+  /**
+   * The SQL recorded so far, in execution order.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final List<String> sql;
+
+  /**
+   * Whether anything was executed that could not be recorded.
+   */
+  private volatile boolean unreplayable;
+
+  /**
+   * The number of statements executed so far, counting each member
+   * of a batch.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final AtomicLong statementCount;
+
+  /**
+   * Creates a new {@link SqlRecorder}.
+   */
+  SqlRecorder() {
+    super();
+    this.sql = Collections.synchronizedList(new ArrayList<String>());
+    this.statementCount = new AtomicLong();
+  }
+
+  /**
+   * Returns a {@link Connection} that behaves exactly like the
+   * supplied {@link Connection} but records the SQL executed through
+   * it and its {@link Statement}s.
+   *
+   * @param connection the {@link Connection} to wrap; must not be
+   * {@code null}
+   *
+   * @return a non-{@code null} {@link Connection}
+   */
+  final Connection wrap(final Connection connection) {
+    assert connection != null;
+    return Connection.class.cast(Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, new InvocationHandler() {
+        @Override
+        public final Object invoke(final Object proxy, final Method method, final Object[] arguments) throws Throwable {
+          final Object returnValue = invokeTarget(connection, method, arguments);
+          if (returnValue == null || Proxy.isProxyClass(returnValue.getClass())) {
+            return returnValue;
+          } else if (CallableStatement.class.equals(method.getReturnType())) {
+            return record((CallableStatement)returnValue, CallableStatement.class);
+          } else if (PreparedStatement.class.equals(method.getReturnType())) {
+            return record((PreparedStatement)returnValue, PreparedStatement.class);
+          } else if (Statement.class.equals(method.getReturnType())) {
+            return record((Statement)returnValue, Statement.class);
+          }
+          return returnValue;
+        }
+      }));
+  }
+
+  /**
+   * Returns a proxy of the supplied {@link Statement} type that
+   * records SQL passed to it and counts the statements it executes.
+   *
+   * @param statement the {@link Statement} to wrap; must not be
+   * {@code null}
+   *
+   * @param type the interface to implement; must not be {@code null}
+   *
+   * @return a non-{@code null} proxy
+   */
+  private final <T extends Statement> T record(final T statement, final Class<T> type) {
+    assert statement != null;
+    assert type != null;
+    final boolean plain = Statement.class.equals(type);
+    final List<String> batch = new ArrayList<String>();
+    final AtomicLong batchSize = new AtomicLong();
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+        @Override
+        public final Object invoke(final Object proxy, final Method method, final Object[] arguments) throws Throwable {
+          final String name = method.getName();
+          final Object returnValue = invokeTarget(statement, method, arguments);
+          if ("addBatch".equals(name)) {
+            batchSize.incrementAndGet();
+            if (plain && arguments != null && arguments.length == 1) {
+              batch.add((String)arguments[0]);
+            } else {
+              unreplayable = true;
+            }
+          } else if ("clearBatch".equals(name)) {
+            batch.clear();
+            batchSize.set(0L);
+          } else if (name.startsWith("executeLarge") || name.equals("executeBatch")) {
+            if (name.endsWith("Batch")) {
+              statementCount.addAndGet(batchSize.getAndSet(0L));
+            } else {
+              statementCount.incrementAndGet();
+            }
+            if (name.equals("executeBatch")) {
+              sql.addAll(batch);
+              batch.clear();
+            } else {
+              unreplayable = true;
+            }
+          } else if (name.equals("executeQuery")) {
+            statementCount.incrementAndGet();
+          } else if (name.equals("execute") || name.equals("executeUpdate")) {
+            statementCount.incrementAndGet();
+            if (plain && arguments != null && arguments.length >= 1) {
+              sql.add((String)arguments[0]);
+            } else {
+              unreplayable = true;
+            }
+          }
+          return returnValue;
+        }
+      }));
+  }
+
+  /**
+   * Returns {@code true} if everything executed through {@linkplain
+   * #wrap(Connection) wrapped} {@link Connection}s was recorded.
+   *
+   * @return {@code true} if the recording can be replayed
+   */
+  final boolean isReplayable() {
+    return !this.unreplayable;
+  }
+
+  /**
+   * Returns the number of statements executed so far through
+   * {@linkplain #wrap(Connection) wrapped} {@link Connection}s,
+   * whether or not their SQL was recorded, counting each member of a
+   * batch.
+   *
+   * @return the number of statements executed; never negative
+   */
+  final long getStatementCount() {
+    return this.statementCount.get();
+  }
+
+  /**
+   * Returns an unmodifiable snapshot of the SQL recorded so far.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, unmodifiable {@link List} of SQL
+   * statements
+   */
+  final List<String> getSql() {
+    synchronized (this.sql) {
+      return Collections.unmodifiableList(new ArrayList<String>(this.sql));
+    }
+  }
+
+  /**
+   * Invokes the supplied {@link Method} on the supplied target,
+   * unwrapping any {@link InvocationTargetException}.
+   *
+   * @param target the object to invoke on; must not be {@code null}
+   *
+   * @param method the {@link Method}; must not be {@code null}
+   *
+   * @param arguments the arguments; may be {@code null}
+   *
+   * @return the result of the invocation
+   *
+   * @exception Throwable if the invocation throws
+   */
+  private static final Object invokeTarget(final Object target, final Method method, final Object[] arguments) throws Throwable {
+    try {
+      return method.invoke(target, arguments);
+    } catch (final InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Executes the supplied SQL statements against the supplied {@link
+   * Connection} as a single batch with auto-commit turned off.
+   *
+   * <p>The batch is not atomic.  Most databases, H2 among them, commit
+   * each DDL statement as it runs, so if a statement fails, the
+   * rollback that follows undoes only the data changes made since
+   * the last DDL statement.</p>
+   *
+   * @param c the {@link Connection}; must not be {@code null}
+   *
+   * @param sql the SQL statements; must not be {@code null}
+   *
+   * @exception SQLException if a database error occurs; the current
+   * transaction is rolled back
+   */
+  static final void replay(final Connection c, final List<String> sql) throws SQLException {
+    assert c != null;
+    assert sql != null;
+    final boolean autoCommit = c.getAutoCommit();
+    c.setAutoCommit(false);
+    try {
+      final Statement s = c.createStatement();
+      try {
+        for (final String statement : sql) {
+          s.addBatch(statement);
+        }
+        s.executeBatch();
+      } finally {
+        try {
+          s.close();
+        } catch (final SQLException ignore) {
+
+        }
+      }
+      c.commit();
+    } catch (final SQLException oops) {
+      c.rollback();
+      throw oops;
+    } finally {
+      c.setAutoCommit(autoCommit);
+    }
+  }
+
+}
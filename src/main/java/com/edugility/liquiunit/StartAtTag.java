@@ -0,0 +1,81 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares that the database used by a JUnit test class or method
+ * should start out migrated only as far as a given Liquibase <a
+ * href="http://www.liquibase.org/documentation/changes/tag_database.html">tag</a>,
+ * so that upgrade paths and data compatibility can be tested against
+ * historical versions of a schema.
+ *
+ * <p>This annotation has no effect by itself; it is honored by a
+ * {@link LiquiunitRule}.  The first time a {@link LiquiunitRule}
+ * sees it for a given set of changelogs and contexts, it migrates an
+ * H2 database forward once, stopping at every tag to take a
+ * snapshot; thereafter, the snapshot for the requested tag is simply
+ * restored.  Other databases are migrated up to the tag every
+ * time.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see LiquiunitRule#getStartAtTag()
+ */
+@Documented
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE, ElementType.METHOD })
+public @interface StartAtTag {
+
+  /**
+   * The tag at which the database should start out; must not be
+   * {@code null}.
+   *
+   * @return the tag; never {@code null}
+   */
+  String value();
+
+  /**
+   * Whether, once the database has been restored to the {@linkplain
+   * #value() tag}, the remaining changesets should be applied as
+   * well, exercising the upgrade path from the tagged version.
+   *
+   * @return {@code true} if the database should then be migrated to
+   * the end of the changelogs
+   */
+  boolean migrate() default false;
+
+}
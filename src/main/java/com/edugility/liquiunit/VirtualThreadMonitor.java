@@ -0,0 +1,363 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the JDBC calls that are made on <a
+ * href="https://openjdk.org/jeps/444">virtual threads</a> and the
+ * time spent in them.
+ *
+ * <p>The H2 JDBC driver synchronizes on its {@link Connection}s and
+ * sessions, so on the JVMs whose virtual threads cannot unmount
+ * while holding a monitor, a JDBC call that blocks <em>may</em> pin
+ * its virtual thread to its carrier thread.  This class cannot tell
+ * whether any given call actually pinned; it counts the calls that
+ * could have, and the time spent in them, which bounds the cost.
+ * Running the JVM with {@code -Djdk.tracePinnedThreads=short}
+ * reports the individual pinning events that really occurred.</p>
+ *
+ * <p>On JVMs that do not support virtual threads, {@link
+ * #wrap(Connection)} returns its argument unchanged and {@link
+ * #newExecutorService()} returns a {@linkplain
+ * Executors#newCachedThreadPool() cached thread pool}.  No
+ * compile-time dependency on any particular Java version is
+ * introduced.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see H2Rule#newExecutorService()
+ *
+ * @see H2Rule#getVirtualThreadMonitor()
+ */
+public class VirtualThreadMonitor {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The {@code java.lang.Thread#isVirtual()} method, or {@code null}
+   * if the current JVM does not support virtual threads.
+   */
+  private static final Method isVirtualMethod;
+
+  /**
+   * The {@code
+   * java.util.concurrent.Executors#newVirtualThreadPerTaskExecutor()}
+   * method, or {@code null} if the current JVM does not support
+   * virtual threads.
+   */
+  private static final Method newVirtualThreadPerTaskExecutorMethod;
+
+  static {
+    Method isVirtual = null;
+    Method newVirtualThreadPerTaskExecutor = null;
+    try {
+      isVirtual = Thread.class.getMethod("isVirtual");
+      newVirtualThreadPerTaskExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (final NoSuchMethodException unsupported) {
+      isVirtual = null;
+      newVirtualThreadPerTaskExecutor = null;
+    }
+    isVirtualMethod = isVirtual;
+    newVirtualThreadPerTaskExecutorMethod = newVirtualThreadPerTaskExecutor;
+  }
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The number of JDBC calls made on virtual threads.
+   */
+  private final AtomicLong calls;
+
+  /**
+   * The total number of nanoseconds spent in JDBC calls made on
+   * virtual threads.
+   */
+  private final AtomicLong nanos;
+
+  /**
+   * The largest number of nanoseconds spent in any one JDBC call made
+   * on a virtual thread.
+   */
+  private final AtomicLong maxNanos;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link VirtualThreadMonitor}.
+   */
+  public VirtualThreadMonitor() {
+    super();
+    this.calls = new AtomicLong();
+    this.nanos = new AtomicLong();
+    this.maxNanos = new AtomicLong();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns a {@link Connection} that behaves exactly like the
+   * supplied {@link Connection}, but whose methods&mdash;and those
+   * of the {@link Statement}s it creates&mdash;are counted by this
+   * {@link VirtualThreadMonitor} when they are invoked on a virtual
+   * thread.
+   *
+   * <p>If the current JVM does not support virtual threads, the
+   * supplied {@link Connection} is returned unchanged.</p>
+   *
+   * @param connection the {@link Connection} to wrap; may be {@code
+   * null} in which case {@code null} is returned
+   *
+   * @return a {@link Connection}, or {@code null}
+   */
+  public Connection wrap(final Connection connection) {
+    if (connection == null || !isSupported()) {
+      return connection;
+    }
+    return this.monitor(connection, Connection.class);
+  }
+
+  /**
+   * Returns a proxy of the supplied {@code type} that counts
+   * invocations made on virtual threads and forwards them to the
+   * supplied {@code target}.
+   *
+   * @param target the object to forward to; must not be {@code null}
+   *
+   * @param type the interface to implement; must not be {@code null}
+   *
+   * @return a non-{@code null} proxy
+   */
+  private final <T> T monitor(final T target, final Class<T> type) {
+    assert target != null;
+    assert type != null;
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+        @Override
+        public final Object invoke(final Object proxy, final Method method, final Object[] arguments) throws Throwable {
+          final boolean virtual = isVirtual(Thread.currentThread());
+          final long start = virtual ? System.nanoTime() : 0L;
+          final Object returnValue;
+          try {
+            returnValue = method.invoke(target, arguments);
+          } catch (final InvocationTargetException e) {
+            throw e.getCause();
+          } finally {
+            if (virtual) {
+              record(System.nanoTime() - start);
+            }
+          }
+          return monitorStatement(returnValue, method.getReturnType());
+        }
+      }));
+  }
+
+  /**
+   * If the supplied {@code returnValue} is a {@link Statement}
+   * produced by a {@link Connection}, returns a {@linkplain
+   * #monitor(Object, Class) monitored} version of it; otherwise
+   * returns it unchanged.
+   *
+   * @param returnValue the object to inspect; may be {@code null}
+   *
+   * @param declaredType the declared return type of the method that
+   * produced {@code returnValue}; must not be {@code null}
+   *
+   * @return a possibly wrapped {@code returnValue}
+   */
+  private final Object monitorStatement(final Object returnValue, final Class<?> declaredType) {
+    if (returnValue == null || Proxy.isProxyClass(returnValue.getClass())) {
+      return returnValue;
+    } else if (CallableStatement.class.equals(declaredType)) {
+      return this.monitor((CallableStatement)returnValue, CallableStatement.class);
+    } else if (PreparedStatement.class.equals(declaredType)) {
+      return this.monitor((PreparedStatement)returnValue, PreparedStatement.class);
+    } else if (Statement.class.equals(declaredType)) {
+      return this.monitor((Statement)returnValue, Statement.class);
+    }
+    return returnValue;
+  }
+
+  /**
+   * Records a JDBC call made on a virtual thread that took the
+   * supplied number of nanoseconds.
+   *
+   * @param elapsed the number of nanoseconds the call took
+   */
+  private final void record(final long elapsed) {
+    this.calls.incrementAndGet();
+    this.nanos.addAndGet(elapsed);
+    long max = this.maxNanos.get();
+    while (elapsed > max && !this.maxNanos.compareAndSet(max, elapsed)) {
+      max = this.maxNanos.get();
+    }
+  }
+
+  /**
+   * Returns the number of JDBC calls that have been made on virtual
+   * threads through {@link Connection}s {@linkplain
+   * #wrap(Connection) wrapped} by this {@link VirtualThreadMonitor}.
+   *
+   * @return the number of such calls
+   */
+  public final long getVirtualCallCount() {
+    return this.calls.get();
+  }
+
+  /**
+   * Returns the total number of microseconds that virtual threads
+   * have spent in JDBC calls.
+   *
+   * @return the total number of microseconds spent in JDBC calls
+   * made on virtual threads
+   */
+  public final long getVirtualCallMicros() {
+    return TimeUnit.NANOSECONDS.toMicros(this.nanos.get());
+  }
+
+  /**
+   * Returns the largest number of microseconds that any one JDBC
+   * call made on a virtual thread has taken.
+   *
+   * @return the longest JDBC call made on a virtual thread, in
+   * microseconds
+   */
+  public final long getMaximumVirtualCallMicros() {
+    return TimeUnit.NANOSECONDS.toMicros(this.maxNanos.get());
+  }
+
+  /**
+   * Returns a summary of this {@link VirtualThreadMonitor}'s
+   * statistics.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  @Override
+  public String toString() {
+    return
+      "VirtualThreadMonitor[virtualCalls=" + this.getVirtualCallCount() +
+      ", virtualCallMicros=" + this.getVirtualCallMicros() +
+      ", maximumVirtualCallMicros=" + this.getMaximumVirtualCallMicros() +
+      "]";
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns {@code true} if the current JVM supports virtual threads.
+   *
+   * @return {@code true} if the current JVM supports virtual threads
+   */
+  public static final boolean isSupported() {
+    return isVirtualMethod != null;
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Thread} is a virtual
+   * thread.
+   *
+   * @param thread the {@link Thread} to test; may be {@code null}
+   *
+   * @return {@code true} if {@code thread} is a virtual thread
+   */
+  public static final boolean isVirtual(final Thread thread) {
+    if (thread == null || isVirtualMethod == null) {
+      return false;
+    }
+    try {
+      return ((Boolean)isVirtualMethod.invoke(thread)).booleanValue();
+    } catch (final IllegalAccessException impossible) {
+      throw new IllegalStateException(impossible);
+    } catch (final InvocationTargetException impossible) {
+      throw new IllegalStateException(impossible.getCause());
+    }
+  }
+
+  /**
+   * Returns a new {@link ExecutorService} that starts a new virtual
+   * thread for each task, or, if the current JVM does not support
+   * virtual threads, a new {@linkplain Executors#newCachedThreadPool()
+   * cached thread pool}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new, non-{@code null} {@link ExecutorService}
+   */
+  public static ExecutorService newExecutorService() {
+    if (newVirtualThreadPerTaskExecutorMethod != null) {
+      try {
+        return (ExecutorService)newVirtualThreadPerTaskExecutorMethod.invoke(null);
+      } catch (final IllegalAccessException impossible) {
+        throw new IllegalStateException(impossible);
+      } catch (final InvocationTargetException impossible) {
+        throw new IllegalStateException(impossible.getCause());
+      }
+    }
+    return Executors.newCachedThreadPool();
+  }
+
+}
@@ -0,0 +1,85 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Connection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import liquibase.changelog.ChangeSet;
+
+import liquibase.database.Database;
+
+import liquibase.database.jvm.JdbcConnection;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestCaseChangeLogParsing {
+
+  @Rule
+  public final H2Rule h2 = new H2Rule();
+
+  @Test
+  public void testChangeLogsAreMergedInDeclarationOrder() throws Exception {
+    final Connection c = this.h2.getConnection();
+    try {
+      final Database database = LiquibaseCache.findCorrectDatabaseImplementation(new JdbcConnection(c));
+      final List<String> expected = new ArrayList<String>();
+      final List<String> names = Arrays.asList("parallel-changelog.xml", "changelog.xml", "reference-changelog.xml");
+      for (final String name : names) {
+        expected.addAll(this.parse(database, name));
+      }
+      assertEquals(8, expected.size());
+      final LiquiunitRule rule = new LiquiunitRule(this.h2);
+      rule.setChangeLogResourceNames(names);
+      assertEquals(expected, ids(rule.createLiquibase(database).getDatabaseChangeLog().getChangeSets()));
+    } finally {
+      c.close();
+    }
+  }
+
+  private final List<String> parse(final Database database, final String name) throws Exception {
+    final LiquiunitRule rule = new LiquiunitRule(this.h2);
+    rule.setChangeLogResourceNames(Arrays.asList(name));
+    return ids(rule.createLiquibase(database).getDatabaseChangeLog().getChangeSets());
+  }
+
+  private static final List<String> ids(final List<ChangeSet> changeSets) {
+    final List<String> ids = new ArrayList<String>();
+    for (final ChangeSet changeSet : changeSets) {
+      ids.add(changeSet.getFilePath() + "::" + changeSet.getId());
+    }
+    return ids;
+  }
+
+}
@@ -0,0 +1,163 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+
+import java.sql.Connection;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseChangeSetTimings {
+
+  @Test
+  public void testReportIsWrittenMostExpensiveFirst() throws Exception {
+    final File report = new File(System.getProperty("java.io.tmpdir"), "liquiunit-timings-" + System.nanoTime() + ".csv");
+    final String oldReport = System.getProperty(ChangeSetTimings.REPORT_PROPERTY);
+    final String oldReplay = System.getProperty("liquiunit.replay");
+    System.setProperty(ChangeSetTimings.REPORT_PROPERTY, report.getPath());
+    System.setProperty("liquiunit.replay", "false");
+    try {
+      migrate(1);
+      migrate(4);
+      ChangeSetTimings.write(report);
+    } finally {
+      restore(ChangeSetTimings.REPORT_PROPERTY, oldReport);
+      restore("liquiunit.replay", oldReplay);
+    }
+
+    final List<List<String>> rows = read(report);
+    assertTrue(report.delete());
+    assertEquals(Arrays.asList("kind", "name", "runs", "failures", "parseMillis", "preconditionMillis", "executeMillis", "totalMillis", "statements"), rows.remove(0));
+
+    // Other tests in the same JVM contribute rows of their own; this
+    // test's changelog is used by no other test.
+    List<String> clock = null;
+    double previous = Double.MAX_VALUE;
+    for (final List<String> row : rows) {
+      assertEquals(row.toString(), 9, row.size());
+      final double total = Double.parseDouble(row.get(7));
+      assertTrue(total <= previous);
+      previous = total;
+      if ("timing::clock.creation::ljnelson".equals(row.get(1))) {
+        clock = row;
+      }
+    }
+    assertNotNull(clock);
+    assertEquals("changeset", clock.get(0));
+    assertEquals("2", clock.get(2));
+    assertEquals("0", clock.get(3));
+    assertTrue(Double.parseDouble(clock.get(6)) > 0.0);
+    assertTrue(Double.parseDouble(clock.get(7)) >= Double.parseDouble(clock.get(5)) + Double.parseDouble(clock.get(6)));
+    assertTrue(Long.parseLong(clock.get(8)) >= 2L);
+  }
+
+  private static final void migrate(final int parallelism) throws Exception {
+    final String url = "jdbc:h2:mem:TestCaseChangeSetTimings-" + System.nanoTime() + ";DB_CLOSE_DELAY=-1";
+    final DriverManagerDataSource dataSource = new DriverManagerDataSource(url, "sa", "");
+    final LiquiunitRule rule = new LiquiunitRule(dataSource);
+    rule.setChangeLogResourceNames(Collections.singletonList("timing-changelog.xml"));
+    rule.setParallelism(parallelism);
+    rule.before();
+    final Connection c = dataSource.getConnection();
+    try {
+      final Statement s = c.createStatement();
+      try {
+        s.execute("DROP ALL OBJECTS");
+      } finally {
+        s.close();
+      }
+    } finally {
+      c.close();
+    }
+  }
+
+  private static final void restore(final String name, final String value) {
+    if (value == null) {
+      System.clearProperty(name);
+    } else {
+      System.setProperty(name, value);
+    }
+  }
+
+  private static final List<List<String>> read(final File file) throws Exception {
+    final List<List<String>> rows = new ArrayList<List<String>>();
+    final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        rows.add(parse(line));
+      }
+    } finally {
+      reader.close();
+    }
+    return rows;
+  }
+
+  private static final List<String> parse(final String line) {
+    final List<String> fields = new ArrayList<String>();
+    final StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < line.length(); i++) {
+      final char c = line.charAt(i);
+      if (quoted) {
+        if (c != '"') {
+          field.append(c);
+        } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+          field.append('"');
+          i++;
+        } else {
+          quoted = false;
+        }
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else {
+        field.append(c);
+      }
+    }
+    fields.add(field.toString());
+    return fields;
+  }
+
+}
@@ -0,0 +1,185 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import static org.junit.Assume.assumeTrue;
+
+public class TestCaseDriverManagerDataSource {
+
+  private static final String URL = "jdbc:h2:mem:TestCaseDriverManagerDataSource;DB_CLOSE_DELAY=-1";
+
+  private static final int CONNECTIONS_PER_THREAD = Integer.getInteger("liquiunit.benchmark.connectionsPerThread", 500).intValue();
+
+  @Test
+  public void testGetConnection() throws SQLException {
+    final Connection c = new DriverManagerDataSource(URL, "sa", "").getConnection();
+    try {
+      assertEquals(true, c.isValid(0));
+    } finally {
+      c.close();
+    }
+  }
+
+  @Test
+  public void testConcurrentGetConnection() throws Exception {
+    // A fresh instance, so that every thread races to look up the Driver.
+    final DataSource dataSource = new DriverManagerDataSource(URL, "sa", "");
+    final int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+    final CountDownLatch start = new CountDownLatch(1);
+    final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    try {
+      final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(threads);
+      for (int i = 0; i < threads; i++) {
+        results.add(executorService.submit(new Callable<Boolean>() {
+            @Override
+            public final Boolean call() throws Exception {
+              start.await();
+              final Connection c = dataSource.getConnection();
+              try {
+                return Boolean.valueOf(c.isValid(0));
+              } finally {
+                c.close();
+              }
+            }
+          }));
+      }
+      start.countDown();
+      for (final Future<Boolean> result : results) {
+        assertTrue(result.get().booleanValue());
+      }
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  @Test
+  public void benchmarkConnectionAcquisition() throws Exception {
+    assumeTrue(Boolean.getBoolean("liquiunit.benchmark"));
+    final DataSource direct = new DriverManagerDataSource(URL, "sa", "");
+    final DataSource viaDriverManager = new DataSource() {
+        @Override
+        public final Connection getConnection() throws SQLException {
+          return DriverManager.getConnection(URL, "sa", "");
+        }
+        @Override
+        public final Connection getConnection(final String username, final String password) throws SQLException {
+          return DriverManager.getConnection(URL, username, password);
+        }
+        @Override
+        public final java.io.PrintWriter getLogWriter() {
+          return null;
+        }
+        @Override
+        public final void setLogWriter(final java.io.PrintWriter writer) {
+
+        }
+        @Override
+        public final void setLoginTimeout(final int timeout) {
+
+        }
+        @Override
+        public final int getLoginTimeout() {
+          return 0;
+        }
+        // @Override // when Java 7 is a minimal requirement
+        public final java.util.logging.Logger getParentLogger() {
+          return null;
+        }
+        @Override
+        public final boolean isWrapperFor(final Class<?> cls) {
+          return false;
+        }
+        @Override
+        public final <T> T unwrap(final Class<T> cls) throws SQLException {
+          throw new SQLException(new UnsupportedOperationException("unwrap"));
+        }
+      };
+    // Keep the database open for the duration of the benchmark.
+    final Connection keeper = direct.getConnection();
+    try {
+      measure("DriverManager", viaDriverManager, 1); // warm up
+      measure("Driver.connect", direct, 1); // warm up
+      for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors() * 2; threads *= 2) {
+        System.out.println(measure("DriverManager", viaDriverManager, threads));
+        System.out.println(measure("Driver.connect", direct, threads));
+      }
+    } finally {
+      keeper.close();
+    }
+  }
+
+  private static final String measure(final String label, final DataSource dataSource, final int threads) throws Exception {
+    final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    try {
+      final List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>(threads);
+      for (int i = 0; i < threads; i++) {
+        tasks.add(new Callable<Integer>() {
+            @Override
+            public final Integer call() throws SQLException {
+              for (int j = 0; j < CONNECTIONS_PER_THREAD; j++) {
+                dataSource.getConnection().close();
+              }
+              return Integer.valueOf(CONNECTIONS_PER_THREAD);
+            }
+          });
+      }
+      final long start = System.nanoTime();
+      int total = 0;
+      for (final Future<Integer> result : executorService.invokeAll(tasks)) {
+        total += result.get().intValue();
+      }
+      final long elapsed = System.nanoTime() - start;
+      assertEquals(threads * CONNECTIONS_PER_THREAD, total);
+      return String.format("%-15s threads=%-3d %,10d connections/s", label, threads, Math.round(total / (elapsed / (double)TimeUnit.SECONDS.toNanos(1L))));
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+}
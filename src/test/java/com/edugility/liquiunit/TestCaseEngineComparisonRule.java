@@ -0,0 +1,113 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.dbunit.ext.h2.H2DataTypeFactory;
+import org.dbunit.ext.hsqldb.HsqldbDataTypeFactory;
+
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.junit.rules.RuleChain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseEngineComparisonRule {
+
+  private static final H2Archive h2Archive = new H2Archive();
+
+  private static final HsqldbArchive hsqldbArchive = new HsqldbArchive();
+
+  private static final DerbyArchive derbyArchive = new DerbyArchive();
+
+  private static EngineComparisonRule last;
+
+  @Rule
+  public final EngineComparisonRule engines;
+
+  public TestCaseEngineComparisonRule() {
+    super();
+    final H2Rule h2 = new H2Rule(h2Archive);
+    final HsqldbRule hsqldb = new HsqldbRule(hsqldbArchive);
+    final DerbyRule derby = new DerbyRule(derbyArchive);
+    this.engines = new EngineComparisonRule()
+      .engine("h2", h2, RuleChain.outerRule(h2).around(new LiquiunitRule(h2)).around(new DataSourceDatabaseTesterRule(h2, new H2DataTypeFactory())))
+      .engine("hsqldb", hsqldb, RuleChain.outerRule(hsqldb).around(new LiquiunitRule(hsqldb)).around(new DataSourceDatabaseTesterRule(hsqldb, new HsqldbDataTypeFactory())))
+      .engine("derby", derby, RuleChain.outerRule(derby).around(new LiquiunitRule(derby)).around(new DataSourceDatabaseTesterRule(derby)));
+    last = this.engines;
+  }
+
+  @AfterClass
+  public static void assertEveryEngineWasTimed() {
+    assertNotNull(last);
+    final Map<String, Long> micros = last.getMicros();
+    assertEquals(Arrays.asList("h2", "hsqldb", "derby"), new ArrayList<String>(micros.keySet()));
+    for (final Map.Entry<String, Long> entry : micros.entrySet()) {
+      assertTrue(entry.getKey(), entry.getValue().longValue() > 0L);
+    }
+    assertEquals("EngineComparisonRule" + micros, last.toString());
+  }
+
+  @Test
+  public void test1() throws SQLException {
+    this.insertAndCount();
+  }
+
+  @Test
+  public void test2() throws SQLException {
+    this.insertAndCount();
+  }
+
+  private final void insertAndCount() throws SQLException {
+    final Connection c = this.engines.getDataSource().getConnection();
+    try {
+      final Statement s = c.createStatement();
+      s.executeUpdate("INSERT INTO MESSAGE (ID, TEXT) VALUES (2, 'From " + this.engines.getEngineName() + "')");
+      final ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM MESSAGE");
+      assertTrue(rs.next());
+      assertEquals(this.engines.getEngineName(), 2, rs.getInt(1));
+      rs.close();
+      s.close();
+    } finally {
+      c.close();
+    }
+  }
+
+}
@@ -0,0 +1,136 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import liquibase.changelog.ChangeLogHistoryService;
+import liquibase.changelog.ChangeLogHistoryServiceFactory;
+import liquibase.changelog.ChangeSet;
+
+import liquibase.database.Database;
+
+import liquibase.database.jvm.JdbcConnection;
+
+import liquibase.lockservice.LockService;
+import liquibase.lockservice.LockServiceFactory;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseEphemeralLiquiunitRule {
+
+  @Rule
+  public final H2Rule h2 = new H2Rule();
+
+  @Test
+  public void testBookkeepingTablesAreNotCreated() throws Exception {
+    final LiquiunitRule rule = new LiquiunitRule(this.h2);
+    rule.setEphemeral(true);
+    rule.before();
+    assertTrue(this.hasTable("MESSAGE"));
+    assertFalse(this.hasTable("DATABASECHANGELOG"));
+    assertFalse(this.hasTable("DATABASECHANGELOGLOCK"));
+  }
+
+  @Test
+  public void testRoundTripsAreSaved() throws Exception {
+    final String replay = System.getProperty("liquiunit.replay");
+    System.setProperty("liquiunit.replay", "false");
+    try {
+      final LiquiunitRule rule = new LiquiunitRule(this.h2);
+      rule.setEphemeral(true);
+      rule.before();
+      final long saved = rule.getSavedRoundTrips();
+      assertTrue(saved > 0L);
+      rule.before();
+      assertTrue(this.hasTable("MESSAGE"));
+      assertEquals(saved, rule.getSavedRoundTrips());
+    } finally {
+      if (replay == null) {
+        System.clearProperty("liquiunit.replay");
+      } else {
+        System.setProperty("liquiunit.replay", replay);
+      }
+    }
+  }
+
+  @Test
+  public void testBookkeepingSurvivesFactoryReset() throws Exception {
+    final Connection c = this.h2.getConnection();
+    try {
+      final Database database = LiquibaseCache.findCorrectDatabaseImplementation(new JdbcConnection(c));
+      EphemeralBookkeeping.register(database);
+      try {
+        LockService lockService = LockServiceFactory.getInstance().getLockService(database);
+        assertTrue(lockService instanceof EphemeralLockService);
+        lockService.acquireLock();
+        ChangeLogHistoryService historyService = ChangeLogHistoryServiceFactory.getInstance().getChangeLogService(database);
+        assertTrue(historyService instanceof EphemeralChangeLogHistoryService);
+        historyService.setExecType(new ChangeSet("id", "author", false, false, "file", null, null, null), ChangeSet.ExecType.EXECUTED);
+
+        // This is what a concurrent migration does when it finishes.
+        LockServiceFactory.getInstance().resetAll();
+        ChangeLogHistoryServiceFactory.getInstance().resetAll();
+
+        lockService = LockServiceFactory.getInstance().getLockService(database);
+        assertTrue(lockService instanceof EphemeralLockService);
+        assertTrue(lockService.hasChangeLogLock());
+        historyService = ChangeLogHistoryServiceFactory.getInstance().getChangeLogService(database);
+        assertTrue(historyService instanceof EphemeralChangeLogHistoryService);
+        assertEquals(1, historyService.getRanChangeSets().size());
+        lockService.releaseLock();
+      } finally {
+        EphemeralBookkeeping.unregister(database);
+      }
+    } finally {
+      c.close();
+    }
+  }
+
+  private final boolean hasTable(final String tableName) throws SQLException {
+    final Connection c = this.h2.getConnection();
+    try {
+      final ResultSet rs = c.getMetaData().getTables(null, null, tableName, new String[] { "TABLE" });
+      try {
+        return rs.next();
+      } finally {
+        rs.close();
+      }
+    } finally {
+      c.close();
+    }
+  }
+
+}
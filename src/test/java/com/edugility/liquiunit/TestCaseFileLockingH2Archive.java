@@ -0,0 +1,348 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+
+import java.nio.channels.FileLock;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import liquibase.exception.LiquibaseException;
+
+import liquibase.resource.FileSystemResourceAccessor;
+import liquibase.resource.ResourceAccessor;
+
+import org.dbunit.ext.h2.H2DataTypeFactory;
+
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+
+import org.junit.runner.Description;
+
+import org.junit.runners.MethodSorters;
+
+import org.junit.runners.model.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestCaseFileLockingH2Archive {
+
+  private static final FileLockingH2Archive archive = new FileLockingH2Archive(newDirectory(), "TestCaseFileLockingH2Archive", "changelog.xml");
+
+  @Rule
+  public final TestRule rule;
+
+  public TestCaseFileLockingH2Archive() {
+    super();
+    final H2Rule h2 = new H2Rule(archive);
+    final LiquiunitRule liquibase = new LiquiunitRule(h2);
+    final DataSourceDatabaseTesterRule dbUnit = new DataSourceDatabaseTesterRule(h2, new H2DataTypeFactory());
+    this.rule = RuleChain.outerRule(h2).around(liquibase).around(dbUnit);
+  }
+
+  @Test
+  public void test1() {
+    System.out.println("Archive file: " + archive.getArchiveFile());
+  }
+
+  @Test
+  public void test2() {
+    assertTrue(archive.getArchiveFile().isFile());
+  }
+
+  @Test
+  public void testConcurrentBuildersBuildOnce() throws Exception {
+    final AtomicInteger saves = new AtomicInteger();
+    final AtomicInteger loads = new AtomicInteger();
+    final FileLockingH2Archive shared = new FileLockingH2Archive(newDirectory(), "concurrent", "changelog.xml") {
+        @Override
+        public final boolean loadUnlessEmpty(final Description description, final Connection c) throws SQLException {
+          final boolean loaded = super.loadUnlessEmpty(description, c);
+          if (loaded) {
+            loads.incrementAndGet();
+          }
+          return loaded;
+        }
+
+        @Override
+        public final boolean saveIfEmpty(final Description description, final Connection c) throws SQLException {
+          final boolean saved = super.saveIfEmpty(description, c);
+          if (saved) {
+            saves.incrementAndGet();
+          }
+          return saved;
+        }
+      };
+    final int threads = 4;
+    final CyclicBarrier barrier = new CyclicBarrier(threads);
+    final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    try {
+      final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+      for (int i = 0; i < threads; i++) {
+        final String name = "builder" + i;
+        futures.add(executorService.submit(new Callable<Boolean>() {
+            @Override
+            public final Boolean call() throws Exception {
+              barrier.await();
+              return Boolean.valueOf(migrate(shared, name));
+            }
+          }));
+      }
+      for (final Future<Boolean> future : futures) {
+        assertTrue(future.get().booleanValue());
+      }
+    } finally {
+      executorService.shutdownNow();
+    }
+    assertEquals(1, saves.get());
+    assertEquals(threads - 1, loads.get());
+  }
+
+  @Test
+  public void testRecoversFromCrashedBuilder() throws Throwable {
+    final File directory = newDirectory();
+    final FileLockingH2Archive crashed = new FileLockingH2Archive(directory, "crashed", "changelog.xml");
+    final File archiveFile = crashed.getArchiveFile();
+    final File partial = new File(directory, archiveFile.getName() + ".tmp-1");
+    final FileOutputStream stream = new FileOutputStream(partial);
+    try {
+      stream.write("CREATE TABLE HALF_WRITTEN".getBytes("UTF-8"));
+    } finally {
+      stream.close();
+    }
+    final Process builder = holdLock(lockFile(crashed));
+    builder.destroy();
+    builder.waitFor();
+    assertTrue(migrate(crashed, "afterCrash"));
+    assertTrue(archiveFile.isFile());
+    assertFalse(partial.exists());
+  }
+
+  @Test
+  public void testProceedsWithoutHungBuilder() throws Throwable {
+    final String oldTimeout = System.getProperty("liquiunit.archive.lockTimeout");
+    System.setProperty("liquiunit.archive.lockTimeout", "200");
+    final FileLockingH2Archive hung;
+    try {
+      hung = new FileLockingH2Archive(newDirectory(), "hung", "changelog.xml");
+    } finally {
+      if (oldTimeout == null) {
+        System.clearProperty("liquiunit.archive.lockTimeout");
+      } else {
+        System.setProperty("liquiunit.archive.lockTimeout", oldTimeout);
+      }
+    }
+    final Process builder = holdLock(lockFile(hung));
+    try {
+      assertTrue(migrate(hung, "whileHung"));
+      assertFalse(hung.getArchiveFile().isFile());
+    } finally {
+      builder.destroy();
+      builder.waitFor();
+    }
+  }
+
+  @Test
+  public void testFailedMigrationReleasesTheBuild() throws Exception {
+    final FileLockingH2Archive failing = new FileLockingH2Archive(newDirectory(), "failing", "changelog.xml");
+    try {
+      migrate(failing, "failure", true);
+      fail();
+    } catch (final LiquibaseException expected) {
+
+    }
+    assertFalse(failing.getArchiveFile().isFile());
+    final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    try {
+      // Another thread must not have to wait for the failed build.
+      assertTrue(executorService.submit(new Callable<Boolean>() {
+          @Override
+          public final Boolean call() throws Exception {
+            return Boolean.valueOf(migrate(failing, "retry"));
+          }
+        }).get(30L, TimeUnit.SECONDS).booleanValue());
+    } finally {
+      executorService.shutdownNow();
+    }
+    assertTrue(failing.getArchiveFile().isFile());
+  }
+
+  @Test
+  public void testEditingAnIncludedChangeLogBuildsANewArchive() throws Exception {
+    final File directory = newDirectory();
+    final File changeLogDirectory = newDirectory();
+    assertTrue(changeLogDirectory.mkdirs());
+    write(new File(changeLogDirectory, "master.xml"), "<include file=\"included.xml\" relativeToChangelogFile=\"true\"/>");
+    final File included = new File(changeLogDirectory, "included.xml");
+    write(included, "<changeSet author=\"ljnelson\" id=\"a\"><createTable tableName=\"A\"><column name=\"ID\" type=\"INT\"/></createTable></changeSet>");
+    final ResourceAccessor resourceAccessor = new FileSystemResourceAccessor(changeLogDirectory.getAbsolutePath());
+
+    final FileLockingH2Archive original = new FileLockingH2Archive(directory, "included", null, null, resourceAccessor, "master.xml");
+    final Connection c = new DriverManagerDataSource("jdbc:h2:mem:testEditingAnIncludedChangeLogBuildsANewArchive", "sa", "").getConnection();
+    try {
+      assertFalse(original.loadUnlessEmpty(null, c));
+      c.createStatement().execute("CREATE TABLE A (ID INT)");
+      assertTrue(original.saveIfEmpty(null, c));
+    } finally {
+      c.close();
+    }
+    assertFalse(new FileLockingH2Archive(directory, "included", null, null, resourceAccessor, "master.xml").isEmpty(null));
+    assertTrue(new FileLockingH2Archive(directory, "included", Collections.singleton("demo"), null, resourceAccessor, "master.xml").isEmpty(null));
+    assertTrue(new FileLockingH2Archive(directory, "included", null, "eu", resourceAccessor, "master.xml").isEmpty(null));
+
+    write(included, "<changeSet author=\"ljnelson\" id=\"a\"><createTable tableName=\"A\"><column name=\"ID\" type=\"BIGINT\"/></createTable></changeSet>");
+    final FileLockingH2Archive edited = new FileLockingH2Archive(directory, "included", null, null, resourceAccessor, "master.xml");
+    assertTrue(edited.isEmpty(null));
+    assertFalse(edited.getArchiveFile().equals(original.getArchiveFile()));
+  }
+
+  private static final boolean migrate(final FileLockingH2Archive archive, final String name) throws Exception {
+    return migrate(archive, name, false);
+  }
+
+  private static final boolean migrate(final FileLockingH2Archive archive, final String name, final boolean fail) throws Exception {
+    final H2Rule h2 = new H2Rule(archive);
+    final LiquiunitRule liquibase = new LiquiunitRule(h2);
+    if (fail) {
+      liquibase.setChangeLogResourceNames(Collections.singleton("failing-changelog.xml"));
+    }
+    final boolean[] migrated = new boolean[1];
+    final Statement statement = RuleChain.outerRule(h2).around(liquibase).apply(new Statement() {
+        @Override
+        public final void evaluate() throws SQLException {
+          final Connection c = h2.getConnection();
+          try {
+            final ResultSet rs = c.getMetaData().getTables(null, null, "MESSAGE", null);
+            try {
+              migrated[0] = rs.next();
+            } finally {
+              rs.close();
+            }
+          } finally {
+            c.close();
+          }
+        }
+      }, Description.createTestDescription(TestCaseFileLockingH2Archive.class, name));
+    try {
+      statement.evaluate();
+    } catch (final Exception e) {
+      throw e;
+    } catch (final Throwable t) {
+      throw new IllegalStateException(t);
+    }
+    return migrated[0];
+  }
+
+  private static final void write(final File file, final String body) throws IOException {
+    final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+      writer.write("<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:schemaLocation=\"http://www.liquibase.org/xml/ns/dbchangelog http://www.liquibase.org/xml/ns/dbchangelog/dbchangelog-3.4.xsd\">\n");
+      writer.write(body);
+      writer.write("\n</databaseChangeLog>\n");
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static final File lockFile(final FileLockingH2Archive archive) {
+    final File archiveFile = archive.getArchiveFile();
+    final String name = archiveFile.getName();
+    return new File(archiveFile.getParentFile(), name.substring(0, name.length() - ".sql".length()) + ".lock");
+  }
+
+  /**
+   * Starts a separate JVM that holds an exclusive lock on the supplied
+   * file, as a builder in another Surefire fork would, and returns
+   * once it has the lock.
+   */
+  private static final Process holdLock(final File lockFile) throws IOException {
+    final Process process = new ProcessBuilder(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath(),
+                                               "-cp",
+                                               System.getProperty("java.class.path"),
+                                               LockHolder.class.getName(),
+                                               lockFile.getAbsolutePath())
+      .redirectErrorStream(true)
+      .start();
+    final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+    final String line = reader.readLine();
+    if (!"locked".equals(line)) {
+      process.destroy();
+      throw new IllegalStateException("Lock holder said: " + line);
+    }
+    return process;
+  }
+
+  private static final File newDirectory() {
+    return new File(System.getProperty("java.io.tmpdir"), "liquiunit-" + System.nanoTime());
+  }
+
+  public static final class LockHolder {
+
+    public static final void main(final String[] arguments) throws Exception {
+      final RandomAccessFile file = new RandomAccessFile(arguments[0], "rw");
+      final FileLock lock = file.getChannel().lock();
+      System.out.println("locked");
+      System.out.flush();
+      Thread.sleep(Long.MAX_VALUE);
+    }
+
+  }
+
+}
@@ -0,0 +1,119 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseH2MemoryGovernor {
+
+  @Rule
+  public final H2Rule h2 = new H2Rule();
+
+  @Test
+  public void testParseBudget() {
+    assertEquals(Long.MAX_VALUE, H2MemoryGovernor.parseBudget(null));
+    assertEquals(512L, H2MemoryGovernor.parseBudget("512"));
+    assertEquals(2L * 1024L, H2MemoryGovernor.parseBudget("2k"));
+    assertEquals(3L * 1024L * 1024L, H2MemoryGovernor.parseBudget("3M"));
+    assertEquals(1024L * 1024L * 1024L, H2MemoryGovernor.parseBudget("1g"));
+  }
+
+  @Test
+  public void testRuleHoldsReservation() {
+    assertTrue(this.h2.getMemoryGovernor().getLiveCount() >= 1);
+  }
+
+  @Test
+  public void testMeasureGrowsWithRows() throws SQLException {
+    final Connection c = this.h2.getConnection();
+    try {
+      final Statement s = c.createStatement();
+      s.execute("CREATE TABLE T (ID BIGINT PRIMARY KEY, V VARCHAR(100))");
+      final long empty = H2MemoryGovernor.measure(c);
+      s.execute("INSERT INTO T SELECT X, 'x' FROM SYSTEM_RANGE(1, 1000)");
+      assertTrue(H2MemoryGovernor.measure(c) > empty);
+      s.close();
+    } finally {
+      c.close();
+    }
+  }
+
+  @Test
+  public void testLaterDatabasesWaitForBudget() throws InterruptedException {
+    final H2MemoryGovernor governor = new H2MemoryGovernor(100L * 1024L);
+    final long first = governor.acquire("first");
+    final CountDownLatch admitted = new CountDownLatch(1);
+    final Thread second = new Thread() {
+        @Override
+        public final void run() {
+          final long reservation = governor.acquire("second");
+          admitted.countDown();
+          governor.release(reservation, "second", 0L);
+        }
+      };
+    second.start();
+    assertFalse(admitted.await(200L, TimeUnit.MILLISECONDS));
+    governor.release(first, "first", 1024L * 1024L);
+    assertTrue(admitted.await(10L, TimeUnit.SECONDS));
+    second.join();
+    assertEquals(0, governor.getLiveCount());
+    assertEquals(1, governor.getPeakLiveCount());
+    assertEquals(1L, governor.getWaitCount());
+    assertEquals("first", governor.getLargestDatabaseName());
+  }
+
+  @Test
+  public void testAcquireTimesOut() {
+    final H2MemoryGovernor governor = new H2MemoryGovernor(100L * 1024L);
+    governor.setWaitTimeout(100L);
+    final long first = governor.acquire("first");
+    try {
+      governor.acquire("second");
+      throw new AssertionError("Expected an IllegalStateException");
+    } catch (final IllegalStateException expected) {
+      assertTrue(expected.getMessage(), expected.getMessage().contains("second"));
+      assertTrue(expected.getMessage(), expected.getMessage().contains("liquiunit.memoryBudget"));
+    }
+    assertEquals(1, governor.getLiveCount());
+    governor.release(first, "first", 0L);
+    assertEquals(0, governor.getLiveCount());
+  }
+
+}
@@ -27,6 +27,14 @@
  */
 package com.edugility.liquiunit;
 
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -37,6 +45,8 @@ import org.junit.Test;
 import org.junit.rules.RuleChain;
 import org.junit.rules.TestRule;
 
+import static org.junit.Assert.assertEquals;
+
 public class TestCaseH2Rule {
 
   @Rule
@@ -57,4 +67,41 @@ public class TestCaseH2Rule {
     System.out.println("Test 2");
   }
 
+  @Test
+  public void testOtherThreadsSeeSameDatabase() throws Exception {
+    final Connection c = this.rule.getConnection();
+    try {
+      final Statement s = c.createStatement();
+      s.execute("CREATE TABLE SHARED (ID INT)");
+      s.execute("INSERT INTO SHARED VALUES (42)");
+      s.close();
+    } finally {
+      c.close();
+    }
+    final ExecutorService executorService = this.rule.newExecutorService();
+    final Integer id = executorService.submit(new Callable<Integer>() {
+        @Override
+        public final Integer call() throws SQLException {
+          final Connection c = rule.getConnection();
+          try {
+            final Statement s = c.createStatement();
+            final ResultSet rs = s.executeQuery("SELECT ID FROM SHARED");
+            rs.next();
+            return Integer.valueOf(rs.getInt(1));
+          } finally {
+            c.close();
+          }
+        }
+      }).get();
+    assertEquals(Integer.valueOf(42), id);
+    if (VirtualThreadMonitor.isSupported()) {
+      assertEquals(true, this.rule.getVirtualThreadMonitor().getVirtualCallCount() > 0L);
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNoDatabaseOutsideOfATest() {
+    new H2Rule().getConnectionURL();
+  }
+
 }
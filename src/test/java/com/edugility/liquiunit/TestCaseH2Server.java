@@ -0,0 +1,119 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+
+import java.sql.SQLException;
+
+import org.dbunit.ext.h2.H2DataTypeFactory;
+
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestCaseH2Server {
+
+  private static final H2Server server = new H2Server(freePort());
+
+  private static final FileLockingH2Archive archive = new FileLockingH2Archive(new File(System.getProperty("java.io.tmpdir"), "liquiunit-" + System.nanoTime()), "TestCaseH2Server", "changelog.xml");
+
+  @Rule
+  public final TestRule rule;
+
+  private final H2Rule h2;
+
+  public TestCaseH2Server() {
+    super();
+    this.h2 = new H2Rule("sa", "", null, archive, server);
+    final LiquiunitRule liquibase = new LiquiunitRule(this.h2);
+    final DataSourceDatabaseTesterRule dbUnit = new DataSourceDatabaseTesterRule(this.h2, new H2DataTypeFactory());
+    this.rule = RuleChain.outerRule(this.h2).around(liquibase).around(dbUnit);
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    assertEquals(0, server.getOpenConnectionCount());
+    assertEquals(0L, server.getFailureCount());
+    assertTrue(server.getMaximumConnectionMicros() >= server.getAverageConnectionMicros());
+    server.stop();
+  }
+
+  @Test
+  public void test1() {
+    assertTrue(this.h2.getConnectionURL().startsWith("jdbc:h2:tcp://"));
+    assertTrue(server.getConnectionCount() > 0L);
+  }
+
+  @Test
+  public void test2() {
+    assertTrue(server.getPeakOpenConnectionCount() > 0);
+  }
+
+  @Test
+  public void testRefusesPortHeldByAnotherProcess() throws IOException {
+    final ServerSocket other = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+    try {
+      final H2Server borrowed = new H2Server(other.getLocalPort());
+      try {
+        borrowed.acquire();
+        borrowed.release();
+        fail("Connected to a server hosted elsewhere");
+      } catch (final SQLException expected) {
+        assertTrue(expected.getMessage(), expected.getMessage().contains("liquiunit.h2.tcpPort"));
+      }
+    } finally {
+      other.close();
+    }
+  }
+
+  private static final int freePort() {
+    try {
+      final ServerSocket socket = new ServerSocket(0);
+      try {
+        return socket.getLocalPort();
+      } finally {
+        socket.close();
+      }
+    } catch (final IOException wrapMe) {
+      throw new IllegalStateException(wrapMe);
+    }
+  }
+
+}
@@ -0,0 +1,120 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.io.File;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseIncrementalArchive {
+
+  @Test
+  public void testPrefixLength() {
+    final List<String> current = Arrays.asList("a", "b", "c");
+    assertEquals(2, ChangeSetManifest.prefixLength(Arrays.asList("b", "a"), current));
+    assertEquals(3, ChangeSetManifest.prefixLength(current, current));
+    assertEquals(-1, ChangeSetManifest.prefixLength(Arrays.asList("a", "c"), current));
+    assertEquals(-1, ChangeSetManifest.prefixLength(Arrays.asList("a", "b", "c", "d"), current));
+    assertEquals(-1, ChangeSetManifest.prefixLength(null, current));
+  }
+
+  @Test
+  public void testAppendedChangeSetsAreAppliedToEarlierArchive() throws Exception {
+    final File directory = new File(System.getProperty("java.io.tmpdir"), "liquiunit-" + System.nanoTime());
+    final String url = "jdbc:h2:mem:TestCaseIncrementalArchive-" + System.nanoTime() + ";DB_CLOSE_DELAY=-1";
+    final DriverManagerDataSource dataSource = new DriverManagerDataSource(url, "sa", "");
+    final Connection c = dataSource.getConnection();
+    try {
+
+      final FileLockingH2Archive before = new FileLockingH2Archive(directory, "inc", "changelog.xml");
+      assertFalse(before.loadUnlessEmpty(null, c));
+      migrate(dataSource, "changelog.xml");
+      assertTrue(before.saveIfEmpty(null, c));
+      final File manifestFile = new File(directory, before.getArchiveFile().getName().replace(".sql", ".changesets"));
+      final List<String> manifest = ChangeSetManifest.load(manifestFile);
+      assertNotNull(manifest);
+      assertEquals(1, manifest.size());
+
+      execute(c, "DROP ALL OBJECTS");
+
+      final FileLockingH2Archive after = new FileLockingH2Archive(directory, "inc", "changelog.xml", "parallel-changelog.xml");
+      assertFalse(after.loadUnlessEmpty(null, c));
+      assertEquals(1, count(c, "DATABASECHANGELOG"));
+      assertEquals(0, count(c, "MESSAGE"));
+      migrate(dataSource, "changelog.xml", "parallel-changelog.xml");
+      assertEquals(7, count(c, "DATABASECHANGELOG"));
+      assertEquals(1, count(c, "BOOK"));
+      assertTrue(after.saveIfEmpty(null, c));
+      assertEquals(7, ChangeSetManifest.load(new File(directory, after.getArchiveFile().getName().replace(".sql", ".changesets"))).size());
+
+    } finally {
+      execute(c, "DROP ALL OBJECTS");
+      c.close();
+    }
+  }
+
+  private static final void migrate(final DriverManagerDataSource dataSource, final String... changeLogResourceNames) throws Exception {
+    final LiquiunitRule rule = new LiquiunitRule(dataSource);
+    rule.setChangeLogResourceNames(Arrays.asList(changeLogResourceNames));
+    rule.before();
+  }
+
+  private static final void execute(final Connection c, final String sql) throws SQLException {
+    final Statement s = c.createStatement();
+    try {
+      s.execute(sql);
+    } finally {
+      s.close();
+    }
+  }
+
+  private static final int count(final Connection c, final String tableName) throws SQLException {
+    final Statement s = c.createStatement();
+    try {
+      final ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM " + tableName);
+      assertTrue(rs.next());
+      return rs.getInt(1);
+    } finally {
+      s.close();
+    }
+  }
+
+}
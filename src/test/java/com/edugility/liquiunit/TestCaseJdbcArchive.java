@@ -0,0 +1,164 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.Arrays;
+
+import javax.sql.DataSource;
+
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+
+import org.junit.runners.MethodSorters;
+
+import static org.junit.Assert.assertEquals;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestCaseJdbcArchive {
+
+  private static final DataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:TestCaseJdbcArchive;DB_CLOSE_DELAY=-1", "sa", "");
+
+  private static final JdbcArchive archive = new JdbcArchive();
+
+  @Rule
+  public final TestRule rule = RuleChain.outerRule(new LiquiunitRule(dataSource)).around(new JdbcArchiveRule(dataSource, archive));
+
+  @Test
+  public void test1Mutate() throws SQLException {
+    execute("INSERT INTO MESSAGE (ID, TEXT) VALUES (99, 'Left behind')");
+    assertEquals(1, count("MESSAGE"));
+  }
+
+  @Test
+  public void test2Restored() throws SQLException {
+    assertEquals(0, count("MESSAGE"));
+    assertEquals(true, archive.getTableNames().contains("\"PUBLIC\".\"MESSAGE\""));
+  }
+
+  @Test
+  public void testDependencyOrder() throws SQLException {
+    final DataSource other = new DriverManagerDataSource("jdbc:h2:mem:TestCaseJdbcArchive-fk;DB_CLOSE_DELAY=-1", "sa", "");
+    final Connection c = other.getConnection();
+    try {
+      final Statement s = c.createStatement();
+      s.execute("CREATE TABLE CHILD (ID INT PRIMARY KEY, PARENT_ID INT)");
+      s.execute("CREATE TABLE PARENT (ID INT PRIMARY KEY, NAME CLOB)");
+      s.execute("ALTER TABLE CHILD ADD FOREIGN KEY (PARENT_ID) REFERENCES PARENT (ID)");
+      s.execute("INSERT INTO PARENT VALUES (1, 'One')");
+      s.execute("INSERT INTO CHILD VALUES (1, 1)");
+      s.execute("INSERT INTO CHILD VALUES (2, NULL)");
+      final JdbcArchive fkArchive = new JdbcArchive(null, "PUBLIC");
+      assertEquals(true, fkArchive.saveIfEmpty(null, c));
+      assertEquals(Arrays.asList("\"PUBLIC\".\"PARENT\"", "\"PUBLIC\".\"CHILD\""), fkArchive.getTableNames());
+      s.execute("DELETE FROM CHILD");
+      s.execute("DELETE FROM PARENT");
+      s.execute("INSERT INTO PARENT VALUES (2, 'Two')");
+      assertEquals(true, fkArchive.loadUnlessEmpty(null, c));
+      final ResultSet rs = s.executeQuery("SELECT NAME FROM PARENT");
+      rs.next();
+      assertEquals("One", rs.getString(1));
+      assertEquals(false, rs.next());
+      s.close();
+      assertEquals(2, count(c, "CHILD"));
+    } finally {
+      c.close();
+    }
+  }
+
+  @Test
+  public void testCyclesIdentitiesAndSequences() throws SQLException {
+    final DataSource other = new DriverManagerDataSource("jdbc:h2:mem:TestCaseJdbcArchive-cycle;DB_CLOSE_DELAY=-1", "sa", "");
+    final Connection c = other.getConnection();
+    try {
+      final Statement s = c.createStatement();
+      s.execute("CREATE TABLE NODE (ID INT AUTO_INCREMENT PRIMARY KEY, NEXT_ID INT)");
+      s.execute("ALTER TABLE NODE ADD FOREIGN KEY (NEXT_ID) REFERENCES NODE (ID)");
+      s.execute("CREATE SEQUENCE TICKET START WITH 100");
+      s.execute("INSERT INTO NODE (ID, NEXT_ID) VALUES (1, NULL)");
+      s.execute("INSERT INTO NODE (ID, NEXT_ID) VALUES (2, 1)");
+      s.execute("UPDATE NODE SET NEXT_ID = 2 WHERE ID = 1");
+      final JdbcArchive cycleArchive = new JdbcArchive(null, "PUBLIC");
+      assertEquals(true, cycleArchive.saveIfEmpty(null, c));
+      s.execute("INSERT INTO NODE (NEXT_ID) VALUES (NULL)");
+      s.execute("SELECT NEXT VALUE FOR TICKET");
+      assertEquals(true, cycleArchive.loadUnlessEmpty(null, c));
+      assertEquals(2, count(c, "NODE"));
+      s.execute("INSERT INTO NODE (NEXT_ID) VALUES (NULL)");
+      ResultSet rs = s.executeQuery("SELECT MAX(ID) FROM NODE");
+      rs.next();
+      assertEquals(3, rs.getInt(1));
+      rs = s.executeQuery("SELECT NEXT VALUE FOR TICKET");
+      rs.next();
+      assertEquals(100, rs.getInt(1));
+      s.close();
+    } finally {
+      c.close();
+    }
+  }
+
+  private static final void execute(final String sql) throws SQLException {
+    final Connection c = dataSource.getConnection();
+    try {
+      final Statement s = c.createStatement();
+      s.execute(sql);
+      s.close();
+    } finally {
+      c.close();
+    }
+  }
+
+  private static final int count(final String table) throws SQLException {
+    final Connection c = dataSource.getConnection();
+    try {
+      return count(c, table);
+    } finally {
+      c.close();
+    }
+  }
+
+  private static final int count(final Connection c, final String table) throws SQLException {
+    final Statement s = c.createStatement();
+    try {
+      final ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM " + table);
+      rs.next();
+      return rs.getInt(1);
+    } finally {
+      s.close();
+    }
+  }
+
+}
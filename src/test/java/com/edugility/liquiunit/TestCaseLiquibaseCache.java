@@ -0,0 +1,271 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+
+import java.util.Arrays;
+import java.util.List;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import liquibase.Liquibase;
+
+import liquibase.changelog.DatabaseChangeLog;
+
+import liquibase.database.Database;
+
+import liquibase.database.jvm.JdbcConnection;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseLiquibaseCache {
+
+  @Rule
+  public final H2Rule h2 = new H2Rule();
+
+  @Test
+  public void testChangeLogIsParsedOnce() throws Exception {
+    final Connection c = this.h2.getConnection();
+    try {
+      final Database database = LiquibaseCache.findCorrectDatabaseImplementation(new JdbcConnection(c));
+      assertNotNull(database);
+      final Liquibase first = new LiquiunitRule(this.h2).createLiquibase(database);
+      final Liquibase second = new LiquiunitRule(this.h2).createLiquibase(database);
+      assertNotNull(first);
+      assertNotNull(second);
+      assertSame(first.getDatabaseChangeLog(), second.getDatabaseChangeLog());
+    } finally {
+      c.close();
+    }
+  }
+
+  @Test
+  public void testDatabaseImplementationIsCached() throws Exception {
+    final Connection c = this.h2.getConnection();
+    try {
+      final Database first = LiquibaseCache.findCorrectDatabaseImplementation(new JdbcConnection(c));
+      final Database second = LiquibaseCache.findCorrectDatabaseImplementation(new JdbcConnection(c));
+      assertSame(first.getClass(), second.getClass());
+      assertEquals("h2", second.getShortName());
+    } finally {
+      c.close();
+    }
+  }
+
+  @Test
+  public void testUpdateIsReplayed() throws Exception {
+    final LiquiunitRule rule = new LiquiunitRule(this.h2);
+    rule.setReplaying(true);
+    rule.before();
+    final List<String> first = this.describe();
+    final Connection c = this.h2.getConnection();
+    try {
+      final Statement s = c.createStatement();
+      s.execute("DROP ALL OBJECTS");
+      s.close();
+    } finally {
+      c.close();
+    }
+    final LiquiunitRule replayer = new LiquiunitRule(this.h2);
+    replayer.setReplaying(true);
+    replayer.before();
+    assertEquals(first, this.describe());
+    assertTrue(first.contains("MESSAGE"));
+  }
+
+  @Test
+  public void testOverriddenShouldUpdateIsNotReplayed() throws Exception {
+    final LiquiunitRule rule = new LiquiunitRule(this.h2);
+    rule.setReplaying(true);
+    rule.before();
+    assertTrue(this.describe().contains("MESSAGE"));
+    final Connection c = this.h2.getConnection();
+    try {
+      final Statement s = c.createStatement();
+      s.execute("DROP ALL OBJECTS");
+      s.close();
+    } finally {
+      c.close();
+    }
+    final LiquiunitRule skipper = new LiquiunitRule(this.h2) {
+        @Override
+        protected final boolean shouldUpdate(final Liquibase liquibase) {
+          return false;
+        }
+      };
+    skipper.setReplaying(true);
+    skipper.before();
+    final Connection c2 = this.h2.getConnection();
+    try {
+      final ResultSet rs = c2.getMetaData().getTables(null, null, "MESSAGE", null);
+      assertFalse(rs.next());
+      rs.close();
+    } finally {
+      c2.close();
+    }
+  }
+
+  private final List<String> describe() throws SQLException {
+    final List<String> returnValue = new ArrayList<String>();
+    final Connection c = this.h2.getConnection();
+    try {
+      final Statement s = c.createStatement();
+      ResultSet rs = s.executeQuery("SELECT TABLE_NAME FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = 'PUBLIC' ORDER BY TABLE_NAME");
+      while (rs.next()) {
+        returnValue.add(rs.getString(1));
+      }
+      rs.close();
+      rs = s.executeQuery("SELECT ID, AUTHOR, FILENAME, MD5SUM FROM DATABASECHANGELOG ORDER BY ORDEREXECUTED");
+      while (rs.next()) {
+        returnValue.add(rs.getString(1) + "/" + rs.getString(2) + "/" + rs.getString(3) + "/" + rs.getString(4));
+      }
+      rs.close();
+      s.close();
+    } finally {
+      c.close();
+    }
+    return returnValue;
+  }
+
+  @Test
+  public void testFingerprintTracksContents() throws Exception {
+    final ClassLoader cl = Thread.currentThread().getContextClassLoader();
+    final String changeLog = LiquibaseCache.fingerprint(Arrays.asList("changelog.xml"), cl);
+    assertEquals(changeLog, LiquibaseCache.fingerprint(Arrays.asList("changelog.xml"), cl));
+    assertFalse(changeLog.equals(LiquibaseCache.fingerprint(Arrays.asList("reference-changelog.xml"), cl)));
+  }
+
+  @Test
+  public void testIncludedResourcesAreFingerprinted() throws Exception {
+    final File directory = new File(System.getProperty("java.io.tmpdir"), "liquiunit-" + System.nanoTime());
+    final File fingerprint = new File(directory, "fingerprint");
+    assertTrue(fingerprint.mkdirs());
+    write(new File(fingerprint, "top.xml"), changeLog("<include file=\"included.xml\" relativeToChangelogFile=\"true\"/>"));
+    write(new File(fingerprint, "included.xml"), changeLog("<changeSet author=\"ljnelson\" id=\"data\"><sqlFile path=\"data.sql\" relativeToChangelogFile=\"true\"/></changeSet>"));
+    write(new File(fingerprint, "data.sql"), "CREATE TABLE FINGERPRINT (ID INT)");
+    final Thread thread = Thread.currentThread();
+    final ClassLoader old = thread.getContextClassLoader();
+    final ClassLoader cl = new URLClassLoader(new URL[] { directory.toURI().toURL() }, old);
+    thread.setContextClassLoader(cl);
+    final Connection c = this.h2.getConnection();
+    try {
+      final Database database = LiquibaseCache.findCorrectDatabaseImplementation(new JdbcConnection(c));
+      final LiquiunitRule rule = new LiquiunitRule(this.h2);
+      rule.setChangeLogResourceNames(Arrays.asList("fingerprint/top.xml"));
+      final DatabaseChangeLog first = rule.createLiquibase(database).getDatabaseChangeLog();
+      assertEquals(1, first.getChangeSets().size());
+      assertSame(first, rule.createLiquibase(database).getDatabaseChangeLog());
+
+      write(new File(fingerprint, "data.sql"), "CREATE TABLE FINGERPRINT (ID BIGINT)");
+      final DatabaseChangeLog second = rule.createLiquibase(database).getDatabaseChangeLog();
+      assertNotSame(first, second);
+      assertSame(second, rule.createLiquibase(database).getDatabaseChangeLog());
+
+      write(new File(fingerprint, "included.xml"), changeLog("<changeSet author=\"ljnelson\" id=\"data\"><sqlFile path=\"data.sql\" relativeToChangelogFile=\"true\"/></changeSet><changeSet author=\"ljnelson\" id=\"more\"><sql>SELECT 1</sql></changeSet>"));
+      final DatabaseChangeLog third = rule.createLiquibase(database).getDatabaseChangeLog();
+      assertNotSame(second, third);
+      assertEquals(2, third.getChangeSets().size());
+    } finally {
+      thread.setContextClassLoader(old);
+      c.close();
+    }
+  }
+
+  @Test
+  public void testClaimedChangeLogIsNotShared() throws Exception {
+    final Connection c = this.h2.getConnection();
+    final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    try {
+      final Database database = LiquibaseCache.findCorrectDatabaseImplementation(new JdbcConnection(c));
+      final LiquiunitRule rule = new LiquiunitRule(this.h2);
+      final DatabaseChangeLog claimed = rule.createLiquibase(database).getDatabaseChangeLog();
+      assertTrue(LiquibaseCache.claim(claimed));
+      try {
+        assertSame(claimed, rule.createLiquibase(database).getDatabaseChangeLog());
+        final DatabaseChangeLog other = executorService.submit(new Callable<DatabaseChangeLog>() {
+            @Override
+            public final DatabaseChangeLog call() throws Exception {
+              assertFalse(LiquibaseCache.claim(claimed));
+              return rule.createLiquibase(database).getDatabaseChangeLog();
+            }
+          }).get();
+        assertNotSame(claimed, other);
+        assertEquals(claimed.getChangeSets().size(), other.getChangeSets().size());
+      } finally {
+        LiquibaseCache.release(claimed);
+      }
+    } finally {
+      executorService.shutdownNow();
+      c.close();
+    }
+  }
+
+  private static final String changeLog(final String body) {
+    return
+      "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+      "<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\"" +
+      " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"" +
+      " xsi:schemaLocation=\"http://www.liquibase.org/xml/ns/dbchangelog http://www.liquibase.org/xml/ns/dbchangelog/dbchangelog-3.1.xsd\">" +
+      body +
+      "</databaseChangeLog>";
+  }
+
+  private static final void write(final File file, final String contents) throws IOException {
+    final OutputStream stream = new FileOutputStream(file);
+    try {
+      stream.write(contents.getBytes("UTF-8"));
+    } finally {
+      stream.close();
+    }
+  }
+
+}
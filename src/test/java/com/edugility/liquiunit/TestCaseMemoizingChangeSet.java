@@ -0,0 +1,83 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Connection;
+
+import java.util.Arrays;
+
+import liquibase.change.Change;
+import liquibase.change.CheckSum;
+
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+
+import liquibase.database.Database;
+
+import liquibase.database.jvm.JdbcConnection;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseMemoizingChangeSet {
+
+  @Rule
+  public final H2Rule h2 = new H2Rule();
+
+  @Test
+  public void testCheckSumsAreMemoized() throws Exception {
+    final Connection c = this.h2.getConnection();
+    try {
+      final Database database = LiquibaseCache.findCorrectDatabaseImplementation(new JdbcConnection(c));
+      final LiquiunitRule rule = new LiquiunitRule(this.h2);
+      rule.setChangeLogResourceNames(Arrays.asList("parallel-changelog.xml"));
+      final DatabaseChangeLog changeLog = rule.createLiquibase(database).getDatabaseChangeLog();
+      for (final ChangeSet changeSet : changeLog.getChangeSets()) {
+        assertTrue(changeSet instanceof MemoizingChangeSet);
+        final StringBuilder serialization = new StringBuilder();
+        for (final Change change : changeSet.getChanges()) {
+          assertSame(changeSet, change.getChangeSet());
+          serialization.append(change.generateCheckSum()).append(":");
+        }
+        final CheckSum checkSum = changeSet.generateCheckSum();
+        assertEquals(CheckSum.compute(serialization.toString()), checkSum);
+        final long hits = MemoizingChangeSet.getHits();
+        assertSame(checkSum, changeSet.generateCheckSum());
+        assertTrue(MemoizingChangeSet.getHits() > hits);
+      }
+      assertTrue(LiquiunitRule.getCheckSumHitRate() > 0.0);
+    } finally {
+      c.close();
+    }
+  }
+
+}
@@ -0,0 +1,104 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.junit.runner.RunWith;
+
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(Parameterized.class)
+public class TestCaseMigrationMatrix {
+
+  private static final MigrationMatrix matrix = new MigrationMatrix(new String[] { "matrix-changelog.xml" }, new String[] { "", "demo" }, new String[] { "", "eu", "us" });
+
+  private final SnapshotKey variant;
+
+  @Rule
+  public final H2Rule h2;
+
+  public TestCaseMigrationMatrix(final SnapshotKey variant) {
+    super();
+    this.variant = variant;
+    this.h2 = matrix.newH2Rule(variant);
+  }
+
+  @Parameters(name = "{0}")
+  public static Collection<Object[]> variants() {
+    return matrix.getParameters();
+  }
+
+  @Test
+  public void testVariant() throws SQLException {
+    assertEquals(6, matrix.getVariants().size());
+    final Set<String> expected = new HashSet<String>();
+    if (this.variant.getContexts().isEmpty()) {
+      expected.add("demo");
+      expected.add("production");
+    } else {
+      expected.addAll(this.variant.getContexts());
+    }
+    if (this.variant.getLabels() == null) {
+      expected.add("eu");
+      expected.add("us");
+    } else {
+      expected.add(this.variant.getLabels());
+    }
+    final Set<String> actual = new HashSet<String>();
+    final Connection c = this.h2.getConnection();
+    try {
+      final Statement s = c.createStatement();
+      try {
+        final ResultSet rs = s.executeQuery("SELECT NAME FROM SETTING");
+        while (rs.next()) {
+          actual.add(rs.getString(1));
+        }
+      } finally {
+        s.close();
+      }
+    } finally {
+      c.close();
+    }
+    assertEquals(expected, actual);
+  }
+
+}
@@ -0,0 +1,150 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseMigrationRehearsal {
+
+  private static final String REPORT = "target/liquiunit-rehearsal.csv";
+
+  private final H2Rule h2;
+
+  @Rule
+  public final TestRule rule;
+
+  public TestCaseMigrationRehearsal() {
+    super();
+    this.h2 = new H2Rule();
+    final LiquiunitRule liquibase = new LiquiunitRule(this.h2);
+    liquibase.setChangeLogResourceNames(Collections.singleton("rehearsal-changelog.xml"));
+    this.rule = RuleChain.outerRule(this.h2).around(liquibase);
+  }
+
+  @Rehearse(value = "1.0", rows = { 1000L, 100L }, extrapolateTo = 1000000L, report = REPORT)
+  @Test
+  public void testRehearsal() throws Exception {
+    final Connection c = this.h2.getConnection();
+    try {
+      assertEquals(1001, count(c, "SELECT COUNT(*) FROM ITEM"));
+      assertEquals(1000, count(c, "SELECT COUNT(*) FROM ITEM_NOTE"));
+      assertEquals(1000, count(c, "SELECT COUNT(*) FROM ITEM_NOTE N JOIN ITEM I ON N.ITEM_ID = I.ID"));
+      assertEquals(1001, count(c, "SELECT COUNT(*) FROM ITEM WHERE PRICE = 1"));
+      assertEquals(7, count(c, "SELECT COUNT(*) FROM DATABASECHANGELOG"));
+    } finally {
+      c.close();
+    }
+
+    final File report = new File(REPORT);
+    final List<String> lines = read(report);
+    assertTrue(report.delete());
+    assertEquals("changeSet,rows,elapsedMillis,rowsTouched,peakHeapBytes,growthExponent,extrapolatedMillis", lines.remove(0));
+    assertEquals(6, lines.size());
+    assertEquals(Arrays.asList("\"rehearsal::item.price::ljnelson\"", "100", "101"), fields(lines.get(0), 0, 1, 3));
+    assertEquals(Arrays.asList("\"rehearsal::item.price::ljnelson\"", "1000", "1001"), fields(lines.get(1), 0, 1, 3));
+    assertEquals(Arrays.asList("\"rehearsal::item.name.index::ljnelson\"", "100", "101"), fields(lines.get(2), 0, 1, 3));
+    assertEquals(Arrays.asList("\"rehearsal::item.price.data::ljnelson\"", "1000", "1001"), fields(lines.get(5), 0, 1, 3));
+    for (final String line : lines) {
+      final String[] fields = line.split(",", -1);
+      assertEquals(7, fields.length);
+      assertTrue(Long.parseLong(fields[4]) > 0L);
+      assertFalse(fields[5].isEmpty());
+      assertFalse(fields[6].isEmpty());
+    }
+  }
+
+  @Test
+  public void testGrowthExponent() {
+    final List<MigrationRehearsal.Measurement> measurements = new ArrayList<MigrationRehearsal.Measurement>();
+    measurements.add(new MigrationRehearsal.Measurement("a", 100L, 1000000L, 100L, 1L));
+    assertTrue(Double.isNaN(MigrationRehearsal.growthExponent(measurements)));
+    measurements.add(new MigrationRehearsal.Measurement("a", 1000L, 10000000L, 1000L, 1L));
+    assertEquals(1.0, MigrationRehearsal.growthExponent(measurements), 0.0001);
+    assertEquals(1.0E10, MigrationRehearsal.extrapolate(measurements, 1000000L), 1.0);
+    measurements.add(new MigrationRehearsal.Measurement("a", 10000L, 1000000000L, 10000L, 1L));
+    assertEquals(1.5, MigrationRehearsal.growthExponent(measurements), 0.0001);
+  }
+
+  private static final List<String> fields(final String line, final int... indices) {
+    final String[] fields = line.split(",", -1);
+    final List<String> returnValue = new ArrayList<String>(indices.length);
+    for (final int index : indices) {
+      returnValue.add(fields[index]);
+    }
+    return returnValue;
+  }
+
+  private static final int count(final Connection c, final String sql) throws SQLException {
+    final Statement s = c.createStatement();
+    try {
+      final ResultSet rs = s.executeQuery(sql);
+      assertTrue(rs.next());
+      return rs.getInt(1);
+    } finally {
+      s.close();
+    }
+  }
+
+  private static final List<String> read(final File file) throws Exception {
+    final List<String> lines = new ArrayList<String>();
+    final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lines.add(line);
+      }
+    } finally {
+      reader.close();
+    }
+    return lines;
+  }
+
+}
@@ -0,0 +1,110 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.dbunit.ext.h2.H2DataTypeFactory;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.junit.experimental.ParallelComputer;
+
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseParallelRules {
+
+  @Test
+  public void testSharedRulesRunMethodsConcurrently() {
+    final Result result = JUnitCore.runClasses(ParallelComputer.methods(), Methods.class);
+    assertTrue(String.valueOf(result.getFailures()), result.wasSuccessful());
+    assertEquals(3, result.getRunCount());
+  }
+
+  public static final class Methods {
+
+    private static final H2Rule h2 = new H2Rule();
+
+    private static final TestRule chain = RuleChain.outerRule(h2).around(new LiquiunitRule(h2)).around(new DataSourceDatabaseTesterRule(h2, new H2DataTypeFactory()));
+
+    private static final CyclicBarrier barrier = new CyclicBarrier(3);
+
+    @Rule
+    public final TestRule rule = chain;
+
+    public Methods() {
+      super();
+    }
+
+    @Test
+    public void test1() throws Exception {
+      this.insertAndCount(1L);
+    }
+
+    @Test
+    public void test2() throws Exception {
+      this.insertAndCount(2L);
+    }
+
+    @Test
+    public void test3() throws Exception {
+      this.insertAndCount(3L);
+    }
+
+    private final void insertAndCount(final long id) throws Exception {
+      barrier.await(30L, TimeUnit.SECONDS);
+      final Connection c = h2.getConnection();
+      try {
+        final Statement s = c.createStatement();
+        s.executeUpdate("INSERT INTO MESSAGE (ID, TEXT) VALUES (" + id + ", 'Parallel')");
+        final ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM MESSAGE");
+        assertTrue(rs.next());
+        assertEquals(1, rs.getInt(1));
+        s.close();
+      } finally {
+        c.close();
+      }
+    }
+
+  }
+
+}
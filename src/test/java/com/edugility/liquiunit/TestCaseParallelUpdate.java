@@ -0,0 +1,143 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+
+import liquibase.database.Database;
+
+import liquibase.database.jvm.JdbcConnection;
+
+import liquibase.exception.ValidationFailedException;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseParallelUpdate {
+
+  @Rule
+  public final H2Rule h2 = new H2Rule();
+
+  @Test
+  public void testPlan() throws Exception {
+    final Connection c = this.h2.getConnection();
+    try {
+      final Database database = LiquibaseCache.findCorrectDatabaseImplementation(new JdbcConnection(c));
+      final LiquiunitRule rule = new LiquiunitRule(this.h2);
+      rule.setChangeLogResourceNames(Arrays.asList("parallel-changelog.xml"));
+      final DatabaseChangeLog changeLog = rule.createLiquibase(database).getDatabaseChangeLog();
+      assertNotNull(changeLog);
+      final List<ChangeSet> changeSets = changeLog.getChangeSets();
+      assertEquals(6, changeSets.size());
+      assertNull(ParallelUpdate.getObjectNames(changeSets.get(5)));
+      final List<List<String>> waves = new ArrayList<List<String>>();
+      for (final List<ChangeSet> wave : ParallelUpdate.plan(changeSets)) {
+        final List<String> ids = new ArrayList<String>();
+        for (final ChangeSet changeSet : wave) {
+          ids.add(changeSet.getId());
+        }
+        waves.add(ids);
+      }
+      assertEquals(Arrays.asList(Arrays.asList("author.creation", "publisher.creation"),
+                                 Arrays.asList("book.creation", "publisher.index"),
+                                 Arrays.asList("author.data"),
+                                 Arrays.asList("book.data")),
+                   waves);
+    } finally {
+      c.close();
+    }
+  }
+
+  @Test
+  public void testParallelUpdate() throws Exception {
+    final LiquiunitRule rule = new LiquiunitRule(this.h2);
+    rule.setChangeLogResourceNames(Arrays.asList("parallel-changelog.xml"));
+    rule.setParallelism(3);
+    rule.before();
+    final Connection c = this.h2.getConnection();
+    try {
+      final Statement s = c.createStatement();
+      ResultSet rs = s.executeQuery("SELECT TITLE FROM BOOK JOIN AUTHOR ON BOOK.AUTHOR_ID = AUTHOR.ID");
+      assertTrue(rs.next());
+      assertEquals("Moby-Dick", rs.getString(1));
+      rs.close();
+      rs = s.executeQuery("SELECT COUNT(*) FROM DATABASECHANGELOG");
+      assertTrue(rs.next());
+      assertEquals(6, rs.getInt(1));
+      rs.close();
+      rs = s.executeQuery("SELECT ID FROM DATABASECHANGELOG ORDER BY ORDEREXECUTED");
+      final List<String> ids = new ArrayList<String>();
+      while (rs.next()) {
+        ids.add(rs.getString(1));
+      }
+      rs.close();
+      s.close();
+      assertTrue(ids.indexOf("author.creation") < ids.indexOf("book.creation"));
+      assertTrue(ids.indexOf("author.data") < ids.indexOf("book.data"));
+    } finally {
+      c.close();
+    }
+  }
+
+  @Test
+  public void testParallelUpdateValidates() throws Exception {
+    final LiquiunitRule rule = new LiquiunitRule(this.h2);
+    rule.setChangeLogResourceNames(Arrays.asList("duplicate-changelog.xml"));
+    rule.setParallelism(3);
+    try {
+      rule.before();
+      throw new AssertionError("Expected a ValidationFailedException");
+    } catch (final ValidationFailedException expected) {
+      // Expected.
+    }
+    final Connection c = this.h2.getConnection();
+    try {
+      final ResultSet rs = c.getMetaData().getTables(null, null, "DUPLICATE_ONE", null);
+      assertFalse(rs.next());
+      rs.close();
+    } finally {
+      c.close();
+    }
+  }
+
+}
@@ -0,0 +1,174 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import liquibase.changelog.ChangeSet;
+
+import liquibase.database.Database;
+
+import liquibase.database.jvm.JdbcConnection;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+
+import org.junit.runner.Description;
+
+import org.junit.runners.model.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestCasePartialSchema {
+
+  private final H2Rule h2;
+
+  private final LiquiunitRule liquibase;
+
+  @Rule
+  public final TestRule rule;
+
+  public TestCasePartialSchema() {
+    super();
+    this.h2 = new H2Rule();
+    this.liquibase = new LiquiunitRule(this.h2);
+    this.liquibase.setChangeLogResourceNames(Arrays.asList("changelog.xml", "parallel-changelog.xml"));
+    this.rule = RuleChain.outerRule(this.h2).around(this.liquibase);
+  }
+
+  @Test
+  public void testClosure() throws Exception {
+    final PartialSchema schema;
+    final Connection c = this.h2.getConnection();
+    try {
+      final Database database = LiquibaseCache.findCorrectDatabaseImplementation(new JdbcConnection(c));
+      schema = PartialSchema.of(this.liquibase.createLiquibase(database).getDatabaseChangeLog(), Collections.singleton("book"));
+    } finally {
+      c.close();
+    }
+    final List<String> skipped = new ArrayList<String>();
+    for (final ChangeSet changeSet : schema.getSkipped()) {
+      skipped.add(changeSet.getId());
+    }
+    assertEquals(Arrays.asList("message.creation", "publisher.creation", "publisher.index"), skipped);
+    assertTrue(schema.getObjectNames().contains("AUTHOR"));
+    assertEquals(4, schema.getChangeLog().getChangeSets().size());
+  }
+
+  @RequiresTables(value = "BOOK", dataSet = false)
+  @Test
+  public void testOnlyNeededTablesAreCreated() throws SQLException {
+    final Connection c = this.h2.getConnection();
+    try {
+      assertEquals(1, count(c, "BOOK"));
+      assertEquals(1, count(c, "AUTHOR"));
+      assertFalse(hasTable(c, "PUBLISHER"));
+      assertFalse(hasTable(c, "MESSAGE"));
+    } finally {
+      c.close();
+    }
+  }
+
+  @RequiresTables(persistenceUnit = "test")
+  @Test
+  public void testEntityTablesAreCreated() throws SQLException {
+    final Connection c = this.h2.getConnection();
+    try {
+      assertTrue(hasTable(c, "MESSAGE"));
+      assertFalse(hasTable(c, "AUTHOR"));
+      assertFalse(hasTable(c, "BOOK"));
+    } finally {
+      c.close();
+    }
+  }
+
+  @Test
+  public void testEverythingIsCreatedWithoutAnnotation() throws SQLException {
+    final Connection c = this.h2.getConnection();
+    try {
+      assertTrue(hasTable(c, "MESSAGE"));
+      assertTrue(hasTable(c, "PUBLISHER"));
+      assertEquals(1, count(c, "BOOK"));
+    } finally {
+      c.close();
+    }
+  }
+
+  @Test
+  public void testPartialSchemaIsNotArchived() throws Throwable {
+    final H2Archive archive = new H2Archive();
+    final H2Rule h2 = new H2Rule(archive);
+    final LiquiunitRule liquibase = new LiquiunitRule(h2);
+    liquibase.setChangeLogResourceNames(Arrays.asList("changelog.xml", "parallel-changelog.xml"));
+    final TestRule chain = RuleChain.outerRule(h2).around(liquibase);
+    final Statement nothing = new Statement() {
+        @Override
+        public final void evaluate() {
+
+        }
+      };
+    final RequiresTables requiresTables = TestCasePartialSchema.class.getMethod("testOnlyNeededTablesAreCreated").getAnnotation(RequiresTables.class);
+    chain.apply(nothing, Description.createTestDescription(TestCasePartialSchema.class, "partial", requiresTables)).evaluate();
+    assertTrue(archive.isEmpty(null));
+    chain.apply(nothing, Description.createTestDescription(TestCasePartialSchema.class, "full")).evaluate();
+    assertFalse(archive.isEmpty(null));
+  }
+
+  private static final int count(final Connection c, final String tableName) throws SQLException {
+    final java.sql.Statement s = c.createStatement();
+    try {
+      final ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM " + tableName);
+      assertTrue(rs.next());
+      return rs.getInt(1);
+    } finally {
+      s.close();
+    }
+  }
+
+  private static final boolean hasTable(final Connection c, final String tableName) throws SQLException {
+    final ResultSet rs = c.getMetaData().getTables(null, null, tableName, null);
+    try {
+      return rs.next();
+    } finally {
+      rs.close();
+    }
+  }
+
+}
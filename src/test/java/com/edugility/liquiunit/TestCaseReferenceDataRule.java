@@ -0,0 +1,104 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.dbunit.ext.h2.H2DataTypeFactory;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestCaseReferenceDataRule {
+
+  private static final ReferenceData referenceData = ReferenceData.getInstance("reference-changelog.xml", "reference-data.xml");
+
+  private final H2Rule h2;
+
+  @Rule
+  public final TestRule rule;
+
+  public TestCaseReferenceDataRule() {
+    super();
+    this.h2 = new H2Rule();
+    this.rule = RuleChain.outerRule(this.h2)
+      .around(new ReferenceDataRule(this.h2, referenceData))
+      .around(new LiquiunitRule(this.h2))
+      .around(new DataSourceDatabaseTesterRule(this.h2, new H2DataTypeFactory()));
+  }
+
+  @Test
+  public void testReferenceDataIsShared() {
+    assertTrue(referenceData.isLoaded());
+    assertSame(referenceData, ReferenceData.getInstance("reference-changelog.xml", "reference-data.xml"));
+  }
+
+  @Test
+  public void testReferenceTablesAreReadable() throws SQLException {
+    final Connection c = this.h2.getConnection();
+    try {
+      final Statement s = c.createStatement();
+      final ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM COUNTRY");
+      assertTrue(rs.next());
+      assertEquals(2, rs.getInt(1));
+      rs.close();
+      s.close();
+    } finally {
+      c.close();
+    }
+  }
+
+  @Test
+  public void testReferenceTablesAreReadOnly() throws SQLException {
+    final Connection c = this.h2.getConnection();
+    try {
+      final Statement s = c.createStatement();
+      try {
+        s.executeUpdate("INSERT INTO COUNTRY (CODE, NAME) VALUES ('MX', 'Mexico')");
+        fail();
+      } catch (final SQLException expected) {
+
+      }
+      s.close();
+    } finally {
+      c.close();
+    }
+  }
+
+}
@@ -0,0 +1,71 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.io.InputStream;
+
+import java.net.URL;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseResourceIndex {
+
+  @Test
+  public void testLookupsAreIndexed() throws Exception {
+    final AtomicInteger lookups = new AtomicInteger();
+    final ClassLoader cl = new ClassLoader(Thread.currentThread().getContextClassLoader()) {
+        @Override
+        public final URL getResource(final String name) {
+          lookups.incrementAndGet();
+          return super.getResource(name);
+        }
+      };
+    final ResourceIndex index = ResourceIndex.getInstance(cl);
+    assertSame(index, ResourceIndex.getInstance(cl));
+    for (int i = 0; i < 3; i++) {
+      assertTrue(index.exists("changelog.xml"));
+      assertFalse(index.exists("no-such-changelog.xml"));
+    }
+    assertEquals(2, lookups.get());
+    final InputStream stream = index.openStream("changelog.xml");
+    assertNotNull(stream);
+    stream.close();
+    assertNull(index.openStream("no-such-changelog.xml"));
+    assertEquals(2, lookups.get());
+  }
+
+}
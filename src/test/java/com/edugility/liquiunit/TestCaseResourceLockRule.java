@@ -0,0 +1,152 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.util.SortedMap;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.junit.experimental.ParallelComputer;
+
+import org.junit.rules.TestRule;
+
+import org.junit.runner.Description;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+
+import org.junit.runners.model.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestCaseResourceLockRule {
+
+  @Test
+  public void testWritersExcludeEachOtherAndReadersShare() {
+    final Result result = JUnitCore.runClasses(ParallelComputer.methods(), Methods.class);
+    assertTrue(String.valueOf(result.getFailures()), result.wasSuccessful());
+    assertEquals(5, result.getRunCount());
+    assertEquals(1, Methods.maximumWriters.get());
+  }
+
+  @Test
+  public void testClassAndMethodResourcesAreMerged() throws Exception {
+    final Description description = Description.createTestDescription(Methods.class, "write1", Methods.class.getMethod("write1").getAnnotations());
+    final SortedMap<String, ResourceLock.Mode> resources = new ResourceLockRule().getResources(description);
+    assertEquals(ResourceLock.Mode.READ, resources.get("TestCaseResourceLockRule.readers"));
+    assertEquals(ResourceLock.Mode.READ_WRITE, resources.get("TestCaseResourceLockRule.writers"));
+  }
+
+  @Test
+  public void testUpgradeIsRejected() throws Throwable {
+    final Description description = Description.createTestDescription(TestCaseResourceLockRule.class, "testUpgradeIsRejected");
+    final boolean[] evaluated = new boolean[1];
+    final Statement inner = new ResourceLockRule(ResourceLock.Mode.READ_WRITE, "TestCaseResourceLockRule.upgrade").apply(new Statement() {
+        @Override
+        public final void evaluate() {
+          evaluated[0] = true;
+        }
+      }, description);
+    final Statement outer = new ResourceLockRule(ResourceLock.Mode.READ, "TestCaseResourceLockRule.upgrade").apply(inner, description);
+    try {
+      outer.evaluate();
+      fail();
+    } catch (final IllegalStateException expected) {
+
+    }
+    assertFalse(evaluated[0]);
+  }
+
+  @ResourceLock(value = "TestCaseResourceLockRule.readers", mode = ResourceLock.Mode.READ)
+  public static final class Methods {
+
+    private static final AtomicInteger writers = new AtomicInteger();
+
+    private static final AtomicInteger maximumWriters = new AtomicInteger();
+
+    private static final CyclicBarrier readers = new CyclicBarrier(2);
+
+    @Rule
+    public final TestRule rule = new ResourceLockRule();
+
+    public Methods() {
+      super();
+    }
+
+    @Test
+    @ResourceLock("TestCaseResourceLockRule.writers")
+    public void write1() throws InterruptedException {
+      this.write();
+    }
+
+    @Test
+    @ResourceLock("TestCaseResourceLockRule.writers")
+    public void write2() throws InterruptedException {
+      this.write();
+    }
+
+    @Test
+    @ResourceLock("TestCaseResourceLockRule.writers")
+    public void write3() throws InterruptedException {
+      this.write();
+    }
+
+    @Test
+    public void read1() throws Exception {
+      readers.await(30L, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void read2() throws Exception {
+      readers.await(30L, TimeUnit.SECONDS);
+    }
+
+    private final void write() throws InterruptedException {
+      final int active = writers.incrementAndGet();
+      try {
+        int max = maximumWriters.get();
+        while (active > max && !maximumWriters.compareAndSet(max, active)) {
+          max = maximumWriters.get();
+        }
+        Thread.sleep(50L);
+      } finally {
+        writers.decrementAndGet();
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,137 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.Collections;
+
+import liquibase.exception.LiquibaseException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestCaseRollbackVerification {
+
+  @Test
+  public void testRoundTripLeavesEveryChangeSetApplied() throws Exception {
+    final DriverManagerDataSource dataSource = newDataSource();
+    final LiquiunitRule rule = newRule(dataSource, "rollback-changelog.xml");
+    rule.before();
+    final Connection c = dataSource.getConnection();
+    try {
+      assertEquals(3, count(c, "SELECT COUNT(*) FROM DATABASECHANGELOG"));
+      assertEquals(1, count(c, "SELECT COUNT(*) FROM SHELF WHERE LABEL = 'A'"));
+    } finally {
+      dropAllObjects(c);
+      c.close();
+    }
+  }
+
+  @Test
+  public void testMissingAndIncompleteRollbacksFail() throws Exception {
+    final DriverManagerDataSource dataSource = newDataSource();
+    final LiquiunitRule rule = newRule(dataSource, "broken-rollback-changelog.xml");
+    final Connection c = dataSource.getConnection();
+    try {
+      rule.before();
+      fail();
+    } catch (final LiquibaseException expected) {
+      final String message = expected.getMessage();
+      assertTrue(message, message.contains("broken-rollback::crate.creation::ljnelson: has no rollback"));
+      assertTrue(message, message.contains("broken-rollback::bin.creation::ljnelson: rollback did not restore the schema"));
+      assertEquals(2, count(c, "SELECT COUNT(*) FROM DATABASECHANGELOG"));
+    } finally {
+      dropAllObjects(c);
+      c.close();
+    }
+  }
+
+  @Test
+  public void testSlowRollbackFails() throws Exception {
+    final DriverManagerDataSource dataSource = newDataSource();
+    final LiquiunitRule rule = newRule(dataSource, "rollback-changelog.xml");
+    rule.setRollbackThreshold(0L);
+    final Connection c = dataSource.getConnection();
+    try {
+      rule.before();
+      fail();
+    } catch (final LiquibaseException expected) {
+      final String message = expected.getMessage();
+      assertTrue(message, message.contains("more than the threshold of 0 ms"));
+      assertFalse(message, message.contains("did not restore"));
+    } finally {
+      dropAllObjects(c);
+      c.close();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeThreshold() {
+    new LiquiunitRule(null).setRollbackThreshold(-1L);
+  }
+
+  private static final DriverManagerDataSource newDataSource() {
+    return new DriverManagerDataSource("jdbc:h2:mem:TestCaseRollbackVerification-" + System.nanoTime() + ";DB_CLOSE_DELAY=-1", "sa", "");
+  }
+
+  private static final LiquiunitRule newRule(final DriverManagerDataSource dataSource, final String changeLogResourceName) {
+    final LiquiunitRule rule = new LiquiunitRule(dataSource);
+    rule.setChangeLogResourceNames(Collections.singletonList(changeLogResourceName));
+    rule.setVerifyingRollbacks(true);
+    return rule;
+  }
+
+  private static final int count(final Connection c, final String sql) throws SQLException {
+    final Statement s = c.createStatement();
+    try {
+      final ResultSet rs = s.executeQuery(sql);
+      assertTrue(rs.next());
+      return rs.getInt(1);
+    } finally {
+      s.close();
+    }
+  }
+
+  private static final void dropAllObjects(final Connection c) throws SQLException {
+    final Statement s = c.createStatement();
+    try {
+      s.execute("DROP ALL OBJECTS");
+    } finally {
+      s.close();
+    }
+  }
+
+}
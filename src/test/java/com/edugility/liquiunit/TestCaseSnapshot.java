@@ -0,0 +1,126 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+
+import org.junit.runner.Description;
+
+import static org.junit.Assert.assertEquals;
+
+@Snapshot(changeLogs = "matrix-changelog.xml", contexts = "demo", labels = "eu")
+public class TestCaseSnapshot {
+
+  private final H2Rule h2;
+
+  @Rule
+  public final TestRule rule;
+
+  public TestCaseSnapshot() {
+    super();
+    this.h2 = new H2Rule();
+    this.rule = RuleChain.outerRule(this.h2).around(new LiquiunitRule(this.h2));
+  }
+
+  @Test
+  public void testClassSnapshotIsApplied() throws SQLException {
+    assertEquals(new HashSet<String>(Arrays.asList("demo", "eu")), this.getSettings());
+  }
+
+  @Snapshot(changeLogs = "matrix-changelog.xml", contexts = "production")
+  @Test
+  public void testMethodSnapshotIsApplied() throws SQLException {
+    assertEquals(new HashSet<String>(Arrays.asList("production", "eu", "us")), this.getSettings());
+  }
+
+  @Test
+  public void testCachedSnapshotsAreNotRebuilt() {
+    final SnapshotReuseReport report = new SnapshotReuseReport(2);
+    final Description a = Description.createTestDescription(A.class, "test");
+    final Description b = Description.createTestDescription(B.class, "test");
+    final Description c = Description.createTestDescription(C.class, "test");
+    report.testStarted(a);
+    report.testStarted(b);
+    report.testStarted(a);
+    report.testStarted(c);
+    report.testStarted(b);
+    assertEquals(5, report.getTestCount());
+    assertEquals(3, report.getSnapshotCount());
+    assertEquals(0, report.getReuseCount());
+    assertEquals(1, report.getRestoreCount());
+    assertEquals(1, report.getRebuildCount());
+  }
+
+  private final Set<String> getSettings() throws SQLException {
+    final Set<String> returnValue = new HashSet<String>();
+    final Connection c = this.h2.getConnection();
+    try {
+      final Statement s = c.createStatement();
+      try {
+        final ResultSet rs = s.executeQuery("SELECT NAME FROM SETTING");
+        while (rs.next()) {
+          returnValue.add(rs.getString(1));
+        }
+      } finally {
+        s.close();
+      }
+    } finally {
+      c.close();
+    }
+    return returnValue;
+  }
+
+  @Snapshot(contexts = "a")
+  public static final class A {
+
+  }
+
+  @Snapshot(contexts = "b")
+  public static final class B {
+
+  }
+
+  @Snapshot(contexts = "c")
+  public static final class C {
+
+  }
+
+}
@@ -0,0 +1,100 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import org.junit.internal.builders.AllDefaultPossibilitiesBuilder;
+
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Request;
+import org.junit.runner.Result;
+
+import org.junit.runners.Suite.SuiteClasses;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseSnapshotAffinitySuite {
+
+  private static final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+  @Test
+  public void testTestsAreGroupedBySnapshot() throws Exception {
+    final SnapshotAffinitySuite suite = new SnapshotAffinitySuite(AllTests.class, new AllDefaultPossibilitiesBuilder(true));
+    final Result result = new JUnitCore().run(Request.runner(suite));
+    assertTrue(String.valueOf(result.getFailures()), result.wasSuccessful());
+    assertEquals(Arrays.asList("A.test", "C.test", "B.test"), order);
+    final SnapshotReuseReport report = suite.getReport();
+    assertEquals(3, report.getTestCount());
+    assertEquals(2, report.getSnapshotCount());
+    assertEquals(1, report.getReuseCount());
+    assertEquals(0, report.getRebuildCount());
+  }
+
+  @SuiteClasses({ A.class, B.class, C.class })
+  public static final class AllTests {
+
+  }
+
+  @Snapshot(contexts = "a")
+  public static final class A {
+
+    @Test
+    public void test() {
+      order.add("A.test");
+    }
+
+  }
+
+  @Snapshot(contexts = "b")
+  public static final class B {
+
+    @Test
+    public void test() {
+      order.add("B.test");
+    }
+
+  }
+
+  @Snapshot(contexts = "a")
+  public static final class C {
+
+    @Test
+    public void test() {
+      order.add("C.test");
+    }
+
+  }
+
+}
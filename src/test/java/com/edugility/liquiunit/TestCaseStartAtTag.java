@@ -0,0 +1,146 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.liquiunit;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+
+import org.junit.runner.Description;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@StartAtTag("1.0")
+public class TestCaseStartAtTag {
+
+  private final H2Rule h2;
+
+  @Rule
+  public final TestRule rule;
+
+  public TestCaseStartAtTag() {
+    super();
+    this.h2 = new H2Rule();
+    final LiquiunitRule liquibase = new LiquiunitRule(this.h2);
+    liquibase.setChangeLogResourceNames(Collections.singleton("tagged-changelog.xml"));
+    this.rule = RuleChain.outerRule(this.h2).around(liquibase);
+  }
+
+  @Test
+  public void testClassTag() throws SQLException {
+    final Connection c = this.h2.getConnection();
+    try {
+      assertEquals(1, count(c, "CUSTOMER"));
+      assertFalse(hasColumn(c, "CUSTOMER", "EMAIL"));
+      assertFalse(hasColumn(c, "INVOICE", "ID"));
+      assertEquals(3, count(c, "DATABASECHANGELOG"));
+    } finally {
+      c.close();
+    }
+  }
+
+  @StartAtTag("2.0")
+  @Test
+  public void testMethodTag() throws SQLException {
+    final Connection c = this.h2.getConnection();
+    try {
+      assertTrue(hasColumn(c, "CUSTOMER", "EMAIL"));
+      assertFalse(hasColumn(c, "INVOICE", "ID"));
+    } finally {
+      c.close();
+    }
+  }
+
+  @StartAtTag(value = "1.0", migrate = true)
+  @Test
+  public void testMigrateFromTag() throws SQLException {
+    final Connection c = this.h2.getConnection();
+    try {
+      assertEquals(1, count(c, "CUSTOMER"));
+      assertTrue(hasColumn(c, "CUSTOMER", "EMAIL"));
+      assertTrue(hasColumn(c, "INVOICE", "ID"));
+      assertEquals(6, count(c, "DATABASECHANGELOG"));
+    } finally {
+      c.close();
+    }
+  }
+
+  @Test
+  public void testLinkedReferenceDataSurvives() throws Throwable {
+    final H2Rule h2 = new H2Rule();
+    final LiquiunitRule liquibase = new LiquiunitRule(h2);
+    liquibase.setChangeLogResourceNames(Collections.singleton("tagged-changelog.xml"));
+    final TestRule chain = RuleChain.outerRule(h2)
+      .around(new ReferenceDataRule(h2, ReferenceData.getInstance("reference-changelog.xml", "reference-data.xml")))
+      .around(liquibase);
+    chain.apply(new org.junit.runners.model.Statement() {
+        @Override
+        public final void evaluate() throws SQLException {
+          final Connection c = h2.getConnection();
+          try {
+            assertEquals(1, count(c, "CUSTOMER"));
+            assertEquals(2, count(c, "COUNTRY"));
+          } finally {
+            c.close();
+          }
+        }
+      }, Description.createTestDescription(TestCaseStartAtTag.class, "referenceData")).evaluate();
+  }
+
+  private static final int count(final Connection c, final String tableName) throws SQLException {
+    final Statement s = c.createStatement();
+    try {
+      final ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM " + tableName);
+      assertTrue(rs.next());
+      return rs.getInt(1);
+    } finally {
+      s.close();
+    }
+  }
+
+  private static final boolean hasColumn(final Connection c, final String tableName, final String columnName) throws SQLException {
+    final ResultSet rs = c.getMetaData().getColumns(null, null, tableName, columnName);
+    try {
+      return rs.next();
+    } finally {
+      rs.close();
+    }
+  }
+
+}